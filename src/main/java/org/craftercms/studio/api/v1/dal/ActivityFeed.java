@@ -0,0 +1,73 @@
+/*
+ * Crafter Studio Web-content authoring solution
+ * Copyright (C) 2007-2017 Crafter Software Corporation.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.studio.api.v1.dal;
+
+import java.io.Serializable;
+import java.time.ZonedDateTime;
+
+/**
+ * Latest activity of a user on a content item, with the fields shown by the activity dashboard already extracted
+ * from the summary.
+ */
+public class ActivityFeed implements Serializable {
+
+    private static final long serialVersionUID = -3420837515532096212L;
+
+    protected long id;
+    protected String site;
+    protected String userId;
+    protected String contentId;
+    protected String type;
+    protected String contentType;
+    protected String internalName;
+    protected String browserUri;
+    protected String summary;
+    protected ZonedDateTime modifiedDate;
+
+    public long getId() { return id; }
+    public void setId(long id) { this.id = id; }
+
+    public String getSite() { return site; }
+    public void setSite(String site) { this.site = site; }
+
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+
+    public String getContentId() { return contentId; }
+    public void setContentId(String contentId) { this.contentId = contentId; }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public String getContentType() { return contentType; }
+    public void setContentType(String contentType) { this.contentType = contentType; }
+
+    public String getInternalName() { return internalName; }
+    public void setInternalName(String internalName) { this.internalName = internalName; }
+
+    public String getBrowserUri() { return browserUri; }
+    public void setBrowserUri(String browserUri) { this.browserUri = browserUri; }
+
+    public String getSummary() { return summary; }
+    public void setSummary(String summary) { this.summary = summary; }
+
+    public ZonedDateTime getModifiedDate() { return modifiedDate; }
+    public void setModifiedDate(ZonedDateTime modifiedDate) { this.modifiedDate = modifiedDate; }
+
+}
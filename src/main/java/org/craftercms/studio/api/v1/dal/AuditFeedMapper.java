@@ -7,14 +7,24 @@ public interface AuditFeedMapper {
 
     AuditFeed getDeletedActivity(Map params);
 
-    List<AuditFeed> selectUserFeedEntries(Map params);
-
-    List<AuditFeed> selectUserFeedEntriesHideLive(Map params);
+    List<AuditFeed> getDeletedActivities(Map params);
 
     int getCountUserContentFeedEntries(Map params);
 
     long insertActivityFeed(AuditFeed feed);
 
+    void insertActivityFeeds(Map params);
+
+    List<ActivityFeed> selectActivityFeed(Map params);
+
+    void upsertActivityFeeds(Map params);
+
+    void renameActivityFeedContent(Map params);
+
+    void deleteActivityFeedContent(Map params);
+
+    void deleteActivityFeedForSite(Map params);
+
     void updateActivityFeed(AuditFeed feed);
 
     void renameContent(Map params);
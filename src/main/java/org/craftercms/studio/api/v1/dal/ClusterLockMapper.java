@@ -0,0 +1,37 @@
+/*
+ * Crafter Studio
+ * Copyright (C) 2007-2018 Crafter Software Corporation. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.studio.api.v1.dal;
+
+import java.util.List;
+import java.util.Map;
+
+public interface ClusterLockMapper {
+
+    int insertLock(Map params);
+
+    int deleteExpiredLock(Map params);
+
+    int renewLocks(Map params);
+
+    List<Long> getOwnedLocks(Map params);
+
+    int deleteLock(Map params);
+
+    int deleteExpiredLocks();
+}
@@ -36,6 +36,8 @@ public interface DependencyMapper {
 
     List<DependencyEntity> getDependenciesByType(Map params);
 
+    List<DependencyEntity> getDependenciesForSite(Map params);
+
     void deleteDependenciesForSite(Map params);
 
     void deleteDependenciesForSiteAndPath(Map params);
@@ -29,6 +29,7 @@ public class DeploymentSyncHistory implements Serializable {
     protected String environment;
     protected String path;
     protected String target;
+    protected String commitId;
     protected String username;
     protected String contentTypeClass;
 
@@ -50,6 +51,9 @@ public class DeploymentSyncHistory implements Serializable {
     public String getTarget() { return target; }
     public void setTarget(String target) { this.target = target; }
 
+    public String getCommitId() { return commitId; }
+    public void setCommitId(String commitId) { this.commitId = commitId; }
+
     public String getUser() { return username; }
     public void setUser(String username) { this.username = username; }
 
@@ -25,10 +25,18 @@ public interface ItemMetadataMapper {
 
     ItemMetadata getProperties(Map params);
 
+    List<ItemMetadata> getPropertiesForPaths(Map params);
+
     void setProperties(Map params);
 
     void insertEntry(Map params);
 
+    void insertEntries(Map params);
+
+    void insertItems(Map params);
+
+    void updateItems(Map params);
+
     int countEntries(Map params);
 
     void deleteEntry(Map params);
@@ -30,6 +30,8 @@ public interface ItemStateMapper {
 
     void deleteObjectState(String objectId);
 
+    ItemState getObjectStateById(String objectId);
+
     ItemState getObjectStateBySiteAndPath(Map params);
 
     void setSystemProcessingBySiteAndPath(Map params);
@@ -38,8 +40,14 @@ public interface ItemStateMapper {
 
     void insertEntry(ItemState itemState);
 
+    int insertEntryIfLockHeld(Map params);
+
+    void insertEntries(Map params);
+
     void setObjectState(ItemState itemState);
 
+    int setObjectStateIfLockHeld(Map params);
+
     List<ItemState> getObjectStateForSiteAndPaths(Map params);
 
     void setObjectStateForSiteAndPaths(Map params);
@@ -54,6 +62,8 @@ public interface ItemStateMapper {
 
     int isFolderLive(Map<String, Object> params);
 
+    List<String> getLiveFolders(Map<String, Object> params);
+
     void setStateForSiteContent(Map params);
 
     List<ItemState> getChangeSetForSubtree(Map params);
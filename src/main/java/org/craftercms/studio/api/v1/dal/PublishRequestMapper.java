@@ -36,6 +36,8 @@ public interface PublishRequestMapper {
 
     void updateItemDeploymentState(PublishRequest item);
 
+    void updateItemsDeploymentState(Map params);
+
     void deleteDeploymentDataForSite(Map params);
 
     PublishRequest checkPublishingStatus(Map params);
@@ -0,0 +1,62 @@
+/*
+ * Crafter Studio Web-content authoring solution
+ * Copyright (C) 2007-2017 Crafter Software Corporation.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.studio.api.v1.dal;
+
+import java.io.Serializable;
+import java.time.ZonedDateTime;
+
+/**
+ * Last publishing of an item to an environment
+ */
+public class PublishedItem implements Serializable {
+
+    private static final long serialVersionUID = 2950128174806551390L;
+
+    private String site;
+    private String path;
+    private String environment;
+    private String commitId;
+    private ZonedDateTime publishedDate;
+
+    public PublishedItem() {
+    }
+
+    public PublishedItem(String site, String path, String environment, String commitId, ZonedDateTime publishedDate) {
+        this.site = site;
+        this.path = path;
+        this.environment = environment;
+        this.commitId = commitId;
+        this.publishedDate = publishedDate;
+    }
+
+    public String getSite() { return site; }
+    public void setSite(String site) { this.site = site; }
+
+    public String getPath() { return path; }
+    public void setPath(String path) { this.path = path; }
+
+    public String getEnvironment() { return environment; }
+    public void setEnvironment(String environment) { this.environment = environment; }
+
+    public String getCommitId() { return commitId; }
+    public void setCommitId(String commitId) { this.commitId = commitId; }
+
+    public ZonedDateTime getPublishedDate() { return publishedDate; }
+    public void setPublishedDate(ZonedDateTime publishedDate) { this.publishedDate = publishedDate; }
+}
@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Crafter Studio Web-content authoring solution
+ *     Copyright (C) 2007-2016 Crafter Software Corporation.
+ * 
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.craftercms.studio.api.v1.exception;
+
+/**
+ * Thrown to the holder of a lock when its lease was lost, for example because it expired and another node took it.
+ * Writes guarded by the lock must not go on after this.
+ */
+public class LockLostException extends RuntimeException {
+
+	protected static final long serialVersionUID = -2284526911283564390L;
+
+	protected String objectId;
+
+	public LockLostException(String objectId, String message) {
+		super(message);
+		this.objectId = objectId;
+	}
+
+	public String getObjectId() {
+		return objectId;
+	}
+}
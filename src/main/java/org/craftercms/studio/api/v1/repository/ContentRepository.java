@@ -33,8 +33,11 @@ import org.craftercms.studio.api.v1.to.RepoOperationTO;
 import org.craftercms.studio.api.v1.to.VersionTO;
 
 import java.io.InputStream;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * This interface represents the repository layer of Crafter Studio.  All interaction with the backend
@@ -53,6 +56,15 @@ public interface ContentRepository {
      */
     boolean contentExists(String site, String path);
 
+    /**
+     * check which of the given paths exist, all of them are looked up in the same snapshot of the repository
+     *
+     * @param site site id where the operation will be executed
+     * @param paths paths to check
+     * @return paths that exist
+     */
+    Set<String> getExistingPaths(String site, Collection<String> paths);
+
     /**
      * get document from wcm content
      *
@@ -71,6 +83,34 @@ public interface ContentRepository {
      */
     long getContentSize(String site, String path);
 
+    /**
+     * get id of the stored object holding the content, the id changes whenever the content changes
+     *
+     * @param site site id where the operation will be executed
+     * @param path path to content
+     * @return object id, null if content does not exist or is a folder
+     */
+    String getContentObjectId(String site, String path);
+
+    /**
+     * get ids of the stored objects holding the content of the given paths, all of them are looked up in the same
+     * snapshot of the repository
+     *
+     * @param site site id where the operation will be executed
+     * @param paths paths to content
+     * @return object id by path, paths that do not exist or are folders are not included
+     */
+    Map<String, String> getContentObjectIds(String site, Collection<String> paths);
+
+    /**
+     * get content of a stored object
+     *
+     * @param site     site id where the operation will be executed
+     * @param objectId object id as returned by {@link #getContentObjectId(String, String)}
+     * @return content stream
+     */
+    InputStream getContentByObjectId(String site, String objectId) throws ContentNotFoundException;
+
     /**
      * write content
      *
@@ -276,6 +316,41 @@ public interface ContentRepository {
      */
     List<RepoOperationTO> getOperations(String site, String commitIdFrom, String commitIdTo);
 
+    /**
+     * Get the net operations between two commits with a single diff of their trees, moves are detected as renames.
+     * Each operation is attributed to the last commit of the range that changed its path (commit id, author and
+     * date), operations come grouped by commit in chronological order
+     *
+     * @param site         site to use
+     * @param commitIdFrom commit ID to start at, empty to start from an empty repository
+     * @param commitIdTo   commit ID to end at
+     * @return list of operations
+     */
+    List<RepoOperationTO> getOperationsFromDelta(String site, String commitIdFrom, String commitIdTo);
+
+    /**
+     * Get ids of all commits between two commits in chronological order
+     *
+     * @param site         site id
+     * @param commitIdFrom range from commit id (exclusive), empty to start from the first commit
+     * @param commitIdTo   range to commit id (inclusive)
+     * @return list of commit ids
+     */
+    List<String> getCommitIds(String site, String commitIdFrom, String commitIdTo);
+
+    /**
+     * Walk all files in the tree of a commit and hand them over in batches as create operations attributed to that
+     * commit, the tree is streamed so it is never held in memory as a whole
+     *
+     * @param site          site id
+     * @param commitId      commit to walk
+     * @param batchSize     maximum number of operations per batch
+     * @param batchConsumer consumer of the batches
+     * @return true if the whole tree was walked, otherwise false
+     */
+    boolean walkTreeOperations(String site, String commitId, int batchSize,
+                               Consumer<List<RepoOperationTO>> batchConsumer);
+
     /**
      * Get last commit id from repository for given site.
      *
@@ -321,6 +396,15 @@ public interface ContentRepository {
      */
     GitLog getGitLog(String siteId, String commitId);
 
+    /**
+     * Get git log objects for a list of commits from database
+     *
+     * @param siteId    site id
+     * @param commitIds commit IDs
+     * @return git log objects of the commits found in database
+     */
+    List<GitLog> getGitLogs(String siteId, List<String> commitIds);
+
     /**
      * Insert Git Log
      *
@@ -330,6 +414,15 @@ public interface ContentRepository {
      */
     void insertGitLog(String siteId, String commitId, int processed);
 
+    /**
+     * Insert Git Log for a list of commits
+     *
+     * @param siteId    site
+     * @param commitIds commit IDs
+     * @param processed processed
+     */
+    void insertGitLogs(String siteId, List<String> commitIds, int processed);
+
     /**
      * Insert Full Git Log
      *
@@ -346,6 +439,14 @@ public interface ContentRepository {
      */
     void markGitLogVerifiedProcessed(String siteId, String commitId);
 
+    /**
+     * Mark Git log of a list of commits as verified, commits that are not in the Git log yet are inserted
+     *
+     * @param siteId    site identifier
+     * @param commitIds commit IDs
+     */
+    void markGitLogsVerifiedProcessed(String siteId, List<String> commitIds);
+
     /**
      * Delete Git log for site
      *
@@ -26,4 +26,23 @@ public interface GeneralLockService {
     void unlock(String objectId);
 
     boolean tryLock(String objectId);
+
+    /**
+     * Get the fencing token of the lock held by the current thread. Writes guarded by the lock pass the token to the
+     * database, which rejects them once the lock has been taken by someone else.
+     *
+     * @param objectId id of the lock
+     * @return fencing token, null if locks are not shared with other nodes
+     * @throws org.craftercms.studio.api.v1.exception.LockLostException if the current thread no longer holds the lock
+     */
+    Long getFencingToken(String objectId);
+
+    /**
+     * Make sure the current thread still holds the lock, to be called before writes guarded by the lock that can't
+     * pass its fencing token along.
+     *
+     * @param objectId id of the lock
+     * @throws org.craftercms.studio.api.v1.exception.LockLostException if the current thread no longer holds the lock
+     */
+    void checkLockHeld(String objectId);
 }
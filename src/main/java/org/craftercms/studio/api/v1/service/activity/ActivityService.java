@@ -23,6 +23,7 @@ import org.craftercms.studio.api.v1.exception.ServiceException;
 import org.craftercms.studio.api.v1.exception.SiteNotFoundException;
 import org.craftercms.studio.api.v1.to.ContentItemTO;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -61,6 +62,26 @@ public interface ActivityService {
 	 */
 	void postActivity(String site, String user, String key, ActivityType activity, ActivitySource source, Map<String, String> extraInfo);
 
+	/**
+	 * create an activity without posting it, see {@link #postActivities(List)}
+	 *
+	 * @param site
+	 * @param user
+	 * @param key
+	 * 			identifies the content that this activity is related to
+	 * @param activity
+	 * @return the activity to post
+	 */
+	AuditFeed createActivity(String site, String user, String key, ActivityType activity, ActivitySource source, Map<String, String> extraInfo);
+
+	/**
+	 * post a list of activities with a single insert, the activities are written right away in the current
+	 * transaction
+	 *
+	 * @param activities activities created with {@link #createActivity}
+	 */
+	void postActivities(List<AuditFeed> activities);
+
 	void renameContentId(String site, String oldUrl, String newUrl);
 
 	/**
@@ -88,6 +109,15 @@ public interface ActivityService {
 
 	AuditFeed getDeletedActivity(String site, String path);
 
+	/**
+	 * Get the latest activity for each of the given deleted contents
+	 *
+	 * @param site - site id
+	 * @param paths - paths of the contents
+	 * @return latest delete activity by path, paths without one are not included
+	 */
+	Map<String, AuditFeed> getDeletedActivities(String site, Collection<String> paths);
+
 	void deleteActivitiesForSite(String site);
 
     /**
@@ -18,6 +18,7 @@
 package org.craftercms.studio.api.v1.service.content;
 
 import java.io.InputStream;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -151,6 +152,15 @@ public interface ContentService {
      */
     ContentItemTO getContentItem(String site, String path, int depth);
 
+    /**
+     * get the content items (metadata) at the given paths without descendents, loading them in batches
+     *
+     * @param site - the project ID
+     * @param paths - the paths of the content items
+     * @return content items by path, paths that don't exist are not included
+     */
+    Map<String, ContentItemTO> getContentItems(String site, Collection<String> paths);
+
     /**
      * get the version history for an item
      *
@@ -226,6 +236,15 @@ public interface ContentService {
 
     String getContentTypeClass(String site, String uri);
 
+    /**
+     * Get the content type class of multiple items, the site patterns are read once for all of them
+     *
+     * @param site site id
+     * @param uris paths of the items
+     * @return content type class of each path
+     */
+    Map<String, String> getContentTypeClasses(String site, Collection<String> uris);
+
     ResultTO processContent(String id, InputStream input, boolean isXml, Map<String, String> params, String contentChainForm) throws ServiceException;
 
     GoLiveDeleteCandidates getDeleteCandidates(String site, String uri) throws ServiceException;
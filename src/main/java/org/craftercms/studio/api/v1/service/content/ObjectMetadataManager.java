@@ -27,10 +27,40 @@ public interface ObjectMetadataManager {
 
     void insertNewObjectMetadata(String site, String path);
 
+    /**
+     * Insert metadata for items that have no metadata yet with a single statement
+     *
+     * @param site site id
+     * @param paths paths of the items
+     * @param properties modifier, modified and commit id set for all items
+     */
+    void insertNewObjectMetadata(String site, List<String> paths, Map<String, Object> properties);
+
     void setObjectMetadata(String site, String path, Map<String, Object> properties);
 
+    /**
+     * Insert the metadata of multiple items that have none yet with a single statement
+     *
+     * @param site site id
+     * @param properties path, modifier, modified date and commit id of each item
+     */
+    void insertObjectMetadataBulk(String site, List<Map<String, Object>> properties);
+
+    /**
+     * Set modifier, modified date and commit id of multiple items with a single statement
+     *
+     * @param site site id
+     * @param properties path, modifier, modified date and commit id of each item
+     */
+    void updateObjectMetadataBulk(String site, List<Map<String, Object>> properties);
+
     ItemMetadata getProperties(String site, String path);
 
+    /**
+     * Get metadata of multiple items with as few queries as possible, items without metadata are not returned
+     */
+    List<ItemMetadata> getPropertiesForPaths(String site, List<String> paths);
+
     boolean metadataExist(String site, String path);
 
     boolean isRenamed(String site, String path);
@@ -18,6 +18,7 @@
 package org.craftercms.studio.api.v1.service.dependency;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.craftercms.studio.api.v1.exception.ContentNotFoundException;
@@ -59,6 +60,27 @@ public interface DependencyService {
 	 */
 	Set<String> upsertDependencies(String site, List<String> paths) throws SiteNotFoundException, ContentNotFoundException, ServiceException;
 
+	/**
+	 * Scan a list of items for direct dependencies without writing them
+	 * to the database, safe to call from any thread.
+	 *
+	 * @param site Site to operate on
+	 * @param paths List of paths to items to scan
+	 * @return dependencies by type for each item, items that failed to be scanned are not included
+	 */
+	Map<String, Map<String, Set<String>>> resolveDependencies(String site, List<String> paths);
+
+	/**
+	 * Replace the dependencies of a list of items in the database with
+	 * dependencies already resolved by {@link #resolveDependencies(String, List)}.
+	 * Runs in the current transaction, callers are expected to start one.
+	 *
+	 * @param site Site to operate on
+	 * @param dependencies dependencies by type for each item
+	 * @return dependencies found
+	 */
+	Set<String> upsertResolvedDependencies(String site, Map<String, Map<String, Set<String>>> dependencies);
+
 	/**
 	 * Get a all publishing dependencies of a list of items. A publishing
 	 * dependency is:
@@ -22,7 +22,9 @@ import org.craftercms.studio.api.v1.dal.DeploymentSyncHistory;
 import org.craftercms.studio.api.v1.util.filter.DmFilterWrapper;
 
 import java.time.ZonedDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface DeploymentHistoryProvider {
 
@@ -46,4 +48,20 @@ public interface DeploymentHistoryProvider {
      * @return last deployment date or null if never deployed
      */
     ZonedDateTime getLastDeploymentDate(String site, String path);
+
+    /**
+     * Get last deployment date time for given site and paths
+     *
+     * @param site site id
+     * @param paths paths
+     * @return last deployment date of each path, paths never deployed are not included
+     */
+    Map<String, ZonedDateTime> getLastDeploymentDates(String site, Collection<String> paths);
+
+    /**
+     * Rebuild the deployment history and the last deployment dates of given site from the environment branches
+     *
+     * @param site site id
+     */
+    void rebuildDeploymentHistory(String site);
 }
@@ -26,6 +26,7 @@ import org.craftercms.studio.api.v1.exception.security.AuthenticationException;
 import org.craftercms.studio.api.v1.to.*;
 
 import java.time.ZonedDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -81,6 +82,15 @@ public interface DeploymentService {
      */
     ZonedDateTime getLastDeploymentDate(String site, String path);
 
+    /**
+     * Get last deployment date time for given site and paths
+     *
+     * @param site site id
+     * @param paths paths
+     * @return last deployment date of each path, paths never deployed are not included
+     */
+    Map<String, ZonedDateTime> getLastDeploymentDates(String site, Collection<String> paths);
+
     /**
      * Get publish status for given site
      * @param site site id
@@ -31,6 +31,12 @@ public interface PublishingManager {
 
     List<PublishRequest> getItemsReadyForDeployment(String site, String environment);
 
+    /**
+     * Get the items ready for deployment, oldest scheduled first, stopping after the package that holds the item
+     * number limit. Packages are never split, so the result can have more than limit items.
+     */
+    List<PublishRequest> getItemsReadyForDeployment(String site, String environment, int limit);
+
     DeploymentItemTO processItem(PublishRequest item) throws DeploymentException;
 
     void markItemsCompleted(String site, String environment, List<PublishRequest> processedItems) throws DeploymentException;
@@ -29,6 +29,11 @@ public interface EventService {
 
     void publish(String event, Object... args);
 
+    /**
+     * Publish the event and return once all listeners are done with it
+     */
+    void publishSync(String event, Object... args);
+
     void subscribe(String event, String listener, Method method);
 
     void unSubscribe(String event, String listener);
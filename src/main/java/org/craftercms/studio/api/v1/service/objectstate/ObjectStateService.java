@@ -21,7 +21,9 @@ package org.craftercms.studio.api.v1.service.objectstate;
 import org.craftercms.studio.api.v1.dal.ItemState;
 import org.craftercms.studio.api.v1.to.ContentItemTO;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 public interface ObjectStateService {
 
@@ -35,10 +37,23 @@ public interface ObjectStateService {
 
     void insertNewEntry(String site, String path);
 
+    /**
+     * Insert new entries for items that have no state yet with a single statement
+     *
+     * @param site site id
+     * @param paths paths of the items
+     */
+    void insertNewEntries(String site, List<String> paths);
+
     List<ItemState> getSubmittedItems(String site);
 
     ItemState getObjectState(String site, String path, boolean insert);
 
+    /**
+     * Get states of multiple items with as few queries as possible, items without state are not returned
+     */
+    List<ItemState> getObjectStatesForPaths(String site, List<String> paths);
+
     void setSystemProcessing(String site, String path, boolean isSystemProcessing);
 
     void setSystemProcessingBulk(String site, List<String> paths, boolean isSystemProcessing);
@@ -76,6 +91,15 @@ public interface ObjectStateService {
 
     boolean isFolderLive(String site, String uri);
 
+    /**
+     * Get which of the given folders have live content
+     *
+     * @param site site id
+     * @param folderPaths folder paths
+     * @return live folders
+     */
+    Set<String> getLiveFolders(String site, Collection<String> folderPaths);
+
     boolean isSubmitted(String site, String dep);
 
     void setStateForSiteContent(String site, State state);
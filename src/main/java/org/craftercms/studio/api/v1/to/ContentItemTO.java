@@ -230,15 +230,42 @@ public class ContentItemTO implements Serializable {
         this.parentPath = item.parentPath;
         this.orders = item.orders;
         this.mimeType = item.mimeType;
+        this.size = item.size;
+        this.sizeUnit = item.sizeUnit;
 
 		if (cloneChildren) {
-			if (item.children != null) {
-				this.children = new ArrayList<ContentItemTO>(item.children.size());
-				for (ContentItemTO child : item.children) {
-					this.children.add(new ContentItemTO(child));
+			this.children = cloneItems(item.children);
+			this.components = cloneItems(item.components);
+			this.documents = cloneItems(item.documents);
+			this.levelDescriptors = cloneItems(item.levelDescriptors);
+			this.pages = cloneItems(item.pages);
+			if (item.orders != null) {
+				this.orders = new ArrayList<DmOrderTO>(item.orders.size());
+				for (DmOrderTO order : item.orders) {
+					this.orders.add(new DmOrderTO(order));
 				}
 			}
+			if (item.renderingTemplates != null) {
+				this.renderingTemplates = new ArrayList<RenderingTemplateTO>(item.renderingTemplates.size());
+				for (RenderingTemplateTO template : item.renderingTemplates) {
+					RenderingTemplateTO copy = new RenderingTemplateTO();
+					copy.uri = template.uri;
+					copy.name = template.name;
+					this.renderingTemplates.add(copy);
+				}
+			}
+		}
+	}
+
+	private static List<ContentItemTO> cloneItems(List<ContentItemTO> items) {
+		if (items == null) {
+			return null;
+		}
+		List<ContentItemTO> toRet = new ArrayList<ContentItemTO>(items.size());
+		for (ContentItemTO item : items) {
+			toRet.add(new ContentItemTO(item, true));
 		}
+		return toRet;
 	}
 
 	public String getName() { return name; }
@@ -21,6 +21,8 @@ import java.io.Serializable;
 import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 import org.dom4j.Document;
 import org.dom4j.Node;
@@ -45,6 +47,8 @@ public class PermissionsConfigTO implements TimeStamped, Serializable {
 	
 	protected Map<String, List<String>> roles = null;
 	protected Map<String, Map<String, List<Node>>> permissions = null;
+	/** permission rules per site and role, compiled from the permissions nodes **/
+	protected Map<String, Map<String, List<PermissionRule>>> rules = null;
 	
 	@Override
 	public void setLastUpdated(ZonedDateTime lastUpdated) {
@@ -87,4 +91,40 @@ public class PermissionsConfigTO implements TimeStamped, Serializable {
 	public void setPermissions(Map<String, Map<String, List<Node>>> permissions) {
 		this.permissions = permissions;
 	}
+
+	public Map<String, Map<String, List<PermissionRule>>> getRules() {
+		return rules;
+	}
+
+	public void setRules(Map<String, Map<String, List<PermissionRule>>> rules) {
+		this.rules = rules;
+	}
+
+	/**
+	 * Permission rule with its path regular expression already compiled
+	 */
+	public static class PermissionRule implements Serializable {
+
+		private static final long serialVersionUID = 4424153513390390476L;
+
+		protected final Pattern regex;
+		protected final Set<String> allowedPermissions;
+
+		public PermissionRule(Pattern regex, Set<String> allowedPermissions) {
+			this.regex = regex;
+			this.allowedPermissions = allowedPermissions;
+		}
+
+		public Pattern getRegex() {
+			return regex;
+		}
+
+		public Set<String> getAllowedPermissions() {
+			return allowedPermissions;
+		}
+
+		public boolean matches(String path) {
+			return regex.matcher(path).matches();
+		}
+	}
 }
@@ -34,6 +34,10 @@ public interface StudioConfiguration {
     String BLUE_PRINTS_PATH = "studio.repo.blueprintsPath";
     String BOOTSTRAP_REPO = "studio.repo.bootstrapRepo";
     String REPO_REBUILD_METADATA_BATCH_SIZE = "studio.repo.rebuildMetadata.batchSize";
+    String REPO_REBUILD_METADATA_WORKER_POOL_SIZE = "studio.repo.rebuildMetadata.workerPoolSize";
+    String REPO_SYNC_DATABASE_BATCH_SIZE = "studio.repo.syncDatabase.batchSize";
+    String REPO_SYNC_DATABASE_PER_COMMIT_OPERATIONS = "studio.repo.syncDatabase.perCommitOperations";
+    String REPO_SYNC_DATABASE_WORKER_POOL_SIZE = "studio.repo.syncDatabase.workerPoolSize";
     String REPO_PUBLISHED_COMMIT_MESSAGE = "studio.repo.published.commitMessage";
 
     /** Database */
@@ -105,10 +109,28 @@ public interface StudioConfiguration {
     /** Dependencies Service */
     String DEPENDENCIES_IGNORE_DEPENDENCIES_RULES = "studio.dependencies.ignoreDependenciesRules";
     String DEPENDENCIES_MANUAL_DEPENDENCY_APPROVING_ENABLED = "studio.dependencies.manualDependencyApproving.enabled";
+    String DEPENDENCIES_INDEX_ENABLED = "studio.dependencies.index.enabled";
+    String DEPENDENCIES_INDEX_TIME_TO_LIVE = "studio.dependencies.index.timeToLive";
+
+    /** Content Service */
+    String CONTENT_ITEM_CACHE_ENABLED = "studio.content.itemCache.enabled";
+    String CONTENT_ITEM_CACHE_MAX_ITEMS_PER_SITE = "studio.content.itemCache.maxItemsPerSite";
+    String CONTENT_TYPE_CACHE_MAX_ITEMS_PER_SITE = "studio.content.contentTypeCache.maxItemsPerSite";
+    String CONTENT_DOCUMENT_CACHE_MAX_ITEMS = "studio.content.documentCache.maxItems";
 
     /** Object State Service */
     String OBJECT_STATE_BULK_OPERATIONS_BATCH_SIZE = "studio.objectState.bulkOperationsBatchSize";
 
+    /** Object Metadata Manager */
+    String OBJECT_METADATA_BULK_OPERATIONS_BATCH_SIZE = "studio.objectMetadata.bulkOperationsBatchSize";
+
+    /** General Lock Service */
+    String CLUSTER_LOCK_ENABLED = "studio.lock.cluster.enabled";
+    String CLUSTER_LOCK_LEASE_TIME = "studio.lock.cluster.leaseTime";
+    String CLUSTER_LOCK_RETRY_INTERVAL = "studio.lock.cluster.retryInterval";
+    String CLUSTER_LOCK_POOL_MAX_ACTIVE_CONNECTIONS = "studio.lock.cluster.pool.maxActiveConnections";
+    String CLUSTER_LOCK_POOL_MAX_WAIT_TIME = "studio.lock.cluster.pool.maxWaitTime";
+
     /** Security Service */
     String SECURITY_SESSION_TIMEOUT = "studio.security.sessionTimeout";
     String SECURITY_PUBLIC_URLS = "studio.security.publicUrls";
@@ -123,6 +145,8 @@ public interface StudioConfiguration {
     String SECURITY_FORGOT_PASSWORD_TOKEN_TIMEOUT = "studio.security.forgotPassword.token.timeout";
     String SECURITY_RESET_PASSWORD_SERVICE_URL = "studio.security.resetPassword.serviceUrl";
     String SECURITY_GLOBAL_ADMIN_GROUP = "studio.security.global.adminGroup";
+    String SECURITY_PERMISSIONS_CACHE_MAX_ITEMS = "studio.security.permissionsCache.maxItems";
+    String SECURITY_USER_GROUPS_CACHE_TIME_TO_LIVE = "studio.security.userGroupsCache.timeToLive";
 
     /** LDAP */
     String SECURITY_LDAP_SERVER_URL = "studio.security.ldap.serverUrl";
@@ -169,6 +193,7 @@ public interface StudioConfiguration {
 
     /** Jobs */
     String JOB_DEPLOY_CONTENT_TO_ENVIRONMENT_PROCESSING_CHUNK_SIZE = "studio.job.deployContentToEnvironment.processingChunkSize";
+    String JOB_DEPLOY_CONTENT_TO_ENVIRONMENT_WORKER_POOL_SIZE = "studio.job.deployContentToEnvironment.workerPoolSize";
     String JOB_DEPLOY_CONTENT_TO_ENVIRONMENT_MANDATORY_DEPENDENCIES_CHECK_ENABLED = "studio.job.deployContentToEnvironment.mandatoryDependenciesCheckEnabled";
     String JOB_DEPLOY_CONTENT_TO_ENVIRONMENT_STATUS_MESSAGE_DEFAULT = "studio.job.deployContentToEnvironment.status.message.default";
     String JOB_DEPLOY_CONTENT_TO_ENVIRONMENT_STATUS_MESSAGE_IDLE = "studio.job.deployContentToEnvironment.status.message.idle";
@@ -192,6 +217,9 @@ public interface StudioConfiguration {
     String PREVIEW_TEMPLATE_NAME = "studio.preview.templateName";
     String PREVIEW_REPO_URL = "studio.preview.repoUrl";
     String PREVIEW_ENGINE_URL = "studio.preview.engineUrl";
+    String PREVIEW_SYNC_QUIET_PERIOD = "studio.preview.sync.quietPeriod";
+    String PREVIEW_SYNC_MAX_DELAY = "studio.preview.sync.maxDelay";
+    String PREVIEW_SYNC_POOL_SIZE = "studio.preview.sync.poolSize";
 
     /** Preview Search **/
     String PREVIEW_SEARCH_CREATE_URL = "studio.preview.search.createUrl";
@@ -200,6 +228,13 @@ public interface StudioConfiguration {
     /** Publishing Manager */
     String PUBLISHING_MANAGER_INDEX_FILE = "studio.publishingManager.indexFile";
     String PUBLISHING_MANAGER_PUBLISHING_WITHOUT_DEPENDENCIES_ENABLED = "studio.publishingManager.publishingWithoutDependencies.enabled";
+    String PUBLISHING_MANAGER_BULK_OPERATIONS_BATCH_SIZE = "studio.publishingManager.bulkOperationsBatchSize";
+
+    /** Event Service */
+    String EVENT_SERVICE_ASYNC_ENABLED = "studio.eventService.async.enabled";
+    String EVENT_SERVICE_ASYNC_POOL_SIZE = "studio.eventService.async.poolSize";
+    String EVENT_SERVICE_ASYNC_QUEUE_CAPACITY = "studio.eventService.async.queueCapacity";
+    String EVENT_SERVICE_COALESCED_EVENTS = "studio.eventService.coalescedEvents";
 
     void loadConfig();
 
@@ -22,6 +22,7 @@ import org.craftercms.studio.api.v1.service.configuration.ServicesConfig;
 import org.craftercms.studio.api.v1.to.ContentItemTO;
 import org.craftercms.studio.impl.v1.util.ContentUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -82,7 +83,10 @@ public class DmFilterWrapperImpl implements DmFilterWrapper {
 
     protected List<String> getFilterPatterns(String site, String filterType) {
         if (CONTENT_TYPE_COMPONENT.equalsIgnoreCase(filterType)) {
-            List<String> toRet = servicesConfig.getComponentPatterns(site);
+            List<String> toRet = new ArrayList<String>();
+            List<String> componentConfig = servicesConfig.getComponentPatterns(site);
+            if(componentConfig!=null)
+            	toRet.addAll(componentConfig);
             List<String> levelConfig = servicesConfig.getLevelDescriptorPatterns(site);
             if(levelConfig!=null)
             	toRet.addAll(levelConfig);
@@ -43,10 +43,21 @@ import java.io.IOException;
 import java.lang.reflect.Method;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.craftercms.studio.api.v1.ebus.EBusConstants.EVENT_PREVIEW_SYNC;
 import static org.craftercms.studio.api.v1.util.StudioConfiguration.*;
 
+/**
+ * Preview deployer client. Preview sync requests are debounced per site: a request is only sent once no new one has
+ * arrived for a quiet period (but never later than a maximum delay after the first one), and a site never has more than
+ * one sync request in flight, requests arriving meanwhile are sent once the current one is done.
+ */
 public class PreviewDeployerImpl implements PreviewDeployer {
 
     private final static Logger logger = LoggerFactory.getLogger(PreviewDeployerImpl.class);
@@ -55,6 +66,10 @@ public class PreviewDeployerImpl implements PreviewDeployer {
 
     protected CloseableHttpClient httpClient;
 
+    protected ConcurrentMap<String, SiteSync> siteSyncs = new ConcurrentHashMap<String, SiteSync>();
+
+    protected ScheduledThreadPoolExecutor syncScheduler;
+
     public PreviewDeployerImpl() {
         RequestConfig requestConfig = RequestConfig.custom().setExpectContinueEnabled(true).build();
         httpClient = HttpClientBuilder.create()
@@ -63,6 +78,23 @@ public class PreviewDeployerImpl implements PreviewDeployer {
                         .build();
     }
 
+    public void init() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        syncScheduler = new ScheduledThreadPoolExecutor(getSyncPoolSize(), runnable -> {
+            Thread thread = new Thread(runnable, "studio-preview-sync-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncScheduler.setRemoveOnCancelPolicy(true);
+        subscribeToPreviewSyncEvents();
+    }
+
+    public void destroy() {
+        if (syncScheduler != null) {
+            syncScheduler.shutdownNow();
+        }
+    }
+
     public void subscribeToPreviewSyncEvents() {
         try {
             Method subscribeMethod = PreviewDeployerImpl.class.getMethod(METHOD_PREVIEW_SYNC_LISTENER, PreviewEventContext.class);
@@ -75,10 +107,112 @@ public class PreviewDeployerImpl implements PreviewDeployer {
     @EventListener(EVENT_PREVIEW_SYNC)
     public void onPreviewSync(PreviewEventContext context) {
         String site = context.getSite();
+        if (context.isWaitTillDeploymentIsDone() || syncScheduler == null || getSyncQuietPeriod() <= 0) {
+            syncNow(site, context.isWaitTillDeploymentIsDone());
+        } else {
+            requestSync(site);
+        }
+    }
+
+    /**
+     * Send the sync request right away, waiting for the one in flight if any. Pending requests are dropped since
+     * this one covers them.
+     */
+    protected void syncNow(String site, boolean waitTillDone) {
+        SiteSync siteSync = getSiteSync(site);
+        synchronized (siteSync) {
+            while (siteSync.inFlight) {
+                try {
+                    siteSync.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            siteSync.inFlight = true;
+            siteSync.cancelPending();
+            siteSync.requestedInFlight = false;
+        }
+        try {
+            sendSyncRequest(site, waitTillDone);
+        } finally {
+            finishSync(site, siteSync);
+        }
+    }
+
+    protected void requestSync(String site) {
+        SiteSync siteSync = getSiteSync(site);
+        synchronized (siteSync) {
+            long now = System.currentTimeMillis();
+            if (siteSync.inFlight) {
+                if (!siteSync.requestedInFlight) {
+                    siteSync.requestedInFlight = true;
+                    siteSync.firstRequestedAt = now;
+                }
+                return;
+            }
+            if (siteSync.pending == null) {
+                siteSync.firstRequestedAt = now;
+            }
+            scheduleSync(site, siteSync, now);
+        }
+    }
+
+    /**
+     * (Re)schedule the pending sync of the site, must be called while holding the monitor of the site sync
+     */
+    protected void scheduleSync(String site, SiteSync siteSync, long now) {
+        long delay = Math.min(getSyncQuietPeriod(), siteSync.firstRequestedAt + getSyncMaxDelay() - now);
+        siteSync.cancelPending();
+        final long generation = siteSync.generation;
+        logger.debug("Preview sync for site '{}' scheduled in {} ms", site, Math.max(0L, delay));
+        siteSync.pending = syncScheduler.schedule(() -> runPendingSync(site, siteSync, generation),
+                Math.max(0L, delay), TimeUnit.MILLISECONDS);
+    }
+
+    protected void runPendingSync(String site, SiteSync siteSync, long generation) {
+        synchronized (siteSync) {
+            if (generation != siteSync.generation) {
+                // Superseded by a later request
+                return;
+            }
+            siteSync.pending = null;
+            if (siteSync.inFlight) {
+                if (!siteSync.requestedInFlight) {
+                    siteSync.requestedInFlight = true;
+                    siteSync.firstRequestedAt = System.currentTimeMillis();
+                }
+                return;
+            }
+            siteSync.inFlight = true;
+        }
+        try {
+            sendSyncRequest(site, false);
+        } finally {
+            finishSync(site, siteSync);
+        }
+    }
+
+    protected void finishSync(String site, SiteSync siteSync) {
+        synchronized (siteSync) {
+            siteSync.inFlight = false;
+            siteSync.notifyAll();
+            if (siteSync.requestedInFlight) {
+                siteSync.requestedInFlight = false;
+                scheduleSync(site, siteSync, System.currentTimeMillis());
+            }
+        }
+    }
+
+    protected SiteSync getSiteSync(String site) {
+        return siteSyncs.computeIfAbsent(site, key -> new SiteSync());
+    }
+
+    protected void sendSyncRequest(String site, boolean waitTillDone) {
         String requestUrl = getDeployTargetUrl(site);
         HttpPost postRequest = new HttpPost(requestUrl);
 
-        if (context.isWaitTillDeploymentIsDone()) {
+        if (waitTillDone) {
             String requestBody = getDeployTargetRequestBody(true);
             HttpEntity requestEntity = new StringEntity(requestBody, ContentType.APPLICATION_JSON);
             postRequest.setEntity(requestEntity);
@@ -194,6 +328,18 @@ public class PreviewDeployerImpl implements PreviewDeployer {
         return url;
     }
 
+    public long getSyncQuietPeriod() {
+        return Long.parseLong(studioConfiguration.getProperty(PREVIEW_SYNC_QUIET_PERIOD));
+    }
+
+    public long getSyncMaxDelay() {
+        return Long.parseLong(studioConfiguration.getProperty(PREVIEW_SYNC_MAX_DELAY));
+    }
+
+    public int getSyncPoolSize() {
+        return Integer.parseInt(studioConfiguration.getProperty(PREVIEW_SYNC_POOL_SIZE));
+    }
+
     public StudioConfiguration getStudioConfiguration() { return studioConfiguration; }
     public void setStudioConfiguration(StudioConfiguration studioConfiguration) { this.studioConfiguration = studioConfiguration; }
 
@@ -207,6 +353,27 @@ public class PreviewDeployerImpl implements PreviewDeployer {
     protected EventService eventService;
     protected String beanName;
 
+    /**
+     * Sync state of a site, only accessed while holding its monitor
+     */
+    protected static class SiteSync {
+
+        protected ScheduledFuture<?> pending;
+        /** increased every time the pending sync is cancelled or replaced, so a sync that already fired can tell */
+        protected long generation;
+        protected long firstRequestedAt;
+        protected boolean inFlight;
+        protected boolean requestedInFlight;
+
+        protected void cancelPending() {
+            if (pending != null) {
+                pending.cancel(false);
+                pending = null;
+            }
+            generation++;
+        }
+    }
+
     protected class CreateTargetRequestBody {
 
         protected String environment;
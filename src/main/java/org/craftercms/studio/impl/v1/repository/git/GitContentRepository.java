@@ -35,16 +35,22 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.jar.Manifest;
 import javax.servlet.ServletContext;
 
@@ -54,6 +60,7 @@ import com.jcraft.jsch.Session;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.iterators.ReverseListIterator;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.craftercms.commons.crypto.CryptoException;
@@ -62,9 +69,12 @@ import org.craftercms.commons.crypto.impl.PbkAesTextEncryptor;
 import org.craftercms.commons.monitoring.VersionMonitor;
 import org.craftercms.studio.api.v1.constant.GitRepositories;
 import org.craftercms.studio.api.v1.constant.RepoOperation;
+import org.craftercms.studio.api.v1.dal.DeploymentHistoryMapper;
 import org.craftercms.studio.api.v1.dal.DeploymentSyncHistory;
 import org.craftercms.studio.api.v1.dal.GitLog;
 import org.craftercms.studio.api.v1.dal.GitLogMapper;
+import org.craftercms.studio.api.v1.dal.PublishedItem;
+import org.craftercms.studio.api.v1.dal.PublishedItemMapper;
 import org.craftercms.studio.api.v1.dal.RemoteRepository;
 import org.craftercms.studio.api.v1.dal.RemoteRepositoryMapper;
 import org.craftercms.studio.api.v1.exception.ContentNotFoundException;
@@ -78,6 +88,7 @@ import org.craftercms.studio.api.v1.log.Logger;
 import org.craftercms.studio.api.v1.log.LoggerFactory;
 import org.craftercms.studio.api.v1.repository.ContentRepository;
 import org.craftercms.studio.api.v1.repository.RepositoryItem;
+import org.craftercms.studio.api.v1.service.GeneralLockService;
 import org.craftercms.studio.api.v1.service.deployment.DeploymentException;
 import org.craftercms.studio.api.v1.service.deployment.DeploymentHistoryProvider;
 import org.craftercms.studio.api.v1.service.security.SecurityProvider;
@@ -87,7 +98,7 @@ import org.craftercms.studio.api.v1.to.RepoOperationTO;
 import org.craftercms.studio.api.v1.to.VersionTO;
 import org.craftercms.studio.api.v1.util.StudioConfiguration;
 import org.craftercms.studio.api.v1.util.filter.DmFilterWrapper;
-import org.eclipse.jgit.api.CheckoutCommand;
+import org.craftercms.studio.impl.v1.repository.git.GitContentRepositoryHelper.RepositoryLock;
 import org.eclipse.jgit.api.CreateBranchCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.PullCommand;
@@ -103,8 +114,10 @@ import org.eclipse.jgit.api.errors.InvalidRemoteException;
 import org.eclipse.jgit.api.errors.RefNotFoundException;
 import org.eclipse.jgit.api.errors.TransportException;
 import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.internal.storage.file.LockFile;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
@@ -116,8 +129,6 @@ import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.revwalk.filter.AndRevFilter;
-import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
 import org.eclipse.jgit.transport.JschConfigSessionFactory;
 import org.eclipse.jgit.transport.OpenSshConfig;
 import org.eclipse.jgit.transport.PushResult;
@@ -129,11 +140,19 @@ import org.eclipse.jgit.transport.SshTransport;
 import org.eclipse.jgit.transport.Transport;
 import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.web.context.ServletContextAware;
 
@@ -162,11 +181,15 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
     private TextEncryptor encryptor;
 
     private static final String IN_PROGRESS_BRANCH_NAME_SUFIX = "_in_progress";
+    private static final int PUBLISHED_ITEMS_BATCH_SIZE = 500;
     private static final String STUDIO_MANIFEST_LOCATION = "/META-INF/MANIFEST.MF";
+    private static final String DEPLOYMENT_INDEX_LOCK_SUFFIX = ":deploymentIndex";
 
     ServletContext ctx;
     SecurityProvider securityProvider;
     StudioConfiguration studioConfiguration;
+    GeneralLockService generalLockService;
+    TaskExecutor taskExecutor;
 
     @Autowired
     GitLogMapper gitLogMapper;
@@ -174,15 +197,30 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
     @Autowired
     RemoteRepositoryMapper remoteRepositoryMapper;
 
+    @Autowired
+    PublishedItemMapper publishedItemMapper;
+
+    @Autowired
+    DeploymentHistoryMapper deploymentHistoryMapper;
+
+    /** sites whose deployments are known to be indexed, a local cache of the deployment index markers */
+    private final Set<String> indexedPublishedSites = ConcurrentHashMap.newKeySet();
+    /** sites whose deployments are being indexed in the background by this node */
+    private final Set<String> indexingPublishedSites = ConcurrentHashMap.newKeySet();
+
     @Override
     public boolean contentExists(String site, String path) {
         boolean toReturn = false;
         Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL :
                 GitRepositories.SANDBOX);
 
+        RepositoryLock repositoryLock = helper.getRepositoryLock(repo);
+        repositoryLock.lockRead();
+        ObjectReader reader = null;
         try {
             RevTree tree = helper.getTreeForLastCommit(repo);
-            try (TreeWalk tw = TreeWalk.forPath(repo, helper.getGitPath(path), tree)) {
+            reader = helper.getObjectReader(repo);
+            try (TreeWalk tw = TreeWalk.forPath(reader, helper.getGitPath(path), tree)) {
                 // Check if the array of items is not null, and since we have an absolute path to the item,
                 // pick the first item in the list
                 if (tw != null && tw.getObjectId(0) != null) {
@@ -199,6 +237,46 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
             }
         } catch (IOException e) {
             logger.error("Failed to create RevTree for site: " + site + " path: " + path, e);
+        } finally {
+            helper.releaseObjectReader(repo, reader);
+            repositoryLock.unlockRead();
+        }
+
+        return toReturn;
+    }
+
+    @Override
+    public Set<String> getExistingPaths(String site, Collection<String> paths) {
+        Set<String> toReturn = new HashSet<String>();
+        if (CollectionUtils.isEmpty(paths)) {
+            return toReturn;
+        }
+        Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL :
+                GitRepositories.SANDBOX);
+
+        RepositoryLock repositoryLock = helper.getRepositoryLock(repo);
+        repositoryLock.lockRead();
+        ObjectReader reader = null;
+        try {
+            RevTree tree = helper.getTreeForLastCommit(repo);
+            reader = helper.getObjectReader(repo);
+            for (String path : paths) {
+                String gitPath = helper.getGitPath(path);
+                if (StringUtils.isEmpty(gitPath) || gitPath.equals(".")) {
+                    toReturn.add(path);
+                    continue;
+                }
+                try (TreeWalk tw = TreeWalk.forPath(reader, gitPath, tree)) {
+                    if (tw != null && tw.getObjectId(0) != null) {
+                        toReturn.add(path);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to check existing paths for site: " + site, e);
+        } finally {
+            helper.releaseObjectReader(repo, reader);
+            repositoryLock.unlockRead();
         }
 
         return toReturn;
@@ -210,14 +288,19 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
         Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories
                 .GLOBAL : GitRepositories.SANDBOX);
 
+        RepositoryLock repositoryLock = helper.getRepositoryLock(repo);
+        repositoryLock.lockRead();
+        ObjectReader reader = null;
         try {
             RevTree tree = helper.getTreeForLastCommit(repo);
-            try (TreeWalk tw = TreeWalk.forPath(repo, helper.getGitPath(path), tree)) {
+            reader = helper.getObjectReader(repo);
+            try (TreeWalk tw = TreeWalk.forPath(reader, helper.getGitPath(path), tree)) {
                 // Check if the array of items is not null, and since we have an absolute path to the item,
                 // pick the first item in the list
                 if (tw != null && tw.getObjectId(0) != null) {
                     ObjectId id = tw.getObjectId(0);
-                    ObjectLoader objectLoader = repo.open(id);
+                    // Large objects are streamed through their own reader, so the pooled one can be released
+                    ObjectLoader objectLoader = reader.open(id);
                     toReturn = objectLoader.openStream();
                     tw.close();
                 }
@@ -226,6 +309,9 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
             }
         } catch (IOException e) {
             logger.error("Failed to create RevTree for site: " + site + " path: " + path, e);
+        } finally {
+            helper.releaseObjectReader(repo, reader);
+            repositoryLock.unlockRead();
         }
 
         return toReturn;
@@ -235,27 +321,104 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
     public long getContentSize(final String site, final String path) {
         Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL :
             GitRepositories.SANDBOX);
+        RepositoryLock repositoryLock = helper.getRepositoryLock(repo);
+        repositoryLock.lockRead();
+        ObjectReader reader = null;
         try {
             RevTree tree = helper.getTreeForLastCommit(repo);
-            try (TreeWalk tw = TreeWalk.forPath(repo, helper.getGitPath(path), tree)) {
+            reader = helper.getObjectReader(repo);
+            try (TreeWalk tw = TreeWalk.forPath(reader, helper.getGitPath(path), tree)) {
                 if (tw != null && tw.getObjectId(0) != null) {
                     ObjectId id = tw.getObjectId(0);
-                    ObjectLoader objectLoader = repo.open(id);
-                    return objectLoader.getSize();
+                    return reader.getObjectSize(id, ObjectReader.OBJ_ANY);
                 }
             }
         } catch (IOException e) {
             logger.error("Error while getting content for file at site: " + site + " path: " + path, e);
+        } finally {
+            helper.releaseObjectReader(repo, reader);
+            repositoryLock.unlockRead();
         }
         return -1L;
     }
 
+    @Override
+    public String getContentObjectId(String site, String path) {
+        Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL :
+            GitRepositories.SANDBOX);
+        if (repo == null) {
+            return null;
+        }
+        RepositoryLock repositoryLock = helper.getRepositoryLock(repo);
+        repositoryLock.lockRead();
+        ObjectReader reader = null;
+        try {
+            RevTree tree = helper.getTreeForLastCommit(repo);
+            reader = helper.getObjectReader(repo);
+            try (TreeWalk tw = TreeWalk.forPath(reader, helper.getGitPath(path), tree)) {
+                if (tw != null && tw.getObjectId(0) != null && tw.getFileMode(0) != FileMode.TREE) {
+                    return tw.getObjectId(0).getName();
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error while getting object id for file at site: " + site + " path: " + path, e);
+        } finally {
+            helper.releaseObjectReader(repo, reader);
+            repositoryLock.unlockRead();
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, String> getContentObjectIds(String site, Collection<String> paths) {
+        Map<String, String> toReturn = new HashMap<String, String>();
+        Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL :
+            GitRepositories.SANDBOX);
+        if (repo == null || CollectionUtils.isEmpty(paths)) {
+            return toReturn;
+        }
+        RepositoryLock repositoryLock = helper.getRepositoryLock(repo);
+        repositoryLock.lockRead();
+        ObjectReader reader = null;
+        try {
+            RevTree tree = helper.getTreeForLastCommit(repo);
+            reader = helper.getObjectReader(repo);
+            for (String path : paths) {
+                try (TreeWalk tw = TreeWalk.forPath(reader, helper.getGitPath(path), tree)) {
+                    if (tw != null && tw.getObjectId(0) != null && tw.getFileMode(0) != FileMode.TREE) {
+                        toReturn.put(path, tw.getObjectId(0).getName());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error while getting object ids for files at site: " + site, e);
+        } finally {
+            helper.releaseObjectReader(repo, reader);
+            repositoryLock.unlockRead();
+        }
+        return toReturn;
+    }
+
+    @Override
+    public InputStream getContentByObjectId(String site, String objectId) throws ContentNotFoundException {
+        Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL :
+            GitRepositories.SANDBOX);
+        try {
+            return repo.open(ObjectId.fromString(objectId)).openStream();
+        } catch (IOException | IllegalArgumentException e) {
+            throw new ContentNotFoundException("Object " + objectId + " not found in site: " + site, e);
+        }
+    }
+
     @Override
     public String writeContent(String site, String path, InputStream content) {
         // Write content to git and commit it
         String commitId = null;
 
-        synchronized (helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX)) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(helper.getRepository(site,
+                StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX));
+        repositoryLock.lockUpdate();
+        try {
             Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL :
                     GitRepositories.SANDBOX);
 
@@ -268,6 +431,8 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
             } else {
                 logger.error("Missing repository during write for site: " + site + " path: " + path);
             }
+        } finally {
+            repositoryLock.unlockUpdate();
         }
 
         return commitId;
@@ -279,7 +444,10 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
         String commitId = null;
         boolean result;
 
-        synchronized (helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX)) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(helper.getRepository(site,
+                StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX));
+        repositoryLock.lockUpdate();
+        try {
             Path emptyFilePath = Paths.get(path, name, EMPTY_FILE);
             Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL :
                     GitRepositories.SANDBOX);
@@ -322,6 +490,8 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
                 commitId = helper.commitFile(repo, site, emptyFilePath.toString(), "Created folder site: " +
                         site + " path: " + path + FILE_SEPARATOR + name, helper.getCurrentUserIdent());
             }
+        } finally {
+            repositoryLock.unlockUpdate();
         }
 
         return commitId;
@@ -331,7 +501,10 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
     public String deleteContent(String site, String path, String approver) {
         String commitId = null;
 
-        synchronized (helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX)) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(helper.getRepository(site,
+                StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX));
+        repositoryLock.lockUpdate();
+        try {
             Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL :
                     GitRepositories.SANDBOX);
 
@@ -354,6 +527,8 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
             } catch (GitAPIException e) {
                 logger.error("Error while deleting content for site: " + site + " path: " + path, e);
             }
+        } finally {
+            repositoryLock.unlockUpdate();
         }
 
         return commitId;
@@ -392,7 +567,10 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
     public Map<String, String> moveContent(String site, String fromPath, String toPath, String newName) {
         Map<String, String> toRet = new TreeMap<String, String>();
         String commitId;
-        synchronized (helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX)) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(helper.getRepository(site,
+                StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX));
+        repositoryLock.lockUpdate();
+        try {
             Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL :
                     GitRepositories.SANDBOX);
 
@@ -466,6 +644,8 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
                 logger.error("Error while moving content for site: " + site + " fromPath: " + fromPath +
                         " toPath: " + toPath + " newName: " + newName);
             }
+        } finally {
+            repositoryLock.unlockUpdate();
         }
 
         return toRet;
@@ -475,7 +655,10 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
     public String copyContent(String site, String fromPath, String toPath) {
         String commitId = null;
 
-        synchronized (helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX)) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(helper.getRepository(site,
+                StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX));
+        repositoryLock.lockUpdate();
+        try {
             Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL :
                     GitRepositories.SANDBOX);
 
@@ -507,6 +690,8 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
                 logger.error("Error while copying content for site: " + site + " fromPath: " + fromPath +
                         " toPath: " + toPath + " newName: ");
             }
+        } finally {
+            repositoryLock.unlockUpdate();
         }
 
         return commitId;
@@ -519,15 +704,18 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
         Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories
                 .GLOBAL : GitRepositories.SANDBOX);
 
+        RepositoryLock repositoryLock = helper.getRepositoryLock(repo);
+        repositoryLock.lockRead();
+        ObjectReader reader = null;
         try {
             RevTree tree = helper.getTreeForLastCommit(repo);
-            try (TreeWalk tw = TreeWalk.forPath(repo, helper.getGitPath(path), tree)) {
+            reader = helper.getObjectReader(repo);
+            try (TreeWalk tw = TreeWalk.forPath(reader, helper.getGitPath(path), tree)) {
 
                 if (tw != null) {
                     // Loop for all children and gather path of item excluding the item, file/folder name, and
                     // whether or not it's a folder
-                    ObjectLoader loader = repo.open(tw.getObjectId(0));
-                    if (loader.getType() == Constants.OBJ_TREE) {
+                    if (tw.getFileMode(0) == FileMode.TREE) {
                         int depth = tw.getDepth();
                         tw.enterSubtree();
                         while (tw.next()) {
@@ -537,8 +725,7 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
                                 item.name = tw.getNameString();
 
                                 String visitFolderPath = FILE_SEPARATOR + tw.getPathString();
-                                loader = repo.open(tw.getObjectId(0));
-                                item.isFolder = loader.getType() == Constants.OBJ_TREE;
+                                item.isFolder = tw.getFileMode(0) == FileMode.TREE;
                                 int lastIdx = visitFolderPath.lastIndexOf(FILE_SEPARATOR + item.name);
                                 if (lastIdx > 0) {
                                     item.path = visitFolderPath.substring(0, lastIdx);
@@ -557,19 +744,16 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
                 } else {
                     String gitPath = helper.getGitPath(path);
                     if (StringUtils.isEmpty(gitPath) || gitPath.equals(".")) {
-                        try (TreeWalk treeWalk = new TreeWalk(repo)) {
+                        try (TreeWalk treeWalk = new TreeWalk(reader)) {
                             treeWalk.addTree(tree);
 
                             while (treeWalk.next()) {
 
-                                ObjectLoader loader = repo.open(treeWalk.getObjectId(0));
-
                                 RepositoryItem item = new RepositoryItem();
                                 item.name = treeWalk.getNameString();
 
                                 String visitFolderPath = FILE_SEPARATOR + treeWalk.getPathString();
-                                loader = repo.open(treeWalk.getObjectId(0));
-                                item.isFolder = loader.getType() == Constants.OBJ_TREE;
+                                item.isFolder = treeWalk.getFileMode(0) == FileMode.TREE;
                                 int lastIdx = visitFolderPath.lastIndexOf(FILE_SEPARATOR + item.name);
                                 if (lastIdx > 0) {
                                     item.path = visitFolderPath.substring(0, lastIdx);
@@ -593,6 +777,9 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
             }
         } catch (IOException e) {
             logger.error("Failed to create RevTree for site: " + site + " path: " + path, e);
+        } finally {
+            helper.releaseObjectReader(repo, reader);
+            repositoryLock.unlockRead();
         }
 
         RepositoryItem[] items = new RepositoryItem[retItems.size()];
@@ -604,7 +791,10 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
     public VersionTO[] getContentVersionHistory(String site, String path) {
         List<VersionTO> versionHistory = new ArrayList<VersionTO>();
 
-        synchronized (helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX)) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(helper.getRepository(site,
+                StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX));
+        repositoryLock.lockRead();
+        try {
             Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL :
                     GitRepositories.SANDBOX);
 
@@ -632,6 +822,8 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
             } catch (IOException | GitAPIException e) {
                 logger.error("Failed to create Git repo for site: " + site + " path: " + path, e);
             }
+        } finally {
+            repositoryLock.unlockRead();
         }
 
         VersionTO[] toRet = new VersionTO[versionHistory.size()];
@@ -650,7 +842,10 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
         // TODO: SJ: Redesign/refactor the whole approach in 3.1+
         String toReturn = StringUtils.EMPTY;
 
-        synchronized (helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : PUBLISHED)) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(helper.getRepository(site,
+                StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : PUBLISHED));
+        repositoryLock.lockUpdate();
+        try {
             if (majorVersion) {
                 Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL :
                         GitRepositories.PUBLISHED);
@@ -679,6 +874,8 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
             } else {
                 logger.info("request to create minor revision ignored for site: " + site + " path: " + path);
             }
+        } finally {
+            repositoryLock.unlockUpdate();
         }
 
         return toReturn;
@@ -733,7 +930,10 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
         Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL :
                 SANDBOX);
 
-        synchronized (helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX)) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(helper.getRepository(site,
+                StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX));
+        repositoryLock.lockRead();
+        try {
             try (TreeWalk tw = new TreeWalk(repo)) {
                 RevTree tree = helper.getTreeForLastCommit(repo);
                 tw.addTree(tree); // tree ‘0’
@@ -755,6 +955,8 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
             } catch (IOException e) {
                 logger.error("Error while locking file for site: " + site + " path: " + path, e);
             }
+        } finally {
+            repositoryLock.unlockRead();
         }
     }
 
@@ -762,7 +964,9 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
     public void lockItemForPublishing(String site, String path) {
         Repository repo = helper.getRepository(site, PUBLISHED);
 
-        synchronized (repo) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(repo);
+        repositoryLock.lockRead();
+        try {
             try (TreeWalk tw = new TreeWalk(repo)) {
                 RevTree tree = helper.getTreeForLastCommit(repo);
                 tw.addTree(tree); // tree ‘0’
@@ -784,6 +988,8 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
             } catch (IOException e) {
                 logger.error("Error while locking file for site: " + site + " path: " + path, e);
             }
+        } finally {
+            repositoryLock.unlockRead();
         }
     }
 
@@ -792,7 +998,10 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
         Repository repo = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL :
                 SANDBOX);
 
-        synchronized (helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX)) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(helper.getRepository(site,
+                StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX));
+        repositoryLock.lockRead();
+        try {
             try (TreeWalk tw = new TreeWalk(repo)) {
                 RevTree tree = helper.getTreeForLastCommit(repo);
                 tw.addTree(tree); // tree ‘0’
@@ -814,6 +1023,8 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
             } catch (IOException e) {
                 logger.error("Error while unlocking file for site: " + site + " path: " + path, e);
             }
+        } finally {
+            repositoryLock.unlockRead();
         }
     }
 
@@ -821,7 +1032,9 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
     public void unLockItemForPublishing(String site, String path) {
         Repository repo = helper.getRepository(site, PUBLISHED);
 
-        synchronized (repo) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(repo);
+        repositoryLock.lockRead();
+        try {
             try (TreeWalk tw = new TreeWalk(repo)) {
                 RevTree tree = helper.getTreeForLastCommit(repo);
                 tw.addTree(tree); // tree ‘0’
@@ -843,6 +1056,8 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
             } catch (IOException e) {
                 logger.error("Error while unlocking file for site: " + site + " path: " + path, e);
             }
+        } finally {
+            repositoryLock.unlockRead();
         }
     }
 
@@ -1004,11 +1219,19 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
         Repository repository = helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL :
                 SANDBOX);
         if (repository != null) {
-            synchronized (repository) {
+            RepositoryLock repositoryLock = helper.getRepositoryLock(repository);
+            repositoryLock.lockExclusive();
+            try {
                 Repository publishedRepository = helper.getRepository(site, GitRepositories.PUBLISHED);
-                synchronized (publishedRepository) {
+                RepositoryLock publishedRepositoryLock = helper.getRepositoryLock(publishedRepository);
+                publishedRepositoryLock.lockExclusive();
+                try {
                     toReturn = helper.deleteSiteGitRepo(site);
+                } finally {
+                    publishedRepositoryLock.unlockExclusive();
                 }
+            } finally {
+                repositoryLock.unlockExclusive();
             }
         } else {
             Path sitePath = Paths.get(studioConfiguration.getProperty(StudioConfiguration.REPO_BASE_PATH),
@@ -1031,7 +1254,9 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
         Repository repo = helper.getRepository(site, GitRepositories.PUBLISHED);
         String commitId = StringUtils.EMPTY;
         String path = StringUtils.EMPTY;
-        synchronized (repo) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(repo);
+        repositoryLock.lockUpdate();
+        try {
             try (Git git = new Git(repo)) {
 
                 // fetch "origin/master"
@@ -1076,11 +1301,15 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
                         "_published_on_" + publishDate.format(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HHmmssSSSX"));
                 git.tag().setTagger(authorIdent).setName(tagName).setMessage(comment).call();
                 git.close();
+
+                recordInitialPublishing(repo, site, environment, authorIdent.getName());
             } catch (Exception e) {
                 logger.error("Error when publishing site " + site + " to environment " + environment, e);
                 throw new DeploymentException("Error when publishing site " + site + " to environment " +
                         environment + " [commit ID = " + commitId + "]");
             }
+        } finally {
+            repositoryLock.unlockUpdate();
         }
 
     }
@@ -1088,10 +1317,14 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
     @Override
     public void publish(String site, List<DeploymentItemTO> deploymentItems, String environment, String author,
                         String comment) throws DeploymentException {
+        Set<String> deployedCommits = new LinkedHashSet<String>();
+        for (DeploymentItemTO deploymentItem : deploymentItems) {
+            deployedCommits.add(deploymentItem.getCommitId());
+        }
         Repository repo = helper.getRepository(site, GitRepositories.PUBLISHED);
-        String commitId = StringUtils.EMPTY;
-        String path = StringUtils.EMPTY;
-        synchronized (repo) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(repo);
+        repositoryLock.lockUpdate();
+        try {
             try (Git git = new Git(repo)) {
 
                 String inProgressBranchName = environment + IN_PROGRESS_BRANCH_NAME_SUFIX;
@@ -1134,20 +1367,13 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
                             "sandbox for site " + site);
                 }
 
-                // checkout environment branch
-                logger.debug("Checkout environment branch " + environment + " for site " + site);
+                // environment branch is updated without checking it out
                 boolean newBranch = false;
-                try {
-                    git.checkout()
-                            .setName(environment)
-                            .call();
-                } catch (RefNotFoundException e) {
+                if (repo.exactRef(Constants.R_HEADS + environment) == null) {
                     logger.info("Not able to find branch " + environment + " for site " + site +
                             ". Creating new branch");
-                    // checkout environment branch
                     newBranch = true;
-                    git.checkout()
-                            .setCreateBranch(true)
+                    git.branchCreate()
                             .setForce(true)
                             .setStartPoint(studioConfiguration.getProperty(REPO_SANDBOX_BRANCH))
                             .setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
@@ -1157,60 +1383,10 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
 
                 // check if it is new branch
                 // if true nothing to do, already pulled everything
-                // otherwise do cherry-picking
+                // otherwise build the new tree of the environment branch from the deployed items
                 if (!newBranch) {
-                    // cherry pick all commit ids
-
-                    // Create in progress branch
-                    try {
-
-                        // Create in progress branch
-                        logger.debug("Create in-progress branch for site " + site);
-                        git.checkout()
-                                .setCreateBranch(true)
-                                .setForce(true)
-                                .setStartPoint(environment)
-                                .setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
-                                .setName(inProgressBranchName)
-                                .call();
-                    } catch (GitAPIException e) {
-                        // TODO: DB: Error ?
-                        logger.error("Failed to create in-progress published branch for site " + site);
-                    }
-
-                    Set<String> deployedCommits = new HashSet<String>();
-                    for (DeploymentItemTO deploymentItem : deploymentItems) {
-                        commitId = deploymentItem.getCommitId();
-                        path = helper.getGitPath(deploymentItem.getPath());
-                        logger.debug("Checking out file " + path + " from commit id " + commitId +
-                                " for site " + site);
-
-                        ObjectId objCommitId = repo.resolve(commitId);
-                        RevWalk rw = new RevWalk(repo);
-                        RevCommit rc = rw.parseCommit(objCommitId);
-
-                        CheckoutCommand checkout = git.checkout();
-                        checkout.setStartPoint(commitId).addPath(path).call();
-
-                        if (deploymentItem.isMove()) {
-                            String oldPath = helper.getGitPath(deploymentItem.getOldPath());
-                            git.rm().addFilepattern(oldPath).setCached(false).call();
-                            cleanUpMoveFolders(git, oldPath);
-                        }
-
-                        if (deploymentItem.isDelete()) {
-                            String deletePath = helper.getGitPath(deploymentItem.getPath());
-                            git.rm().addFilepattern(deletePath).setCached(false).call();
-                            Path parentToDelete = Paths.get(path).getParent();
-                            deleteParentFolder(git, parentToDelete);
-                        }
-                        deployedCommits.add(commitId);
-                    }
-
-                    // commit all deployed files
                     String commitMessage = studioConfiguration.getProperty(REPO_PUBLISHED_COMMIT_MESSAGE);
                     PersonIdent authorIdent = helper.getAuthorIdent(author);
-                    git.add().addFilepattern(GIT_COMMIT_ALL_ITEMS).call();
 
                     commitMessage = commitMessage.replace("{username}", author);
                     commitMessage =
@@ -1224,45 +1400,105 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
                         sb.append(c).append(" ");
                     }
                     commitMessage = commitMessage.replace("{commit_id}", sb.toString().trim());
-                    RevCommit revCommit = git.commit().setMessage(commitMessage).setAuthor(authorIdent).call();
-                    int commitTime = revCommit.getCommitTime();
+
+                    RevCommit revCommit = helper.commitDeploymentItems(repo, site, environment, deploymentItems,
+                            authorIdent, commitMessage);
+
+                    if (StringUtils.equals(repo.getBranch(), environment)) {
+                        // The working tree is not used for publishing, just keep it in sync if it is checked out
+                        git.reset().setMode(ResetCommand.ResetType.HARD).call();
+                    }
 
                     // tag
+                    int commitTime = revCommit.getCommitTime();
                     ZonedDateTime tagDate2 = Instant.ofEpochSecond(commitTime).atZone(ZoneOffset.UTC);
                     ZonedDateTime publishDate = ZonedDateTime.now(ZoneOffset.UTC);
                     String tagName2 = tagDate2.format(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HHmmssSSSX")) +
                             "_published_on_" + publishDate.format(
                                     DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HHmmssSSSX"));
                     PersonIdent authorIdent2 = helper.getAuthorIdent(author);
-                    git.tag().setTagger(authorIdent2).setName(tagName2).setMessage(commitMessage).call();
-
-                    // checkout environment
-                    logger.debug("Checkout environment " + environment + " branch for site " + site);
-                    git.checkout()
-                            .setName(environment)
-                            .call();
-
-                    Ref branchRef = repo.findRef(inProgressBranchName);
-
-                    // merge in-progress branch
-                    logger.debug("Merge in-progress branch into environment " + environment + " for site " +
-                            site);
-                    git.merge().setCommit(true).include(branchRef).call();
-
-                    // clean up
-                    logger.debug("Delete in-progress branch (clean up) for site " + site);
-                    git.branchDelete().setBranchNames(inProgressBranchName).setForce(true).call();
+                    git.tag().setObjectId(revCommit).setTagger(authorIdent2).setName(tagName2)
+                            .setMessage(commitMessage).call();
                     git.close();
                 }
+
+                ObjectId environmentHead = repo.resolve(Constants.R_HEADS + environment);
+                recordPublishing(site, environment, environmentHead.getName(), helper.getAuthorIdent(author).getName(),
+                        deploymentItems);
             } catch (Exception e) {
                 logger.error("Error when publishing site " + site + " to environment " + environment, e);
                 throw new DeploymentException("Error when publishing site " + site + " to environment " +
-                        environment + " [commit ID = " + commitId + "]");
+                        environment + " [commit ID = " + StringUtils.join(deployedCommits, " ") + "]");
             }
+        } finally {
+            repositoryLock.unlockUpdate();
         }
 
     }
 
+    /**
+     * Keep track of the last time each item was published to the environment and of the deployment history, a
+     * failure here doesn't fail the publishing since the environment branch has already been updated. The site is
+     * no longer marked as indexed in that case so the missing rows are indexed from the environment branch again.
+     */
+    private void recordPublishing(String site, String environment, String commitId, String username,
+                                  List<DeploymentItemTO> deploymentItems) {
+        Set<String> paths = new LinkedHashSet<String>();
+        for (DeploymentItemTO deploymentItem : deploymentItems) {
+            paths.add(deploymentItem.getPath());
+            if (deploymentItem.isMove()) {
+                paths.add(deploymentItem.getOldPath());
+            }
+        }
+        if (!recordPublishing(site, environment, commitId, username, paths)) {
+            clearDeploymentsIndexed(site);
+        }
+    }
+
+    private boolean recordPublishing(String site, String environment, String commitId, String username,
+                                     Collection<String> paths) {
+        ZonedDateTime publishedDate = ZonedDateTime.now(ZoneOffset.UTC);
+        List<PublishedItem> publishedItems = new ArrayList<PublishedItem>();
+        List<DeploymentSyncHistory> deploymentHistory = new ArrayList<DeploymentSyncHistory>();
+        for (String path : paths) {
+            publishedItems.add(new PublishedItem(site, path, environment, commitId, publishedDate));
+            deploymentHistory.add(createDeploymentSyncHistory(site, path, environment, commitId, username,
+                    publishedDate));
+        }
+        try {
+            upsertPublishedItems(publishedItems);
+            insertDeploymentHistory(deploymentHistory);
+            return true;
+        } catch (Exception e) {
+            logger.error("Error recording published items for site " + site + " environment " + environment, e);
+            return false;
+        }
+    }
+
+    /**
+     * Everything in the environment branch is deployed by the initial publishing, so the site starts out indexed
+     */
+    private void recordInitialPublishing(Repository repo, String site, String environment, String username) {
+        List<String> paths = new ArrayList<String>();
+        ObjectId environmentHead;
+        try (RevWalk rw = new RevWalk(repo); TreeWalk tw = new TreeWalk(repo)) {
+            environmentHead = repo.resolve(Constants.R_HEADS + environment);
+            tw.addTree(rw.parseCommit(environmentHead).getTree());
+            tw.setRecursive(true);
+            while (tw.next()) {
+                if (!ArrayUtils.contains(IGNORE_FILES, tw.getNameString())) {
+                    paths.add(FILE_SEPARATOR + tw.getPathString());
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error reading environment " + environment + " of site " + site, e);
+            return;
+        }
+        if (recordPublishing(site, environment, environmentHead.getName(), username, paths)) {
+            markDeploymentsIndexed(site);
+        }
+    }
+
     private void cleanUpMoveFolders(Git git, String path) throws GitAPIException {
         Path parentToDelete = Paths.get(path).getParent();
         deleteParentFolder(git, parentToDelete);
@@ -1277,7 +1513,10 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
     public List<RepoOperationTO> getOperations(String site, String commitIdFrom, String commitIdTo) {
         List<RepoOperationTO> operations = new ArrayList<>();
 
-        synchronized (helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX)) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(helper.getRepository(site,
+                StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX));
+        repositoryLock.lockRead();
+        try {
             try {
                 // Get the sandbox repo, and then get a reference to the commitId we received and another for head
                 boolean fromEmptyRepo = StringUtils.isEmpty(commitIdFrom);
@@ -1386,16 +1625,206 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
                 logger.error("Error getting operations for site " + site + " from commit ID: " + commitIdFrom +
                         " to commit ID: " + commitIdTo, e);
             }
+        } finally {
+            repositoryLock.unlockRead();
+        }
+
+        return operations;
+    }
+
+    @Override
+    public List<RepoOperationTO> getOperationsFromDelta(String site, String commitIdFrom, String commitIdTo) {
+        List<RepoOperationTO> operations = new ArrayList<>();
+
+        RepositoryLock repositoryLock = helper.getRepositoryLock(helper.getRepository(site, SANDBOX));
+        repositoryLock.lockRead();
+        try {
+            Repository repo = helper.getRepository(site, SANDBOX);
+            try (ObjectReader reader = repo.newObjectReader();
+                 RevWalk walk = new RevWalk(reader);
+                 DiffFormatter diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+                RevCommit toCommit = walk.parseCommit(repo.resolve(commitIdTo));
+                RevCommit fromCommit = null;
+                AbstractTreeIterator fromTreeIterator;
+                if (StringUtils.isEmpty(commitIdFrom)) {
+                    fromTreeIterator = new EmptyTreeIterator();
+                } else {
+                    fromCommit = walk.parseCommit(repo.resolve(commitIdFrom));
+                    if (fromCommit.equals(toCommit)) {
+                        return operations;
+                    }
+                    fromTreeIterator = new CanonicalTreeParser(null, reader, fromCommit.getTree());
+                }
+
+                // Diff both trees at once, whatever happened in between only the net changes are returned
+                diffFormatter.setRepository(repo);
+                diffFormatter.setDetectRenames(true);
+                List<DiffEntry> diffEntries = diffFormatter.scan(fromTreeIterator,
+                        new CanonicalTreeParser(null, reader, toCommit.getTree()));
+                Map<RevCommit, List<DiffEntry>> commitEntries =
+                        getLastCommits(walk, fromCommit, toCommit, diffEntries);
+                for (Map.Entry<RevCommit, List<DiffEntry>> entries : commitEntries.entrySet()) {
+                    RevCommit commit = entries.getKey();
+                    operations.addAll(processDiffEntry(entries.getValue(), commit.getId(),
+                            commit.getCommitterIdent().getName(),
+                            Instant.ofEpochSecond(commit.getCommitTime()).atZone(ZoneOffset.UTC)));
+                }
+            } catch (IOException e) {
+                logger.error("Error getting operations for site " + site + " from commit ID: " + commitIdFrom +
+                        " to commit ID: " + commitIdTo, e);
+            }
+        } finally {
+            repositoryLock.unlockRead();
         }
 
         return operations;
     }
 
+    /**
+     * Find the last commit of the range that changed the path of each diff entry. Commits are walked newest first
+     * comparing them with their first parent, only for the paths that are still unknown, so the walk stops as soon as
+     * all of them are found.
+     *
+     * @return diff entries grouped by commit, oldest commit first
+     */
+    private Map<RevCommit, List<DiffEntry>> getLastCommits(RevWalk walk, RevCommit fromCommit, RevCommit toCommit,
+                                                           List<DiffEntry> diffEntries) throws IOException {
+        Map<String, List<DiffEntry>> remaining = new HashMap<String, List<DiffEntry>>();
+        for (DiffEntry diffEntry : diffEntries) {
+            String path = diffEntry.getChangeType() == DiffEntry.ChangeType.DELETE ? diffEntry.getOldPath() :
+                    diffEntry.getNewPath();
+            remaining.computeIfAbsent(path, k -> new ArrayList<DiffEntry>()).add(diffEntry);
+        }
+        List<RevCommit> commits = new ArrayList<RevCommit>();
+        Map<RevCommit, List<DiffEntry>> lastCommits = new HashMap<RevCommit, List<DiffEntry>>();
+        walk.reset();
+        walk.markStart(toCommit);
+        if (fromCommit != null) {
+            walk.markUninteresting(fromCommit);
+        }
+        try (TreeWalk treeWalk = new TreeWalk(walk.getObjectReader())) {
+            treeWalk.setRecursive(true);
+            TreeFilter pathFilter = null;
+            for (RevCommit commit : walk) {
+                if (remaining.isEmpty()) {
+                    break;
+                }
+                if (pathFilter == null) {
+                    pathFilter = AndTreeFilter.create(PathFilterGroup.createFromStrings(remaining.keySet()),
+                            TreeFilter.ANY_DIFF);
+                }
+                treeWalk.reset();
+                treeWalk.setFilter(pathFilter);
+                if (commit.getParentCount() > 0) {
+                    treeWalk.addTree(walk.parseCommit(commit.getParent(0)).getTree());
+                } else {
+                    treeWalk.addTree(new EmptyTreeIterator());
+                }
+                treeWalk.addTree(commit.getTree());
+                while (treeWalk.next()) {
+                    List<DiffEntry> entries = remaining.remove(treeWalk.getPathString());
+                    if (entries != null) {
+                        if (!lastCommits.containsKey(commit)) {
+                            commits.add(commit);
+                            lastCommits.put(commit, new ArrayList<DiffEntry>());
+                        }
+                        lastCommits.get(commit).addAll(entries);
+                        pathFilter = null;
+                    }
+                }
+            }
+        }
+        // Changes no commit of the range is found for, like the ones brought by merges, stay with the last commit
+        if (!remaining.isEmpty()) {
+            if (!lastCommits.containsKey(toCommit)) {
+                commits.add(0, toCommit);
+                lastCommits.put(toCommit, new ArrayList<DiffEntry>());
+            }
+            for (List<DiffEntry> entries : remaining.values()) {
+                lastCommits.get(toCommit).addAll(entries);
+            }
+        }
+        Map<RevCommit, List<DiffEntry>> toReturn = new LinkedHashMap<RevCommit, List<DiffEntry>>();
+        for (int i = commits.size() - 1; i >= 0; i--) {
+            toReturn.put(commits.get(i), lastCommits.get(commits.get(i)));
+        }
+        return toReturn;
+    }
+
+    @Override
+    public List<String> getCommitIds(String site, String commitIdFrom, String commitIdTo) {
+        List<String> commitIds = new ArrayList<String>();
+
+        RepositoryLock repositoryLock = helper.getRepositoryLock(helper.getRepository(site, SANDBOX));
+        repositoryLock.lockRead();
+        try {
+            Repository repo = helper.getRepository(site, SANDBOX);
+            try (RevWalk walk = new RevWalk(repo)) {
+                // Only commit headers are parsed, no trees are read
+                walk.sort(RevSort.TOPO);
+                walk.sort(RevSort.REVERSE, true);
+                walk.markStart(walk.parseCommit(repo.resolve(commitIdTo)));
+                if (StringUtils.isNotEmpty(commitIdFrom)) {
+                    walk.markUninteresting(walk.parseCommit(repo.resolve(commitIdFrom)));
+                }
+                for (RevCommit commit : walk) {
+                    commitIds.add(commit.getId().getName());
+                }
+            } catch (IOException e) {
+                logger.error("Error getting commit ids for site " + site + " from commit ID: " + commitIdFrom +
+                        " to commit ID: " + commitIdTo, e);
+            }
+        } finally {
+            repositoryLock.unlockRead();
+        }
+
+        return commitIds;
+    }
+
+    @Override
+    public boolean walkTreeOperations(String site, String commitId, int batchSize,
+                                      Consumer<List<RepoOperationTO>> batchConsumer) {
+        // No repository lock is held, objects of a commit never change and consumers may take their time
+        Repository repo = helper.getRepository(site, SANDBOX);
+        try (RevWalk revWalk = new RevWalk(repo); TreeWalk treeWalk = new TreeWalk(repo)) {
+            RevCommit commit = revWalk.parseCommit(repo.resolve(commitId));
+            ZonedDateTime commitTime = Instant.ofEpochSecond(commit.getCommitTime()).atZone(ZoneOffset.UTC);
+            String author = commit.getCommitterIdent().getName();
+            treeWalk.addTree(commit.getTree());
+            treeWalk.setRecursive(true);
+            List<RepoOperationTO> batch = new ArrayList<RepoOperationTO>(batchSize);
+            while (treeWalk.next()) {
+                String path = FILE_SEPARATOR + treeWalk.getPathString();
+                if (path.endsWith(".keep")) {
+                    continue;
+                }
+                RepoOperationTO repoOperation = new RepoOperationTO(RepoOperation.CREATE, path, commitTime, null,
+                        commit.getId().getName());
+                repoOperation.setAuthor(StringUtils.isEmpty(author) ? "N/A" : author);
+                batch.add(repoOperation);
+                if (batch.size() >= batchSize) {
+                    batchConsumer.accept(batch);
+                    batch = new ArrayList<RepoOperationTO>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                batchConsumer.accept(batch);
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("Error walking tree of commit ID: " + commitId + " for site " + site, e);
+            return false;
+        }
+    }
+
     @Override
     public String getRepoLastCommitId(final String site) {
         String toReturn = StringUtils.EMPTY;
 
-        synchronized (helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX)) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(helper.getRepository(site,
+                StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX));
+        repositoryLock.lockRead();
+        try {
             Repository repo = helper.getRepository(site, SANDBOX);
             try {
                 ObjectId commitId = repo.resolve(Constants.HEAD);
@@ -1403,6 +1832,8 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
             } catch (IOException e) {
                 logger.error("Error getting last commit ID for site " + site, e);
             }
+        } finally {
+            repositoryLock.unlockRead();
         }
 
         return toReturn;
@@ -1412,7 +1843,10 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
     public String getRepoFirstCommitId(final String site) {
         String toReturn = StringUtils.EMPTY;
 
-        synchronized (helper.getRepository(site, StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX)) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(helper.getRepository(site,
+                StringUtils.isEmpty(site) ? GitRepositories.GLOBAL : SANDBOX));
+        repositoryLock.lockRead();
+        try {
             Repository repo = helper.getRepository(site, SANDBOX);
             try (RevWalk rw = new RevWalk(repo)) {
                 ObjectId head = repo.resolve(Constants.HEAD);
@@ -1425,6 +1859,8 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
             } catch (IOException e) {
                 logger.error("Error getting first commit ID for site " + site, e);
             }
+        } finally {
+            repositoryLock.unlockRead();
         }
 
         return toReturn;
@@ -1479,82 +1915,248 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
                                                             DmFilterWrapper dmFilterWrapper, String filterType,
                                                             int numberOfItems) {
         List<DeploymentSyncHistory> toRet = new ArrayList<DeploymentSyncHistory>();
-        Repository publishedRepo = helper.getRepository(site, PUBLISHED);
-        int counter = 0;
-        try (Git git = new Git(publishedRepo)) {
-            // List all environments
-            List<Ref> environments = git.branchList().call();
-            for (int i = 0; i < environments.size() && counter < numberOfItems; i++) {
-                Ref env = environments.get(i);
-                String environment = env.getName();
-                if (!environment.equals(studioConfiguration.getProperty(REPO_SANDBOX_BRANCH)) &&
-                        !environment.equals(Constants.R_HEADS + studioConfiguration.getProperty(REPO_SANDBOX_BRANCH))) {
-                    Iterable<RevCommit> branchLog = git.log()
-                            .add(env.getObjectId())
-                            .setRevFilter(AndRevFilter.create(
-                                    CommitTimeRevFilter.after(fromDate.toInstant().toEpochMilli()),
-                                    CommitTimeRevFilter.before(toDate.toInstant().toEpochMilli())))
-                            .call();
-
-                    Iterator<RevCommit> iterator = branchLog.iterator();
-                    while (iterator.hasNext() && counter < numberOfItems) {
-                        RevCommit revCommit = iterator.next();
-                        List<String> files = helper.getFilesInCommit(publishedRepo, revCommit);
-                        for (int j = 0; j < files.size() && counter < numberOfItems; j++) {
-                            String file = files.get(j);
-                            Path path = Paths.get(file);
-                            String fileName = path.getFileName().toString();
-                            if (!ArrayUtils.contains(IGNORE_FILES, fileName)) {
-                                if (dmFilterWrapper.accept(site, file, filterType)) {
-                                    DeploymentSyncHistory dsh = new DeploymentSyncHistory();
-                                    dsh.setSite(site);
-                                    dsh.setPath(file);
-                                    dsh.setSyncDate(
-                                            Instant.ofEpochSecond(revCommit.getCommitTime()).atZone(ZoneOffset.UTC));
-                                    dsh.setUser(revCommit.getAuthorIdent().getName());
-                                    dsh.setEnvironment(environment.replace(Constants.R_HEADS, ""));
-                                    toRet.add(dsh);
-                                    counter++;
-                                }
-                            }
-                        }
-                    }
+        if (numberOfItems <= 0) {
+            return toRet;
+        }
+        ensureDeploymentsIndexed(site);
+        // Rows come newest first, pages are read until enough of them pass the filter
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("site", site);
+        params.put("fromDate", fromDate);
+        params.put("toDate", toDate);
+        params.put("limit", numberOfItems);
+        int offset = 0;
+        List<DeploymentSyncHistory> page;
+        do {
+            params.put("offset", offset);
+            page = deploymentHistoryMapper.getDeploymentHistory(params);
+            for (int i = 0; i < page.size() && toRet.size() < numberOfItems; i++) {
+                DeploymentSyncHistory dsh = page.get(i);
+                if (!ArrayUtils.contains(IGNORE_FILES, FilenameUtils.getName(dsh.getPath())) &&
+                        dmFilterWrapper.accept(site, dsh.getPath(), filterType)) {
+                    toRet.add(dsh);
                 }
             }
-            git.close();
-        } catch (IOException | GitAPIException e1) {
-            logger.error("Error while getting deployment history for site " + site, e1);
-        }
+            offset += page.size();
+        } while (page.size() == numberOfItems && toRet.size() < numberOfItems);
         return toRet;
     }
 
     @Override
     public ZonedDateTime getLastDeploymentDate(String site, String path) {
-        ZonedDateTime toRet = null;
-        Repository publishedRepo = helper.getRepository(site, PUBLISHED);
-        try (Git git = new Git(publishedRepo)) {
-            Iterable<RevCommit> log = git.log()
-                    .all()
-                    .addPath(helper.getGitPath(path))
-                    .setMaxCount(1)
-                    .call();
-            Iterator<RevCommit> iter = log.iterator();
-            if (iter.hasNext()) {
-                RevCommit commit = iter.next();
-                toRet = Instant.ofEpochMilli(1000l * commit.getCommitTime()).atZone(ZoneOffset.UTC);
+        return getLastDeploymentDates(site, Collections.singletonList(path)).get(path);
+    }
+
+    @Override
+    public Map<String, ZonedDateTime> getLastDeploymentDates(String site, Collection<String> paths) {
+        Map<String, ZonedDateTime> toRet = new HashMap<String, ZonedDateTime>();
+        if (CollectionUtils.isEmpty(paths)) {
+            return toRet;
+        }
+        ensureDeploymentsIndexed(site);
+        List<String> pathList = new ArrayList<String>(new LinkedHashSet<String>(paths));
+        for (int i = 0; i < pathList.size(); i += PUBLISHED_ITEMS_BATCH_SIZE) {
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("site", site);
+            params.put("paths", pathList.subList(i, Math.min(i + PUBLISHED_ITEMS_BATCH_SIZE, pathList.size())));
+            for (PublishedItem publishedItem : publishedItemMapper.getLastPublishedDates(params)) {
+                toRet.put(publishedItem.getPath(), publishedItem.getPublishedDate());
             }
-            git.close();
-        } catch (IOException | GitAPIException e) {
-            logger.error("Error while getting last deployment date for site " + site + ", path " + path, e);
         }
         return toRet;
     }
 
+    /**
+     * Sites published before the published item and deployment history tables existed, or before they were
+     * recorded by every publishing, are indexed from the environment branches in the background the first time they
+     * are asked for. Until then the rows already recorded are served. The deployment index marker tells all nodes the
+     * site is done, the cluster lock of the site keeps them from indexing it at the same time.
+     */
+    private void ensureDeploymentsIndexed(String site) {
+        if (indexedPublishedSites.contains(site)) {
+            return;
+        }
+        if (isDeploymentIndexed(site)) {
+            indexedPublishedSites.add(site);
+        } else if (indexingPublishedSites.add(site)) {
+            try {
+                taskExecutor.execute(() -> {
+                    try {
+                        indexDeploymentsIfNeeded(site);
+                    } catch (Exception e) {
+                        logger.error("Error while indexing deployment history for site " + site, e);
+                    } finally {
+                        indexingPublishedSites.remove(site);
+                    }
+                });
+            } catch (TaskRejectedException e) {
+                // The next read tries again
+                indexingPublishedSites.remove(site);
+                logger.warn("Indexing of deployment history for site {} could not be started", site);
+            }
+        }
+    }
+
+    private void indexDeploymentsIfNeeded(String site) {
+        String lockKey = site + DEPLOYMENT_INDEX_LOCK_SUFFIX;
+        generalLockService.lock(lockKey);
+        try {
+            if (isDeploymentIndexed(site)) {
+                indexedPublishedSites.add(site);
+            } else {
+                indexDeployments(site, false);
+            }
+        } finally {
+            generalLockService.unlock(lockKey);
+        }
+    }
+
+    private boolean isDeploymentIndexed(String site) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("site", site);
+        return deploymentHistoryMapper.isDeploymentIndexed(params) > 0;
+    }
+
+    @Override
+    public void rebuildDeploymentHistory(String site) {
+        String lockKey = site + DEPLOYMENT_INDEX_LOCK_SUFFIX;
+        generalLockService.lock(lockKey);
+        try {
+            indexDeployments(site, true);
+        } finally {
+            generalLockService.unlock(lockKey);
+        }
+    }
+
+    /**
+     * Index the deployments of given site from the environment branches and mark it as indexed. Rows recorded by
+     * publishing are kept unless they are replaced, the unique key of the deployment history drops duplicates.
+     */
+    private void indexDeployments(String site, boolean replace) {
+        logger.info("Indexing deployment history for site {}", site);
+        Repository publishedRepo = helper.getRepository(site, PUBLISHED);
+        if (publishedRepo == null) {
+            return;
+        }
+        String sandboxBranch = Constants.R_HEADS + studioConfiguration.getProperty(REPO_SANDBOX_BRANCH);
+        List<PublishedItem> publishedItems = new ArrayList<PublishedItem>();
+        List<DeploymentSyncHistory> deploymentHistory = new ArrayList<DeploymentSyncHistory>();
+        int historySize = 0;
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("site", site);
+        // Publishing is kept out while replacing so it can't record items that the rebuild then drops
+        RepositoryLock repositoryLock = helper.getRepositoryLock(publishedRepo);
+        if (replace) {
+            repositoryLock.lockUpdate();
+        }
+        try (RevWalk rw = new RevWalk(publishedRepo)) {
+            if (replace) {
+                publishedItemMapper.deletePublishedItemsForSite(params);
+                deploymentHistoryMapper.deleteDeploymentHistoryForSite(params);
+            }
+
+            for (Ref ref : publishedRepo.getRefDatabase().getRefs(Constants.R_HEADS).values()) {
+                if (ref.getName().equals(sandboxBranch) || ref.getName().endsWith(IN_PROGRESS_BRANCH_NAME_SUFIX)) {
+                    continue;
+                }
+                String environment = Repository.shortenRefName(ref.getName());
+                // Commits come newest first, so the first commit that touches a path is its last deployment
+                Set<String> seen = new HashSet<String>();
+                rw.reset();
+                rw.markStart(rw.parseCommit(ref.getObjectId()));
+                for (RevCommit commit : rw) {
+                    ZonedDateTime commitDate = Instant.ofEpochSecond(commit.getCommitTime()).atZone(ZoneOffset.UTC);
+                    String username = commit.getAuthorIdent().getName();
+                    for (String path : helper.getFilesInCommit(publishedRepo, commit)) {
+                        if (ArrayUtils.contains(IGNORE_FILES, FilenameUtils.getName(path))) {
+                            continue;
+                        }
+                        deploymentHistory.add(createDeploymentSyncHistory(site, path, environment,
+                                commit.getName(), username, commitDate));
+                        if (seen.add(path)) {
+                            publishedItems.add(new PublishedItem(site, path, environment, commit.getName(),
+                                    commitDate));
+                        }
+                    }
+                    if (deploymentHistory.size() >= PUBLISHED_ITEMS_BATCH_SIZE) {
+                        historySize += deploymentHistory.size();
+                        insertDeploymentHistory(deploymentHistory);
+                        deploymentHistory.clear();
+                    }
+                }
+            }
+
+            historySize += deploymentHistory.size();
+            insertDeploymentHistory(deploymentHistory);
+            upsertPublishedItems(publishedItems);
+            markDeploymentsIndexed(site);
+        } catch (IOException e) {
+            logger.error("Error while indexing deployment history for site " + site, e);
+            return;
+        } finally {
+            if (replace) {
+                repositoryLock.unlockUpdate();
+            }
+        }
+        logger.info("Indexed {} deployments of {} items for site {}", historySize, publishedItems.size(), site);
+    }
+
+    private void markDeploymentsIndexed(String site) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("site", site);
+        deploymentHistoryMapper.markDeploymentIndexed(params);
+        indexedPublishedSites.add(site);
+    }
+
+    private void clearDeploymentsIndexed(String site) {
+        indexedPublishedSites.remove(site);
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("site", site);
+        try {
+            deploymentHistoryMapper.deleteDeploymentIndexed(params);
+        } catch (Exception e) {
+            logger.error("Error clearing the deployment index marker for site " + site, e);
+        }
+    }
+
+    private DeploymentSyncHistory createDeploymentSyncHistory(String site, String path, String environment,
+                                                              String commitId, String username,
+                                                              ZonedDateTime deploymentDate) {
+        DeploymentSyncHistory dsh = new DeploymentSyncHistory();
+        dsh.setSite(site);
+        dsh.setPath(path);
+        dsh.setEnvironment(environment);
+        dsh.setCommitId(commitId);
+        dsh.setUser(username);
+        dsh.setSyncDate(deploymentDate);
+        return dsh;
+    }
+
+    private void insertDeploymentHistory(List<DeploymentSyncHistory> deploymentHistory) {
+        for (int i = 0; i < deploymentHistory.size(); i += PUBLISHED_ITEMS_BATCH_SIZE) {
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("items", deploymentHistory.subList(i,
+                    Math.min(i + PUBLISHED_ITEMS_BATCH_SIZE, deploymentHistory.size())));
+            deploymentHistoryMapper.insertDeploymentHistory(params);
+        }
+    }
+
+    private void upsertPublishedItems(List<PublishedItem> publishedItems) {
+        for (int i = 0; i < publishedItems.size(); i += PUBLISHED_ITEMS_BATCH_SIZE) {
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("items", publishedItems.subList(i,
+                    Math.min(i + PUBLISHED_ITEMS_BATCH_SIZE, publishedItems.size())));
+            publishedItemMapper.upsertPublishedItems(params);
+        }
+    }
+
     @Override
     public List<String> getEditCommitIds(String site, String path, String commitIdFrom, String commitIdTo) {
         List<String> commitIds = new ArrayList<String>();
 
-        synchronized (helper.getRepository(site, SANDBOX)) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(helper.getRepository(site, SANDBOX));
+        repositoryLock.lockRead();
+        try {
             try {
                 // Get the sandbox repo, and then get a reference to the commitId we received and another for head
                 Repository repo = helper.getRepository(site, SANDBOX);
@@ -1597,6 +2199,8 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
                 logger.error("Error getting operations for site " + site + " and path " + path +
                         " from commit ID: " + commitIdFrom + " to commit ID: " + commitIdTo, e);
             }
+        } finally {
+            repositoryLock.unlockRead();
         }
 
         return commitIds;
@@ -1647,11 +2251,51 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
         }
     }
 
+    @Override
+    public List<GitLog> getGitLogs(String siteId, List<String> commitIds) {
+        if (CollectionUtils.isEmpty(commitIds)) {
+            return new ArrayList<GitLog>();
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("siteId", siteId);
+        params.put("commitIds", commitIds);
+        return gitLogMapper.getGitLogs(params);
+    }
+
+    @Override
+    public void insertGitLogs(String siteId, List<String> commitIds, int processed) {
+        if (CollectionUtils.isEmpty(commitIds)) {
+            return;
+        }
+        List<GitLog> gitLogs = new ArrayList<GitLog>();
+        for (String commitId : commitIds) {
+            GitLog gitLog = new GitLog();
+            gitLog.setCommitId(commitId);
+            gitLog.setProcessed(processed);
+            gitLog.setSiteId(siteId);
+            gitLogs.add(gitLog);
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("siteId", siteId);
+        params.put("gitLogs", gitLogs);
+        try {
+            gitLogMapper.insertGitLogList(params);
+        } catch (DuplicateKeyException e) {
+            logger.debug("Failed to insert list of commit ids for site: " + siteId + " into gitlog table, " +
+                    "inserting them one by one.");
+            for (String commitId : commitIds) {
+                insertGitLog(siteId, commitId, processed);
+            }
+        }
+    }
+
     @Override
     public void insertFullGitLog(String siteId, int processed) {
         List<GitLog> gitLogs = new ArrayList<>();
 
-        synchronized (helper.getRepository(siteId, SANDBOX)) {
+        RepositoryLock repositoryLock = helper.getRepositoryLock(helper.getRepository(siteId, SANDBOX));
+        repositoryLock.lockRead();
+        try {
             Repository repo = helper.getRepository(siteId, SANDBOX);
             try (Git git = new Git(repo)) {
                 Iterable<RevCommit> logs = git.log().call();
@@ -1665,6 +2309,8 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
             } catch (GitAPIException e) {
                 logger.error("Error getting full git log for site " + siteId, e);
             }
+        } finally {
+            repositoryLock.unlockRead();
         }
 
         Map<String, Object> params = new HashMap<String, Object>();
@@ -1683,6 +2329,18 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
         gitLogMapper.markGitLogProcessed(params);
     }
 
+    @Override
+    public void markGitLogsVerifiedProcessed(String siteId, List<String> commitIds) {
+        if (CollectionUtils.isEmpty(commitIds)) {
+            return;
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("siteId", siteId);
+        params.put("commitIds", commitIds);
+        params.put("processed", 1);
+        gitLogMapper.upsertGitLogList(params);
+    }
+
     @Override
     public void deleteGitLogForSite(String siteId) {
         Map<String, Object> params = new HashMap<String, Object>();
@@ -2139,4 +2797,12 @@ public class GitContentRepository implements ContentRepository, ServletContextAw
     public void setStudioConfiguration(final StudioConfiguration studioConfiguration) {
         this.studioConfiguration = studioConfiguration;
     }
+
+    public void setGeneralLockService(final GeneralLockService generalLockService) {
+        this.generalLockService = generalLockService;
+    }
+
+    public void setTaskExecutor(final TaskExecutor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
 }
@@ -35,7 +35,9 @@ import org.craftercms.studio.api.v1.exception.repository.InvalidRemoteRepository
 import org.craftercms.studio.api.v1.exception.repository.RemoteRepositoryNotFoundException;
 import org.craftercms.studio.api.v1.log.Logger;
 import org.craftercms.studio.api.v1.log.LoggerFactory;
+import org.craftercms.studio.api.v1.service.deployment.DeploymentException;
 import org.craftercms.studio.api.v1.service.security.SecurityProvider;
+import org.craftercms.studio.api.v1.to.DeploymentItemTO;
 import org.craftercms.studio.api.v1.util.StudioConfiguration;
 import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.api.Git;
@@ -49,14 +51,19 @@ import org.eclipse.jgit.dircache.DirCache;
 import org.eclipse.jgit.errors.AmbiguousObjectException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.CommitBuilder;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.RepositoryCache;
 import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.lib.TreeFormatter;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -68,6 +75,7 @@ import org.eclipse.jgit.transport.SshTransport;
 import org.eclipse.jgit.transport.Transport;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.util.FS;
 
 import java.io.File;
@@ -89,7 +97,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static org.craftercms.studio.api.v1.constant.GitRepositories.SANDBOX;
 import static org.craftercms.studio.api.v1.constant.SecurityConstants.KEY_EMAIL;
@@ -108,6 +124,7 @@ import static org.craftercms.studio.impl.v1.repository.git.GitContentRepositoryC
 import static org.craftercms.studio.impl.v1.repository.git.GitContentRepositoryConstants.CONFIG_PARAMETER_FILE_MODE;
 import static org.craftercms.studio.impl.v1.repository.git.GitContentRepositoryConstants.CONFIG_PARAMETER_FILE_MODE_DEFAULT;
 import static org.craftercms.studio.impl.v1.repository.git.GitContentRepositoryConstants.CONFIG_SECTION_CORE;
+import static org.craftercms.studio.impl.v1.repository.git.GitContentRepositoryConstants.EMPTY_FILE;
 import static org.craftercms.studio.impl.v1.repository.git.GitContentRepositoryConstants.GIT_COMMIT_ALL_ITEMS;
 import static org.craftercms.studio.impl.v1.repository.git.GitContentRepositoryConstants.GIT_ROOT;
 
@@ -117,9 +134,16 @@ import static org.craftercms.studio.impl.v1.repository.git.GitContentRepositoryC
 public class GitContentRepositoryHelper {
     private static final Logger logger = LoggerFactory.getLogger(GitContentRepositoryHelper.class);
 
+    private static final int MAX_POOLED_OBJECT_READERS = 16;
+
     Map<String, Repository> sandboxes = new HashMap<>();
     Map<String, Repository> published = new HashMap<>();
 
+    // Snapshot of the tree of the last commit per repository, swapped as a whole when HEAD moves
+    Map<Repository, TreeSnapshot> lastCommitTrees = new ConcurrentHashMap<>();
+    Map<Repository, Queue<ObjectReader>> objectReaders = new ConcurrentHashMap<>();
+    Map<Repository, RepositoryLock> repositoryLocks = new ConcurrentHashMap<>();
+
     Repository globalRepo = null;
 
     StudioConfiguration studioConfiguration;
@@ -404,11 +428,13 @@ public class GitContentRepositoryHelper {
 
         try {
             Repository sboxRepo = sandboxes.get(site);
+            releaseRepositoryCaches(sboxRepo);
             sboxRepo.close();
             sandboxes.remove(site);
             RepositoryCache.close(sboxRepo);
             sboxRepo = null;
             Repository pubRepo = published.get(site);
+            releaseRepositoryCaches(pubRepo);
             pubRepo.close();
             published.remove(site);
             RepositoryCache.close(pubRepo);
@@ -502,6 +528,7 @@ public class GitContentRepositoryHelper {
                 RevCommit commit = git.commit()
                     .setMessage(message)
                     .call();
+                updateTreeForLastCommit(repo, commit);
                 // TODO: SJ: Do we need the commit id?
                 // commitId = commit.getName();
             }
@@ -588,7 +615,14 @@ public class GitContentRepositoryHelper {
     public RevTree getTreeForLastCommit(Repository repository) throws AmbiguousObjectException,
         IncorrectObjectTypeException,
         IOException, MissingObjectException {
-        ObjectId lastCommitId = repository.resolve(Constants.HEAD);
+        // Only the ref is read for every call, the commit is parsed again only if HEAD moved (this also picks up
+        // commits done outside of this helper)
+        Ref head = repository.exactRef(Constants.HEAD);
+        ObjectId lastCommitId = head != null ? head.getObjectId() : null;
+        TreeSnapshot snapshot = lastCommitTrees.get(repository);
+        if (snapshot != null && lastCommitId != null && snapshot.commitId.equals(lastCommitId)) {
+            return snapshot.tree;
+        }
 
         // a RevWalk allows to walk over commits based on some filtering
         try (RevWalk revWalk = new RevWalk(repository)) {
@@ -596,10 +630,70 @@ public class GitContentRepositoryHelper {
 
             // and using commit's tree find the path
             RevTree tree = commit.getTree();
+            updateTreeForLastCommit(repository, commit);
             return tree;
         }
     }
 
+    /**
+     * Replace the snapshot of the last commit tree for the repository
+     * @param repository repository that was committed to
+     * @param commit new last commit
+     */
+    public void updateTreeForLastCommit(Repository repository, RevCommit commit) {
+        lastCommitTrees.put(repository, new TreeSnapshot(commit.copy(), commit.getTree()));
+    }
+
+    /**
+     * Get an object reader for the repository from the pool, readers must be returned with
+     * {@link #releaseObjectReader(Repository, ObjectReader)} and must not be shared between threads
+     * @param repository repository to read from
+     * @return object reader
+     */
+    public ObjectReader getObjectReader(Repository repository) {
+        Queue<ObjectReader> pool = objectReaders.get(repository);
+        ObjectReader reader = pool != null ? pool.poll() : null;
+        if (reader == null) {
+            reader = repository.newObjectReader();
+        }
+        return reader;
+    }
+
+    public void releaseObjectReader(Repository repository, ObjectReader reader) {
+        if (reader == null) {
+            return;
+        }
+        Queue<ObjectReader> pool = objectReaders.computeIfAbsent(repository, r -> new ConcurrentLinkedQueue<>());
+        if (pool.size() < MAX_POOLED_OBJECT_READERS) {
+            pool.offer(reader);
+        } else {
+            reader.close();
+        }
+    }
+
+    /**
+     * Get the lock of the repository. Callers must keep the returned instance to unlock it, the repository may be
+     * released (and its lock dropped) while they hold it.
+     */
+    public RepositoryLock getRepositoryLock(Repository repository) {
+        return repositoryLocks.computeIfAbsent(repository, r -> new RepositoryLock());
+    }
+
+    protected void releaseRepositoryCaches(Repository repository) {
+        if (repository == null) {
+            return;
+        }
+        lastCommitTrees.remove(repository);
+        repositoryLocks.remove(repository);
+        Queue<ObjectReader> pool = objectReaders.remove(repository);
+        if (pool != null) {
+            ObjectReader reader;
+            while ((reader = pool.poll()) != null) {
+                reader.close();
+            }
+        }
+    }
+
     // TODO: SJ: Fix the exception handling in this method
     public RevTree getTreeForCommit(Repository repository, String commitId) throws IOException {
         ObjectId commitObjectId = repository.resolve(commitId);
@@ -688,6 +782,7 @@ public class GitContentRepositoryHelper {
                 RevCommit commit;
                 commit = git.commit().setOnly(gitPath).setAuthor(user).setCommitter(user).setMessage(comment).call();
                 commitId = commit.getName();
+                updateTreeForLastCommit(repo, commit);
             }
 
             git.close();
@@ -934,4 +1029,229 @@ public class GitContentRepositoryHelper {
             }
         }
     }
+
+    /**
+     * Apply the deployment items to the tree of the environment branch in memory and commit the result on top of
+     * it, without checking out any file. Files are taken from the commit each item was published from.
+     *
+     * @param repo published repository
+     * @param site site id
+     * @param environment environment branch
+     * @param deploymentItems items to deploy
+     * @param authorIdent author of the commit
+     * @param commitMessage commit message
+     * @return the new commit of the environment branch
+     * @throws DeploymentException if the environment branch was moved meanwhile
+     */
+    public RevCommit commitDeploymentItems(Repository repo, String site, String environment,
+                                           List<DeploymentItemTO> deploymentItems, PersonIdent authorIdent,
+                                           String commitMessage) throws IOException, DeploymentException {
+        try (RevWalk rw = new RevWalk(repo);
+             ObjectInserter inserter = repo.newObjectInserter()) {
+            Ref environmentRef = repo.exactRef(Constants.R_HEADS + environment);
+            RevCommit environmentCommit = rw.parseCommit(environmentRef.getObjectId());
+
+            // Later items win when several items touch the same path, a null entry removes the path
+            Map<String, RevTree> commitTrees = new HashMap<String, RevTree>();
+            Map<String, TreeEntry> edits = new HashMap<String, TreeEntry>();
+            for (DeploymentItemTO deploymentItem : deploymentItems) {
+                String commitId = deploymentItem.getCommitId();
+                String path = getGitPath(deploymentItem.getPath());
+                if (deploymentItem.isMove()) {
+                    edits.put(getGitPath(deploymentItem.getOldPath()), null);
+                }
+                if (deploymentItem.isDelete()) {
+                    edits.put(path, null);
+                } else {
+                    logger.debug("Publishing file " + path + " from commit id " + commitId +
+                            " for site " + site);
+                    RevTree commitTree = commitTrees.get(commitId);
+                    if (commitTree == null) {
+                        commitTree = rw.parseCommit(repo.resolve(commitId)).getTree();
+                        commitTrees.put(commitId, commitTree);
+                    }
+                    try (TreeWalk tw = TreeWalk.forPath(rw.getObjectReader(), path, commitTree)) {
+                        if (tw != null) {
+                            edits.put(path, new TreeEntry(tw.getFileMode(0), tw.getObjectId(0)));
+                        } else {
+                            logger.debug("File " + path + " not found in commit id " + commitId +
+                                    " for site " + site);
+                        }
+                    }
+                }
+            }
+
+            // Only the trees on the way to the deployed items are rewritten, the rest of the environment tree is
+            // reused as it is
+            ObjectId treeId = editTree(rw.getObjectReader(), inserter, environmentCommit.getTree(), edits, false);
+
+            // commit all deployed files
+            CommitBuilder commitBuilder = new CommitBuilder();
+            commitBuilder.setTreeId(treeId);
+            commitBuilder.setParentId(environmentCommit);
+            commitBuilder.setAuthor(authorIdent);
+            commitBuilder.setCommitter(new PersonIdent(repo));
+            commitBuilder.setMessage(commitMessage);
+            ObjectId newCommitId = inserter.insert(commitBuilder);
+            inserter.flush();
+            RevCommit revCommit = rw.parseCommit(newCommitId);
+
+            // Move the environment branch to the new commit, failing if it was moved meanwhile
+            RefUpdate refUpdate = repo.updateRef(Constants.R_HEADS + environment);
+            refUpdate.setNewObjectId(newCommitId);
+            refUpdate.setExpectedOldObjectId(environmentCommit);
+            refUpdate.setRefLogMessage("commit: " + revCommit.getShortMessage(), false);
+            RefUpdate.Result result = refUpdate.update(rw);
+            if (result != RefUpdate.Result.FAST_FORWARD) {
+                throw new DeploymentException("Failed to update environment branch " + environment +
+                        " for site " + site + " from commit ID " + environmentCommit.getName() + " to commit ID " +
+                        newCommitId.getName() + ", result: " + result);
+            }
+            return revCommit;
+        }
+    }
+
+    /**
+     * Apply the edits to a tree, only the subtrees containing edited paths are read and written again. Folders where
+     * something was removed are removed too when nothing but their placeholder file is left, all the way up to the
+     * first folder that still has content.
+     *
+     * @param treeId tree to edit, null if it doesn't exist yet
+     * @param edits entries to set by path relative to the tree, null entries remove the path
+     * @param removeEmpty whether the tree can be removed when left empty
+     * @return id of the new tree, or null if it was removed
+     */
+    private ObjectId editTree(ObjectReader reader, ObjectInserter inserter, ObjectId treeId,
+                              Map<String, TreeEntry> edits, boolean removeEmpty) throws IOException {
+        Map<String, TreeEntry> entries = new HashMap<String, TreeEntry>();
+        if (treeId != null) {
+            CanonicalTreeParser parser = new CanonicalTreeParser(null, reader, treeId);
+            while (!parser.eof()) {
+                entries.put(parser.getEntryPathString(),
+                        new TreeEntry(parser.getEntryFileMode(), parser.getEntryObjectId()));
+                parser.next();
+            }
+        }
+
+        boolean removal = false;
+        Map<String, Map<String, TreeEntry>> subtreeEdits = new HashMap<String, Map<String, TreeEntry>>();
+        for (Map.Entry<String, TreeEntry> edit : edits.entrySet()) {
+            String path = edit.getKey();
+            removal |= edit.getValue() == null;
+            int index = path.indexOf(FILE_SEPARATOR);
+            if (index < 0) {
+                if (edit.getValue() == null) {
+                    entries.remove(path);
+                } else {
+                    entries.put(path, edit.getValue());
+                }
+            } else {
+                subtreeEdits.computeIfAbsent(path.substring(0, index), k -> new HashMap<String, TreeEntry>())
+                        .put(path.substring(index + 1), edit.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, TreeEntry>> subtreeEdit : subtreeEdits.entrySet()) {
+            String name = subtreeEdit.getKey();
+            TreeEntry entry = entries.get(name);
+            ObjectId subtreeId = editTree(reader, inserter,
+                    entry != null && entry.fileMode == FileMode.TREE ? entry.objectId : null,
+                    subtreeEdit.getValue(), true);
+            if (subtreeId != null) {
+                entries.put(name, new TreeEntry(FileMode.TREE, subtreeId));
+            } else if (entry != null && entry.fileMode == FileMode.TREE) {
+                entries.remove(name);
+            }
+        }
+
+        if (removeEmpty && (entries.isEmpty() ||
+                (removal && entries.size() == 1 && entries.containsKey(EMPTY_FILE)))) {
+            return null;
+        }
+
+        // Git expects the entries sorted by name, with folders compared as if their name ended with a slash
+        Map<byte[], String> names = new TreeMap<byte[], String>(GitContentRepositoryHelper::compareNames);
+        for (Map.Entry<String, TreeEntry> entry : entries.entrySet()) {
+            names.put(Constants.encode(entry.getValue().fileMode == FileMode.TREE ?
+                    entry.getKey() + FILE_SEPARATOR : entry.getKey()), entry.getKey());
+        }
+        TreeFormatter formatter = new TreeFormatter();
+        for (String name : names.values()) {
+            TreeEntry entry = entries.get(name);
+            formatter.append(name, entry.fileMode, entry.objectId);
+        }
+        return inserter.insert(formatter);
+    }
+
+    private static int compareNames(byte[] name1, byte[] name2) {
+        int length = Math.min(name1.length, name2.length);
+        for (int i = 0; i < length; i++) {
+            int cmp = (name1[i] & 0xff) - (name2[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return name1.length - name2.length;
+    }
+
+    static class TreeEntry {
+
+        final FileMode fileMode;
+        final ObjectId objectId;
+
+        TreeEntry(FileMode fileMode, ObjectId objectId) {
+            this.fileMode = fileMode;
+            this.objectId = objectId;
+        }
+    }
+
+    static class TreeSnapshot {
+
+        final ObjectId commitId;
+        final RevTree tree;
+
+        TreeSnapshot(ObjectId commitId, RevTree tree) {
+            this.commitId = commitId;
+            this.tree = tree;
+        }
+    }
+
+    /**
+     * Locking scheme of a repository.
+     *
+     * Reads walk commits and trees, which are immutable, so they never wait for writes: they only take the shared
+     * side of a read/write lock that keeps the repository from being closed under them. Operations that update refs
+     * (commits, tags, publishing) also take the shared side and are serialized among themselves by a separate lock.
+     * The exclusive side is only taken to close and delete the repository.
+     */
+    public static class RepositoryLock {
+
+        private final ReadWriteLock lifecycleLock = new ReentrantReadWriteLock();
+        private final Lock updateLock = new ReentrantLock();
+
+        public void lockRead() {
+            lifecycleLock.readLock().lock();
+        }
+
+        public void unlockRead() {
+            lifecycleLock.readLock().unlock();
+        }
+
+        public void lockUpdate() {
+            lifecycleLock.readLock().lock();
+            updateLock.lock();
+        }
+
+        public void unlockUpdate() {
+            updateLock.unlock();
+            lifecycleLock.readLock().unlock();
+        }
+
+        public void lockExclusive() {
+            lifecycleLock.writeLock().lock();
+        }
+
+        public void unlockExclusive() {
+            lifecycleLock.writeLock().unlock();
+        }
+    }
 }
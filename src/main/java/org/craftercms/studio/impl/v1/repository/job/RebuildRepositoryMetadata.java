@@ -19,25 +19,44 @@
 
 package org.craftercms.studio.impl.v1.repository.job;
 
+import org.craftercms.studio.api.v1.constant.DmConstants;
+import org.craftercms.studio.api.v1.dal.GitLog;
+import org.craftercms.studio.api.v1.dal.ItemMetadata;
 import org.craftercms.studio.api.v1.dal.PublishRequestMapper;
+import org.craftercms.studio.api.v1.dal.SiteFeedMapper;
+import org.craftercms.studio.api.v1.exception.ServiceException;
 import org.craftercms.studio.api.v1.job.CronJobContext;
 import org.craftercms.studio.api.v1.log.Logger;
 import org.craftercms.studio.api.v1.log.LoggerFactory;
 import org.craftercms.studio.api.v1.repository.ContentRepository;
+import org.craftercms.studio.api.v1.service.configuration.ServicesConfig;
 import org.craftercms.studio.api.v1.service.content.ContentService;
 import org.craftercms.studio.api.v1.service.content.ObjectMetadataManager;
 import org.craftercms.studio.api.v1.service.dependency.DependencyService;
+import org.craftercms.studio.api.v1.service.deployment.DeploymentHistoryProvider;
 import org.craftercms.studio.api.v1.service.objectstate.ObjectStateService;
 import org.craftercms.studio.api.v1.service.security.SecurityService;
 import org.craftercms.studio.api.v1.service.site.SiteService;
+import org.craftercms.studio.api.v1.to.RepoOperationTO;
 import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.craftercms.studio.impl.v1.util.ContentUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.task.TaskExecutor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static org.craftercms.studio.api.v1.util.StudioConfiguration.REPO_REBUILD_METADATA_BATCH_SIZE;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.REPO_REBUILD_METADATA_WORKER_POOL_SIZE;
 
 public class RebuildRepositoryMetadata {
 
@@ -48,6 +67,9 @@ public class RebuildRepositoryMetadata {
     @Autowired
     protected PublishRequestMapper publishRequestMapper;
 
+    @Autowired
+    protected SiteFeedMapper siteFeedMapper;
+
     protected ObjectMetadataManager objectMetadataManager;
     protected ObjectStateService objectStateService;
     protected DependencyService dependencyService;
@@ -57,6 +79,9 @@ public class RebuildRepositoryMetadata {
     protected StudioConfiguration studioConfiguration;
     protected SiteService siteService;
     protected ContentRepository contentRepository;
+    protected DeploymentHistoryProvider deploymentHistoryProvider;
+    protected ServicesConfig servicesConfig;
+    protected PlatformTransactionManager transactionManager;
 
     public void execute(String site) {
         if (taskLock.tryLock()) {
@@ -90,6 +115,8 @@ public class RebuildRepositoryMetadata {
             cleanOldMetadata(site);
             logger.debug("Initiate rebuild metadata process for site " + site);
             rebuildMetadata(site);
+            logger.debug("Rebuild deployment history for site " + site);
+            deploymentHistoryProvider.rebuildDeploymentHistory(site);
             CronJobContext.clear();
             logger.debug("Finished rebuilding repository metadata for site " + site);
         }
@@ -136,16 +163,132 @@ public class RebuildRepositoryMetadata {
     }
 
 
+    /**
+     * Rebuild the metadata from the current tree of the repository instead of replaying its history. Files are
+     * streamed in batches to a pool of workers, at most two batches per worker are waiting at any time, and every
+     * batch is written with bulk inserts in its own transaction.
+     */
     protected boolean rebuildMetadata(String site) {
-        siteService.syncDatabaseWithRepo(site, null);
+        final String commitId = contentRepository.getRepoLastCommitId(site);
+        final CronJobContext securityContext = CronJobContext.getCurrent();
+        final int workerPoolSize = getWorkerPoolSize();
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(workerPoolSize, runnable -> {
+            Thread thread = new Thread(runnable, "studio-rebuild-metadata-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        final Semaphore pendingBatches = new Semaphore(workerPoolSize * 2);
+        final AtomicBoolean result = new AtomicBoolean(true);
+        boolean walked;
+        try {
+            walked = contentRepository.walkTreeOperations(site, commitId, getBatchSize(), batch -> {
+                pendingBatches.acquireUninterruptibly();
+                try {
+                    workers.execute(() -> {
+                        CronJobContext.setCurrent(securityContext);
+                        try {
+                            if (!rebuildBatch(site, batch)) {
+                                result.set(false);
+                            }
+                        } catch (RuntimeException e) {
+                            logger.error("Error rebuilding metadata for a batch of items of site " + site, e);
+                            result.set(false);
+                        } finally {
+                            CronJobContext.clear();
+                            pendingBatches.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    pendingBatches.release();
+                    throw e;
+                }
+            });
+        } finally {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (walked) {
+            GitLog gitLog = contentRepository.getGitLog(site, commitId);
+            if (gitLog == null) {
+                contentRepository.insertGitLog(site, commitId, 1);
+            } else {
+                contentRepository.markGitLogVerifiedProcessed(site, commitId);
+            }
+            Map<String, String> params = new HashMap<String, String>();
+            params.put("siteId", site);
+            params.put("commitId", commitId);
+            siteFeedMapper.updateLastVerifiedGitlogCommitId(params);
+            siteService.updateLastCommitId(site, commitId);
+        }
+        if (!walked || !result.get()) {
+            logger.error("Some items failed to be rebuilt for site: " + site + " see previous error logs");
+        }
+        return walked && result.get();
+    }
+
+    protected boolean rebuildBatch(String site, List<RepoOperationTO> batch) {
+        List<String> paths = new ArrayList<String>();
+        List<String> dependencySources = new ArrayList<String>();
+        for (RepoOperationTO repoOperation : batch) {
+            paths.add(repoOperation.getPath());
+            if (isDependencySource(site, repoOperation.getPath())) {
+                dependencySources.add(repoOperation.getPath());
+            }
+        }
+        // All items of a batch come from the same commit
+        RepoOperationTO first = batch.get(0);
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(ItemMetadata.PROP_MODIFIER, first.getAuthor());
+        properties.put(ItemMetadata.PROP_MODIFIED, first.getDateTime());
+        properties.put(ItemMetadata.PROP_COMMIT_ID, first.getCommitId());
+
+        logger.debug("Insert state and metadata for " + paths.size() + " items of site " + site);
+        DefaultTransactionDefinition defaultTransactionDefinition = new DefaultTransactionDefinition();
+        defaultTransactionDefinition.setName("rebuildRepositoryMetadata");
+        TransactionStatus txStatus = transactionManager.getTransaction(defaultTransactionDefinition);
+        try {
+            objectStateService.insertNewEntries(site, paths);
+            objectMetadataManager.insertNewObjectMetadata(site, paths, properties);
+            transactionManager.commit(txStatus);
+        } catch (RuntimeException e) {
+            if (!txStatus.isCompleted()) {
+                transactionManager.rollback(txStatus);
+            }
+            throw e;
+        }
+
+        if (!dependencySources.isEmpty()) {
+            try {
+                dependencyService.upsertDependencies(site, dependencySources);
+            } catch (ServiceException e) {
+                logger.error("Failed to extract dependencies for a batch of items of site " + site, e);
+                return false;
+            }
+        }
         return true;
     }
 
+    protected boolean isDependencySource(String site, String path) {
+        return path.endsWith(DmConstants.XML_PATTERN) || path.endsWith(DmConstants.CSS_PATTERN) ||
+                path.endsWith(DmConstants.JS_PATTERN) ||
+                ContentUtils.matchesPatterns(path, servicesConfig.getRenderingTemplatePatterns(site));
+    }
+
     public int getBatchSize() {
         int toReturn = Integer.parseInt(studioConfiguration.getProperty(REPO_REBUILD_METADATA_BATCH_SIZE));
         return toReturn;
     }
 
+    public int getWorkerPoolSize() {
+        return Integer.parseInt(studioConfiguration.getProperty(REPO_REBUILD_METADATA_WORKER_POOL_SIZE));
+    }
+
     public ObjectMetadataManager getObjectMetadataManager() { return objectMetadataManager; }
     public void setObjectMetadataManager(ObjectMetadataManager objectMetadataManager) { this.objectMetadataManager = objectMetadataManager; }
 
@@ -172,4 +315,13 @@ public class RebuildRepositoryMetadata {
 
     public ContentRepository getContentRepository() { return contentRepository; }
     public void setContentRepository(ContentRepository contentRepository) { this.contentRepository = contentRepository; }
+
+    public DeploymentHistoryProvider getDeploymentHistoryProvider() { return deploymentHistoryProvider; }
+    public void setDeploymentHistoryProvider(DeploymentHistoryProvider deploymentHistoryProvider) { this.deploymentHistoryProvider = deploymentHistoryProvider; }
+
+    public ServicesConfig getServicesConfig() { return servicesConfig; }
+    public void setServicesConfig(ServicesConfig servicesConfig) { this.servicesConfig = servicesConfig; }
+
+    public PlatformTransactionManager getTransactionManager() { return transactionManager; }
+    public void setTransactionManager(PlatformTransactionManager transactionManager) { this.transactionManager = transactionManager; }
 }
@@ -0,0 +1,329 @@
+/*
+ * Crafter Studio
+ * Copyright (C) 2007-2018 Crafter Software Corporation. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.studio.impl.v1.service;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.craftercms.commons.validation.annotations.param.ValidateParams;
+import org.craftercms.commons.validation.annotations.param.ValidateStringParam;
+import org.craftercms.studio.api.v1.dal.ClusterLockMapper;
+import org.craftercms.studio.api.v1.exception.LockLostException;
+import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CLUSTER_LOCK_ENABLED;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CLUSTER_LOCK_LEASE_TIME;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CLUSTER_LOCK_RETRY_INTERVAL;
+
+/**
+ * General lock service that makes locks exclusive between all studio nodes working with the same database.
+ *
+ * A thread first gets the node local lock of the id, so only one thread per node competes for the database lease of
+ * that id, and nested locking by the thread that already has the lease never goes to the database. Leases have an
+ * owner, an expiration time and a fencing token (increasing for every new lease). Leases held by this node are
+ * renewed in the background, so if a node stops working its locks become available after the lease time.
+ * Lease statements always run in their own transaction, so they are visible to other nodes right away even when the
+ * lock is taken inside a longer transaction. The mapper and transaction manager given to this service should use a
+ * connection pool of their own: otherwise a thread taking a lock inside a transaction needs a second connection of the
+ * pool it already holds one from, and enough such threads at once exhaust the pool and wait on each other.
+ *
+ * A lease that could not be renewed because it is gone from the database is marked as lost, and
+ * {@link #getFencingToken(String)} and {@link #checkLockHeld(String)} throw {@link LockLostException} to its holder
+ * from then on. Writes guarded by a lock pass its fencing token to the database so they are rejected even before the
+ * holder notices the loss.
+ *
+ * When cluster locks are disabled this behaves exactly like {@link GeneralLockServiceImpl}.
+ */
+public class DbGeneralLockServiceImpl extends GeneralLockServiceImpl {
+
+    private static final Logger logger = LoggerFactory.getLogger(DbGeneralLockServiceImpl.class);
+
+    protected ClusterLockMapper clusterLockMapper;
+    protected StudioConfiguration studioConfiguration;
+    protected PlatformTransactionManager transactionManager;
+
+    /** leases held by this node, only modified by the thread holding the local lock of the id */
+    protected ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<String, Lease>();
+
+    protected final String owner = getHostName() + ":" + UUID.randomUUID().toString();
+
+    protected ScheduledExecutorService leaseRenewer;
+
+    @Override
+    public void register() {
+        super.register();
+        if (isEnabled()) {
+            long period = Math.max(1L, TimeUnit.SECONDS.toMillis(getLeaseTime()) / 3);
+            leaseRenewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "studio-cluster-lock-renewer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            leaseRenewer.scheduleWithFixedDelay(this::renewLeases, period, period, TimeUnit.MILLISECONDS);
+            logger.info("Cluster locks enabled, lock owner id for this node is " + owner);
+        }
+    }
+
+    public void destroy() {
+        if (leaseRenewer != null) {
+            leaseRenewer.shutdownNow();
+        }
+    }
+
+    @Override
+    @ValidateParams
+    public void lock(@ValidateStringParam(name = "objectId") String objectId) {
+        super.lock(objectId);
+        if (!isEnabled()) {
+            return;
+        }
+        Lease lease = leases.get(objectId);
+        if (lease != null) {
+            // This thread already holds the lease
+            lease.holds++;
+            return;
+        }
+        boolean interrupted = false;
+        try {
+            while (!acquireLease(objectId)) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("[" + Thread.currentThread().getName() + "]" + " Waiting for lease of id " + objectId);
+                }
+                try {
+                    Thread.sleep(getRetryInterval());
+                } catch (InterruptedException e) {
+                    // Same as the local lock, waiting for the lock is not interruptible
+                    interrupted = true;
+                }
+            }
+        } catch (RuntimeException e) {
+            super.unlock(objectId);
+            throw e;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    @ValidateParams
+    public boolean tryLock(@ValidateStringParam(name = "objectId") String objectId) {
+        if (!super.tryLock(objectId)) {
+            return false;
+        }
+        if (!isEnabled()) {
+            return true;
+        }
+        Lease lease = leases.get(objectId);
+        if (lease != null) {
+            lease.holds++;
+            return true;
+        }
+        boolean toRet = false;
+        try {
+            toRet = acquireLease(objectId);
+        } finally {
+            if (!toRet) {
+                super.unlock(objectId);
+            }
+        }
+        return toRet;
+    }
+
+    @Override
+    @ValidateParams
+    public void unlock(@ValidateStringParam(name = "objectId") String objectId) {
+        if (isHeldByCurrentThread(objectId)) {
+            Lease lease = leases.get(objectId);
+            if (lease != null && --lease.holds == 0) {
+                leases.remove(objectId);
+                releaseLease(objectId, lease);
+            }
+        }
+        super.unlock(objectId);
+    }
+
+    @Override
+    @ValidateParams
+    public Long getFencingToken(@ValidateStringParam(name = "objectId") String objectId) {
+        if (!isEnabled()) {
+            return null;
+        }
+        return getHeldLease(objectId).fencingToken;
+    }
+
+    @Override
+    @ValidateParams
+    public void checkLockHeld(@ValidateStringParam(name = "objectId") String objectId) {
+        if (isEnabled()) {
+            getHeldLease(objectId);
+        } else {
+            super.checkLockHeld(objectId);
+        }
+    }
+
+    protected Lease getHeldLease(String objectId) {
+        Lease lease = isHeldByCurrentThread(objectId) ? leases.get(objectId) : null;
+        if (lease == null) {
+            throw new LockLostException(objectId, "Lock for id " + objectId + " is not held by the current thread");
+        }
+        if (lease.lost) {
+            throw new LockLostException(objectId, "Lease for id " + objectId + " with fencing token " +
+                    lease.fencingToken + " was lost");
+        }
+        return lease;
+    }
+
+    protected boolean acquireLease(String objectId) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("lockId", DigestUtils.sha1Hex(objectId));
+        params.put("lockKey", objectId);
+        params.put("owner", owner);
+        params.put("leaseTime", getLeaseTime());
+        boolean inserted = inNewTransaction(() -> {
+            clusterLockMapper.deleteExpiredLock(params);
+            return clusterLockMapper.insertLock(params) > 0;
+        });
+        if (inserted) {
+            long fencingToken = ((Number) params.get("fencingToken")).longValue();
+            leases.put(objectId, new Lease(fencingToken));
+            if (logger.isDebugEnabled()) {
+                logger.debug("[" + Thread.currentThread().getName() + "]" + " Got lease for id " + objectId + " with fencing token " + fencingToken);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    protected void releaseLease(String objectId, Lease lease) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("fencingToken", lease.fencingToken);
+        params.put("owner", owner);
+        try {
+            if (inNewTransaction(() -> clusterLockMapper.deleteLock(params)) == 0) {
+                logger.warn("Lease for id " + objectId + " expired before being released");
+            }
+        } catch (RuntimeException e) {
+            // The lease will expire by itself
+            logger.error("Error while releasing lease for id " + objectId, e);
+        }
+    }
+
+    protected void renewLeases() {
+        try {
+            Map<Long, String> fencingTokens = new HashMap<Long, String>();
+            for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+                fencingTokens.put(entry.getValue().fencingToken, entry.getKey());
+            }
+            if (!fencingTokens.isEmpty()) {
+                Map<String, Object> params = new HashMap<String, Object>();
+                params.put("owner", owner);
+                params.put("leaseTime", getLeaseTime());
+                params.put("fencingTokens", new ArrayList<Long>(fencingTokens.keySet()));
+                int renewed = inNewTransaction(() -> clusterLockMapper.renewLocks(params));
+                if (renewed < fencingTokens.size()) {
+                    // Either released meanwhile or expired and taken by another node, holders of lost leases
+                    // find out through getFencingToken and fenced writes
+                    List<Long> held = inNewTransaction(() -> clusterLockMapper.getOwnedLocks(params));
+                    for (Map.Entry<Long, String> entry : fencingTokens.entrySet()) {
+                        Lease lease = leases.get(entry.getValue());
+                        if (!held.contains(entry.getKey()) && lease != null && lease.fencingToken == entry.getKey()) {
+                            lease.lost = true;
+                            logger.warn("Lease for id " + entry.getValue() + " with fencing token " + entry.getKey() +
+                                    " was lost");
+                        }
+                    }
+                }
+            }
+            inNewTransaction(() -> clusterLockMapper.deleteExpiredLocks());
+        } catch (RuntimeException e) {
+            logger.error("Error while renewing lock leases", e);
+        }
+    }
+
+    protected <T> T inNewTransaction(Supplier<T> statements) {
+        if (transactionManager == null) {
+            return statements.get();
+        }
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return transactionTemplate.execute(status -> statements.get());
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "studio";
+        }
+    }
+
+    public boolean isEnabled() {
+        return Boolean.parseBoolean(studioConfiguration.getProperty(CLUSTER_LOCK_ENABLED));
+    }
+
+    public int getLeaseTime() {
+        return Integer.parseInt(studioConfiguration.getProperty(CLUSTER_LOCK_LEASE_TIME));
+    }
+
+    public long getRetryInterval() {
+        return Long.parseLong(studioConfiguration.getProperty(CLUSTER_LOCK_RETRY_INTERVAL));
+    }
+
+    public ClusterLockMapper getClusterLockMapper() { return clusterLockMapper; }
+    public void setClusterLockMapper(ClusterLockMapper clusterLockMapper) { this.clusterLockMapper = clusterLockMapper; }
+
+    public StudioConfiguration getStudioConfiguration() { return studioConfiguration; }
+    public void setStudioConfiguration(StudioConfiguration studioConfiguration) { this.studioConfiguration = studioConfiguration; }
+
+    public PlatformTransactionManager getTransactionManager() { return transactionManager; }
+    public void setTransactionManager(PlatformTransactionManager transactionManager) { this.transactionManager = transactionManager; }
+
+    protected static class Lease {
+
+        protected final long fencingToken;
+
+        /** nested holds by the thread owning the lease */
+        protected int holds = 1;
+
+        /** set when the lease could not be renewed because it is no longer in the database */
+        protected volatile boolean lost;
+
+        protected Lease(long fencingToken) {
+            this.fencingToken = fencingToken;
+        }
+    }
+}
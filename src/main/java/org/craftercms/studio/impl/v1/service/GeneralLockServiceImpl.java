@@ -19,20 +19,26 @@ package org.craftercms.studio.impl.v1.service;
 
 import org.craftercms.commons.validation.annotations.param.ValidateParams;
 import org.craftercms.commons.validation.annotations.param.ValidateStringParam;
+import org.craftercms.studio.api.v1.exception.LockLostException;
 import org.craftercms.studio.api.v1.service.AbstractRegistrableService;
 import org.craftercms.studio.api.v1.service.GeneralLockService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Locks are reference counted: a lock exists only while some thread holds it or is waiting for it, and it is
+ * removed from the registry when the last reference is released. Counting is done atomically per id by the
+ * concurrent map, so threads working on different ids never contend with each other.
+ */
 public class GeneralLockServiceImpl extends AbstractRegistrableService implements GeneralLockService {
 
     private static final Logger logger = LoggerFactory.getLogger(GeneralLockServiceImpl.class);
 
-    protected Map<String, ReentrantLock> nodeLocks = new HashMap<String, ReentrantLock>();
+    protected ConcurrentMap<String, NodeLock> nodeLocks = new ConcurrentHashMap<String, NodeLock>();
 
     @Override
     public void register() {
@@ -42,18 +48,10 @@ public class GeneralLockServiceImpl extends AbstractRegistrableService implement
     @Override
     @ValidateParams
     public void lock(@ValidateStringParam(name = "objectId") String objectId) {
-        ReentrantLock nodeLock;
         if (logger.isDebugEnabled()) {
             logger.debug("[" + Thread.currentThread().getName() + "]" + " Obtaining lock for id " + objectId);
         }
-        synchronized (this) {
-            if (nodeLocks.containsKey(objectId)) {
-                nodeLock = nodeLocks.get(objectId);
-            } else {
-                nodeLock = new ReentrantLock();
-                nodeLocks.put(objectId, nodeLock);
-            }
-        }
+        ReentrantLock nodeLock = acquireReference(objectId);
         if (logger.isDebugEnabled()) {
             logger.debug("[" + Thread.currentThread().getName() + "]" + " Lock hold count " + nodeLock.getHoldCount() + " for id " + objectId + " (before lock)");
         }
@@ -72,18 +70,10 @@ public class GeneralLockServiceImpl extends AbstractRegistrableService implement
     @Override
     @ValidateParams
     public boolean tryLock(@ValidateStringParam(name = "objectId") String objectId) {
-        ReentrantLock nodeLock;
         if (logger.isDebugEnabled()) {
             logger.debug("[" + Thread.currentThread().getName() + "]" + " Trying to get lock for id " + objectId);
         }
-        synchronized (this) {
-            if (nodeLocks.containsKey(objectId)) {
-                nodeLock = nodeLocks.get(objectId);
-            } else {
-                nodeLock = new ReentrantLock();
-                nodeLocks.put(objectId, nodeLock);
-            }
-        }
+        ReentrantLock nodeLock = acquireReference(objectId);
         if (logger.isDebugEnabled()) {
             logger.debug("[" + Thread.currentThread().getName() + "]" + " Lock hold count " + nodeLock.getHoldCount() + " for id " + objectId + " (before tryLock)");
         }
@@ -91,6 +81,9 @@ public class GeneralLockServiceImpl extends AbstractRegistrableService implement
             logger.debug("[" + Thread.currentThread().getName() + "]" + " Lock: " + nodeLock.toString());
         }
         boolean toRet = nodeLock.tryLock();
+        if (!toRet) {
+            releaseReference(objectId);
+        }
         if (logger.isDebugEnabled()) {
             logger.debug("[" + Thread.currentThread().getName() + "]" + " Lock hold count " + nodeLock.getHoldCount() + " for id " + objectId + " (after tryLock)");
         }
@@ -103,21 +96,21 @@ public class GeneralLockServiceImpl extends AbstractRegistrableService implement
     @Override
     @ValidateParams
     public void unlock(@ValidateStringParam(name = "objectId") String objectId) {
-        ReentrantLock nodeLock = null;
         if (logger.isDebugEnabled()) {
             logger.debug("[" + Thread.currentThread().getName() + "]" + " Unlocking id " + objectId);
         }
-        synchronized (this) {
-            nodeLock = nodeLocks.get(objectId);
-        }
-        if (nodeLock != null) {
+        NodeLock node = nodeLocks.get(objectId);
+        if (node != null) {
+            ReentrantLock nodeLock = node.lock;
             if (logger.isDebugEnabled()) {
                 logger.debug("[" + Thread.currentThread().getName() + "]" + " Lock hold count " + nodeLock.getHoldCount() + " for id " + objectId + " (before unlock)");
             }
             if (logger.isDebugEnabled()) {
                 logger.debug("[" + Thread.currentThread().getName() + "]" + " Lock: " + nodeLock.toString());
             }
+            // Fails if the current thread does not hold the lock, in that case the reference is not released
             nodeLock.unlock();
+            releaseReference(objectId);
             if (logger.isDebugEnabled()) {
                 logger.debug("[" + Thread.currentThread().getName() + "]" + " Lock hold count " + nodeLock.getHoldCount() + " for id " + objectId + " (after unlock)");
             }
@@ -127,4 +120,51 @@ public class GeneralLockServiceImpl extends AbstractRegistrableService implement
         }
 
     }
+
+    @Override
+    @ValidateParams
+    public Long getFencingToken(@ValidateStringParam(name = "objectId") String objectId) {
+        // Node local locks can not be lost
+        return null;
+    }
+
+    @Override
+    @ValidateParams
+    public void checkLockHeld(@ValidateStringParam(name = "objectId") String objectId) {
+        if (!isHeldByCurrentThread(objectId)) {
+            throw new LockLostException(objectId, "Lock for id " + objectId + " is not held by the current thread");
+        }
+    }
+
+    protected boolean isHeldByCurrentThread(String objectId) {
+        NodeLock node = nodeLocks.get(objectId);
+        return node != null && node.lock.isHeldByCurrentThread();
+    }
+
+    /**
+     * Get the lock for the id, creating it if needed, and count one more reference to it
+     */
+    protected ReentrantLock acquireReference(String objectId) {
+        NodeLock node = nodeLocks.compute(objectId, (id, existing) -> {
+            NodeLock toRet = existing != null ? existing : new NodeLock();
+            toRet.references++;
+            return toRet;
+        });
+        return node.lock;
+    }
+
+    /**
+     * Count one reference less to the lock of the id, removing the lock when it is no longer referenced
+     */
+    protected void releaseReference(String objectId) {
+        nodeLocks.computeIfPresent(objectId, (id, existing) -> --existing.references > 0 ? existing : null);
+    }
+
+    protected static class NodeLock {
+
+        protected final ReentrantLock lock = new ReentrantLock();
+
+        /** threads holding (once per hold) or waiting for the lock, only modified inside map operations */
+        protected int references;
+    }
 }
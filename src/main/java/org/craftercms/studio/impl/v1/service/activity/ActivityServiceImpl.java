@@ -21,6 +21,7 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.*;
 
+import net.sf.json.JSONException;
 import net.sf.json.JSONObject;
 
 import org.apache.commons.collections.CollectionUtils;
@@ -31,6 +32,7 @@ import org.craftercms.commons.validation.annotations.param.ValidateSecurePathPar
 import org.craftercms.commons.validation.annotations.param.ValidateStringParam;
 import org.craftercms.studio.api.v1.constant.StudioConstants;
 import org.craftercms.studio.api.v1.constant.DmConstants;
+import org.craftercms.studio.api.v1.dal.ActivityFeed;
 import org.craftercms.studio.api.v1.dal.AuditFeed;
 import org.craftercms.studio.api.v1.dal.AuditFeedMapper;
 import org.craftercms.studio.api.v1.exception.ServiceException;
@@ -81,6 +83,11 @@ public class ActivityServiceImpl extends AbstractRegistrableService implements A
     /** activity feed format **/
     protected static final String ACTIVITY_FEED_FORMAT = "json";
 
+    /** activity types shown in the activity feed **/
+    protected static final Set<String> FEED_ACTIVITY_TYPES = new HashSet<String>(Arrays.asList(
+            ActivityType.CREATED.toString(), ActivityType.DELETED.toString(), ActivityType.UPDATED.toString(),
+            ActivityType.MOVED.toString()));
+
     @Autowired
     protected AuditFeedMapper auditFeedMapper;
 
@@ -113,8 +120,57 @@ public class ActivityServiceImpl extends AbstractRegistrableService implements A
 
     }
 
+    @Override
+    @ValidateParams
+    public AuditFeed createActivity(@ValidateStringParam(name = "site") String site, @ValidateStringParam(name = "user") String user, @ValidateSecurePathParam(name = "contentId") String contentId, ActivityType activity, ActivitySource source, Map<String,String> extraInfo) {
+        JSONObject activityPost = new JSONObject();
+        activityPost.put(ACTIVITY_PROP_USER, user);
+        activityPost.put(ACTIVITY_PROP_ID, contentId);
+        String contentType = null;
+        if (extraInfo != null) {
+            activityPost.putAll(extraInfo);
+            contentType = extraInfo.get(DmConstants.KEY_CONTENT_TYPE);
+        }
+        return createActivityFeed(activity.toString(), source.toString(), site, null, activityPost.toString(),
+                contentId, contentType, user);
+    }
+
+    @Override
+    public void postActivities(List<AuditFeed> activities) {
+        if (activities.isEmpty()) {
+            return;
+        }
+        logger.debug("Insert " + activities.size() + " activities");
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("feeds", activities);
+        auditFeedMapper.insertActivityFeeds(params);
+        upsertActivityFeeds(activities);
+    }
+
     private void postActivity(String activityType, String activitySource, String siteNetwork, String appTool, String activityData,
                               String contentId, String contentType, String approver) {
+        AuditFeed activityPost = createActivityFeed(activityType, activitySource, siteNetwork, appTool, activityData,
+                contentId, contentType, approver);
+        try {
+            try {
+                long postId = insertFeedEntry(activityPost);
+                activityPost.setId(postId);
+                logger.debug("Posted: " + activityPost);
+
+            } catch (Exception e) {
+                throw new ServiceException("Failed to post activity: " + e, e);
+            }
+        }
+
+        catch (ServiceException e) {
+            // log error, subsume exception (for post activity)
+            logger.error("Error in posting feed", e);
+        }
+
+    }
+
+    private AuditFeed createActivityFeed(String activityType, String activitySource, String siteNetwork, String appTool,
+                                         String activityData, String contentId, String contentType, String approver) {
         String currentUser = (StringUtils.isEmpty(approver)) ? securityService.getCurrentUser() : approver;
         try {
             // optional - default to empty string
@@ -167,35 +223,19 @@ public class ActivityServiceImpl extends AbstractRegistrableService implements A
             logger.error("Error in getting feeds", e);
         }
 
-        try {
-            ZonedDateTime postDate = ZonedDateTime.now(ZoneOffset.UTC);
-            AuditFeed activityPost = new AuditFeed();
-            activityPost.setUserId(currentUser);
-            activityPost.setSiteNetwork(siteNetwork);
-            activityPost.setSummary(activityData);
-            activityPost.setType(activityType);
-            activityPost.setCreationDate(postDate);
-            activityPost.setModifiedDate(postDate);
-            activityPost.setSummaryFormat("json");
-            activityPost.setContentId(contentId);
-            activityPost.setContentType(contentType);
-            activityPost.setSource(activitySource);
-            try {
-                activityPost.setCreationDate(ZonedDateTime.now(ZoneOffset.UTC));
-                long postId = insertFeedEntry(activityPost);
-                activityPost.setId(postId);
-                logger.debug("Posted: " + activityPost);
-
-            } catch (Exception e) {
-                throw new ServiceException("Failed to post activity: " + e, e);
-            }
-        }
-
-        catch (ServiceException e) {
-            // log error, subsume exception (for post activity)
-            logger.error("Error in posting feed", e);
-        }
-
+        ZonedDateTime postDate = ZonedDateTime.now(ZoneOffset.UTC);
+        AuditFeed activityPost = new AuditFeed();
+        activityPost.setUserId(currentUser);
+        activityPost.setSiteNetwork(siteNetwork);
+        activityPost.setSummary(activityData);
+        activityPost.setType(activityType);
+        activityPost.setCreationDate(postDate);
+        activityPost.setModifiedDate(postDate);
+        activityPost.setSummaryFormat("json");
+        activityPost.setContentId(contentId);
+        activityPost.setContentType(contentType);
+        activityPost.setSource(activitySource);
+        return activityPost;
     }
 
 
@@ -203,6 +243,7 @@ public class ActivityServiceImpl extends AbstractRegistrableService implements A
         DebugUtils.addDebugStack(logger);
         logger.debug("Insert activity " + activityFeed.getContentId());
         Long id = auditFeedMapper.insertActivityFeed(activityFeed);
+        upsertActivityFeeds(Collections.singletonList(activityFeed));
         return (id != null ? id : -1);
     }
 
@@ -216,6 +257,9 @@ public class ActivityServiceImpl extends AbstractRegistrableService implements A
         params.put("site", site);
         params.put("oldPath", oldUrl);
         auditFeedMapper.renameContent(params);
+        // Activities of the user on the new path win over the ones on the old path
+        auditFeedMapper.renameActivityFeedContent(params);
+        auditFeedMapper.deleteActivityFeedContent(params);
     }
 
     @Override
@@ -241,39 +285,33 @@ public class ActivityServiceImpl extends AbstractRegistrableService implements A
      *
      */
     protected boolean getActivityFeeds(String user, String site,int startPos, int size, String filterType,boolean hideLiveItems,List<ContentItemTO> contentItems,int remainingItem){
-        List<String> activityFeedEntries = new ArrayList<String>();
-
         if (!getUserNamesAreCaseSensitive()) {
             user = user.toLowerCase();
         }
 
-        List<AuditFeed> activityFeeds = null;
-        activityFeeds = selectUserFeedEntries(user, ACTIVITY_FEED_FORMAT, site, startPos, size,
-                filterType, hideLiveItems);
-        for (AuditFeed activityFeed : activityFeeds) {
-            activityFeedEntries.add(activityFeed.getJSONString());
-        }
-
-        boolean hasMoreItems=true;
+        List<ActivityFeed> activityFeeds = selectActivityFeed(user, site, startPos, size, filterType, hideLiveItems);
 
         //if number of items returned is less than size it means that table has no more records
-        if(activityFeedEntries.size()<size){
-            hasMoreItems=false;
+        boolean hasMoreItems = activityFeeds.size() >= size;
+
+        Set<String> contentIds = new HashSet<String>();
+        for (ActivityFeed activityFeed : activityFeeds) {
+            contentIds.add(activityFeed.getContentId());
         }
+        Map<String, ZonedDateTime> publishedDates = deploymentService.getLastDeploymentDates(site, contentIds);
 
-        if (activityFeedEntries != null && activityFeedEntries.size() > 0) {
-            for (int index = 0; index < activityFeedEntries.size() && remainingItem!=0; index++) {
-                JSONObject feedObject = JSONObject.fromObject(activityFeedEntries.get(index));
-                String id = (feedObject.containsKey(ACTIVITY_PROP_CONTENTID)) ? feedObject.getString(ACTIVITY_PROP_CONTENTID) : "";
-                ContentItemTO item = createActivityItem(site, feedObject, id);
-                item.published = true;
-                item.setPublished(true);
-                ZonedDateTime pubDate = deploymentService.getLastDeploymentDate(site, id);
-                item.publishedDate = pubDate;
-                item.setPublishedDate(pubDate);
-                contentItems.add(item);
-                remainingItem--;
+        for (int index = 0; index < activityFeeds.size() && remainingItem != 0; index++) {
+            ActivityFeed activityFeed = activityFeeds.get(index);
+            ContentItemTO item = createActivityItem(site, activityFeed);
+            if (item == null) {
+                continue;
             }
+            item.published = true;
+            item.setPublished(true);
+            item.publishedDate = publishedDates.get(activityFeed.getContentId());
+            item.setPublishedDate(item.publishedDate);
+            contentItems.add(item);
+            remainingItem--;
         }
         logger.debug("Total Item post live filter : " + contentItems.size() + " hasMoreItems : "+hasMoreItems);
 
@@ -284,41 +322,33 @@ public class ActivityServiceImpl extends AbstractRegistrableService implements A
      * create an activity from the given feed
      *
      * @param site
-     * @param feedObject
+     * @param activityFeed
      * @return activity
      */
-    protected ContentItemTO createActivityItem(String site, JSONObject feedObject, String id) {
+    protected ContentItemTO createActivityItem(String site, ActivityFeed activityFeed) {
+        String id = activityFeed.getContentId();
         try {
             ContentItemTO item = contentService.getContentItem(site, id, 0);
             if(item == null || item.isDeleted()) {
                 item = contentService.createDummyDmContentItemForDeletedNode(site, id);
-                String modifier = (feedObject.containsKey(ACTIVITY_PROP_FEEDUSER)) ? feedObject.getString(ACTIVITY_PROP_FEEDUSER) : "";
-                if(modifier != null && !modifier.isEmpty()) {
-                    item.user = modifier;
+                if (StringUtils.isNotEmpty(activityFeed.getUserId())) {
+                    item.user = activityFeed.getUserId();
                 }
-
-                String activitySummary = (feedObject.containsKey(ACTIVITY_PROP_ACTIVITY_SUMMARY)) ? feedObject.getString(ACTIVITY_PROP_ACTIVITY_SUMMARY) : "";
-                JSONObject summaryObject = JSONObject.fromObject(activitySummary);
-                if (summaryObject.containsKey(DmConstants.KEY_CONTENT_TYPE)) {
-                    String contentType = (String)summaryObject.get(DmConstants.KEY_CONTENT_TYPE);
-                    item.contentType = contentType;
+                item.contentType = activityFeed.getContentType();
+                if (activityFeed.getInternalName() == null && activityFeed.getBrowserUri() == null) {
+                    // Entries carried over from the audit log on upgrade only have the summary
+                    parseSummary(activityFeed);
                 }
-                if(summaryObject.containsKey(StudioConstants.INTERNAL_NAME)) {
-                    String internalName = (String)summaryObject.get(StudioConstants.INTERNAL_NAME);
-                    item.internalName = internalName;
+                if (StringUtils.isNotEmpty(activityFeed.getInternalName())) {
+                    item.internalName = activityFeed.getInternalName();
                 }
-                if(summaryObject.containsKey(StudioConstants.BROWSER_URI)) {
-                    String browserUri = (String)summaryObject.get(StudioConstants.BROWSER_URI);
-                    item.browserUri = browserUri;
+                if (StringUtils.isNotEmpty(activityFeed.getBrowserUri())) {
+                    item.browserUri = activityFeed.getBrowserUri();
                 }
                 item.setLockOwner("");
             }
-            String postDate = (feedObject.containsKey(ACTIVITY_PROP_POST_DATE)) ? feedObject.getString(ACTIVITY_PROP_POST_DATE) : "";
-            ZonedDateTime editedDate = ZonedDateTime.parse(postDate);
-            if (editedDate != null) {
-                item.eventDate = editedDate.withZoneSameInstant(ZoneOffset.UTC);
-            } else {
-                item.eventDate = editedDate;
+            if (activityFeed.getModifiedDate() != null) {
+                item.eventDate = activityFeed.getModifiedDate().withZoneSameInstant(ZoneOffset.UTC);
             }
 
             return item;
@@ -328,14 +358,12 @@ public class ActivityServiceImpl extends AbstractRegistrableService implements A
         }
     }
 
-    private List<AuditFeed> selectUserFeedEntries(String feedUserId, String format, String siteId, int startPos, int feedSize, String contentType, boolean hideLiveItems) {
+    private List<ActivityFeed> selectActivityFeed(String feedUserId, String siteId, int startPos, int feedSize, String contentType, boolean hideLiveItems) {
         HashMap<String,Object> params = new HashMap<String,Object>();
         params.put("userId",feedUserId);
-        params.put("summaryFormat",format);
         params.put("siteNetwork",siteId);
         params.put("startPos", startPos);
         params.put("feedSize", feedSize);
-        params.put("activities", Arrays.asList(ActivityType.CREATED, ActivityType.DELETED, ActivityType.UPDATED, ActivityType.MOVED));
         if(StringUtils.isNotEmpty(contentType) && !contentType.toLowerCase().equals("all")){
             params.put("contentType",contentType.toLowerCase());
         }
@@ -345,9 +373,56 @@ public class ActivityServiceImpl extends AbstractRegistrableService implements A
                 statesValues.add(state.name());
             }
             params.put("states", statesValues);
-            return auditFeedMapper.selectUserFeedEntriesHideLive(params);
-        } else {
-            return auditFeedMapper.selectUserFeedEntries(params);
+        }
+        return auditFeedMapper.selectActivityFeed(params);
+    }
+
+    /**
+     * Entry of the activity feed for the given activity, with the fields shown by the dashboard extracted from its
+     * summary, or null if the activity is not shown in the activity feed
+     */
+    protected ActivityFeed toActivityFeed(AuditFeed auditFeed) {
+        if (!FEED_ACTIVITY_TYPES.contains(auditFeed.getType())) {
+            return null;
+        }
+        ActivityFeed activityFeed = new ActivityFeed();
+        activityFeed.setSite(auditFeed.getSiteNetwork());
+        activityFeed.setUserId(auditFeed.getUserId());
+        activityFeed.setContentId(auditFeed.getContentId());
+        activityFeed.setType(auditFeed.getType());
+        activityFeed.setContentType(auditFeed.getContentType());
+        activityFeed.setSummary(auditFeed.getSummary());
+        activityFeed.setModifiedDate(auditFeed.getModifiedDate());
+        parseSummary(activityFeed);
+        return activityFeed;
+    }
+
+    protected void parseSummary(ActivityFeed activityFeed) {
+        try {
+            JSONObject summaryObject = JSONObject.fromObject(activityFeed.getSummary());
+            if (summaryObject.containsKey(StudioConstants.INTERNAL_NAME)) {
+                activityFeed.setInternalName(summaryObject.getString(StudioConstants.INTERNAL_NAME));
+            }
+            if (summaryObject.containsKey(StudioConstants.BROWSER_URI)) {
+                activityFeed.setBrowserUri(summaryObject.getString(StudioConstants.BROWSER_URI));
+            }
+        } catch (JSONException e) {
+            logger.debug("Activity summary for " + activityFeed.getContentId() + " is not a JSON object");
+        }
+    }
+
+    private void upsertActivityFeeds(List<AuditFeed> auditFeeds) {
+        List<ActivityFeed> feeds = new ArrayList<ActivityFeed>(auditFeeds.size());
+        for (AuditFeed auditFeed : auditFeeds) {
+            ActivityFeed activityFeed = toActivityFeed(auditFeed);
+            if (activityFeed != null) {
+                feeds.add(activityFeed);
+            }
+        }
+        if (!feeds.isEmpty()) {
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("feeds", feeds);
+            auditFeedMapper.upsertActivityFeeds(params);
         }
     }
 
@@ -362,12 +437,31 @@ public class ActivityServiceImpl extends AbstractRegistrableService implements A
         return auditFeedMapper.getDeletedActivity(params);
     }
 
+    @Override
+    @ValidateParams
+    public Map<String, AuditFeed> getDeletedActivities(@ValidateStringParam(name = "site") String site, Collection<String> paths) {
+        Map<String, AuditFeed> toRet = new HashMap<String, AuditFeed>();
+        if (paths == null || paths.isEmpty()) {
+            return toRet;
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("contentIds", paths);
+        params.put("siteNetwork", site);
+        params.put("activityType", ActivityType.DELETED.toString());
+        // Newest first, so the first activity of each path is the one to keep
+        for (AuditFeed activity : auditFeedMapper.getDeletedActivities(params)) {
+            toRet.putIfAbsent(activity.getContentId(), activity);
+        }
+        return toRet;
+    }
+
     @Override
     @ValidateParams
     public void deleteActivitiesForSite(@ValidateStringParam(name = "site") String site) {
         Map<String, String> params = new HashMap<String, String>();
         params.put("site", site);
         auditFeedMapper.deleteActivitiesForSite(params);
+        auditFeedMapper.deleteActivityFeedForSite(params);
     }
 
     @Override
@@ -24,12 +24,13 @@ import org.craftercms.commons.validation.annotations.param.ValidateStringParam;
 import org.craftercms.studio.api.v1.constant.StudioConstants;
 import org.craftercms.studio.api.v1.log.Logger;
 import org.craftercms.studio.api.v1.log.LoggerFactory;
+import org.craftercms.studio.api.v1.repository.ContentRepository;
 import org.craftercms.studio.api.v1.service.GeneralLockService;
 import org.craftercms.studio.api.v1.service.configuration.ContentTypesConfig;
 import org.craftercms.studio.api.v1.service.content.ContentService;
 import org.craftercms.studio.api.v1.to.*;
 import org.craftercms.studio.api.v1.util.StudioConfiguration;
-import org.craftercms.studio.impl.v1.service.StudioCacheContext;
+import org.craftercms.studio.impl.v1.util.CompiledPatternList;
 import org.craftercms.studio.impl.v1.util.ContentFormatUtils;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
@@ -39,7 +40,9 @@ import org.dom4j.Node;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static org.craftercms.studio.api.v1.constant.StudioConstants.CONTENT_TYPE_UNKNOWN;
 import static org.craftercms.studio.api.v1.constant.StudioConstants.FILE_SEPARATOR;
@@ -53,23 +56,62 @@ public class ContentTypesConfigImpl implements ContentTypesConfig {
 
     private static final Logger logger = LoggerFactory.getLogger(ContentTypesConfigImpl.class);
 
+    /**
+     * loaded content type configurations per site and content type, each kept with the id of the repository
+     * object it was loaded from
+     */
+    protected Map<String, Map<String, ContentTypeSnapshot>> contentTypeConfigs =
+            new ConcurrentHashMap<String, Map<String, ContentTypeSnapshot>>();
+
     @Override
     @ValidateParams
     public ContentTypeConfigTO getContentTypeConfig(@ValidateStringParam(name = "site") final String site, @ValidateStringParam(name = "contentType") final String contentType) {
         if (StringUtils.isNotEmpty(contentType) && !StringUtils.equals(contentType, CONTENT_TYPE_UNKNOWN)) {
-            return loadConfiguration(site, contentType);
+            // Configuration is parsed again only when the configuration file changed in the repository
+            Map<String, ContentTypeSnapshot> siteContentTypes = getSiteContentTypeConfigs(site);
+            String objectId = contentRepository.getContentObjectId(site, getConfigFilePath(site, contentType));
+            if (objectId == null) {
+                siteContentTypes.remove(contentType);
+                logger.debug("No content type configuration document found for site: " + site + " content type: "
+                        + contentType);
+                return null;
+            }
+            ContentTypeSnapshot snapshot = siteContentTypes.get(contentType);
+            if (snapshot != null && StringUtils.equals(objectId, snapshot.objectId)) {
+                return snapshot.config;
+            }
+            ContentTypeConfigTO config = loadConfiguration(site, contentType);
+            if (config != null) {
+                siteContentTypes.put(contentType, new ContentTypeSnapshot(objectId, config));
+            } else {
+                siteContentTypes.remove(contentType);
+            }
+            return config;
         } else {
             return null;
         }
     }
 
+    protected Map<String, ContentTypeSnapshot> getSiteContentTypeConfigs(String site) {
+        Map<String, ContentTypeSnapshot> siteContentTypes = contentTypeConfigs.get(site);
+        if (siteContentTypes == null) {
+            contentTypeConfigs.putIfAbsent(site, new ConcurrentHashMap<String, ContentTypeSnapshot>());
+            siteContentTypes = contentTypeConfigs.get(site);
+        }
+        return siteContentTypes;
+    }
+
+    protected String getConfigFilePath(String site, String contentType) {
+        String siteConfigPath = getConfigPath().replaceAll(StudioConstants.PATTERN_SITE, site)
+                .replaceAll(StudioConstants.PATTERN_CONTENT_TYPE, contentType);
+        return siteConfigPath + FILE_SEPARATOR + getConfigFileName();
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     @ValidateParams
     public ContentTypeConfigTO loadConfiguration(@ValidateStringParam(name = "site") String site, @ValidateStringParam(name = "contentType") String contentType) {
-        String siteConfigPath = getConfigPath().replaceAll(StudioConstants.PATTERN_SITE, site)
-                .replaceAll(StudioConstants.PATTERN_CONTENT_TYPE, contentType);
-        String configFileFullPath = siteConfigPath + FILE_SEPARATOR + getConfigFileName();
+        String configFileFullPath = getConfigFilePath(site, contentType);
         Document document = null;
         try {
             if (contentService.contentExists(site, configFileFullPath)) {
@@ -101,9 +143,10 @@ public class ContentTypesConfigImpl implements ContentTypesConfig {
                 // if no configuration, include every path
                 pathIncludes.add(".*");
             }
-            contentTypeConfig.setPathIncludes(pathIncludes);
+            // configurations are shared by all callers once loaded
+            contentTypeConfig.setPathIncludes(compilePaths(configFileFullPath, pathIncludes));
             List<String> pathExcludes = getPaths(root, "paths/excludes/pattern");
-            contentTypeConfig.setPathExcludes(pathExcludes);
+            contentTypeConfig.setPathExcludes(compilePaths(configFileFullPath, pathExcludes));
             loadRoles(contentTypeConfig, root.selectNodes("allowed-roles/role"));
             loadDeleteDependencies(contentTypeConfig, root.selectNodes("delete-dependencies/delete-dependency"));
             loadCopyDependencyPatterns(contentTypeConfig, root.selectNodes("copy-dependencies/copy-dependency"));
@@ -116,6 +159,22 @@ public class ContentTypesConfigImpl implements ContentTypesConfig {
         }
     }
 
+    /**
+     * keep the compiled path patterns with the configuration
+     *
+     * @param configFileFullPath
+     * @param paths
+     * @return unmodifiable list of path patterns
+     */
+    protected List<String> compilePaths(String configFileFullPath, List<String> paths) {
+        try {
+            return new CompiledPatternList(paths);
+        } catch (PatternSyntaxException e) {
+            logger.error("Invalid path pattern in " + configFileFullPath, e);
+            return Collections.unmodifiableList(paths);
+        }
+    }
+
     /**
      * load delete dependencies mapping
      *
@@ -239,11 +298,8 @@ public class ContentTypesConfigImpl implements ContentTypesConfig {
     @Override
     @ValidateParams
     public ContentTypeConfigTO reloadConfiguration(@ValidateStringParam(name = "site") String site, @ValidateStringParam(name = "contentType") String contentType) {
-        StudioCacheContext cacheContext = new StudioCacheContext(site, true);
-        String siteConfigPath = getConfigPath().replaceAll(StudioConstants.PATTERN_SITE, site)
-                .replaceAll(StudioConstants.PATTERN_CONTENT_TYPE, contentType);
-        ContentTypeConfigTO config = loadConfiguration(site, contentType);
-        return config;
+        getSiteContentTypeConfigs(site).remove(contentType);
+        return getContentTypeConfig(site, contentType);
     }
 
     public String getConfigPath() {
@@ -257,6 +313,9 @@ public class ContentTypesConfigImpl implements ContentTypesConfig {
     public ContentService getContentService() { return contentService; }
     public void setContentService(ContentService contentService) { this.contentService = contentService; }
 
+    public ContentRepository getContentRepository() { return contentRepository; }
+    public void setContentRepository(ContentRepository contentRepository) { this.contentRepository = contentRepository; }
+
     public GeneralLockService getGeneralLockService() { return generalLockService; }
     public void setGeneralLockService(GeneralLockService generalLockService) { this.generalLockService = generalLockService; }
 
@@ -264,6 +323,18 @@ public class ContentTypesConfigImpl implements ContentTypesConfig {
     public void setStudioConfiguration(StudioConfiguration studioConfiguration) { this.studioConfiguration = studioConfiguration; }
 
     protected ContentService contentService;
+    protected ContentRepository contentRepository;
     protected GeneralLockService generalLockService;
     protected StudioConfiguration studioConfiguration;
+
+    protected static class ContentTypeSnapshot {
+
+        protected final String objectId;
+        protected final ContentTypeConfigTO config;
+
+        protected ContentTypeSnapshot(String objectId, ContentTypeConfigTO config) {
+            this.objectId = objectId;
+            this.config = config;
+        }
+    }
 }
@@ -28,6 +28,7 @@ import org.craftercms.studio.api.v1.service.content.ContentService;
 import org.craftercms.studio.api.v1.service.configuration.ServicesConfig;
 import org.craftercms.studio.api.v1.to.*;
 import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.craftercms.studio.impl.v1.util.CompiledPatternList;
 import org.craftercms.studio.impl.v1.util.ContentFormatUtils;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
@@ -39,6 +40,9 @@ import org.slf4j.LoggerFactory;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static org.craftercms.studio.api.v1.constant.StudioConstants.FILE_SEPARATOR;
 import static org.craftercms.studio.api.v1.util.StudioConfiguration.CONFIGURATION_SITE_CONFIG_BASE_PATH;
@@ -86,8 +90,29 @@ public class ServicesConfigImpl implements ServicesConfig {
 
 	protected ContentRepository contentRepository;
 
+	/**
+	 * loaded site configurations, each kept with the id of the repository object it was loaded from
+	 */
+	protected Map<String, SiteConfigSnapshot> siteConfigs = new ConcurrentHashMap<String, SiteConfigSnapshot>();
+
     protected SiteConfigTO getSiteConfig(final String site) {
-        return loadConfiguration(site);
+        // Configuration is parsed again only when the configuration file changed in the repository
+        String objectId = contentRepository.getContentObjectId(site, getSiteConfigFilePath(site));
+        SiteConfigSnapshot snapshot = siteConfigs.get(site);
+        if (snapshot != null && StringUtils.equals(objectId, snapshot.objectId)) {
+            return snapshot.config;
+        }
+        SiteConfigTO config = loadConfiguration(site);
+        if (config != null && objectId != null) {
+            siteConfigs.put(site, new SiteConfigSnapshot(objectId, config));
+        } else {
+            siteConfigs.remove(site);
+        }
+        return config;
+    }
+
+    protected String getSiteConfigFilePath(String site) {
+        return getConfigPath().replaceFirst(StudioConstants.PATTERN_SITE, site) + FILE_SEPARATOR + getConfigFileName();
     }
 
     @Override
@@ -105,7 +130,20 @@ public class ServicesConfigImpl implements ServicesConfig {
     public List<DmFolderConfigTO> getFolders(@ValidateStringParam(name = "site") String site) {
         SiteConfigTO config = getSiteConfig(site);
         if (config != null && config.getRepositoryConfig() != null) {
-            return config.getRepositoryConfig().getFolders();
+            // Folder configurations are mutable, callers get their own copies
+            List<DmFolderConfigTO> folders = config.getRepositoryConfig().getFolders();
+            if (folders != null) {
+                List<DmFolderConfigTO> copies = new ArrayList<DmFolderConfigTO>(folders.size());
+                for (DmFolderConfigTO folder : folders) {
+                    DmFolderConfigTO copy = new DmFolderConfigTO();
+                    copy.setName(folder.getName());
+                    copy.setPath(folder.getPath());
+                    copy.setReadDirectChildren(folder.isReadDirectChildren());
+                    copy.setAttachRootPrefix(folder.isAttachRootPrefix());
+                    copies.add(copy);
+                }
+                return copies;
+            }
         }
         return null;
     }
@@ -301,7 +339,7 @@ public class ServicesConfigImpl implements ServicesConfig {
         loadFolderConfiguration(siteConfig, repoConfigTO, node.selectNodes("folders/folder"));
         loadPatterns(siteConfig, repoConfigTO, node.selectNodes("patterns/pattern-group"));
         List<String> displayPatterns = getStringList(node.selectNodes("display-in-widget-patterns/display-in-widget-pattern"));
-        repoConfigTO.setDisplayPatterns(displayPatterns);
+        repoConfigTO.setDisplayPatterns(compilePatterns(siteConfig, "display-in-widget", displayPatterns));
         siteConfig.setRepositoryConfig(repoConfigTO);
     }
 
@@ -347,6 +385,8 @@ public class ServicesConfigImpl implements ServicesConfig {
                                 patterns.add(pattern);
                             }
                         }
+                        // Loaded configuration is shared by all callers, patterns are compiled only once
+                        patterns = compilePatterns(site, patternKey, patterns);
                         if (patternKey.equals(PATTERN_PAGE)) {
                             repo.setPagePatterns(patterns);
                         } else if (patternKey.equals(PATTERN_COMPONENT)) {
@@ -376,6 +416,27 @@ public class ServicesConfigImpl implements ServicesConfig {
         }
     }
 
+    /**
+     * compile the patterns of a pattern group, skipping invalid ones
+     *
+     * @param site
+     * @param patternKey
+     * @param patterns
+     * @return unmodifiable list that keeps the compiled patterns
+     */
+    protected List<String> compilePatterns(SiteConfigTO site, String patternKey, List<String> patterns) {
+        List<String> validPatterns = new ArrayList<String>(patterns.size());
+        for (String pattern : patterns) {
+            try {
+                Pattern.compile(pattern);
+                validPatterns.add(pattern);
+            } catch (PatternSyntaxException e) {
+                LOGGER.error("Invalid " + patternKey + " pattern " + pattern + " in " + site.getName() + " configuration. Skipping the pattern.", e);
+            }
+        }
+        return new CompiledPatternList(validPatterns);
+    }
+
     /**
      * load top level folder configuration
      *
@@ -393,7 +454,7 @@ public class ServicesConfigImpl implements ServicesConfig {
                 folderConfig.setAttachRootPrefix(ContentFormatUtils.getBooleanValue(folderNode.valueOf(ATTR_ATTACH_ROOT_PREFIX)));
                 folders.add(folderConfig);
             }
-            repo.setFolders(folders);
+            repo.setFolders(Collections.unmodifiableList(folders));
         } else {
             LOGGER.warn(site.getName() + " does not have any folder configuration.");
         }
@@ -420,7 +481,8 @@ public class ServicesConfigImpl implements ServicesConfig {
     @Override
     @ValidateParams
     public void reloadConfiguration(@ValidateStringParam(name = "site") String site) {
-        SiteConfigTO config = loadConfiguration(site);
+        siteConfigs.remove(site);
+        SiteConfigTO config = getSiteConfig(site);
     }
 
     public void setContentService(ContentService contentService) {
@@ -448,4 +510,15 @@ public class ServicesConfigImpl implements ServicesConfig {
 
     protected GeneralLockService generalLockService;
     protected StudioConfiguration studioConfiguration;
+
+    protected static class SiteConfigSnapshot {
+
+        protected final String objectId;
+        protected final SiteConfigTO config;
+
+        protected SiteConfigSnapshot(String objectId, SiteConfigTO config) {
+            this.objectId = objectId;
+            this.config = config;
+        }
+    }
 }
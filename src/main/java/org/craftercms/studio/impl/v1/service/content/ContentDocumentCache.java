@@ -0,0 +1,80 @@
+/*
+ * Crafter Studio
+ * Copyright (C) 2007-2018 Crafter Software Corporation. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.studio.impl.v1.service.content;
+
+import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.dom4j.Document;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CONTENT_DOCUMENT_CACHE_MAX_ITEMS;
+
+/**
+ * Bounded cache of parsed XML documents keyed by the id of the repository object they were parsed from.
+ * Object ids are content addressed, so entries never become stale and are only evicted by size.
+ * Cached documents are never handed out, callers always get a copy they are free to modify.
+ */
+public class ContentDocumentCache {
+
+    protected Map<String, Document> documents;
+
+    protected StudioConfiguration studioConfiguration;
+
+    public Document get(String objectId) {
+        Document document;
+        synchronized (this) {
+            document = getDocuments().get(objectId);
+        }
+        return document != null ? (Document) document.clone() : null;
+    }
+
+    /**
+     * Cache the document, the given instance is copied so the caller can keep using it.
+     */
+    public void put(String objectId, Document document) {
+        if (document == null) {
+            return;
+        }
+        Document copy = (Document) document.clone();
+        synchronized (this) {
+            getDocuments().put(objectId, copy);
+        }
+    }
+
+    protected Map<String, Document> getDocuments() {
+        if (documents == null) {
+            final int maxItems = getMaxItems();
+            documents = new LinkedHashMap<String, Document>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Document> eldest) {
+                    return size() > maxItems;
+                }
+            };
+        }
+        return documents;
+    }
+
+    public int getMaxItems() {
+        return Integer.parseInt(studioConfiguration.getProperty(CONTENT_DOCUMENT_CACHE_MAX_ITEMS));
+    }
+
+    public StudioConfiguration getStudioConfiguration() { return studioConfiguration; }
+    public void setStudioConfiguration(StudioConfiguration studioConfiguration) { this.studioConfiguration = studioConfiguration; }
+}
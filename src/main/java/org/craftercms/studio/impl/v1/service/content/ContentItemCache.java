@@ -0,0 +1,292 @@
+/*
+ * Crafter Studio
+ * Copyright (C) 2007-2018 Crafter Software Corporation. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.studio.impl.v1.service.content;
+
+import org.apache.commons.lang3.StringUtils;
+import org.craftercms.studio.api.v1.constant.DmConstants;
+import org.craftercms.studio.api.v1.log.Logger;
+import org.craftercms.studio.api.v1.log.LoggerFactory;
+import org.craftercms.studio.api.v1.to.ContentItemTO;
+import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CONTENT_ITEM_CACHE_ENABLED;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CONTENT_ITEM_CACHE_MAX_ITEMS_PER_SITE;
+
+/**
+ * Per site cache of assembled content items.
+ *
+ * Every entry is stamped with the sandbox commit id it was built from and is only served while it matches the
+ * current one, so a new commit (including commits done outside of Studio) makes stale entries invisible.
+ * Workflow state or metadata changes invalidate the entries of the changed paths and of all their ancestors, since
+ * a cached item includes its children up to its depth and whether a folder is live depends on everything below it.
+ * Every invalidation also increases the site version, and an item is only cached if the version didn't change
+ * while it was built, so an item built from rows that were being changed is never cached.
+ * Items are copied on the way in and on the way out because callers are free to modify returned items.
+ */
+public class ContentItemCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentItemCache.class);
+
+    protected ConcurrentMap<String, SiteItems> sites = new ConcurrentHashMap<String, SiteItems>();
+
+    protected StudioConfiguration studioConfiguration;
+
+    public boolean isEnabled() {
+        return Boolean.parseBoolean(studioConfiguration.getProperty(CONTENT_ITEM_CACHE_ENABLED));
+    }
+
+    /**
+     * Current version of the site, to be read before building an item that is going to be cached.
+     */
+    public long getVersion(String site) {
+        return getSiteItems(site).version.get();
+    }
+
+    public ContentItemTO get(String site, String path, int depth, String commitId) {
+        if (StringUtils.isEmpty(commitId)) {
+            return null;
+        }
+        SiteItems siteItems = getSiteItems(site);
+        CachedItem cached;
+        synchronized (siteItems) {
+            cached = siteItems.items.get(getKey(path, depth));
+        }
+        if (cached != null && StringUtils.equals(commitId, cached.commitId)) {
+            logger.debug("Content item cache hit for site '{}' path '{}' depth '{}'", site, path, depth);
+            return new ContentItemTO(cached.item, true);
+        }
+        return null;
+    }
+
+    public void put(String site, String path, int depth, String commitId, long version, ContentItemTO item) {
+        if (item == null || StringUtils.isEmpty(commitId)) {
+            return;
+        }
+        SiteItems siteItems = getSiteItems(site);
+        if (version != siteItems.version.get()) {
+            // Item was built while the site changed, it can't be trusted
+            return;
+        }
+        CachedItem cached = new CachedItem(path, commitId, new ContentItemTO(item, true));
+        synchronized (siteItems) {
+            siteItems.items.put(getKey(path, depth), cached);
+        }
+    }
+
+    /**
+     * Invalidate the cached items of the given path and its ancestors.
+     */
+    public void invalidate(String site, String path) {
+        invalidate(site, Collections.singletonList(path));
+    }
+
+    /**
+     * Invalidate the cached items of the given paths and their ancestors.
+     */
+    public void invalidate(String site, Collection<String> paths) {
+        Invalidation invalidation = new Invalidation();
+        invalidation.addPaths(paths);
+        invalidate(site, invalidation);
+    }
+
+    /**
+     * Invalidate the cached items of the given folder, everything below it and its ancestors.
+     */
+    public void invalidateFolder(String site, String folderPath) {
+        Invalidation invalidation = new Invalidation();
+        invalidation.addFolder(folderPath);
+        invalidate(site, invalidation);
+    }
+
+    /**
+     * Invalidate all cached items of the site.
+     */
+    public void invalidate(String site) {
+        Invalidation invalidation = new Invalidation();
+        invalidation.all = true;
+        invalidate(site, invalidation);
+    }
+
+    /**
+     * When called inside a transaction the same items are invalidated again once the transaction completes: until
+     * then other threads still read the old rows, and an item they build from them after the first invalidation
+     * would otherwise be cached.
+     */
+    protected void invalidate(String site, Invalidation invalidation) {
+        if (StringUtils.isEmpty(site)) {
+            invalidateAll();
+            return;
+        }
+        SiteItems siteItems = getSiteItems(site);
+        apply(siteItems, invalidation);
+        // The site items are bound to the transaction, so everything it changed is invalidated by a single callback
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            Invalidation pending = (Invalidation) TransactionSynchronizationManager.getResource(siteItems);
+            if (pending == null) {
+                final Invalidation newPending = new Invalidation();
+                TransactionSynchronizationManager.bindResource(siteItems, newPending);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        TransactionSynchronizationManager.unbindResourceIfPossible(siteItems);
+                        apply(siteItems, newPending);
+                    }
+                });
+                pending = newPending;
+            }
+            pending.add(invalidation);
+        }
+    }
+
+    protected void apply(SiteItems siteItems, Invalidation invalidation) {
+        siteItems.version.incrementAndGet();
+        synchronized (siteItems) {
+            if (invalidation.all) {
+                siteItems.items.clear();
+                return;
+            }
+            Iterator<CachedItem> iterator = siteItems.items.values().iterator();
+            while (iterator.hasNext()) {
+                if (invalidation.matches(iterator.next().path)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        for (String site : sites.keySet()) {
+            invalidate(site);
+        }
+    }
+
+    protected SiteItems getSiteItems(String site) {
+        SiteItems siteItems = sites.get(site);
+        if (siteItems == null) {
+            SiteItems newSiteItems = new SiteItems(getMaxItemsPerSite());
+            siteItems = sites.putIfAbsent(site, newSiteItems);
+            if (siteItems == null) {
+                siteItems = newSiteItems;
+            }
+        }
+        return siteItems;
+    }
+
+    protected String getKey(String path, int depth) {
+        return depth + ":" + path;
+    }
+
+    public int getMaxItemsPerSite() {
+        return Integer.parseInt(studioConfiguration.getProperty(CONTENT_ITEM_CACHE_MAX_ITEMS_PER_SITE));
+    }
+
+    public StudioConfiguration getStudioConfiguration() { return studioConfiguration; }
+    public void setStudioConfiguration(StudioConfiguration studioConfiguration) { this.studioConfiguration = studioConfiguration; }
+
+    protected static class SiteItems {
+
+        protected final AtomicLong version = new AtomicLong();
+        protected final Map<String, CachedItem> items;
+
+        protected SiteItems(final int maxItems) {
+            items = new LinkedHashMap<String, CachedItem>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedItem> eldest) {
+                    return size() > maxItems;
+                }
+            };
+        }
+    }
+
+    protected static class CachedItem {
+
+        protected final String path;
+        protected final String commitId;
+        protected final ContentItemTO item;
+
+        protected CachedItem(String path, String commitId, ContentItemTO item) {
+            this.path = path;
+            this.commitId = commitId;
+            this.item = item;
+        }
+    }
+
+    /**
+     * Items to invalidate, paths are kept as folders (a page is the same item as its folder) along with all their
+     * ancestors
+     */
+    protected static class Invalidation {
+
+        protected boolean all;
+        protected final Set<String> paths = new HashSet<String>();
+        protected final Set<String> folders = new HashSet<String>();
+
+        protected void addPaths(Collection<String> changedPaths) {
+            for (String changedPath : changedPaths) {
+                String path = getFolder(changedPath);
+                while (paths.add(path) && path.length() > 0) {
+                    path = path.substring(0, Math.max(0, path.lastIndexOf('/')));
+                }
+            }
+        }
+
+        protected void addFolder(String folderPath) {
+            addPaths(Collections.singletonList(folderPath));
+            folders.add(getFolder(folderPath) + "/");
+        }
+
+        protected void add(Invalidation invalidation) {
+            all = all || invalidation.all;
+            paths.addAll(invalidation.paths);
+            folders.addAll(invalidation.folders);
+        }
+
+        protected boolean matches(String cachedPath) {
+            String path = getFolder(cachedPath);
+            if (paths.contains(path)) {
+                return true;
+            }
+            for (String folder : folders) {
+                if (path.startsWith(folder)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        protected static String getFolder(String path) {
+            String folder = StringUtils.defaultString(path);
+            folder = StringUtils.removeEnd(folder, "/" + DmConstants.INDEX_FILE);
+            return StringUtils.removeEnd(folder, "/");
+        }
+    }
+}
@@ -20,10 +20,13 @@ package org.craftercms.studio.impl.v1.service.content;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -144,12 +147,28 @@ public class ContentServiceImpl implements ContentService {
     protected StudioConfiguration studioConfiguration;
     protected DependencyDiffService dependencyDiffService;
     protected ContentTypeService contentTypeService;
+    protected ContentItemCache contentItemCache;
+    protected ContentDocumentCache contentDocumentCache;
+
+    // SAXReader is not thread safe, every thread keeps its own preconfigured instance
+    private static final ThreadLocal<SAXReader> saxReader = ThreadLocal.withInitial(() -> {
+        SAXReader reader = new SAXReader();
+        try {
+            reader.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            reader.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            reader.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+        } catch (SAXException ex) {
+            logger.error("Unable to turn off external entity loading, This could be a security risk.", ex);
+        }
+        return reader;
+    });
 
     /**
      * file and folder name patterns for copied files and folders
      */
     public final static Pattern COPY_FILE_PATTERN = Pattern.compile("(.+)-([0-9]+)\\.(.+)");
     public final static Pattern COPY_FOLDER_PATTERN = Pattern.compile("(.+)-([0-9]+)");
+    public final static Pattern TAXONOMY_PATTERN = Pattern.compile(CONTENT_TYPE_TAXONOMY_REGEX);
 
     @Override
     @ValidateParams
@@ -199,26 +218,39 @@ public class ContentServiceImpl implements ContentService {
     public Document getContentAsDocument(@ValidateStringParam(name = "site") String site,
                                          @ValidateSecurePathParam(name = "path") String path)
             throws DocumentException {
+        return getContentAsDocument(site, path, _contentRepository.getContentObjectId(site, path));
+    }
+
+    /**
+     * Get content as document when the id of the object holding it is already known
+     */
+    protected Document getContentAsDocument(String site, String path, String objectId) throws DocumentException {
         // TODO: SJ: Refactor in 4.x as this already exists in Crafter Core (which is part of the new Studio)
         Document retDocument = null;
         InputStream is = null;
+        // Parsed documents are cached by object id, same content is never parsed twice
+        if (objectId != null) {
+            retDocument = contentDocumentCache.get(objectId);
+            if (retDocument != null) {
+                return retDocument;
+            }
+        }
         try {
-            is = this.getContent(site, path);
+            if (objectId != null) {
+                is = _contentRepository.getContentByObjectId(site, objectId);
+            } else {
+                is = this.getContent(site, path);
+            }
         } catch (ContentNotFoundException e) {
             logger.debug("Content not found for path {0}", e, path);
         }
 
         if(is != null) {
             try {
-                SAXReader saxReader = new SAXReader();
-                try {
-                    saxReader.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-                    saxReader.setFeature("http://xml.org/sax/features/external-general-entities", false);
-                    saxReader.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
-                }catch (SAXException ex){
-                    logger.error("Unable to turn off external entity loading, This could be a security risk.", ex);
+                retDocument = saxReader.get().read(is);
+                if (objectId != null) {
+                    contentDocumentCache.put(objectId, retDocument);
                 }
-                retDocument = saxReader.read(is);
             }
             finally {
                 try {
@@ -322,7 +354,15 @@ public class ContentServiceImpl implements ContentService {
 
             // TODO: SJ: Content is being written here via the pipeline, this is not the best design and will be
             // TODO: SJ: refactored in 2.7.x
-            processContent(id, input, true, params, chainID);
+            generalLockService.lock(lockKey);
+            try {
+                // The repository can not check fencing tokens, so make sure the lock is still held right before
+                // writing
+                generalLockService.checkLockHeld(lockKey);
+                processContent(id, input, true, params, chainID);
+            } finally {
+                generalLockService.unlock(lockKey);
+            }
 
             // Item has been processed and persisted, set system processing state to off
             objectStateService.setSystemProcessing(site, path, false);
@@ -517,6 +557,7 @@ public class ContentServiceImpl implements ContentService {
         result = StringUtils.isNotEmpty(commitId);
 
         if (result) {
+            contentItemCache.invalidate(site, path);
             // Update database with commitId
             if (!objectMetadataManager.metadataExist(site, path)) {
                 objectMetadataManager.insertNewObjectMetadata(site, path);
@@ -537,6 +578,7 @@ public class ContentServiceImpl implements ContentService {
         boolean toRet = false;
         String commitId = _contentRepository.createFolder(site, path, name);
         if (commitId != null) {
+            contentItemCache.invalidate(site, path + FILE_SEPARATOR + name);
             ActivityService.ActivityType activityType = ActivityService.ActivityType.CREATED;
             String user = securityService.getCurrentUser();
             Map<String, String> extraInfo = new HashMap<String, String>();
@@ -571,6 +613,7 @@ public class ContentServiceImpl implements ContentService {
         }
 
         commitId = _contentRepository.deleteContent(site, path, approver);
+        contentItemCache.invalidateFolder(site, path);
 
         objectStateService.deleteObjectStateForPath(site, path);
         objectMetadataManager.deleteObjectMetadata(site, path);
@@ -875,6 +918,8 @@ public class ContentServiceImpl implements ContentService {
             Map<String, String> commitIds = _contentRepository.moveContent(site, sourcePath, targetPath);
 
             if (commitIds != null) {
+                contentItemCache.invalidateFolder(site, fromPath);
+                contentItemCache.invalidateFolder(site, movePath);
                 // Update the database with the commitId for the target item
                 updateDatabaseOnMove(site, fromPath, movePath);
                 updateChildrenOnMove(site, fromPath, movePath);
@@ -1348,9 +1393,17 @@ public class ContentServiceImpl implements ContentService {
         return item;
     }
 
-    @SuppressWarnings("unchecked")
     protected ContentItemTO populateContentDrivenProperties(String site, ContentItemTO item)
             throws Exception {
+        return populateContentDrivenProperties(site, item, null);
+    }
+
+    /**
+     * @param objectId id of the object holding the content if already known, null to look it up
+     */
+    @SuppressWarnings("unchecked")
+    protected ContentItemTO populateContentDrivenProperties(String site, ContentItemTO item, String objectId)
+            throws Exception {
         // This method load an XML content item and populates properties in the TO from the XML
         // TODO: SJ: Two problems here that need to be fixed in 3.1+
         // TODO: SJ: Use Crafter Core for some/all of this work
@@ -1385,7 +1438,8 @@ public class ContentServiceImpl implements ContentService {
                             .replace(FILE_SEPARATOR + DmConstants.INDEX_FILE, "");
         }
 
-        Document contentDoc = this.getContentAsDocument(site, contentPath);
+        Document contentDoc = objectId != null ? this.getContentAsDocument(site, contentPath, objectId) :
+                this.getContentAsDocument(site, contentPath);
         if(contentDoc != null) {
             Element rootElement = contentDoc.getRootElement();
 
@@ -1420,8 +1474,7 @@ public class ContentServiceImpl implements ContentService {
             logger.debug("no xml document could be loaded for site '{}' path '{}'", site, contentPath);
         }
 
-        Pattern taxonomyPattern = Pattern.compile(CONTENT_TYPE_TAXONOMY_REGEX);
-        Matcher matcher = taxonomyPattern.matcher(contentPath);
+        Matcher matcher = TAXONOMY_PATTERN.matcher(contentPath);
         if (matcher.matches()) {
             item.contentType = CONTENT_TYPE_TAXONOMY;
         }
@@ -1499,6 +1552,12 @@ public class ContentServiceImpl implements ContentService {
                 }
 
                 List<ContentItemTO> children = new ArrayList<>();
+                List<String> childPaths = new ArrayList<>();
+                // uris the children can end up with, folders holding an index file are rewritten to the index file
+                List<String> childUris = new ArrayList<>();
+                // folders that may hold an index file, all of them are checked at once below
+                Map<String, String> childIndexPaths = new LinkedHashMap<>();
+                Set<String> childFolders = new HashSet<>();
                 logger.debug("Checking if {0} has index", contentPath);
                 for (int j = 0; j < childRepoItems.length; j++) {
                     if ("index.xml".equals(childRepoItems[j].name)) {
@@ -1512,16 +1571,41 @@ public class ContentServiceImpl implements ContentService {
                     else {
                         if (depth > 1) {
                             String childPath = childRepoItems[j].path + FILE_SEPARATOR + childRepoItems[j].name;
-                            if (childPath.startsWith(FILE_SEPARATOR + "site" + FILE_SEPARATOR + "website" +
-                                    FILE_SEPARATOR) && childRepoItems[j].isFolder &&
-                                    contentExists(item.site,childPath + FILE_SEPARATOR + DmConstants.INDEX_FILE )) {
-                                children.add(getContentItem(item.site, childPath + FILE_SEPARATOR +
-                                        DmConstants.INDEX_FILE, depth - 1));
-                            } else {
-                                children.add(getContentItem(item.site, childPath, depth - 1));
+                            if (childRepoItems[j].isFolder) {
+                                String indexPath = childPath + FILE_SEPARATOR + DmConstants.INDEX_FILE;
+                                if (childPath.startsWith(FILE_SEPARATOR + "site" + FILE_SEPARATOR + "website" +
+                                        FILE_SEPARATOR)) {
+                                    childIndexPaths.put(childPath, indexPath);
+                                }
+                                childFolders.add(childPath);
+                                childUris.add(indexPath);
                             }
+                            childPaths.add(childPath);
+                            childUris.add(childPath);
+                        }
+                    }
+                }
+
+                if (!childPaths.isEmpty()) {
+                    // Everything the children need is loaded at once instead of one query or repository read per
+                    // child. The cache version is read first, so a change done while loading is not cached.
+                    PrefetchedChildren prefetched = new PrefetchedChildren();
+                    prefetched.cacheVersion = contentItemCache.getVersion(item.site);
+                    Set<String> existingIndexPaths =
+                            _contentRepository.getExistingPaths(item.site, childIndexPaths.values());
+                    for (int j = 0; j < childPaths.size(); j++) {
+                        String indexPath = childIndexPaths.get(childPaths.get(j));
+                        if (indexPath != null && existingIndexPaths.contains(indexPath)) {
+                            childFolders.remove(childPaths.get(j));
+                            childPaths.set(j, indexPath);
                         }
                     }
+                    prefetched.existingPaths.addAll(childPaths);
+                    prefetchItems(item.site, prefetched, childPaths, childUris, childFolders);
+
+                    for (String childPath : childPaths) {
+                        children.add(getContentItem(item.site, childPath, depth - 1, prefetched));
+                    }
                 }
 
                 if(!indexFound && _contentRepository.isFolder(item.site, contentPath)) {
@@ -1579,31 +1663,102 @@ public class ContentServiceImpl implements ContentService {
     public ContentItemTO getContentItem(@ValidateStringParam(name = "site") String site,
                                         @ValidateSecurePathParam(name = "path") String path,
                                         @ValidateIntegerParam(name = "depth") int depth) {
+        return getContentItem(site, path, depth, null);
+    }
+
+    @Override
+    @ValidateParams
+    public Map<String, ContentItemTO> getContentItems(@ValidateStringParam(name = "site") String site,
+                                                      Collection<String> paths) {
+        Map<String, ContentItemTO> items = new HashMap<String, ContentItemTO>();
+        if (paths == null || paths.isEmpty()) {
+            return items;
+        }
+        List<String> pathList = new ArrayList<String>(new LinkedHashSet<String>(paths));
+        // The cache version is read first, so a change done while loading is not cached
+        PrefetchedChildren prefetched = new PrefetchedChildren();
+        prefetched.cacheVersion = contentItemCache.getVersion(site);
+        prefetched.existingPaths.addAll(_contentRepository.getExistingPaths(site, pathList));
+        List<String> existingPaths = new ArrayList<String>(pathList);
+        existingPaths.retainAll(prefetched.existingPaths);
+        prefetchItems(site, prefetched, existingPaths, existingPaths, Collections.<String>emptySet());
+        for (String path : existingPaths) {
+            ContentItemTO item = getContentItem(site, path, 0, prefetched);
+            if (item != null) {
+                items.put(path, item);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Load at once the object ids of the given paths, the metadata and states of the given item uris and whether the
+     * given folders are live
+     */
+    protected void prefetchItems(String site, PrefetchedChildren prefetched, List<String> paths, List<String> uris,
+                                 Collection<String> folders) {
+        prefetched.objectIds.putAll(_contentRepository.getContentObjectIds(site, paths));
+        for (String uri : uris) {
+            prefetched.metadata.put(uri, null);
+            prefetched.states.put(uri, null);
+        }
+        for (ItemMetadata metadata : objectMetadataManager.getPropertiesForPaths(site, uris)) {
+            prefetched.metadata.put(metadata.getPath(), metadata);
+        }
+        for (ItemState state : objectStateService.getObjectStatesForPaths(site, uris)) {
+            prefetched.states.put(state.getPath(), state);
+        }
+        Set<String> liveFolders = objectStateService.getLiveFolders(site, folders);
+        for (String folder : folders) {
+            prefetched.liveFolders.put(folder, liveFolders.contains(folder));
+        }
+    }
+
+    /**
+     * Get content item using data already loaded by the caller. Data is looked up by path or item uri, anything not
+     * present in the prefetched data is loaded as usual.
+     */
+    protected ContentItemTO getContentItem(String site, String path, int depth, PrefetchedChildren prefetched) {
         ContentItemTO item = null;
         logger.debug("Getting content item for site '{}' path '{}' depth '{}'", site, path, depth);
 
         DebugUtils.addDebugStack(logger);
         long startTime = System.currentTimeMillis();
 
+        String commitId = null;
+        long cacheVersion = 0;
         try {
-            if (contentExists(site, path)) {
-                // get item from cache
-                item = loadContentItem(site, path);
+            // get item from cache
+            if (StringUtils.isNotEmpty(site) && contentItemCache.isEnabled()) {
+                cacheVersion = prefetched != null ? prefetched.cacheVersion : contentItemCache.getVersion(site);
+                commitId = _contentRepository.getRepoLastCommitId(site);
+                item = contentItemCache.get(site, path, depth, commitId);
+                if (item != null) {
+                    return item;
+                }
+            }
+
+            if ((prefetched != null && prefetched.existingPaths.contains(path)) || contentExists(site, path)) {
+                item = loadContentItem(site, path, prefetched != null ? prefetched.objectIds.get(path) : null);
 
                 if (depth != 0) {
                     item = populateItemChildren(item, depth);
                 }
 
                 // POPULATE LOCK STATUS
-                populateMetadata(site, item);
+                populateMetadata(site, item, prefetched != null ? prefetched.metadata : null);
 
                 // POPULATE WORKFLOW STATUS
                 if (!item.isFolder() || item.isContainer()) {
-                    populateWorkflowProperties(site, item);
+                    populateWorkflowProperties(site, item, prefetched);
                 } else {
-                    item.setNew(!objectStateService.isFolderLive(site, item.getUri()));
+                    item.setNew(!isFolderLive(site, item.getUri(), prefetched));
                     item.isNew = item.isNew();
                 }
+
+                if (commitId != null) {
+                    contentItemCache.put(site, path, depth, commitId, cacheVersion, item);
+                }
             } else {
                 item = createDummyDmContentItemForDeletedNode(site, path);
             }
@@ -1618,14 +1773,17 @@ public class ContentServiceImpl implements ContentService {
         return item;
     }
 
-    protected ContentItemTO loadContentItem(String site, String path) {
+    /**
+     * @param objectId id of the object holding the content if already known, null to look it up
+     */
+    protected ContentItemTO loadContentItem(String site, String path, String objectId) {
         // TODO: SJ: Refactor such that the populate of non-XML is also a method in 3.1+
         ContentItemTO item = createNewContentItemTO(site, path);
 
         if (item.uri.endsWith(".xml") && !item.uri.startsWith("/config/")) {
 
             try {
-                item = populateContentDrivenProperties(site, item);
+                item = populateContentDrivenProperties(site, item, objectId);
             } catch (Exception err) {
                 logger.debug("error constructing item for object at site '{}' path '{}'", err, site, path);
             }
@@ -1685,11 +1843,16 @@ public class ContentServiceImpl implements ContentService {
         // TODO CodeRev:but what if the config is null?
     }
 
-    protected void populateWorkflowProperties(String site, ContentItemTO item) {
-        ItemState state = objectStateService.getObjectState(site, item.getUri(), false);
+    protected void populateWorkflowProperties(String site, ContentItemTO item, PrefetchedChildren prefetched) {
+        ItemState state;
+        if (prefetched != null && prefetched.states.containsKey(item.getUri())) {
+            state = prefetched.states.get(item.getUri());
+        } else {
+            state = objectStateService.getObjectState(site, item.getUri(), false);
+        }
         if (state != null) {
             if (item.isFolder()) {
-                boolean liveFolder = objectStateService.isFolderLive(site, item.getUri());
+                boolean liveFolder = isFolderLive(site, item.getUri(), prefetched);
                 item.setNew(!liveFolder);
                 item.setLive(liveFolder);
             } else {
@@ -1708,7 +1871,7 @@ public class ContentServiceImpl implements ContentService {
             item.isInFlight = item.isInFlight();
         } else {
             if (item.isFolder()) {
-                boolean liveFolder = objectStateService.isFolderLive(site, item.getUri());
+                boolean liveFolder = isFolderLive(site, item.getUri(), prefetched);
                 item.setNew(!liveFolder);
                 item.setLive(liveFolder);
                 item.isNew = item.isNew();
@@ -1719,14 +1882,26 @@ public class ContentServiceImpl implements ContentService {
         }
     }
 
-    protected void populateMetadata(String site, ContentItemTO item) {
+    protected boolean isFolderLive(String site, String uri, PrefetchedChildren prefetched) {
+        if (prefetched != null && prefetched.liveFolders.containsKey(uri)) {
+            return prefetched.liveFolders.get(uri);
+        }
+        return objectStateService.isFolderLive(site, uri);
+    }
+
+    protected void populateMetadata(String site, ContentItemTO item, Map<String, ItemMetadata> prefetchedMetadata) {
         // TODO: SJ: Refactor to return a ContentItemTO instead of changing the parameter
         // TODO: SJ: Change method name to be getContentItemMetadata or similar
         // TODO: SJ: 3.1+
 
         // TODO: SJ: Create a method String getValueIfNotNull(String) to use to return not null/empty string if null
         // TODO: SJ: Use that method to reduce redundant code here. 3.1+
-        ItemMetadata metadata = objectMetadataManager.getProperties(site, item.getUri());
+        ItemMetadata metadata;
+        if (prefetchedMetadata != null && prefetchedMetadata.containsKey(item.getUri())) {
+            metadata = prefetchedMetadata.get(item.getUri());
+        } else {
+            metadata = objectMetadataManager.getProperties(site, item.getUri());
+        }
         if (metadata != null) {
             // Set the lock owner to empty string if we get a null to not confuse the UI, or set it to what's in the
             // database if it's not null
@@ -1832,6 +2007,7 @@ public class ContentServiceImpl implements ContentService {
         String commitId = _contentRepository.revertContent(site, path, version, major, comment);
 
         if (commitId != null) {
+            contentItemCache.invalidate(site, path);
             // Update the database with the commitId for the target item
             objectMetadataManager.updateCommitId(site, path, commitId);
             _contentRepository.insertGitLog(site, commitId, 1);
@@ -1959,33 +2135,45 @@ public class ContentServiceImpl implements ContentService {
     @Override
     @ValidateParams
     public String getContentTypeClass(@ValidateStringParam(name = "site") String site, String uri) {
-        // TODO: SJ: This reads: if can't guess what it is, it's a page. This is to be replaced in 3.1+
-        if (matchesPatterns(uri, servicesConfig.getPagePatterns(site))) {
-            return CONTENT_TYPE_PAGE;
-        } else if (matchesPatterns(uri, servicesConfig.getComponentPatterns(site)) ||
-                uri.endsWith(FILE_SEPARATOR + servicesConfig.getLevelDescriptorName(site))) {
-            return CONTENT_TYPE_COMPONENT;
-        } else if (matchesPatterns(uri, servicesConfig.getDocumentPatterns(site))) {
-            return CONTENT_TYPE_DOCUMENT;
-        } else if (matchesPatterns(uri, servicesConfig.getAssetPatterns(site))) {
-            return CONTENT_TYPE_ASSET;
-        } else if (matchesPatterns(uri, servicesConfig.getRenderingTemplatePatterns(site))) {
-            return CONTENT_TYPE_RENDERING_TEMPLATE;
-        } else if (StringUtils.startsWith(uri, contentTypeService.getConfigPath())) {
-            return CONTENT_TYPE_CONTENT_TYPE;
-        }
-        return CONTENT_TYPE_UNKNOWN;
+        return getContentTypeClasses(site, Collections.singletonList(uri)).get(uri);
+    }
+
+    @Override
+    @ValidateParams
+    public Map<String, String> getContentTypeClasses(@ValidateStringParam(name = "site") String site,
+                                                     Collection<String> uris) {
+        List<String> pagePatterns = servicesConfig.getPagePatterns(site);
+        List<String> componentPatterns = servicesConfig.getComponentPatterns(site);
+        String levelDescriptorName = servicesConfig.getLevelDescriptorName(site);
+        List<String> documentPatterns = servicesConfig.getDocumentPatterns(site);
+        List<String> assetPatterns = servicesConfig.getAssetPatterns(site);
+        List<String> renderingTemplatePatterns = servicesConfig.getRenderingTemplatePatterns(site);
+        String contentTypesPath = contentTypeService.getConfigPath();
+        Map<String, String> contentTypeClasses = new HashMap<String, String>();
+        for (String uri : uris) {
+            // TODO: SJ: This reads: if can't guess what it is, it's a page. This is to be replaced in 3.1+
+            String contentTypeClass = CONTENT_TYPE_UNKNOWN;
+            if (matchesPatterns(uri, pagePatterns)) {
+                contentTypeClass = CONTENT_TYPE_PAGE;
+            } else if (matchesPatterns(uri, componentPatterns) ||
+                    uri.endsWith(FILE_SEPARATOR + levelDescriptorName)) {
+                contentTypeClass = CONTENT_TYPE_COMPONENT;
+            } else if (matchesPatterns(uri, documentPatterns)) {
+                contentTypeClass = CONTENT_TYPE_DOCUMENT;
+            } else if (matchesPatterns(uri, assetPatterns)) {
+                contentTypeClass = CONTENT_TYPE_ASSET;
+            } else if (matchesPatterns(uri, renderingTemplatePatterns)) {
+                contentTypeClass = CONTENT_TYPE_RENDERING_TEMPLATE;
+            } else if (StringUtils.startsWith(uri, contentTypesPath)) {
+                contentTypeClass = CONTENT_TYPE_CONTENT_TYPE;
+            }
+            contentTypeClasses.put(uri, contentTypeClass);
+        }
+        return contentTypeClasses;
     }
 
     protected boolean matchesPatterns(String uri, List<String> patterns) {
-        if (patterns != null) {
-            for (String pattern : patterns) {
-                if (uri.matches(pattern)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return ContentUtils.matchesPatterns(uri, patterns);
     }
 
     @Override
@@ -2373,6 +2561,8 @@ public class ContentServiceImpl implements ContentService {
         Map<String, String> commitIds = _contentRepository.moveContent(site, path, targetPath);
 
         if (commitIds != null) {
+            contentItemCache.invalidateFolder(site, path);
+            contentItemCache.invalidateFolder(site, targetPath);
             // Update the database with the commitId for the target item
             updateDatabaseOnMove(site, path, targetPath);
             updateChildrenOnMove(site, path, targetPath);
@@ -2537,4 +2727,32 @@ public class ContentServiceImpl implements ContentService {
     public void setContentTypeService(ContentTypeService contentTypeService) {
         this.contentTypeService = contentTypeService;
     }
+
+    public ContentItemCache getContentItemCache() {
+        return contentItemCache;
+    }
+    public void setContentItemCache(ContentItemCache contentItemCache) {
+        this.contentItemCache = contentItemCache;
+    }
+
+    public ContentDocumentCache getContentDocumentCache() {
+        return contentDocumentCache;
+    }
+    public void setContentDocumentCache(ContentDocumentCache contentDocumentCache) {
+        this.contentDocumentCache = contentDocumentCache;
+    }
+
+    /**
+     * Data of the children of a folder loaded at once, see {@link #populateItemChildren(ContentItemTO, int)}
+     */
+    protected static class PrefetchedChildren {
+
+        /** cache version read before anything else was loaded */
+        protected long cacheVersion;
+        protected final Set<String> existingPaths = new HashSet<String>();
+        protected final Map<String, String> objectIds = new HashMap<String, String>();
+        protected final Map<String, ItemMetadata> metadata = new HashMap<String, ItemMetadata>();
+        protected final Map<String, ItemState> states = new HashMap<String, ItemState>();
+        protected final Map<String, Boolean> liveFolders = new HashMap<String, Boolean>();
+    }
 }
\ No newline at end of file
@@ -38,14 +38,18 @@ import org.craftercms.studio.api.v1.service.content.ContentTypeService;
 import org.craftercms.studio.api.v1.service.security.SecurityService;
 import org.craftercms.studio.api.v1.to.*;
 import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.craftercms.studio.impl.v1.util.ContentUtils;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 import static org.craftercms.studio.api.v1.constant.StudioConstants.FILE_SEPARATOR;
 import static org.craftercms.studio.api.v1.util.StudioConfiguration.CONFIGURATION_SITE_CONTENT_TYPES_CONFIG_BASE_PATH;
 import static org.craftercms.studio.api.v1.util.StudioConfiguration.CONFIGURATION_SITE_CONTENT_TYPES_CONFIG_FILE_NAME;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CONTENT_TYPE_CACHE_MAX_ITEMS_PER_SITE;
 
 /**
  * @author Dejan Brkic
@@ -54,13 +58,32 @@ public class ContentTypeServiceImpl implements ContentTypeService {
 
     private static final Logger logger = LoggerFactory.getLogger(ContentTypeServiceImpl.class);
 
+    /**
+     * content type of each content file, kept per site with the id of the repository object it was read from
+     */
+    protected Map<String, Map<String, ContentTypeSnapshot>> contentFileTypes =
+            new ConcurrentHashMap<String, Map<String, ContentTypeSnapshot>>();
+
     @Override
     @ValidateParams
     public ContentTypeConfigTO getContentTypeForContent(@ValidateStringParam(name = "site") String site, @ValidateSecurePathParam(name = "path") String path) throws ServiceException {
+        // The content type is read from the content file, so it changes only when the file changes in the repository
+        String objectId = null;
+        if (path.endsWith(DmConstants.XML_PATTERN)) {
+            objectId = contentRepository.getContentObjectId(site, path);
+        }
+        Map<String, ContentTypeSnapshot> siteContentTypes = getSiteContentTypes(site);
+        ContentTypeSnapshot snapshot = siteContentTypes.get(path);
+        if (objectId != null && snapshot != null && StringUtils.equals(objectId, snapshot.objectId)) {
+            return servicesConfig.getContentTypeConfig(site, snapshot.contentType);
+        }
         ContentItemTO itemTO = contentService.getContentItem(site, path, 0);
         if (itemTO != null) {
             String type = itemTO.getContentType();
             if (!StringUtils.isEmpty(type)) {
+                if (objectId != null) {
+                    siteContentTypes.put(path, new ContentTypeSnapshot(objectId, type));
+                }
                 return servicesConfig.getContentTypeConfig(site, type);
             } else {
                 throw new ServiceException("No content type specified for " + path + " in site: " + site);
@@ -70,6 +93,26 @@ public class ContentTypeServiceImpl implements ContentTypeService {
         }
     }
 
+    protected Map<String, ContentTypeSnapshot> getSiteContentTypes(String site) {
+        Map<String, ContentTypeSnapshot> siteContentTypes = contentFileTypes.get(site);
+        if (siteContentTypes == null) {
+            final int maxItems = getMaxItemsPerSite();
+            contentFileTypes.putIfAbsent(site, Collections.synchronizedMap(
+                    new LinkedHashMap<String, ContentTypeSnapshot>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<String, ContentTypeSnapshot> eldest) {
+                            return size() > maxItems;
+                        }
+                    }));
+            siteContentTypes = contentFileTypes.get(site);
+        }
+        return siteContentTypes;
+    }
+
+    protected int getMaxItemsPerSite() {
+        return Integer.parseInt(studioConfiguration.getProperty(CONTENT_TYPE_CACHE_MAX_ITEMS_PER_SITE));
+    }
+
     @Override
     public boolean isUserAllowed(Set<String> userRoles, ContentTypeConfigTO item) {
         if (item != null) {
@@ -136,13 +179,13 @@ public class ContentTypeServiceImpl implements ContentTypeService {
             for (ContentTypeConfigTO contentTypeConfig : allContentTypes) {
                 // check if the path matches one of includes paths
                 if (CollectionUtils.isNotEmpty(contentTypeConfig.getPathIncludes())){
-                    for (String pathIncludes : contentTypeConfig.getPathIncludes()) {
-                        if (relativePath.matches(pathIncludes)) {
+                    for (Pattern pathIncludes : ContentUtils.getCompiledPatterns(contentTypeConfig.getPathIncludes())) {
+                        if (pathIncludes.matcher(relativePath).matches()) {
                             logger.debug(relativePath + " matches " + pathIncludes);
                             boolean isMatch = true;
                             if (contentTypeConfig.getPathExcludes() != null) {
-                                for (String excludePath : contentTypeConfig.getPathExcludes()) {
-                                    if (relativePath.matches(excludePath)) {
+                                for (Pattern excludePath : ContentUtils.getCompiledPatterns(contentTypeConfig.getPathExcludes())) {
+                                    if (excludePath.matcher(relativePath).matches()) {
                                         logger.debug(relativePath + " matches an exclude path: " + excludePath);
                                         isMatch = false;
                                         break;
@@ -199,30 +242,17 @@ public class ContentTypeServiceImpl implements ContentTypeService {
     }
 
     protected List<ContentTypeConfigTO> getAllContentTypes(String site) {
-        String contentTypesRootPath = getConfigPath().replaceAll(StudioConstants.PATTERN_SITE, site);
-
-        RepositoryItem[] folders = contentRepository.getContentChildren(site, contentTypesRootPath);
-        List<ContentTypeConfigTO> contentTypes = new ArrayList<>();
-
-        if (folders != null) {
-            for (int i = 0; i < folders.length; i++) {
-                String configPath = folders[i].path + FILE_SEPARATOR + folders[i].name + FILE_SEPARATOR + getConfigFileName();
-                if (contentService.contentExists(site, configPath)) {
-                    ContentTypeConfigTO config = contentTypesConfig.reloadConfiguration(site, configPath.replace(contentTypesRootPath, "").replace(FILE_SEPARATOR + getConfigFileName(), ""));
-                    if (config != null) {
-                        contentTypes.add(config);
-                    }
-                }
-
-                reloadContentTypeConfigForChildren(site, folders[i], contentTypes);
-            }
-        }
-        return contentTypes;
+        // Configurations already loaded are reused as long as their files did not change
+        return loadContentTypes(site, false);
     }
 
     @Override
     @ValidateParams
     public void reloadConfiguration(@ValidateStringParam(name = "site") String site) {
+        loadContentTypes(site, true);
+    }
+
+    protected List<ContentTypeConfigTO> loadContentTypes(String site, boolean reload) {
         String contentTypesRootPath = getConfigPath().replaceAll(StudioConstants.PATTERN_SITE, site);
         RepositoryItem[] folders = contentRepository.getContentChildren(site, contentTypesRootPath);
         List<ContentTypeConfigTO> contentTypes = new ArrayList<>();
@@ -230,19 +260,26 @@ public class ContentTypeServiceImpl implements ContentTypeService {
         if (folders != null) {
             for (int i = 0; i < folders.length; i++) {
                 String configPath = folders[i].path + FILE_SEPARATOR + folders[i].name + FILE_SEPARATOR + getConfigFileName();
-                if (contentService.contentExists(site, configPath)) {
-                    ContentTypeConfigTO config = contentTypesConfig.reloadConfiguration(site, configPath.replace(contentTypesRootPath, "").replace(FILE_SEPARATOR + getConfigFileName(), ""));
-                    if (config != null) {
-                        contentTypes.add(config);
-                    }
+                ContentTypeConfigTO config = loadContentTypeConfig(site, configPath.replace(contentTypesRootPath, "").replace(FILE_SEPARATOR + getConfigFileName(), ""), reload);
+                if (config != null) {
+                    contentTypes.add(config);
                 }
 
-                reloadContentTypeConfigForChildren(site, folders[i], contentTypes);
+                reloadContentTypeConfigForChildren(site, folders[i], contentTypes, reload);
             }
         }
+        return contentTypes;
+    }
+
+    protected ContentTypeConfigTO loadContentTypeConfig(String site, String contentType, boolean reload) {
+        if (reload) {
+            return contentTypesConfig.reloadConfiguration(site, contentType);
+        } else {
+            return contentTypesConfig.getContentTypeConfig(site, contentType);
+        }
     }
 
-    protected void reloadContentTypeConfigForChildren(String site, RepositoryItem node, List<ContentTypeConfigTO> contentTypes) {
+    protected void reloadContentTypeConfigForChildren(String site, RepositoryItem node, List<ContentTypeConfigTO> contentTypes, boolean reload) {
         String contentTypesRootPath = getConfigPath().replaceAll(StudioConstants.PATTERN_SITE, site);
         String fullPath = node.path + FILE_SEPARATOR + node.name;
         logger.debug("Get Content Type Config fot Children path = {0}", fullPath );
@@ -251,15 +288,13 @@ public class ContentTypeServiceImpl implements ContentTypeService {
             for (int i = 0; i < folders.length; i++) {
                 if (folders[i].isFolder) {
                     String configPath = folders[i].path + FILE_SEPARATOR + folders[i].name + FILE_SEPARATOR + getConfigFileName();
-                    if (contentService.contentExists(site, configPath)) {
-                        ContentTypeConfigTO config = contentTypesConfig.reloadConfiguration(site, configPath.replace(contentTypesRootPath, "").replace(FILE_SEPARATOR + getConfigFileName(), ""));
-                        if (config != null) {
-                            contentTypes.add(config);
-                        }
+                    ContentTypeConfigTO config = loadContentTypeConfig(site, configPath.replace(contentTypesRootPath, "").replace(FILE_SEPARATOR + getConfigFileName(), ""), reload);
+                    if (config != null) {
+                        contentTypes.add(config);
                     }
                     // traverse the children file-folder structure
 
-                    reloadContentTypeConfigForChildren(site, folders[i], contentTypes);
+                    reloadContentTypeConfigForChildren(site, folders[i], contentTypes, reload);
                 }
             }
         }
@@ -297,4 +332,15 @@ public class ContentTypeServiceImpl implements ContentTypeService {
     protected SecurityService securityService;
     protected ContentRepository contentRepository;
     protected StudioConfiguration studioConfiguration;
+
+    protected static class ContentTypeSnapshot {
+
+        protected final String objectId;
+        protected final String contentType;
+
+        protected ContentTypeSnapshot(String objectId, String contentType) {
+            this.objectId = objectId;
+            this.contentType = contentType;
+        }
+    }
 }
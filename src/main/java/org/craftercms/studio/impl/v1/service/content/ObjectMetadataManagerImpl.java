@@ -27,13 +27,18 @@ import org.craftercms.studio.api.v1.dal.ItemMetadataMapper;
 import org.craftercms.studio.api.v1.log.Logger;
 import org.craftercms.studio.api.v1.log.LoggerFactory;
 import org.craftercms.studio.api.v1.service.content.ObjectMetadataManager;
+import org.craftercms.studio.api.v1.util.StudioConfiguration;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DuplicateKeyException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.OBJECT_METADATA_BULK_OPERATIONS_BATCH_SIZE;
+
 public class ObjectMetadataManagerImpl implements ObjectMetadataManager {
 
     private final static Logger logger = LoggerFactory.getLogger(ObjectMetadataManagerImpl.class);
@@ -41,6 +46,9 @@ public class ObjectMetadataManagerImpl implements ObjectMetadataManager {
     @Autowired
     protected ItemMetadataMapper itemMetadataMapper;
 
+    protected ContentItemCache contentItemCache;
+    protected StudioConfiguration studioConfiguration;
+
     @Override
     @ValidateParams
     public void insertNewObjectMetadata(@ValidateStringParam(name = "site") String site, @ValidateSecurePathParam(name = "path") String path) {
@@ -50,11 +58,31 @@ public class ObjectMetadataManagerImpl implements ObjectMetadataManager {
         params.put("path", path);
         try {
         itemMetadataMapper.insertEntry(params);
+        contentItemCache.invalidate(site, path);
         } catch (DuplicateKeyException e) {
             logger.debug("Failed to insert metadata for site: " + site + " and path: " + path + " into item_metadata table, because it is duplicate entry.");
         }
     }
 
+    @Override
+    @ValidateParams
+    public void insertNewObjectMetadata(@ValidateStringParam(name = "site") String site, List<String> paths,
+                                        Map<String, Object> properties) {
+        if (paths == null || paths.isEmpty()) {
+            return;
+        }
+        List<String> normalizedPaths = new ArrayList<>();
+        for (String path : paths) {
+            normalizedPaths.add(FilenameUtils.normalize(path, true));
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.putAll(properties);
+        params.put("site", site);
+        params.put("paths", normalizedPaths);
+        itemMetadataMapper.insertEntries(params);
+        contentItemCache.invalidate(site, normalizedPaths);
+    }
+
     @Override
     @ValidateParams
     public void setObjectMetadata(@ValidateStringParam(name = "site") String site, @ValidateSecurePathParam(name = "path") String path, Map<String, Object> properties) {
@@ -64,6 +92,7 @@ public class ObjectMetadataManagerImpl implements ObjectMetadataManager {
         params.put("path", path);
         params.putAll(properties);
         itemMetadataMapper.setProperties(params);
+        contentItemCache.invalidate(site, path);
     }
 
     @Override
@@ -74,11 +103,55 @@ public class ObjectMetadataManagerImpl implements ObjectMetadataManager {
         params.put("commitId", commitId);
         params.putAll(properties);
         itemMetadataMapper.setPropertiesForCommit(params);
+        contentItemCache.invalidate(site);
     }
 
     @Override
     public void updateObjectMetadata(ItemMetadata itemMetadata) {
         itemMetadataMapper.updateObjectMetadata(itemMetadata);
+        contentItemCache.invalidate(itemMetadata.getSite(), itemMetadata.getPath());
+    }
+
+    @Override
+    @ValidateParams
+    public void insertObjectMetadataBulk(@ValidateStringParam(name = "site") String site,
+                                         List<Map<String, Object>> properties) {
+        if (properties == null || properties.isEmpty()) {
+            return;
+        }
+        int batchSize = getBulkOperationBatchSize();
+        for (int i = 0; i < properties.size(); i = i + batchSize) {
+            Map<String, Object> params = new HashMap<>();
+            params.put("site", site);
+            params.put("items", properties.subList(i, Math.min(i + batchSize, properties.size())));
+            itemMetadataMapper.insertItems(params);
+        }
+        contentItemCache.invalidate(site, getPaths(properties));
+    }
+
+    @Override
+    @ValidateParams
+    public void updateObjectMetadataBulk(@ValidateStringParam(name = "site") String site,
+                                         List<Map<String, Object>> properties) {
+        if (properties == null || properties.isEmpty()) {
+            return;
+        }
+        int batchSize = getBulkOperationBatchSize();
+        for (int i = 0; i < properties.size(); i = i + batchSize) {
+            Map<String, Object> params = new HashMap<>();
+            params.put("site", site);
+            params.put("items", properties.subList(i, Math.min(i + batchSize, properties.size())));
+            itemMetadataMapper.updateItems(params);
+        }
+        contentItemCache.invalidate(site, getPaths(properties));
+    }
+
+    private List<String> getPaths(List<Map<String, Object>> properties) {
+        List<String> paths = new ArrayList<>();
+        for (Map<String, Object> itemProperties : properties) {
+            paths.add((String) itemProperties.get(ItemMetadata.PROP_PATH));
+        }
+        return paths;
     }
 
     @Override
@@ -91,6 +164,24 @@ public class ObjectMetadataManagerImpl implements ObjectMetadataManager {
         return itemMetadataMapper.getProperties(params);
     }
 
+    @Override
+    @ValidateParams
+    public List<ItemMetadata> getPropertiesForPaths(@ValidateStringParam(name = "site") String site, List<String> paths) {
+        List<ItemMetadata> metadata = new ArrayList<ItemMetadata>();
+        if (paths == null || paths.isEmpty()) {
+            return metadata;
+        }
+
+        int batchSize = getBulkOperationBatchSize();
+        for (int i = 0; i < paths.size(); i = i + batchSize) {
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("site", site);
+            params.put("paths", paths.subList(i, Math.min(i + batchSize, paths.size())));
+            metadata.addAll(itemMetadataMapper.getPropertiesForPaths(params));
+        }
+        return metadata;
+    }
+
     @Override
     @ValidateParams
     public boolean metadataExist(@ValidateStringParam(name = "site") String site, @ValidateSecurePathParam(name = "path") String path) {
@@ -144,6 +235,7 @@ public class ObjectMetadataManagerImpl implements ObjectMetadataManager {
         params.put("path", path);
         params.put("lockOwner", lockOwner);
         itemMetadataMapper.setLockOwner(params);
+        contentItemCache.invalidate(site, path);
     }
 
     @Override
@@ -158,6 +250,7 @@ public class ObjectMetadataManagerImpl implements ObjectMetadataManager {
         params.put("path", path);
         params.put("lockOwner", null);
         itemMetadataMapper.setLockOwner(params);
+        contentItemCache.invalidate(site, path);
     }
 
     @Override
@@ -166,6 +259,7 @@ public class ObjectMetadataManagerImpl implements ObjectMetadataManager {
         Map<String, String> params = new HashMap<>();
         params.put("site", site);
         itemMetadataMapper.deleteObjectMetadataForSite(params);
+        contentItemCache.invalidate(site);
     }
 
     @Override
@@ -176,6 +270,7 @@ public class ObjectMetadataManagerImpl implements ObjectMetadataManager {
         params.put("site", site);
         params.put("path", path);
         itemMetadataMapper.deleteEntry(params);
+        contentItemCache.invalidate(site, path);
     }
 
     @Override
@@ -186,6 +281,7 @@ public class ObjectMetadataManagerImpl implements ObjectMetadataManager {
         params.put("site", site);
         params.put("path", path + "/%");
         itemMetadataMapper.deleteFolder(params);
+        contentItemCache.invalidateFolder(site, path);
     }
 
     @Override
@@ -198,6 +294,7 @@ public class ObjectMetadataManagerImpl implements ObjectMetadataManager {
         params.put("oldPath", oldPath);
         params.put("newPath", newPath);
         itemMetadataMapper.updateObjectPath(params);
+        contentItemCache.invalidate(site, Arrays.asList(oldPath, newPath));
     }
 
     @Override
@@ -219,6 +316,7 @@ public class ObjectMetadataManagerImpl implements ObjectMetadataManager {
         params.put("path", path);
         params.put("commitId", commitId);
         itemMetadataMapper.updateCommitId(params);
+        contentItemCache.invalidate(site, path);
     }
 
     @Override
@@ -238,4 +336,14 @@ public class ObjectMetadataManagerImpl implements ObjectMetadataManager {
         params.put("path", path);
         return itemMetadataMapper.getSameCommitItems(params);
     }
+
+    public ContentItemCache getContentItemCache() { return contentItemCache; }
+    public void setContentItemCache(ContentItemCache contentItemCache) { this.contentItemCache = contentItemCache; }
+
+    public int getBulkOperationBatchSize() {
+        return Integer.parseInt(studioConfiguration.getProperty(OBJECT_METADATA_BULK_OPERATIONS_BATCH_SIZE));
+    }
+
+    public StudioConfiguration getStudioConfiguration() { return studioConfiguration; }
+    public void setStudioConfiguration(StudioConfiguration studioConfiguration) { this.studioConfiguration = studioConfiguration; }
 }
@@ -0,0 +1,283 @@
+/*
+ * Crafter Studio
+ * Copyright (C) 2007-2018 Crafter Software Corporation. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.studio.impl.v1.service.dependency;
+
+import org.craftercms.studio.api.v1.dal.DependencyEntity;
+import org.craftercms.studio.api.v1.dal.DependencyMapper;
+import org.craftercms.studio.api.v1.log.Logger;
+import org.craftercms.studio.api.v1.log.LoggerFactory;
+import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CLUSTER_LOCK_ENABLED;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.DEPENDENCIES_INDEX_ENABLED;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.DEPENDENCIES_INDEX_TIME_TO_LIVE;
+
+/**
+ * Per site in memory copy of the dependency table, indexed by source (forward) and by target (reverse), so
+ * transitive dependencies can be followed without a query per level. Dependencies of all types are merged, lookups
+ * of a single type of dependency always go to the database.
+ *
+ * The index of a site is loaded the first time it is needed and kept up to date by the dependency service after it
+ * commits its own changes. Changes done by other studio nodes sharing the database would only be picked up when the
+ * index expires (studio.dependencies.index.timeToLive), so the index is never used when the cluster lock is enabled
+ * (studio.lock.cluster.enabled).
+ */
+public class DependencyIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(DependencyIndex.class);
+
+    @Autowired
+    protected DependencyMapper dependencyMapper;
+
+    protected ConcurrentMap<String, SiteDependencies> sites = new ConcurrentHashMap<String, SiteDependencies>();
+
+    protected StudioConfiguration studioConfiguration;
+
+    public boolean isEnabled() {
+        return Boolean.parseBoolean(studioConfiguration.getProperty(DEPENDENCIES_INDEX_ENABLED)) &&
+                !Boolean.parseBoolean(studioConfiguration.getProperty(CLUSTER_LOCK_ENABLED));
+    }
+
+    /**
+     * Get the direct dependencies of the given items
+     */
+    public Set<String> getTargets(String site, Collection<String> sources) {
+        SiteDependencies siteDependencies = getLoadedSiteDependencies(site);
+        synchronized (siteDependencies) {
+            return collect(siteDependencies.targets, sources);
+        }
+    }
+
+    /**
+     * Get the items that directly depend on the given items
+     */
+    public Set<String> getSources(String site, Collection<String> targets) {
+        SiteDependencies siteDependencies = getLoadedSiteDependencies(site);
+        synchronized (siteDependencies) {
+            return collect(siteDependencies.sources, targets);
+        }
+    }
+
+    /**
+     * Replace the dependencies of an item, to be called once the change is committed to the database
+     */
+    public void setTargets(String site, String source, Collection<String> targets) {
+        SiteDependencies siteDependencies = sites.get(site);
+        if (siteDependencies == null) {
+            return;
+        }
+        synchronized (siteDependencies) {
+            if (siteDependencies.loaded) {
+                siteDependencies.removeSource(source);
+                for (String target : targets) {
+                    siteDependencies.add(source, target);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all dependencies from and to an item, to be called once the change is committed to the database
+     */
+    public void removePath(String site, String path) {
+        SiteDependencies siteDependencies = sites.get(site);
+        if (siteDependencies == null) {
+            return;
+        }
+        synchronized (siteDependencies) {
+            if (siteDependencies.loaded) {
+                siteDependencies.removeSource(path);
+                siteDependencies.removeTarget(path);
+            }
+        }
+    }
+
+    /**
+     * Move all dependencies from and to an item to its new path, to be called once the change is committed to the
+     * database
+     */
+    public void movePath(String site, String oldPath, String newPath) {
+        SiteDependencies siteDependencies = sites.get(site);
+        if (siteDependencies == null) {
+            return;
+        }
+        synchronized (siteDependencies) {
+            if (siteDependencies.loaded) {
+                Set<String> targets = siteDependencies.removeSource(oldPath);
+                Set<String> sources = siteDependencies.removeTarget(oldPath);
+                for (String target : targets) {
+                    siteDependencies.add(newPath, target.equals(oldPath) ? newPath : target);
+                }
+                for (String source : sources) {
+                    if (!source.equals(oldPath)) {
+                        siteDependencies.add(source, newPath);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the index of a site, it will be loaded again from the database the next time it is needed
+     */
+    public void invalidate(String site) {
+        sites.remove(site);
+    }
+
+    protected SiteDependencies getLoadedSiteDependencies(String site) {
+        SiteDependencies siteDependencies = sites.get(site);
+        if (siteDependencies == null) {
+            SiteDependencies newSiteDependencies = new SiteDependencies();
+            siteDependencies = sites.putIfAbsent(site, newSiteDependencies);
+            if (siteDependencies == null) {
+                siteDependencies = newSiteDependencies;
+            }
+        }
+        synchronized (siteDependencies) {
+            long timeToLive = TimeUnit.SECONDS.toMillis(getTimeToLive());
+            if (siteDependencies.loaded && timeToLive > 0 &&
+                    System.currentTimeMillis() - siteDependencies.loadedAt > timeToLive) {
+                logger.debug("Dependency index for site '{}' expired", site);
+                siteDependencies.clear();
+            }
+            if (!siteDependencies.loaded) {
+                load(site, siteDependencies);
+            }
+        }
+        return siteDependencies;
+    }
+
+    protected void load(String site, SiteDependencies siteDependencies) {
+        logger.debug("Loading dependency index for site '{}'", site);
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("site", site);
+        List<DependencyEntity> dependencies = dependencyMapper.getDependenciesForSite(params);
+        for (DependencyEntity dependency : dependencies) {
+            siteDependencies.add(dependency.getSourcePath(), dependency.getTargetPath());
+        }
+        siteDependencies.loaded = true;
+        siteDependencies.loadedAt = System.currentTimeMillis();
+        logger.debug("Loaded {} dependencies into the index for site '{}'", dependencies.size(), site);
+    }
+
+    protected Set<String> collect(Map<String, Set<String>> adjacency, Collection<String> paths) {
+        Set<String> toRet = new LinkedHashSet<String>();
+        for (String path : paths) {
+            Set<String> adjacent = adjacency.get(path);
+            if (adjacent != null) {
+                toRet.addAll(adjacent);
+            }
+        }
+        return toRet;
+    }
+
+    public long getTimeToLive() {
+        return Long.parseLong(studioConfiguration.getProperty(DEPENDENCIES_INDEX_TIME_TO_LIVE));
+    }
+
+    public StudioConfiguration getStudioConfiguration() { return studioConfiguration; }
+    public void setStudioConfiguration(StudioConfiguration studioConfiguration) { this.studioConfiguration = studioConfiguration; }
+
+    /**
+     * Dependencies of a site, only accessed while holding its monitor
+     */
+    protected static class SiteDependencies {
+
+        protected final Map<String, Set<String>> targets = new HashMap<String, Set<String>>();
+        protected final Map<String, Set<String>> sources = new HashMap<String, Set<String>>();
+        /** the same path is referenced by many items, keep a single copy of it while any dependency uses it */
+        protected final Map<String, String> paths = new HashMap<String, String>();
+        protected boolean loaded;
+        protected long loadedAt;
+
+        protected void add(String source, String target) {
+            source = intern(source);
+            target = intern(target);
+            targets.computeIfAbsent(source, key -> new HashSet<String>()).add(target);
+            sources.computeIfAbsent(target, key -> new HashSet<String>()).add(source);
+        }
+
+        protected Set<String> removeSource(String source) {
+            Set<String> removed = targets.remove(source);
+            if (removed == null) {
+                return Collections.emptySet();
+            }
+            for (String target : removed) {
+                removeEdge(sources, target, source);
+                release(target);
+            }
+            release(source);
+            return removed;
+        }
+
+        protected Set<String> removeTarget(String target) {
+            Set<String> removed = sources.remove(target);
+            if (removed == null) {
+                return Collections.emptySet();
+            }
+            for (String source : removed) {
+                removeEdge(targets, source, target);
+                release(source);
+            }
+            release(target);
+            return removed;
+        }
+
+        protected void clear() {
+            targets.clear();
+            sources.clear();
+            paths.clear();
+            loaded = false;
+        }
+
+        private void removeEdge(Map<String, Set<String>> adjacency, String from, String to) {
+            Set<String> adjacent = adjacency.get(from);
+            if (adjacent != null) {
+                adjacent.remove(to);
+                if (adjacent.isEmpty()) {
+                    adjacency.remove(from);
+                }
+            }
+        }
+
+        private void release(String path) {
+            if (!targets.containsKey(path) && !sources.containsKey(path)) {
+                paths.remove(path);
+            }
+        }
+
+        private String intern(String path) {
+            String existing = paths.putIfAbsent(path, path);
+            return existing != null ? existing : path;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.craftercms.studio.api.v1.dal.DependencyEntity;
 import org.craftercms.studio.api.v1.dal.DependencyMapper;
+import org.craftercms.studio.api.v1.dal.ItemState;
 import org.craftercms.studio.api.v1.exception.ContentNotFoundException;
 import org.craftercms.studio.api.v1.exception.ServiceException;
 import org.craftercms.studio.api.v1.exception.SiteNotFoundException;
@@ -34,6 +35,7 @@ import org.craftercms.studio.api.v1.service.content.ContentService;
 import org.craftercms.studio.api.v1.service.content.ObjectMetadataManager;
 import org.craftercms.studio.api.v1.service.dependency.DependencyResolver;
 import org.craftercms.studio.api.v1.service.dependency.DependencyService;
+import org.craftercms.studio.api.v1.service.objectstate.ObjectStateService;
 import org.craftercms.studio.api.v1.service.objectstate.State;
 import org.craftercms.studio.api.v1.service.site.SiteService;
 import org.craftercms.studio.api.v1.to.ContentItemTO;
@@ -44,8 +46,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.craftercms.studio.api.v1.constant.StudioConstants.FILE_SEPARATOR;
 import static org.craftercms.studio.api.v1.constant.StudioConstants.INDEX_FILE;
@@ -64,7 +70,15 @@ public class DependencyServiceImpl implements DependencyService {
     protected PlatformTransactionManager transactionManager;
     protected ObjectMetadataManager objectMetadataManager;
     protected ContentRepository contentRepository;
+    /**
+     * A path anchored to the start followed by anything, only escaped dots are allowed as special characters in the
+     * path. Unanchored patterns match anywhere in the path, so they can't be turned into a prefix.
+     */
+    private static final Pattern PLAIN_PREFIX_PATTERN = Pattern.compile("\\^(/(?:[\\w/-]|\\\\\\.)*)\\.\\*\\$?");
+
     protected ServicesConfig servicesConfig;
+    protected ObjectStateService objectStateService;
+    protected DependencyIndex dependencyIndex;
 
     @Override
     public Set<String> upsertDependencies(String site, String path) throws SiteNotFoundException, ContentNotFoundException, ServiceException {
@@ -90,6 +104,7 @@ public class DependencyServiceImpl implements DependencyService {
                 deleteAllSourceDependencies(site, path);
                 logger.debug("Insert all extracted dependencies entries for site: " + site + " path: " + path);
                 insertDependenciesIntoDatabase(dependencyEntities);
+                updateIndexAfterCommit(site, Collections.singletonList(path), dependencyEntities);
                 logger.debug("Committing transaction.");
                 transactionManager.commit(txStatus);
             } catch (Exception e) {
@@ -104,33 +119,24 @@ public class DependencyServiceImpl implements DependencyService {
 
     @Override
     public Set<String> upsertDependencies(String site, List<String> paths) throws SiteNotFoundException, ContentNotFoundException, ServiceException {
-        Set<String> toRet = new HashSet<String>();
-        List<DependencyEntity> dependencyEntities = new ArrayList<>();
         StringBuilder sbPaths = new StringBuilder();
-        logger.debug("Resolving dependencies for list of paths.");
         for (String path : paths) {
             sbPaths.append("\n").append(path);
+        }
+        logger.debug("Resolving dependencies for list of paths.");
+        Map<String, Map<String, Set<String>>> dependencies = new LinkedHashMap<String, Map<String, Set<String>>>();
+        for (String path : paths) {
             logger.debug("Resolving dependencies for content site: " + site + " path: " + path);
-            Map<String, Set<String>> dependencies = dependencyResolver.resolve(site, path);
-            if (dependencies != null) {
-                logger.debug("Found " + dependencies.size() + " dependencies. Create entities to insert into database.");
-                for (String type : dependencies.keySet()) {
-                    dependencyEntities.addAll(createDependencyEntities(site, path, dependencies.get(type), type, toRet));
-                }
-            }
+            dependencies.put(path, dependencyResolver.resolve(site, path));
         }
         logger.debug("Preparing transaction for database updates.");
         DefaultTransactionDefinition defaultTransactionDefinition = new DefaultTransactionDefinition();
         defaultTransactionDefinition.setName("upsertDependencies");
         logger.debug("Starting transaction.");
         TransactionStatus txStatus = transactionManager.getTransaction(defaultTransactionDefinition);
+        Set<String> toRet;
         try {
-            logger.debug("Delete all source dependencies for list of paths site: " + site);
-            for (String path : paths) {
-                deleteAllSourceDependencies(site, path);
-            }
-            logger.debug("Insert all extracted dependencies entries lof list of paths for site: " + site);
-            insertDependenciesIntoDatabase(dependencyEntities);
+            toRet = upsertResolvedDependencies(site, dependencies);
             logger.debug("Committing transaction.");
             transactionManager.commit(txStatus);
         } catch (Exception e) {
@@ -142,6 +148,43 @@ public class DependencyServiceImpl implements DependencyService {
         return toRet;
     }
 
+    @Override
+    public Map<String, Map<String, Set<String>>> resolveDependencies(String site, List<String> paths) {
+        Map<String, Map<String, Set<String>>> toRet = new LinkedHashMap<String, Map<String, Set<String>>>();
+        for (String path : paths) {
+            logger.debug("Resolving dependencies for content site: " + site + " path: " + path);
+            try {
+                toRet.put(path, dependencyResolver.resolve(site, path));
+            } catch (RuntimeException e) {
+                logger.error("Error resolving dependencies for site " + site + " file: " + path, e);
+            }
+        }
+        return toRet;
+    }
+
+    @Override
+    public Set<String> upsertResolvedDependencies(String site, Map<String, Map<String, Set<String>>> dependencies) {
+        Set<String> toRet = new HashSet<String>();
+        List<DependencyEntity> dependencyEntities = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Set<String>>> entry : dependencies.entrySet()) {
+            if (entry.getValue() != null) {
+                logger.debug("Found " + entry.getValue().size() + " dependencies. Create entities to insert into database.");
+                for (String type : entry.getValue().keySet()) {
+                    dependencyEntities.addAll(createDependencyEntities(site, entry.getKey(),
+                            entry.getValue().get(type), type, toRet));
+                }
+            }
+        }
+        logger.debug("Delete all source dependencies for list of paths site: " + site);
+        for (String path : dependencies.keySet()) {
+            deleteAllSourceDependencies(site, path);
+        }
+        logger.debug("Insert all extracted dependencies entries lof list of paths for site: " + site);
+        insertDependenciesIntoDatabase(dependencyEntities);
+        updateIndexAfterCommit(site, dependencies.keySet(), dependencyEntities);
+        return toRet;
+    }
+
     private void deleteAllSourceDependencies(String site, String path) {
         logger.debug("Delete all source dependencies for site: " + site + " path: " + path);
         Map<String, String> params = new HashMap<String, String>();
@@ -171,6 +214,39 @@ public class DependencyServiceImpl implements DependencyService {
         return path.replaceAll("//", "/");
     }
 
+    /**
+     * Replace the dependencies of the given sources in the index once the current transaction commits
+     */
+    private void updateIndexAfterCommit(String site, Collection<String> paths,
+                                        List<DependencyEntity> dependencyEntities) {
+        Map<String, Set<String>> targets = new HashMap<String, Set<String>>();
+        for (String path : paths) {
+            targets.put(getCleanPath(path), new HashSet<String>());
+        }
+        for (DependencyEntity dependencyEntity : dependencyEntities) {
+            targets.computeIfAbsent(dependencyEntity.getSourcePath(), key -> new HashSet<String>())
+                    .add(dependencyEntity.getTargetPath());
+        }
+        afterCommit(() -> {
+            for (Map.Entry<String, Set<String>> entry : targets.entrySet()) {
+                dependencyIndex.setTargets(site, entry.getKey(), entry.getValue());
+            }
+        });
+    }
+
+    private void afterCommit(Runnable update) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    update.run();
+                }
+            });
+        } else {
+            update.run();
+        }
+    }
+
     private void insertDependenciesIntoDatabase(List<DependencyEntity> dependencyEntities) {
         logger.debug("Insert list of dependency entities into database");
         if (CollectionUtils.isNotEmpty(dependencyEntities)) {
@@ -199,6 +275,10 @@ public class DependencyServiceImpl implements DependencyService {
         logger.debug("Get all publishing dependencies");
         pathsParams.addAll(paths);
         pathsParams.addAll(parentPaths);
+        if (dependencyIndex.isEnabled()) {
+            toRet.addAll(getPublishingDependenciesFromIndex(site, pathsParams));
+            return toRet;
+        }
         boolean exitCondition = false;
         do {
             List<String> deps = getPublishingDependenciesForListFromDB(site, pathsParams);
@@ -214,13 +294,60 @@ public class DependencyServiceImpl implements DependencyService {
         Map<String, Object> params = new HashMap<String, Object>();
         params.put("site", site);
         params.put("paths", paths);
-        params.put("regex", getItemSpecificDependenciesPatterns());
+        addItemSpecificPatternsParams(params);
         Collection<State> onlyEditStates = CollectionUtils.removeAll(State.CHANGE_SET_STATES, State.NEW_STATES);
         params.put("editedStates", onlyEditStates);
         params.put("newStates", State.NEW_STATES);
         return dependencyMapper.getPublishingDependenciesForList(params);
     }
 
+    /**
+     * Same as querying the database level by level, but the dependency graph is followed in memory and only the
+     * state of the targets found in each level that have not been seen yet is read from the database
+     */
+    private Set<String> getPublishingDependenciesFromIndex(String site, Set<String> paths) {
+        Set<String> toRet = new HashSet<String>();
+        Set<String> newStates = new HashSet<String>();
+        for (State state : State.NEW_STATES) {
+            newStates.add(state.name());
+        }
+        Set<String> editedStates = new HashSet<String>();
+        for (State state : CollectionUtils.removeAll(State.CHANGE_SET_STATES, State.NEW_STATES)) {
+            editedStates.add(state.name());
+        }
+        List<Pattern> itemSpecificPatterns = getItemSpecificDependenciesCompiledPatterns();
+
+        Map<String, String> states = new HashMap<String, String>();
+        Set<String> level = paths;
+        while (!level.isEmpty()) {
+            Set<String> targets = dependencyIndex.getTargets(site, level);
+            List<String> unknownTargets = new ArrayList<String>();
+            for (String target : targets) {
+                if (!states.containsKey(target)) {
+                    unknownTargets.add(target);
+                    // items without state are never a publishing dependency
+                    states.put(target, null);
+                }
+            }
+            if (!unknownTargets.isEmpty()) {
+                for (ItemState itemState : objectStateService.getObjectStatesForPaths(site, unknownTargets)) {
+                    states.put(itemState.getPath(), itemState.getState());
+                }
+            }
+            Set<String> deps = new HashSet<String>();
+            for (String target : targets) {
+                String state = states.get(target);
+                if ((newStates.contains(state) ||
+                        (editedStates.contains(state) && matchesAny(target, itemSpecificPatterns))) &&
+                        toRet.add(target)) {
+                    deps.add(target);
+                }
+            }
+            level = deps;
+        }
+        return toRet;
+    }
+
     protected  Set<String> getMandatoryParents(String site, List<String> paths) {
         logger.debug("Get mandatory parents for list of paths");
         Set<String> parentPaths = new HashSet<String>();
@@ -295,10 +422,22 @@ public class DependencyServiceImpl implements DependencyService {
         if (CollectionUtils.isEmpty(paths)) {
             return new ArrayList<String>();
         }
+        if (dependencyIndex.isEnabled()) {
+            List<Pattern> itemSpecificPatterns = getItemSpecificDependenciesCompiledPatterns();
+            List<String> toRet = new ArrayList<String>();
+            for (String target : dependencyIndex.getTargets(site, paths)) {
+                if (matchesAny(target, itemSpecificPatterns)) {
+                    toRet.add(target);
+                }
+            }
+            return toRet;
+        }
         Map<String, Object> params = new HashMap<String, Object>();
         params.put("site", site);
         params.put("paths", paths);
-        params.put("regex", getItemSpecificDependenciesPatterns());
+        if (!addItemSpecificPatternsParams(params)) {
+            return new ArrayList<String>();
+        }
         return dependencyMapper.getItemSpecificDependenciesForList(params);
     }
 
@@ -342,6 +481,9 @@ public class DependencyServiceImpl implements DependencyService {
         if (CollectionUtils.isEmpty(paths)) {
             return new ArrayList<String>();
         }
+        if (dependencyIndex.isEnabled()) {
+            return new ArrayList<String>(dependencyIndex.getTargets(site, paths));
+        }
         Map<String, Object> params = new HashMap<String, Object>();
         params.put("site", site);
         params.put("paths", paths);
@@ -388,6 +530,9 @@ public class DependencyServiceImpl implements DependencyService {
         if (CollectionUtils.isEmpty(paths)) {
             return new ArrayList<String>();
         }
+        if (dependencyIndex.isEnabled()) {
+            return new ArrayList<String>(dependencyIndex.getSources(site, paths));
+        }
         Map<String, Object> params = new HashMap<String, Object>();
         params.put("site", site);
         params.put("paths", paths);
@@ -411,6 +556,7 @@ public class DependencyServiceImpl implements DependencyService {
         params.put("oldPath", oldPath);
         params.put("newPath", newPath);
         dependencyMapper.moveDependency(params);
+        afterCommit(() -> dependencyIndex.movePath(site, oldPath, newPath));
 
         return getItemDependencies(site, newPath, 1);
     }
@@ -426,6 +572,7 @@ public class DependencyServiceImpl implements DependencyService {
         params.put("site", site);
         params.put("path", path);
         dependencyMapper.deleteDependenciesForSiteAndPath(params);
+        afterCommit(() -> dependencyIndex.removePath(site, path));
     }
 
     @Override
@@ -434,6 +581,7 @@ public class DependencyServiceImpl implements DependencyService {
         Map<String, String> params = new HashMap<String, String>();
         params.put("site", site);
         dependencyMapper.deleteDependenciesForSite(params);
+        afterCommit(() -> dependencyIndex.invalidate(site));
     }
 
     @Override
@@ -550,7 +698,8 @@ public class DependencyServiceImpl implements DependencyService {
     }
 
     protected List<String> getItemSpecificDependenciesPatterns() {
-        StringTokenizer st = new StringTokenizer(studioConfiguration.getProperty(CONFIGURATION_DEPENDENCY_ITEM_SPECIFIC_PATTERNS), ",");
+        StringTokenizer st = new StringTokenizer(StringUtils.defaultString(
+                studioConfiguration.getProperty(CONFIGURATION_DEPENDENCY_ITEM_SPECIFIC_PATTERNS)), ",");
         List<String> itemSpecificDependenciesPatterns = new ArrayList<String>(st.countTokens());
         while (st.hasMoreTokens()) {
             itemSpecificDependenciesPatterns.add(st.nextToken().trim());
@@ -558,6 +707,49 @@ public class DependencyServiceImpl implements DependencyService {
         return itemSpecificDependenciesPatterns;
     }
 
+    /**
+     * Item specific patterns anchored to the start that are a plain path prefix are matched with LIKE so the database
+     * can use the index on target paths, the remaining ones are matched with RLIKE anywhere in the path
+     *
+     * @return false if there are no item specific patterns configured
+     */
+    protected boolean addItemSpecificPatternsParams(Map<String, Object> params) {
+        List<String> prefixes = new ArrayList<String>();
+        List<String> regex = new ArrayList<String>();
+        for (String pattern : getItemSpecificDependenciesPatterns()) {
+            Matcher matcher = PLAIN_PREFIX_PATTERN.matcher(pattern);
+            if (matcher.matches()) {
+                String prefix = matcher.group(1).replace("\\.", ".");
+                prefixes.add(prefix.replace("_", "\\_") + "%");
+            } else {
+                regex.add(pattern);
+            }
+        }
+        params.put("prefixes", prefixes);
+        params.put("regex", regex);
+        return !prefixes.isEmpty() || !regex.isEmpty();
+    }
+
+    /**
+     * Item specific patterns compiled to match the same way the database does (anywhere in the path, ignoring case)
+     */
+    protected List<Pattern> getItemSpecificDependenciesCompiledPatterns() {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (String pattern : getItemSpecificDependenciesPatterns()) {
+            patterns.add(Pattern.compile(pattern, Pattern.CASE_INSENSITIVE));
+        }
+        return patterns;
+    }
+
+    private boolean matchesAny(String path, List<Pattern> patterns) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(path).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public StudioConfiguration getStudioConfiguration() { return studioConfiguration; }
     public void setStudioConfiguration(StudioConfiguration studioConfiguration) { this.studioConfiguration = studioConfiguration; }
 
@@ -581,4 +773,10 @@ public class DependencyServiceImpl implements DependencyService {
 
     public ServicesConfig getServicesConfig() { return servicesConfig; }
     public void setServicesConfig(ServicesConfig servicesConfig) { this.servicesConfig = servicesConfig; }
+
+    public ObjectStateService getObjectStateService() { return objectStateService; }
+    public void setObjectStateService(ObjectStateService objectStateService) { this.objectStateService = objectStateService; }
+
+    public DependencyIndex getDependencyIndex() { return dependencyIndex; }
+    public void setDependencyIndex(DependencyIndex dependencyIndex) { this.dependencyIndex = dependencyIndex; }
 }
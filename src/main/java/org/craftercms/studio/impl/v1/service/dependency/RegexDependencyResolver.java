@@ -22,16 +22,18 @@ import org.apache.commons.collections4.CollectionUtils;
 import org.craftercms.studio.api.v1.constant.StudioConstants;
 import org.craftercms.studio.api.v1.log.Logger;
 import org.craftercms.studio.api.v1.log.LoggerFactory;
+import org.craftercms.studio.api.v1.repository.ContentRepository;
 import org.craftercms.studio.api.v1.service.content.ContentService;
 import org.craftercms.studio.api.v1.service.dependency.DependencyResolver;
 import org.craftercms.studio.api.v1.to.DependencyResolverConfigTO;
 import org.craftercms.studio.api.v1.util.StudioConfiguration;
-import org.craftercms.studio.impl.v1.util.ContentUtils;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
 import org.dom4j.Element;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -44,50 +46,56 @@ public class RegexDependencyResolver implements DependencyResolver {
     private final static Logger logger = LoggerFactory.getLogger(RegexDependencyResolver.class);
 
     protected ContentService contentService;
+    protected ContentRepository contentRepository;
     protected StudioConfiguration studioConfiguration;
 
+    /** compiled configuration per site, together with the id of the file it was compiled from */
+    protected ConcurrentMap<String, CompiledConfiguration> configurations =
+            new ConcurrentHashMap<String, CompiledConfiguration>();
+
     @Override
     public Map<String, Set<String>> resolve(String site, String path) {
         Map<String, Set<String>> toRet = new HashMap<String, Set<String>>();
-        DependencyResolverConfigTO config = getConfiguraion(site);
+        CompiledConfiguration config = getCompiledConfiguration(site);
         if (config != null) {
+            List<CompiledItemType> itemTypes = config.getItemTypes(path);
+            if (itemTypes.isEmpty()) {
+                // Nothing to extract, no need to read the content
+                return toRet;
+            }
             String content = contentService.getContentAsString(site, path);
             if (content != null) {
-                Map<String, DependencyResolverConfigTO.ItemType> itemTypes = config.getItemTypes();
-                if (itemTypes != null) {
-                    for (Map.Entry<String, DependencyResolverConfigTO.ItemType> entry : itemTypes.entrySet()) {
-                        DependencyResolverConfigTO.ItemType itemType = entry.getValue();
-                        List<String> includes = itemType.getIncludes();
-                        if (ContentUtils.matchesPatterns(path, includes)) {
-                            Map<String, DependencyResolverConfigTO.DependencyType> dependencyTypes = itemType.getDependencyTypes();
-                            for (Map.Entry<String, DependencyResolverConfigTO.DependencyType> dependencyTypeEntry : dependencyTypes.entrySet()) {
-                                Set<String> extractedPaths = new HashSet<String>();
-                                DependencyResolverConfigTO.DependencyType dependencyType = dependencyTypeEntry.getValue();
-                                List<DependencyResolverConfigTO.DependencyExtractionPattern> extractionPatterns = dependencyType.getIncludes();
-                                for (DependencyResolverConfigTO.DependencyExtractionPattern extractionPattern : extractionPatterns) {
-                                    Pattern pattern = Pattern.compile(extractionPattern.getFindRegex());
-                                    Matcher matcher = pattern.matcher(content);
-                                    while (matcher.find()) {
-                                        String matchedPath = matcher.group();
-                                        if (CollectionUtils.isNotEmpty(extractionPattern.getTransforms())) {
-                                            for (DependencyResolverConfigTO.DependencyExtractionTransform transform : extractionPattern.getTransforms()) {
-                                                Pattern find = Pattern.compile(transform.getMatch());
-                                                Matcher replaceMatcher = find.matcher(matchedPath);
-                                                matchedPath = replaceMatcher.replaceAll(transform.getReplace());
-                                            }
-                                        }
-                                        if (contentService.contentExists(site, matchedPath)) {
-                                            extractedPaths.add(matchedPath);
-                                        } else {
-                                            String message = "Found reference to " + matchedPath + " in content at " + path + " but content does not exist in referenced path for site " + site + ".\n"
-                                                    + "Regular expression for extracting dependencies matched string, and after applying transformation rules to get value for dependency path, that dependency path was not found in site repository as a content.";
-                                            logger.debug(message);
-                                        }
-                                    }
+                Set<String> matchedPaths = new HashSet<String>();
+                for (CompiledItemType itemType : itemTypes) {
+                    for (CompiledDependencyType dependencyType : itemType.dependencyTypes) {
+                        Set<String> extractedPaths = new HashSet<String>();
+                        for (CompiledExtractionPattern extractionPattern : dependencyType.patterns) {
+                            Matcher matcher = extractionPattern.find.matcher(content);
+                            while (matcher.find()) {
+                                String matchedPath = matcher.group();
+                                for (CompiledTransform transform : extractionPattern.transforms) {
+                                    matchedPath = transform.match.matcher(matchedPath).replaceAll(transform.replace);
                                 }
-                                toRet.put(dependencyType.getName(), extractedPaths);
+                                extractedPaths.add(matchedPath);
                             }
                         }
+                        matchedPaths.addAll(extractedPaths);
+                        toRet.put(dependencyType.name, extractedPaths);
+                    }
+                }
+
+                // Check all matches at once, the same path is usually referenced many times
+                Set<String> existingPaths = contentRepository.getExistingPaths(site, matchedPaths);
+                for (Set<String> extractedPaths : toRet.values()) {
+                    Iterator<String> iterator = extractedPaths.iterator();
+                    while (iterator.hasNext()) {
+                        String matchedPath = iterator.next();
+                        if (!existingPaths.contains(matchedPath)) {
+                            String message = "Found reference to " + matchedPath + " in content at " + path + " but content does not exist in referenced path for site " + site + ".\n"
+                                    + "Regular expression for extracting dependencies matched string, and after applying transformation rules to get value for dependency path, that dependency path was not found in site repository as a content.";
+                            logger.debug(message);
+                            iterator.remove();
+                        }
                     }
                 }
             } else {
@@ -100,6 +108,30 @@ public class RegexDependencyResolver implements DependencyResolver {
         return toRet;
     }
 
+    /**
+     * Get the compiled configuration of the site, it is parsed and compiled again only when the file changes
+     */
+    protected CompiledConfiguration getCompiledConfiguration(String site) {
+        String configLocation = getConfigLocation(site);
+        String objectId = contentRepository.getContentObjectId(site, configLocation);
+        if (objectId == null) {
+            configurations.remove(site);
+            return null;
+        }
+        CompiledConfiguration compiled = configurations.get(site);
+        if (compiled == null || !objectId.equals(compiled.objectId)) {
+            logger.debug("Loading dependency resolver configuration for site " + site);
+            DependencyResolverConfigTO config = getConfiguraion(site);
+            if (config == null) {
+                configurations.remove(site);
+                return null;
+            }
+            compiled = new CompiledConfiguration(objectId, config);
+            configurations.put(site, compiled);
+        }
+        return compiled;
+    }
+
     @SuppressWarnings("unchecked")
     private DependencyResolverConfigTO getConfiguraion(String site) {
         DependencyResolverConfigTO config = null;
@@ -194,6 +226,94 @@ public class RegexDependencyResolver implements DependencyResolver {
     public ContentService getContentService() { return contentService; }
     public void setContentService(ContentService contentService) { this.contentService = contentService; }
 
+    public ContentRepository getContentRepository() { return contentRepository; }
+    public void setContentRepository(ContentRepository contentRepository) { this.contentRepository = contentRepository; }
+
     public StudioConfiguration getStudioConfiguration() { return studioConfiguration; }
     public void setStudioConfiguration(StudioConfiguration studioConfiguration) { this.studioConfiguration = studioConfiguration; }
+
+    protected static class CompiledConfiguration {
+
+        protected final String objectId;
+        protected final List<CompiledItemType> itemTypes = new ArrayList<CompiledItemType>();
+
+        protected CompiledConfiguration(String objectId, DependencyResolverConfigTO config) {
+            this.objectId = objectId;
+            if (config.getItemTypes() != null) {
+                for (DependencyResolverConfigTO.ItemType itemType : config.getItemTypes().values()) {
+                    itemTypes.add(new CompiledItemType(itemType));
+                }
+            }
+        }
+
+        protected List<CompiledItemType> getItemTypes(String path) {
+            List<CompiledItemType> toRet = new ArrayList<CompiledItemType>();
+            for (CompiledItemType itemType : itemTypes) {
+                for (Pattern include : itemType.includes) {
+                    if (include.matcher(path).matches()) {
+                        toRet.add(itemType);
+                        break;
+                    }
+                }
+            }
+            return toRet;
+        }
+    }
+
+    protected static class CompiledItemType {
+
+        protected final List<Pattern> includes = new ArrayList<Pattern>();
+        protected final List<CompiledDependencyType> dependencyTypes = new ArrayList<CompiledDependencyType>();
+
+        protected CompiledItemType(DependencyResolverConfigTO.ItemType itemType) {
+            if (itemType.getIncludes() != null) {
+                for (String include : itemType.getIncludes()) {
+                    includes.add(Pattern.compile(include));
+                }
+            }
+            for (DependencyResolverConfigTO.DependencyType dependencyType : itemType.getDependencyTypes().values()) {
+                dependencyTypes.add(new CompiledDependencyType(dependencyType));
+            }
+        }
+    }
+
+    protected static class CompiledDependencyType {
+
+        protected final String name;
+        protected final List<CompiledExtractionPattern> patterns = new ArrayList<CompiledExtractionPattern>();
+
+        protected CompiledDependencyType(DependencyResolverConfigTO.DependencyType dependencyType) {
+            name = dependencyType.getName();
+            for (DependencyResolverConfigTO.DependencyExtractionPattern pattern : dependencyType.getIncludes()) {
+                patterns.add(new CompiledExtractionPattern(pattern));
+            }
+        }
+    }
+
+    protected static class CompiledExtractionPattern {
+
+        protected final Pattern find;
+        protected final List<CompiledTransform> transforms = new ArrayList<CompiledTransform>();
+
+        protected CompiledExtractionPattern(DependencyResolverConfigTO.DependencyExtractionPattern pattern) {
+            find = Pattern.compile(pattern.getFindRegex());
+            if (CollectionUtils.isNotEmpty(pattern.getTransforms())) {
+                for (DependencyResolverConfigTO.DependencyExtractionTransform transform : pattern.getTransforms()) {
+                    transforms.add(new CompiledTransform(Pattern.compile(transform.getMatch()),
+                            transform.getReplace()));
+                }
+            }
+        }
+    }
+
+    protected static class CompiledTransform {
+
+        protected final Pattern match;
+        protected final String replace;
+
+        protected CompiledTransform(Pattern match, String replace) {
+            this.match = match;
+            this.replace = replace;
+        }
+    }
 }
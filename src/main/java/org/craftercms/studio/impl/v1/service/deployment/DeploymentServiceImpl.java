@@ -93,6 +93,12 @@ public class DeploymentServiceImpl implements DeploymentService {
     @Autowired
     protected PublishRequestMapper publishRequestMapper;
 
+    @Autowired
+    protected PublishedItemMapper publishedItemMapper;
+
+    @Autowired
+    protected DeploymentHistoryMapper deploymentHistoryMapper;
+
     @Override
     @ValidateParams
     public void deploy(@ValidateStringParam(name = "site") String site, @ValidateStringParam(name = "environment") String environment, List<String> paths, ZonedDateTime scheduledDate, @ValidateStringParam(name = "approver") String approver, @ValidateStringParam(name = "submissionComment") String submissionComment, final boolean scheduleDateNow) throws DeploymentException {
@@ -345,6 +351,9 @@ public class DeploymentServiceImpl implements DeploymentService {
         Map<String, String> params = new HashMap<String, String>();
         params.put("site", site);
         publishRequestMapper.deleteDeploymentDataForSite(params);
+        publishedItemMapper.deletePublishedItemsForSite(params);
+        deploymentHistoryMapper.deleteDeploymentHistoryForSite(params);
+        deploymentHistoryMapper.deleteDeploymentIndexed(params);
         signalWorkersToContinue();
     }
 
@@ -396,13 +405,16 @@ public class DeploymentServiceImpl implements DeploymentService {
         List<DmDeploymentTaskTO> tasks = new ArrayList<DmDeploymentTaskTO>();
 
         if (deployReports != null) {
-            int count = 0;
-            String timezone = servicesConfig.getDefaultTimezone(site);
+            Set<String> paths = new LinkedHashSet<String>();
+            for (DeploymentSyncHistory entry : deployReports) {
+                paths.add(entry.getPath());
+            }
+            Map<String, ContentItemTO> deployedItems = getDeployedItems(site, paths);
             Set<String> processedItems = new HashSet<String>();
-            for (int index = 0; index < deployReports.size() && count < numberOfItems; index++) {
+            for (int index = 0; index < deployReports.size(); index++) {
                 DeploymentSyncHistory entry = deployReports.get(index);
                 if (!processedItems.contains(entry.getPath())) {
-                    ContentItemTO deployedItem = getDeployedItem(entry.getSite(), entry.getPath());
+                    ContentItemTO deployedItem = deployedItems.get(entry.getPath());
                     if (deployedItem != null) {
                         deployedItem.eventDate = entry.getSyncDate();
                         deployedItem.endpoint = entry.getTarget();
@@ -452,39 +464,45 @@ public class DeploymentServiceImpl implements DeploymentService {
     }
 
     /**
-     * get a deployed item by the given path. If the item is new, it will be added to the itemsMap
+     * get the deployed items of the given paths, deleted items are built from their last delete activity
      *
      * @param site
-     * @param path
-     * @return deployed item
+     * @param paths
+     * @return deployed items by path
      */
-    protected ContentItemTO getDeployedItem(String site, String path) {
-
-        ContentItemTO item = null;
-        if (!contentService.contentExists(site, path)) {
-            item = contentService.createDummyDmContentItemForDeletedNode(site, path);
-            AuditFeed activity = activityService.getDeletedActivity(site, path);
-            if (activity != null) {
-                JSONObject summaryObject = JSONObject.fromObject(activity.getSummary());
-                if (summaryObject.containsKey(StudioConstants.CONTENT_TYPE)) {
-                    String contentType = (String)summaryObject.get(StudioConstants.CONTENT_TYPE);
-                    item.contentType = contentType;
-                }
-                if(summaryObject.containsKey(StudioConstants.INTERNAL_NAME)) {
-                    String internalName = (String)summaryObject.get(StudioConstants.INTERNAL_NAME);
-                    item.internalName = internalName;
-                }
-                if(summaryObject.containsKey(StudioConstants.BROWSER_URI)) {
-                    String browserUri = (String)summaryObject.get(StudioConstants.BROWSER_URI);
-                    item.browserUri = browserUri;
+    protected Map<String, ContentItemTO> getDeployedItems(String site, Collection<String> paths) {
+        Map<String, ContentItemTO> items = contentService.getContentItems(site, paths);
+        List<String> deletedPaths = new ArrayList<String>();
+        for (String path : paths) {
+            if (!items.containsKey(path)) {
+                deletedPaths.add(path);
+            }
+        }
+        if (!deletedPaths.isEmpty()) {
+            Map<String, AuditFeed> activities = activityService.getDeletedActivities(site, deletedPaths);
+            for (String path : deletedPaths) {
+                ContentItemTO item = contentService.createDummyDmContentItemForDeletedNode(site, path);
+                AuditFeed activity = activities.get(path);
+                if (activity != null) {
+                    JSONObject summaryObject = JSONObject.fromObject(activity.getSummary());
+                    if (summaryObject.containsKey(StudioConstants.CONTENT_TYPE)) {
+                        String contentType = (String)summaryObject.get(StudioConstants.CONTENT_TYPE);
+                        item.contentType = contentType;
+                    }
+                    if(summaryObject.containsKey(StudioConstants.INTERNAL_NAME)) {
+                        String internalName = (String)summaryObject.get(StudioConstants.INTERNAL_NAME);
+                        item.internalName = internalName;
+                    }
+                    if(summaryObject.containsKey(StudioConstants.BROWSER_URI)) {
+                        String browserUri = (String)summaryObject.get(StudioConstants.BROWSER_URI);
+                        item.browserUri = browserUri;
+                    }
                 }
+                item.setLockOwner("");
+                items.put(path, item);
             }
-            item.setLockOwner("");
-        } else {
-            item = contentService.getContentItem(site, path, 0);
         }
-        return item;
-
+        return items;
     }
 
     @Override
@@ -694,7 +712,11 @@ public class DeploymentServiceImpl implements DeploymentService {
     public void syncAllContentToPreview(@ValidateStringParam(name = "site") String site, boolean waitTillDone) throws ServiceException {
         PreviewEventContext context = new PreviewEventContext(waitTillDone);
         context.setSite(site);
-        eventService.publish(EVENT_PREVIEW_SYNC, context);
+        if (waitTillDone) {
+            eventService.publishSync(EVENT_PREVIEW_SYNC, context);
+        } else {
+            eventService.publish(EVENT_PREVIEW_SYNC, context);
+        }
     }
 
     protected void syncFolder(String site, String path, Deployer deployer) {
@@ -727,6 +749,13 @@ public class DeploymentServiceImpl implements DeploymentService {
         return deploymentHistoryProvider.getLastDeploymentDate(site, path);
     }
 
+    @Override
+    @ValidateParams
+    public Map<String, ZonedDateTime> getLastDeploymentDates(@ValidateStringParam(name = "site") String site,
+                                                             Collection<String> paths) {
+        return deploymentHistoryProvider.getLastDeploymentDates(site, paths);
+    }
+
     @Override
     @ValidateParams
     public boolean enablePublishing(@ValidateStringParam(name = "site") String site, boolean enabled) throws SiteNotFoundException, AuthenticationException {
@@ -57,6 +57,7 @@ import org.craftercms.studio.impl.v1.util.ContentUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import static org.craftercms.studio.api.v1.constant.StudioConstants.FILE_SEPARATOR;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.PUBLISHING_MANAGER_BULK_OPERATIONS_BATCH_SIZE;
 import static org.craftercms.studio.api.v1.util.StudioConfiguration.PUBLISHING_MANAGER_INDEX_FILE;
 import static org.craftercms.studio.api.v1.util.StudioConfiguration.PUBLISHING_MANAGER_PUBLISHING_WITHOUT_DEPENDENCIES_ENABLED;
 
@@ -93,6 +94,20 @@ public class PublishingManagerImpl implements PublishingManager {
         return publishRequestMapper.getItemsReadyForDeployment(params);
     }
 
+    @Override
+    @ValidateParams
+    public List<PublishRequest> getItemsReadyForDeployment(@ValidateStringParam(name = "site") String site,
+                                                           @ValidateStringParam(name = "environment") String environment,
+                                                           int limit) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("site", site);
+        params.put("state", PublishRequest.State.READY_FOR_LIVE);
+        params.put("environment", environment);
+        params.put("now", ZonedDateTime.now(ZoneOffset.UTC));
+        params.put("limit", limit);
+        return publishRequestMapper.getItemsReadyForDeployment(params);
+    }
+
     @Override
     public DeploymentItemTO processItem(PublishRequest item) throws DeploymentException {
 
@@ -229,39 +244,56 @@ public class PublishingManagerImpl implements PublishingManager {
     @Override
     @ValidateParams
     public void markItemsCompleted(@ValidateStringParam(name = "site") String site, @ValidateStringParam(name = "environment") String environment, List<PublishRequest> processedItems) throws DeploymentException {
-        for (PublishRequest item : processedItems) {
-            item.setState(PublishRequest.State.COMPLETED);
-            publishRequestMapper.updateItemDeploymentState(item);
-        }
+        updateItemsDeploymentState(processedItems, PublishRequest.State.COMPLETED);
     }
 
     @Override
     @ValidateParams
     public void markItemsProcessing(@ValidateStringParam(name = "site") String site, @ValidateStringParam(name = "environment") String environment, List<PublishRequest> itemsToDeploy) throws DeploymentException {
-        for (PublishRequest item : itemsToDeploy) {
-            item.setState(PublishRequest.State.PROCESSING);
-            publishRequestMapper.updateItemDeploymentState(item);
-        }
+        updateItemsDeploymentState(itemsToDeploy, PublishRequest.State.PROCESSING);
     }
 
     @Override
     @ValidateParams
     public void markItemsReady(@ValidateStringParam(name = "site") String site, @ValidateStringParam(name = "environment") String environment, List<PublishRequest> copyToEnvironmentItems) throws DeploymentException {
-        for (PublishRequest item : copyToEnvironmentItems) {
-            item.setState(PublishRequest.State.READY_FOR_LIVE);
-            publishRequestMapper.updateItemDeploymentState(item);
-        }
+        updateItemsDeploymentState(copyToEnvironmentItems, PublishRequest.State.READY_FOR_LIVE);
     }
 
     @Override
     @ValidateParams
     public void markItemsBlocked(@ValidateStringParam(name = "site") String site, @ValidateStringParam(name = "environment") String environment, List<PublishRequest> copyToEnvironmentItems) throws DeploymentException {
-        for (PublishRequest item : copyToEnvironmentItems) {
-            item.setState(PublishRequest.State.BLOCKED);
-            publishRequestMapper.updateItemDeploymentState(item);
+        updateItemsDeploymentState(copyToEnvironmentItems, PublishRequest.State.BLOCKED);
+    }
+
+    /**
+     * Update the state of all items with a statement per batch of ids instead of a statement per item.
+     */
+    protected void updateItemsDeploymentState(List<PublishRequest> items, String state) {
+        if (items == null || items.isEmpty()) {
+            return;
+        }
+        int batchSize = getBulkOperationsBatchSize();
+        List<Long> ids = new ArrayList<Long>();
+        for (PublishRequest item : items) {
+            item.setState(state);
+            ids.add(item.getId());
+            if (ids.size() == batchSize) {
+                updateDeploymentState(ids, state);
+                ids = new ArrayList<Long>();
+            }
+        }
+        if (!ids.isEmpty()) {
+            updateDeploymentState(ids, state);
         }
     }
 
+    private void updateDeploymentState(List<Long> ids, String state) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("ids", ids);
+        params.put("state", state);
+        publishRequestMapper.updateItemsDeploymentState(params);
+    }
+
     @Override
     public List<DeploymentItemTO> processMandatoryDependencies(PublishRequest item, Set<String> pathsToDeploy, Set<String> missingDependenciesPaths) throws DeploymentException, ServiceException {
         List<DeploymentItemTO> mandatoryDependencies = new ArrayList<DeploymentItemTO>();
@@ -357,6 +389,11 @@ public class PublishingManagerImpl implements PublishingManager {
         return studioConfiguration.getProperty(PUBLISHING_MANAGER_INDEX_FILE);
     }
 
+    public int getBulkOperationsBatchSize() {
+        int toReturn = Integer.parseInt(studioConfiguration.getProperty(PUBLISHING_MANAGER_BULK_OPERATIONS_BATCH_SIZE));
+        return toReturn;
+    }
+
     public boolean isEnablePublishingWithoutDependencies() {
         boolean toReturn = Boolean.parseBoolean(studioConfiguration.getProperty(PUBLISHING_MANAGER_PUBLISHING_WITHOUT_DEPENDENCIES_ENABLED));
         return toReturn;
@@ -23,6 +23,11 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang3.StringUtils;
@@ -53,15 +58,24 @@ public class DeployContentToEnvironmentStore extends RepositoryJob {
 
     protected static final ReentrantLock singleWorkerLock = new ReentrantLock();
 
-    private static boolean stopSignaled = false;
+    private static final long STATUS_MESSAGE_UPDATE_INTERVAL = 1000L;
+
+    private static volatile boolean stopSignaled = false;
     private static boolean running = false;
 
+    /** sites queued or being published by a worker */
+    private static final AtomicInteger activeSites = new AtomicInteger();
+
+    protected ExecutorService workers;
+
+    protected final Set<String> sitesInProgress = ConcurrentHashMap.newKeySet();
+
     public static synchronized void signalToStop(boolean toStop) {
         stopSignaled = toStop;
     }
 
     public synchronized static boolean isRunning() {
-        return running;
+        return running || activeSites.get() > 0;
     }
 
     public synchronized static void setRunning(boolean isRunning) {
@@ -89,77 +103,162 @@ public class DeployContentToEnvironmentStore extends RepositoryJob {
         try {
             Set<String> siteNames = siteService.getAllAvailableSites();
             if (siteNames != null && siteNames.size() > 0) {
+                // One task per site so a site is never published by two workers at the same time. Sites are not
+                // waited for, each one is queued again as soon as its previous task finished, so a big package
+                // can't hold up the other sites.
                 for (String site : siteNames) {
-                    try {
-                        syncRepository(site);
-                    } catch (Exception e) {
-                        logger.error("Failed to sync database from repository for site " + site, e);
-                        siteService.enablePublishing(site, false);
-                    }
-                    if (siteService.isPublishingEnabled(site)) {
-                        if (!publishingManager.isPublishingBlocked(site)) {
-                            String statusMessage = StringUtils.EMPTY;
+                    scheduleSite(site);
+                }
+            }
+        } catch (Exception err) {
+            logger.error("Error while executing deployment to environment store", err);
+            notificationService.notifyDeploymentError("UNKNOWN", err);
+        }
+    }
+
+    /**
+     * Queue the site for publishing unless it is already queued or being published
+     */
+    protected void scheduleSite(String site) {
+        if (!sitesInProgress.add(site)) {
+            return;
+        }
+        activeSites.incrementAndGet();
+        try {
+            getWorkers().submit(() -> {
+                boolean pending = false;
+                try {
+                    pending = processSite(site);
+                } catch (Throwable err) {
+                    logger.error("Error while executing deployment to environment store for site: " + site, err);
+                } finally {
+                    sitesInProgress.remove(site);
+                    activeSites.decrementAndGet();
+                }
+                // Every task publishes at most one chunk per environment, the rest goes to the back of the queue
+                if (pending && !stopSignaled && isMasterPublishingNode()) {
+                    scheduleSite(site);
+                }
+            });
+        } catch (RejectedExecutionException err) {
+            sitesInProgress.remove(site);
+            activeSites.decrementAndGet();
+            logger.info("Publishing workers are stopped, site " + site + " was not queued");
+        }
+    }
+
+    /**
+     * Publish one chunk of ready items per environment of the site
+     *
+     * @return true if there are probably more items ready to publish
+     */
+    protected boolean processSite(String site) {
+        boolean pending = false;
+        // Tasks queued before the workers were signaled to stop don't publish anything
+        if (stopSignaled) {
+            logger.debug("Workers are signaled to stop, skipping publishing for site " + site);
+            return false;
+        }
+        try {
+            syncRepository(site);
+        } catch (Exception e) {
+            logger.error("Failed to sync database from repository for site " + site, e);
+            siteService.enablePublishing(site, false);
+        }
+        if (siteService.isPublishingEnabled(site)) {
+            if (!publishingManager.isPublishingBlocked(site)) {
+                String statusMessage = StringUtils.EMPTY;
+                try {
+                    Set<String> environments = getAllPublishingEnvironments(site);
+                    for (String environment : environments) {
+                        if (stopSignaled) {
+                            logger.debug("Workers are signaled to stop, skipping publishing for site " + site);
+                            return false;
+                        }
+                        logger.debug("Processing content ready for deployment for site \"{0}\"", site);
+                        List<PublishRequest> itemsToDeploy = publishingManager.getItemsReadyForDeployment(site, environment,
+                                getProcessingChunkSize());
+
+                        if (itemsToDeploy != null && itemsToDeploy.size() > 0) {
+                            pending = pending || itemsToDeploy.size() >= getProcessingChunkSize();
+                            logger.info("Starting publishing on environment " + environment + " for site " + site);
+                            logger.debug("Site \"{0}\" has {1} items ready for deployment", site, itemsToDeploy.size());
+
+                            String author = itemsToDeploy.get(0).getUser();
+                            StringBuilder sbComment = new StringBuilder();
+                            List<DeploymentItemTO> completeDeploymentItemList = new ArrayList<DeploymentItemTO>();
+                            Set<String> processedPaths = new HashSet<String>();
+                            SimpleDateFormat sdf = new SimpleDateFormat(StudioConstants.DATE_PATTERN_WORKFLOW_WITH_TZ);
+                            String messagePath = StringUtils.EMPTY;
                             try {
-                                Set<String> environments = getAllPublishingEnvironments(site);
-                                for (String environment : environments) {
-                                    logger.debug("Processing content ready for deployment for site \"{0}\"", site);
-                                    List<PublishRequest> itemsToDeploy = publishingManager.getItemsReadyForDeployment(site, environment);
-
-                                    if (itemsToDeploy != null && itemsToDeploy.size() > 0) {
-                                        logger.info("Starting publishing on environment " + environment + " for site " + site);
-                                        logger.debug("Site \"{0}\" has {1} items ready for deployment", site, itemsToDeploy.size());
-
-                                        String author = itemsToDeploy.get(0).getUser();
-                                        StringBuilder sbComment = new StringBuilder();
-                                        List<DeploymentItemTO> completeDeploymentItemList = new ArrayList<DeploymentItemTO>();
-                                        Set<String> processedPaths = new HashSet<String>();
-                                        SimpleDateFormat sdf = new SimpleDateFormat(StudioConstants.DATE_PATTERN_WORKFLOW_WITH_TZ);
-                                        String messagePath = StringUtils.EMPTY;
-                                        try {
-                                            logger.debug("Mark items as processing for site \"{0}\"", site);
-                                            for (PublishRequest item : itemsToDeploy) {
-                                                processPublishingRequest(site, environment, item, completeDeploymentItemList, processedPaths);
-                                            }
-                                            deploy(site, environment, completeDeploymentItemList, author, sbComment.toString());
-                                            publishingManager.markItemsCompleted(site, environment, itemsToDeploy);
-                                            logger.debug("Mark deployment completed for processed items for site \"{0}\"", site);
-                                            logger.info("Finished publishing environment " + environment + " for site " + site);
-                                        } catch (DeploymentException err) {
-                                            logger.error("Error while executing deployment to environment store for site \"{0}\", number of items \"{1}\"", err, site, itemsToDeploy.size());
-                                            publishingManager.markItemsReady(site, environment, itemsToDeploy);
-                                            siteService.enablePublishing(site, false);
-                                            statusMessage = studioConfiguration.getProperty(JOB_DEPLOY_CONTENT_TO_ENVIRONMENT_STATUS_MESSAGE_STOPPED_ERROR);
-                                            statusMessage = statusMessage.replace("{item_path}", messagePath).replace("{datetime}", ZonedDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern(sdf.toPattern())));
-                                            siteService.updatePublishingStatusMessage(site, statusMessage);
-                                            throw err;
-                                        } catch (Exception err){
-                                            logger.error("Unexpected error while executing deployment to environment " +
-                                                    "store for site \"{0}\", number of items \"{1}\"", err, site, itemsToDeploy.size());
-                                            publishingManager.markItemsReady(site, environment, itemsToDeploy);
-                                            siteService.enablePublishing(site, false);
-                                            statusMessage = studioConfiguration.getProperty(JOB_DEPLOY_CONTENT_TO_ENVIRONMENT_STATUS_MESSAGE_STOPPED_ERROR);
-                                            statusMessage = statusMessage.replace("{item_path}", messagePath).replace("{datetime}", ZonedDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern(sdf.toPattern())));
-                                            siteService.updatePublishingStatusMessage(site, statusMessage);
-                                            throw err;
-                                        }
+                                logger.debug("Mark items as processing for site \"{0}\"", site);
+                                publishingManager.markItemsProcessing(site, environment, itemsToDeploy);
+                                long statusMessageTime = 0;
+                                for (PublishRequest item : itemsToDeploy) {
+                                    messagePath = item.getPath();
+                                    // The busy status is only refreshed once in a while instead of for every item
+                                    if (System.currentTimeMillis() - statusMessageTime >= STATUS_MESSAGE_UPDATE_INTERVAL) {
+                                        updatePublishingStatusMessage(site, JOB_DEPLOY_CONTENT_TO_ENVIRONMENT_STATUS_MESSAGE_BUSY, messagePath);
+                                        statusMessageTime = System.currentTimeMillis();
                                     }
+                                    processPublishingRequest(site, environment, item, completeDeploymentItemList, processedPaths);
                                 }
-                            } catch (Exception err) {
-                                logger.error("Error while executing deployment to environment store for site: " + site, err);
-                                notificationService.notifyDeploymentError(site, err);
-                                logger.info("Continue executing deployment for other sites.");
+                                deploy(site, environment, completeDeploymentItemList, author, sbComment.toString());
+                                publishingManager.markItemsCompleted(site, environment, itemsToDeploy);
+                                updatePublishingStatusMessage(site, JOB_DEPLOY_CONTENT_TO_ENVIRONMENT_STATUS_MESSAGE_IDLE, messagePath);
+                                logger.debug("Mark deployment completed for processed items for site \"{0}\"", site);
+                                logger.info("Finished publishing environment " + environment + " for site " + site);
+                            } catch (DeploymentException err) {
+                                logger.error("Error while executing deployment to environment store for site \"{0}\", number of items \"{1}\"", err, site, itemsToDeploy.size());
+                                publishingManager.markItemsReady(site, environment, itemsToDeploy);
+                                siteService.enablePublishing(site, false);
+                                statusMessage = studioConfiguration.getProperty(JOB_DEPLOY_CONTENT_TO_ENVIRONMENT_STATUS_MESSAGE_STOPPED_ERROR);
+                                statusMessage = statusMessage.replace("{item_path}", messagePath).replace("{datetime}", ZonedDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern(sdf.toPattern())));
+                                siteService.updatePublishingStatusMessage(site, statusMessage);
+                                throw err;
+                            } catch (Exception err){
+                                logger.error("Unexpected error while executing deployment to environment " +
+                                        "store for site \"{0}\", number of items \"{1}\"", err, site, itemsToDeploy.size());
+                                publishingManager.markItemsReady(site, environment, itemsToDeploy);
+                                siteService.enablePublishing(site, false);
+                                statusMessage = studioConfiguration.getProperty(JOB_DEPLOY_CONTENT_TO_ENVIRONMENT_STATUS_MESSAGE_STOPPED_ERROR);
+                                statusMessage = statusMessage.replace("{item_path}", messagePath).replace("{datetime}", ZonedDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern(sdf.toPattern())));
+                                siteService.updatePublishingStatusMessage(site, statusMessage);
+                                throw err;
                             }
-                        } else {
-                            logger.info("Publishing is blocked for site " + site);
                         }
-                    } else {
-                        logger.info("Publishing is disabled for site " + site);
                     }
+                } catch (Exception err) {
+                    logger.error("Error while executing deployment to environment store for site: " + site, err);
+                    notificationService.notifyDeploymentError(site, err);
+                    logger.info("Continue executing deployment for other sites.");
+                    pending = false;
                 }
+            } else {
+                logger.info("Publishing is blocked for site " + site);
             }
-        } catch (Exception err) {
-            logger.error("Error while executing deployment to environment store", err);
-            notificationService.notifyDeploymentError("UNKNOWN", err);
+        } else {
+            logger.info("Publishing is disabled for site " + site);
+        }
+        return pending;
+    }
+
+    protected synchronized ExecutorService getWorkers() {
+        if (workers == null) {
+            final AtomicInteger count = new AtomicInteger();
+            workers = Executors.newFixedThreadPool(getWorkerPoolSize(), runnable -> {
+                Thread thread = new Thread(runnable, "studio-publishing-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return workers;
+    }
+
+    public synchronized void destroy() {
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
         }
     }
 
@@ -168,10 +267,7 @@ public class DeployContentToEnvironmentStore extends RepositoryJob {
         Set<String> missingDependenciesPaths = new HashSet<String>();
         SimpleDateFormat sdf = new SimpleDateFormat(StudioConstants.DATE_PATTERN_WORKFLOW_WITH_TZ);
         String messagePath = item.getPath();
-        String statusMessage = studioConfiguration.getProperty(JOB_DEPLOY_CONTENT_TO_ENVIRONMENT_STATUS_MESSAGE_BUSY);
-        statusMessage = statusMessage.replace("{item_path}", messagePath).replace("{datetime}", ZonedDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern(sdf.toPattern())));
-        siteService.updatePublishingStatusMessage(site, statusMessage);
-        publishingManager.markItemsProcessing(site, environment, Arrays.asList(item));
+        String statusMessage;
         String lockKey2 = item.getSite() + ":" + item.getPath();
         try {
             List<DeploymentItemTO> deploymentItemList = new ArrayList<DeploymentItemTO>();
@@ -194,9 +290,6 @@ public class DeployContentToEnvironmentStore extends RepositoryJob {
             }
             deploymentItemList.addAll(missingDependencies);
             completeDeploymentItemList.addAll(deploymentItemList);
-            statusMessage = studioConfiguration.getProperty(JOB_DEPLOY_CONTENT_TO_ENVIRONMENT_STATUS_MESSAGE_IDLE);
-            statusMessage = statusMessage.replace("{item_path}", messagePath).replace("{datetime}", ZonedDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern(sdf.toPattern())));
-            siteService.updatePublishingStatusMessage(site, statusMessage);
         } catch (DeploymentException err) {
             logger.error("Error while executing deployment to environment store for site \"{0}\",", err, site);
             publishingManager.markItemsReady(site, environment, Arrays.asList(item));
@@ -217,6 +310,13 @@ public class DeployContentToEnvironmentStore extends RepositoryJob {
         }
     }
 
+    private void updatePublishingStatusMessage(String site, String messageKey, String messagePath) {
+        SimpleDateFormat sdf = new SimpleDateFormat(StudioConstants.DATE_PATTERN_WORKFLOW_WITH_TZ);
+        String statusMessage = studioConfiguration.getProperty(messageKey);
+        statusMessage = statusMessage.replace("{item_path}", messagePath).replace("{datetime}", ZonedDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern(sdf.toPattern())));
+        siteService.updatePublishingStatusMessage(site, statusMessage);
+    }
+
     private void deploy(String site, String environment, List<DeploymentItemTO> items, String author, String comment) throws DeploymentException {
         logger.debug("Deploying " + items.size() + " item(s)");
         contentRepository.publish(site, items, environment, author, comment);
@@ -263,6 +363,11 @@ public class DeployContentToEnvironmentStore extends RepositoryJob {
         return toReturn;
     }
 
+    public int getWorkerPoolSize() {
+        int toReturn = Integer.parseInt(studioConfiguration.getProperty(JOB_DEPLOY_CONTENT_TO_ENVIRONMENT_WORKER_POOL_SIZE));
+        return Math.max(1, toReturn);
+    }
+
     public PublishingManager getPublishingManager() { return publishingManager; }
     public void setPublishingManager(PublishingManager publishingManager) { this.publishingManager = publishingManager; }
 
@@ -26,76 +26,199 @@ import org.craftercms.studio.api.v1.ebus.*;
 import org.craftercms.studio.api.v1.log.Logger;
 import org.craftercms.studio.api.v1.log.LoggerFactory;
 import org.craftercms.studio.api.v1.service.event.EventService;
+import org.craftercms.studio.api.v1.util.StudioConfiguration;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.EVENT_SERVICE_ASYNC_ENABLED;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.EVENT_SERVICE_ASYNC_POOL_SIZE;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.EVENT_SERVICE_ASYNC_QUEUE_CAPACITY;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.EVENT_SERVICE_COALESCED_EVENTS;
+
+/**
+ * Event bus that, unless asynchronous dispatch is turned off, hands events over to a bounded pool of workers so the
+ * publisher doesn't wait for the listeners. When the queue is full the publisher runs the listeners itself.
+ *
+ * Events configured as coalesced are collapsed while they wait in the queue: publishing one for a site that already
+ * has the same event pending is a no-op, the pending one hasn't run yet so it will see the latest state anyway.
+ */
 public class EventServiceImpl implements EventService, ApplicationContextAware {
 
     private static final Logger logger = LoggerFactory.getLogger(EventServiceImpl.class);
 
     protected ApplicationContext applicationContext;
 
-    private Map<String, List<EventSubscriber>> eventListeners = new HashMap<String, List<EventSubscriber>>();
+    protected StudioConfiguration studioConfiguration;
+
+    private ConcurrentMap<String, List<Subscriber>> eventListeners = new ConcurrentHashMap<String, List<Subscriber>>();
+
+    /** keys of the coalesced events waiting for a worker */
+    private Set<String> pendingEvents = ConcurrentHashMap.newKeySet();
 
+    private Set<String> coalescedEvents = new HashSet<String>();
+
+    protected ThreadPoolExecutor executor;
+
+    public void init() {
+        for (String event : StringUtils.split(studioConfiguration.getProperty(EVENT_SERVICE_COALESCED_EVENTS), ",")) {
+            coalescedEvents.add(event.trim());
+        }
+        if (isAsyncEnabled()) {
+            int poolSize = getAsyncPoolSize();
+            final AtomicInteger threadCount = new AtomicInteger();
+            executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(getAsyncQueueCapacity()), runnable -> {
+                        Thread thread = new Thread(runnable, "studio-event-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+    }
+
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
 
     @Override
     @ValidateParams
     public void publish(@ValidateStringParam(name = "event") String event, Object... args) {
-        logger.debug(String.format("Publishing %s", event));
+        if (executor == null) {
+            publishSync(event, args);
+            return;
+        }
+        List<Subscriber> listenersForEvent = eventListeners.get(event);
+        if (listenersForEvent == null || listenersForEvent.isEmpty()) {
+            return;
+        }
+
+        final String coalescingKey = getCoalescingKey(event, args);
+        if (coalescingKey != null && !pendingEvents.add(coalescingKey)) {
+            logger.debug("Event {} is already pending, skipping it", coalescingKey);
+            return;
+        }
+        logger.debug("Queueing {}", event);
+        executor.execute(() -> {
+            if (coalescingKey != null) {
+                // From now on a new event needs its own run, this one may have already read the state
+                pendingEvents.remove(coalescingKey);
+            }
+            notifyListeners(event, args);
+        });
+    }
 
-        List<EventSubscriber> listenersForEvent = getListenersForEvent(event, false);
+    @Override
+    @ValidateParams
+    public void publishSync(@ValidateStringParam(name = "event") String event, Object... args) {
+        notifyListeners(event, args);
+    }
+
+    protected void notifyListeners(String event, Object[] args) {
+        logger.debug("Publishing {}", event);
+
+        List<Subscriber> listenersForEvent = eventListeners.get(event);
         if (listenersForEvent != null) {
-            for (EventSubscriber listener : listenersForEvent) {
-                Object bean = applicationContext.getBean(listener.getBeanName());
-                Method method = listener.getMethod();
+            for (Subscriber listener : listenersForEvent) {
+                Object[] invocationArgs = new Object[args.length + 1];
+                invocationArgs[0] = applicationContext.getBean(listener.getBeanName());
+                System.arraycopy(args, 0, invocationArgs, 1, args.length);
                 try {
-                    method.invoke(bean, args);
-                } catch (IllegalAccessException | InvocationTargetException e) {
-                    logger.error("Error invoking listeners method for Publishing event: " + listener.getBeanName() + " - " + listener.getMethod());
+                    listener.handle.invokeExact(invocationArgs);
+                } catch (Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    logger.error("Error invoking listeners method for Publishing event: " + listener.getBeanName() +
+                                 " - " + listener.getMethod(), e);
                 }
             }
         }
     }
 
-    protected List<EventSubscriber> getListenersForEvent(String event, boolean create) {
-        List<EventSubscriber> listeners = eventListeners.get(event);
-        if (listeners == null && create) {
-            listeners = new ArrayList<EventSubscriber>();
-            eventListeners.put(event, listeners);
+    /**
+     * Events are coalesced per site, so only events with a single context argument can be coalesced
+     */
+    protected String getCoalescingKey(String event, Object[] args) {
+        if (coalescedEvents.contains(event) && args.length == 1 && args[0] instanceof EventContext) {
+            return event + ":" + ((EventContext) args[0]).getSite();
         }
-        return listeners;
+        return null;
     }
 
     @Override
     @ValidateParams
     public void subscribe(@ValidateStringParam(name = "event") String event, @ValidateStringParam(name = "listener") String listener, Method method) {
         logger.info(String.format("Subscribing %s to %s", listener, event));
-        EventSubscriber subscriber = new EventSubscriber(listener, method);
-        getListenersForEvent(event, true).add(subscriber);
+        Subscriber subscriber;
+        try {
+            subscriber = new Subscriber(listener, method);
+        } catch (IllegalAccessException e) {
+            logger.error("Listener method " + method + " of " + listener + " is not accessible", e);
+            return;
+        }
+        eventListeners.computeIfAbsent(event, key -> new CopyOnWriteArrayList<Subscriber>()).add(subscriber);
     }
 
     @Override
     @ValidateParams
     public void unSubscribe(@ValidateStringParam(name = "event") String event, @ValidateStringParam(name = "listener") String listener) {
         logger.debug(String.format("UnSubscribing %s to %s", listener, event));
-        List<EventSubscriber> listeners = getListenersForEvent(event, false);
-        for (EventSubscriber subscriber : listeners) {
-            if (StringUtils.equals(subscriber.getBeanName(), listener)) {
-                listeners.remove(subscriber);
-            }
+        List<Subscriber> listeners = eventListeners.get(event);
+        if (listeners != null) {
+            listeners.removeIf(subscriber -> StringUtils.equals(subscriber.getBeanName(), listener));
         }
     }
 
+    public boolean isAsyncEnabled() {
+        return Boolean.parseBoolean(studioConfiguration.getProperty(EVENT_SERVICE_ASYNC_ENABLED));
+    }
+
+    public int getAsyncPoolSize() {
+        return Integer.parseInt(studioConfiguration.getProperty(EVENT_SERVICE_ASYNC_POOL_SIZE));
+    }
+
+    public int getAsyncQueueCapacity() {
+        return Integer.parseInt(studioConfiguration.getProperty(EVENT_SERVICE_ASYNC_QUEUE_CAPACITY));
+    }
+
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
         this.applicationContext = applicationContext;
     }
+
+    public StudioConfiguration getStudioConfiguration() { return studioConfiguration; }
+    public void setStudioConfiguration(StudioConfiguration studioConfiguration) { this.studioConfiguration = studioConfiguration; }
+
+    /**
+     * Subscriber with its method resolved once to a handle taking the bean and the event arguments as an array, the
+     * value returned by the method is dropped
+     */
+    protected static class Subscriber extends EventSubscriber {
+
+        protected final MethodHandle handle;
+
+        protected Subscriber(String beanName, Method method) throws IllegalAccessException {
+            super(beanName, method);
+            int parameterCount = method.getParameterCount() + 1;
+            handle = MethodHandles.publicLookup().unreflect(method)
+                    .asType(MethodType.genericMethodType(parameterCount).changeReturnType(void.class))
+                    .asSpreader(Object[].class, parameterCount);
+        }
+    }
 }
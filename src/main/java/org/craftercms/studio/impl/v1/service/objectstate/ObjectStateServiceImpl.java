@@ -25,6 +25,7 @@ import org.craftercms.commons.validation.annotations.param.ValidateSecurePathPar
 import org.craftercms.commons.validation.annotations.param.ValidateStringParam;
 import org.craftercms.studio.api.v1.dal.ItemState;
 import org.craftercms.studio.api.v1.dal.ItemStateMapper;
+import org.craftercms.studio.api.v1.exception.LockLostException;
 import org.craftercms.studio.api.v1.log.Logger;
 import org.craftercms.studio.api.v1.log.LoggerFactory;
 import org.craftercms.studio.api.v1.service.AbstractRegistrableService;
@@ -35,6 +36,7 @@ import org.craftercms.studio.api.v1.service.objectstate.State;
 import org.craftercms.studio.api.v1.service.objectstate.TransitionEvent;
 import org.craftercms.studio.api.v1.to.ContentItemTO;
 import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.craftercms.studio.impl.v1.service.content.ContentItemCache;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.io.File;
@@ -55,6 +57,7 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
     protected GeneralLockService generalLockService;
     protected ContentService contentService;
     protected StudioConfiguration studioConfiguration;
+    protected ContentItemCache contentItemCache;
 
     @Override
     public void register() {
@@ -91,6 +94,28 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
         return state;
     }
 
+    @Override
+    @ValidateParams
+    public List<ItemState> getObjectStatesForPaths(@ValidateStringParam(name = "site") String site, List<String> paths) {
+        List<ItemState> states = new ArrayList<ItemState>();
+        if (paths == null || paths.isEmpty()) {
+            return states;
+        }
+
+        List<String> cleanPaths = new ArrayList<String>(paths.size());
+        for (String path : paths) {
+            cleanPaths.add(FilenameUtils.normalize(path, true));
+        }
+        int batchSize = getBulkOperationBatchSize();
+        for (int i = 0; i < cleanPaths.size(); i = i + batchSize) {
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("site", site);
+            params.put("paths", cleanPaths.subList(i, Math.min(i + batchSize, cleanPaths.size())));
+            states.addAll(itemStateMapper.getObjectStateForSiteAndPaths(params));
+        }
+        return states;
+    }
+
     @Override
     @ValidateParams
     public void setSystemProcessing(@ValidateStringParam(name = "site") String site, @ValidateSecurePathParam(name = "path") String path, boolean isSystemProcessing) {
@@ -102,6 +127,7 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
         params.put("systemProcessing", isSystemProcessing);
         logger.debug("Updating system processing in DB: {0}:{1} - {2}", site, cleanPath, isSystemProcessing);
         itemStateMapper.setSystemProcessingBySiteAndPath(params);
+        contentItemCache.invalidate(site, cleanPath);
     }
 
     @Override
@@ -131,6 +157,7 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
             params.put("paths", paths);
             params.put("systemProcessing", isSystemProcessing);
             itemStateMapper.setSystemProcessingBySiteAndPathBulk(params);
+            contentItemCache.invalidate(site, paths);
         }
     }
 
@@ -177,13 +204,17 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
                 newEntry.setPath(itemPath);
                 newEntry.setSystemProcessing(0);
                 newEntry.setState(nextState.name());
-                itemStateMapper.insertEntry(newEntry);
+                insertEntry(lockKey, newEntry);
+                contentItemCache.invalidate(site, itemPath);
             } else if (nextState.toString() != currentState.getState() && nextState != State.NOOP) {
                 currentState.setState(nextState.name());
-                itemStateMapper.setObjectState(currentState);
+                setObjectState(lockKey, currentState);
+                contentItemCache.invalidate(site, itemPath);
             } else if (nextState == State.NOOP) {
                 logger.warn("Transition not defined for event " + event.name() + " and current state " + currentState.getState() + " [object id: " + currentState.getObjectId() + "]");
             }
+        } catch (LockLostException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Transition not defined for event", e);
         } finally {
@@ -200,6 +231,7 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
         params.put("commitId", commitId);
         params.put("state", State.EXISTING_UNEDITED_UNLOCKED.name());
         itemStateMapper.deployCommitId(params);
+        contentItemCache.invalidate(site);
     }
 
     @Override
@@ -225,7 +257,8 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
                 newEntry.setPath(path);
                 newEntry.setSystemProcessing(0);
                 newEntry.setState(State.NEW_UNPUBLISHED_UNLOCKED.name());
-                itemStateMapper.insertEntry(newEntry);
+                insertEntry(lockKey, newEntry);
+                contentItemCache.invalidate(site, path);
             }
         } finally {
             generalLockService.unlock(lockKey);
@@ -251,13 +284,77 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
                 newEntry.setPath(itemPath);
                 newEntry.setSystemProcessing(0);
                 newEntry.setState(State.NEW_UNPUBLISHED_UNLOCKED.name());
-                itemStateMapper.insertEntry(newEntry);
+                insertEntry(lockKey, newEntry);
+                contentItemCache.invalidate(site, itemPath);
             }
         } finally {
             generalLockService.unlock(lockKey);
         }
     }
 
+    /**
+     * Insert the state of an item while holding its lock. When the lock is shared with other nodes the insert
+     * carries the fencing token of the lock, and the database rejects it if the lock was taken over meanwhile.
+     */
+    protected void insertEntry(String lockKey, ItemState entry) {
+        Long fencingToken = generalLockService.getFencingToken(lockKey);
+        if (fencingToken == null) {
+            itemStateMapper.insertEntry(entry);
+        } else if (itemStateMapper.insertEntryIfLockHeld(getFencedParams(entry, fencingToken)) == 0) {
+            throw new LockLostException(lockKey, "Lock for id " + lockKey + " was lost, state of " +
+                    entry.getPath() + " was not inserted");
+        }
+    }
+
+    /**
+     * Update the state of an item while holding its lock, fenced in the same way as
+     * {@link #insertEntry(String, ItemState)}.
+     */
+    protected void setObjectState(String lockKey, ItemState state) {
+        Long fencingToken = generalLockService.getFencingToken(lockKey);
+        if (fencingToken == null) {
+            itemStateMapper.setObjectState(state);
+        } else if (itemStateMapper.setObjectStateIfLockHeld(getFencedParams(state, fencingToken)) == 0) {
+            throw new LockLostException(lockKey, "Lock for id " + lockKey + " was lost, state of " +
+                    state.getPath() + " was not updated");
+        }
+    }
+
+    protected Map<String, Object> getFencedParams(ItemState state, long fencingToken) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("objectId", state.getObjectId());
+        params.put("site", state.getSite());
+        params.put("path", state.getPath());
+        params.put("state", state.getState());
+        params.put("systemProcessing", state.getSystemProcessing());
+        params.put("fencingToken", fencingToken);
+        return params;
+    }
+
+    @Override
+    @ValidateParams
+    public void insertNewEntries(@ValidateStringParam(name = "site") String site, List<String> paths) {
+        if (paths == null || paths.isEmpty()) {
+            return;
+        }
+        List<ItemState> items = new ArrayList<ItemState>();
+        List<String> itemPaths = new ArrayList<String>();
+        for (String path : paths) {
+            ItemState newEntry = new ItemState();
+            newEntry.setObjectId(UUID.randomUUID().toString());
+            newEntry.setSite(site);
+            newEntry.setPath(FilenameUtils.normalize(path, true));
+            itemPaths.add(newEntry.getPath());
+            newEntry.setSystemProcessing(0);
+            newEntry.setState(State.NEW_UNPUBLISHED_UNLOCKED.name());
+            items.add(newEntry);
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("items", items);
+        itemStateMapper.insertEntries(params);
+        contentItemCache.invalidate(site, itemPaths);
+    }
+
     @Override
     @ValidateParams
     public List<ItemState> getSubmittedItems(@ValidateStringParam(name = "site") String site) {
@@ -282,6 +379,7 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
         params.put("oldPath", oldPath);
         params.put("newPath", newPath);
         itemStateMapper.updateObjectPath(params);
+        contentItemCache.invalidate(site, Arrays.asList(oldPath, newPath));
     }
 
     @Override
@@ -354,6 +452,26 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
         return itemStateMapper.isFolderLive(params) > 0;
     }
 
+    @Override
+    @ValidateParams
+    public Set<String> getLiveFolders(@ValidateStringParam(name = "site") String site, Collection<String> folderPaths) {
+        Set<String> toRet = new HashSet<String>();
+        if (folderPaths == null || folderPaths.isEmpty()) {
+            return toRet;
+        }
+        Map<String, String> normalizedPaths = new HashMap<String, String>();
+        for (String folderPath : folderPaths) {
+            normalizedPaths.put(FilenameUtils.normalize(folderPath, true), folderPath);
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("site", site);
+        params.put("folderPaths", normalizedPaths.keySet());
+        for (String liveFolder : itemStateMapper.getLiveFolders(params)) {
+            toRet.add(normalizedPaths.get(liveFolder));
+        }
+        return toRet;
+    }
+
     @Override
     @ValidateParams
     public boolean isScheduled(@ValidateStringParam(name = "site") String site, @ValidateSecurePathParam(name = "path") String path) {
@@ -395,7 +513,11 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
     @Override
     @ValidateParams
     public void deleteObjectState(@ValidateStringParam(name = "objectId") String objectId) {
+        ItemState state = itemStateMapper.getObjectStateById(objectId);
         itemStateMapper.deleteObjectState(objectId);
+        if (state != null) {
+            contentItemCache.invalidate(state.getSite(), state.getPath());
+        }
     }
 
     @Override
@@ -406,6 +528,7 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
         params.put("site", site);
         params.put("path", path);
         itemStateMapper.deleteObjectStateForSiteAndPath(params);
+        contentItemCache.invalidate(site, path);
     }
 
     @Override
@@ -416,6 +539,7 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
         params.put("site", site);
         params.put("path", path + "/%");
         itemStateMapper.deleteObjectStateForSiteAndFolder(params);
+        contentItemCache.invalidateFolder(site, path);
     }
 
     @Override
@@ -426,29 +550,33 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
             params.put("site", site);
             params.put("paths", paths);
             List<ItemState> itemStates = itemStateMapper.getObjectStateForSiteAndPaths(params);
+            // Paths grouped by their current state, each group is moved to its next state with a single update
             Map<State, List<String>> bulkSubsets = new HashMap<>();
             for (ItemState state : itemStates) {
-                if (!bulkSubsets.containsKey(state.getState())) {
-                    bulkSubsets.put(State.valueOf(state.getState()), new ArrayList<String>());
+                State currentState = State.valueOf(state.getState());
+                if (!bulkSubsets.containsKey(currentState)) {
+                    bulkSubsets.put(currentState, new ArrayList<String>());
                 }
-                bulkSubsets.get(State.valueOf(state.getState())).add(state.getObjectId());
+                bulkSubsets.get(currentState).add(state.getPath());
             }
             State nextState = null;
             for (Map.Entry<State, List<String>> entry : bulkSubsets.entrySet()) {
                 if (entry.getKey() == null) {
                     params = new HashMap<>();
                     params.put("site", site);
-                    params.put("paths", paths);
+                    params.put("paths", entry.getValue());
                     params.put("state", defaultTargetState.name());
                     itemStateMapper.setObjectStateForSiteAndPaths(params);
+                    contentItemCache.invalidate(site, entry.getValue());
                 } else {
                     nextState = transitionTable[entry.getKey().ordinal()][event.ordinal()];
                     if (nextState != entry.getKey() && nextState != State.NOOP) {
                         params = new HashMap<>();
                         params.put("site", site);
-                        params.put("paths", paths);
+                        params.put("paths", entry.getValue());
                         params.put("state", nextState.name());
                         itemStateMapper.setObjectStateForSiteAndPaths(params);
+                        contentItemCache.invalidate(site, entry.getValue());
                     } else if (nextState == State.NOOP) {
                         logger.warn("Transition not defined for event " + event.name() + " and current state " + entry.getKey().name() + " [setting object state for multiple objects]");
                     }
@@ -490,6 +618,7 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
         objectState.setState(state);
         objectState.setSystemProcessing(systemProcessing ? 1 : 0);
         itemStateMapper.setObjectState(objectState);
+        contentItemCache.invalidate(site, path);
         return "Success";
     }
 
@@ -499,6 +628,7 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
         Map<String, String> params = new HashMap<String, String>();
         params.put("site", site);
         itemStateMapper.deleteObjectStatesForSite(params);
+        contentItemCache.invalidate(site);
     }
 
     public int getBulkOperationBatchSize() {
@@ -513,6 +643,7 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
         params.put("siteId", site);
         params.put("state", state.name());
         itemStateMapper.setStateForSiteContent(params);
+        contentItemCache.invalidate(site);
     }
 
     @Override
@@ -579,4 +710,7 @@ public class ObjectStateServiceImpl extends AbstractRegistrableService implement
 
     public StudioConfiguration getStudioConfiguration() { return studioConfiguration; }
     public void setStudioConfiguration(StudioConfiguration studioConfiguration) { this.studioConfiguration = studioConfiguration; }
+
+    public ContentItemCache getContentItemCache() { return contentItemCache; }
+    public void setContentItemCache(ContentItemCache contentItemCache) { this.contentItemCache = contentItemCache; }
 }
@@ -28,7 +28,12 @@ import java.security.NoSuchAlgorithmException;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
@@ -44,6 +49,7 @@ import org.craftercms.studio.api.v1.exception.SiteNotFoundException;
 import org.craftercms.studio.api.v1.exception.security.*;
 import org.craftercms.studio.api.v1.log.Logger;
 import org.craftercms.studio.api.v1.log.LoggerFactory;
+import org.craftercms.studio.api.v1.repository.ContentRepository;
 import org.craftercms.studio.api.v1.service.GeneralLockService;
 import org.craftercms.studio.api.v1.service.activity.ActivityService;
 import org.craftercms.studio.api.v1.service.content.ContentService;
@@ -53,6 +59,7 @@ import org.craftercms.studio.api.v1.service.security.SecurityService;
 import org.craftercms.studio.api.v1.service.security.UserDetailsManager;
 import org.craftercms.studio.api.v1.to.ContentTypeConfigTO;
 import org.craftercms.studio.api.v1.to.PermissionsConfigTO;
+import org.craftercms.studio.api.v1.to.PermissionsConfigTO.PermissionRule;
 import org.craftercms.studio.api.v1.util.StudioConfiguration;
 import org.craftercms.studio.impl.v1.util.SessionTokenUtils;
 import org.dom4j.Document;
@@ -89,6 +96,7 @@ public class SecurityServiceImpl implements SecurityService {
     protected ContentTypeService contentTypeService;
     protected ActivityService activityService;
     protected ContentService contentService;
+    protected ContentRepository contentRepository;
     protected GeneralLockService generalLockService;
     protected StudioConfiguration studioConfiguration;
     protected JavaMailSender emailService;
@@ -96,10 +104,25 @@ public class SecurityServiceImpl implements SecurityService {
     protected UserDetailsManager userDetailsManager;
     protected ObjectFactory<FreeMarkerConfig> freeMarkerConfig;
 
+    /**
+     * loaded role and permission mappings, keyed by site and path and kept with the id of the repository object
+     * they were loaded from
+     */
+    protected Map<String, PermissionsConfigSnapshot> permissionsConfigs =
+            new ConcurrentHashMap<String, PermissionsConfigSnapshot>();
+
+    /**
+     * groups of users, dropped when membership changes through this service
+     */
+    protected Map<String, UserGroupsEntry> userGroups = new ConcurrentHashMap<String, UserGroupsEntry>();
+    protected AtomicLong userGroupsVersion = new AtomicLong();
+
     @Override
     @ValidateParams
     public String authenticate(@ValidateStringParam(name = "username") String username, @ValidateStringParam(name = "password") String password) throws BadCredentialsException, AuthenticationSystemException {
         String toRet = securityProvider.authenticate(username, password);
+        // security providers may synchronize groups of the user when authenticating
+        invalidateUserGroups(username);
         if (StringUtils.isNotEmpty(toRet)) {
             RequestContext requestContext = RequestContext.getCurrent();
             HttpServletRequest httpServletRequest = requestContext.getRequest();
@@ -142,13 +165,14 @@ public class SecurityServiceImpl implements SecurityService {
     public Set<String> getUserPermissions(@ValidateStringParam(name = "site") final String site, @ValidateSecurePathParam(name = "path") String path, @ValidateStringParam(name = "user") String user, List<String> groups) {
         Set<String> permissions = new HashSet<String>();
         if (StringUtils.isNotEmpty(site)) {
-            PermissionsConfigTO rolesConfig = loadConfiguration(site, getRoleMappingsFileName());
-            PermissionsConfigTO permissionsConfig = loadConfiguration(site, getPermissionsFileName());
+            PermissionsConfigTO rolesConfig = getSiteConfiguration(site, getRoleMappingsFileName()).config;
+            PermissionsConfigSnapshot permissionsConfig = getSiteConfiguration(site, getPermissionsFileName());
             Set<String> roles = new HashSet<String>();
             addUserRoles(roles, site, user);
             addGroupRoles(roles, site, groups, rolesConfig);
             // resolve the permission
-            permissions = populateUserPermissions(site, path, roles, permissionsConfig);
+            permissions = getEvaluatedPermissions(permissionsConfig, path, roles,
+                    () -> populateUserPermissions(site, path, roles, permissionsConfig.config));
             // check if the user is allowed to edit the content
 
             if (path.indexOf("/site") == 0) { // If it's content a file
@@ -167,17 +191,99 @@ public class SecurityServiceImpl implements SecurityService {
             }
         }
 
-        PermissionsConfigTO globalRolesConfig = loadGlobalRolesConfiguration();
-        PermissionsConfigTO globalPermissionsConfig = loadGlobalPermissionsConfiguration();
+        PermissionsConfigTO globalRolesConfig = getGlobalConfiguration(getGlobalRoleMappingsFileName(),
+                this::loadGlobalRolesConfiguration).config;
+        PermissionsConfigSnapshot globalPermissionsConfig = getGlobalConfiguration(getGlobalPermissionsFileName(),
+                this::loadGlobalPermissionsConfiguration);
         Set<String> roles = new HashSet<String>();
         addGlobalUserRoles(user, roles, globalRolesConfig);
         addGlobalGroupRoles(roles, groups, globalRolesConfig);
-        permissions.addAll(populateUserGlobalPermissions(path, roles, globalPermissionsConfig));
+        permissions.addAll(getEvaluatedPermissions(globalPermissionsConfig, path, roles,
+                () -> populateUserGlobalPermissions(path, roles, globalPermissionsConfig.config)));
         return permissions;
     }
 
-    protected void addGlobalUserRoles(String user, Set<String> roles, PermissionsConfigTO rolesConfig) {
+    /**
+     * Get permissions of the given roles for the path, evaluating the rules only the first time a combination of
+     * roles and path is seen for the loaded configuration.
+     */
+    protected Set<String> getEvaluatedPermissions(PermissionsConfigSnapshot permissionsConfig, String path,
+                                                  Set<String> roles, Supplier<Set<String>> evaluator) {
+        String key = new TreeSet<String>(roles) + ":" + path;
+        Set<String> permissions;
+        synchronized (permissionsConfig.evaluations) {
+            permissions = permissionsConfig.evaluations.get(key);
+        }
+        if (permissions == null) {
+            permissions = Collections.unmodifiableSet(new HashSet<String>(evaluator.get()));
+            synchronized (permissionsConfig.evaluations) {
+                permissionsConfig.evaluations.put(key, permissions);
+            }
+        }
+        // callers are free to modify the returned permissions
+        return new HashSet<String>(permissions);
+    }
+
+    protected PermissionsConfigSnapshot getSiteConfiguration(final String site, final String filename) {
+        String path = getConfigPath().replaceFirst(StudioConstants.PATTERN_SITE, site) + FILE_SEPARATOR + filename;
+        return getConfiguration(site, path, () -> loadConfiguration(site, filename));
+    }
+
+    protected PermissionsConfigSnapshot getGlobalConfiguration(String filename, Supplier<PermissionsConfigTO> loader) {
+        String path = getGlobalConfigPath() + FILE_SEPARATOR + filename;
+        return getConfiguration(StringUtils.EMPTY, path, loader);
+    }
+
+    /**
+     * Get the mappings stored at the path, they are loaded again only when the file changed in the repository
+     */
+    protected PermissionsConfigSnapshot getConfiguration(String site, String path, Supplier<PermissionsConfigTO> loader) {
+        String key = site + ":" + path;
+        String objectId = contentRepository.getContentObjectId(site, path);
+        PermissionsConfigSnapshot snapshot = permissionsConfigs.get(key);
+        if (snapshot != null && objectId != null && StringUtils.equals(objectId, snapshot.objectId)) {
+            return snapshot;
+        }
+        snapshot = new PermissionsConfigSnapshot(objectId, loader.get(), getPermissionsCacheMaxItems());
+        if (objectId != null && snapshot.config != null) {
+            permissionsConfigs.put(key, snapshot);
+        } else {
+            permissionsConfigs.remove(key);
+        }
+        return snapshot;
+    }
+
+    protected Set<String> getUserGroups(String user) {
+        long timeToLive = getUserGroupsCacheTimeToLive();
+        if (StringUtils.isEmpty(user) || timeToLive <= 0) {
+            return securityProvider.getUserGroups(user);
+        }
+        long now = System.currentTimeMillis();
+        UserGroupsEntry entry = userGroups.get(user);
+        if (entry != null && entry.expiresAt > now) {
+            return entry.groups;
+        }
+        long version = userGroupsVersion.get();
         Set<String> groups = securityProvider.getUserGroups(user);
+        if (groups != null && version == userGroupsVersion.get()) {
+            // groups are not kept when membership changed while they were being loaded
+            groups = Collections.unmodifiableSet(new HashSet<String>(groups));
+            userGroups.put(user, new UserGroupsEntry(groups, now + TimeUnit.SECONDS.toMillis(timeToLive)));
+        }
+        return groups;
+    }
+
+    protected void invalidateUserGroups(String user) {
+        userGroupsVersion.incrementAndGet();
+        if (StringUtils.isEmpty(user)) {
+            userGroups.clear();
+        } else {
+            userGroups.remove(user);
+        }
+    }
+
+    protected void addGlobalUserRoles(String user, Set<String> roles, PermissionsConfigTO rolesConfig) {
+        Set<String> groups = getUserGroups(user);
         if (rolesConfig != null && groups != null) {
             Map<String, List<String>> rolesMap = rolesConfig.getRoles();
             for (String group : groups) {
@@ -209,25 +315,22 @@ public class SecurityServiceImpl implements SecurityService {
         Set<String> permissions = new HashSet<String>();
         if (roles != null && !roles.isEmpty()) {
             for (String role : roles) {
-                Map<String, Map<String, List<Node>>> permissionsMap = permissionsConfig.getPermissions();
-                Map<String, List<Node>> siteRoles = permissionsMap.get("###GLOBAL###");
+                Map<String, Map<String, List<PermissionRule>>> rulesMap = permissionsConfig.getRules();
+                Map<String, List<PermissionRule>> siteRoles = rulesMap.get("###GLOBAL###");
                 if (siteRoles == null || siteRoles.isEmpty()) {
-                    siteRoles = permissionsMap.get("*");
+                    siteRoles = rulesMap.get("*");
                 }
                 if (siteRoles != null && !siteRoles.isEmpty()) {
-                    List<Node> ruleNodes = siteRoles.get(role);
-                    if (ruleNodes == null || ruleNodes.isEmpty()) {
-                        ruleNodes = siteRoles.get("*");
+                    List<PermissionRule> rules = siteRoles.get(role);
+                    if (rules == null || rules.isEmpty()) {
+                        rules = siteRoles.get("*");
                     }
-                    if (ruleNodes != null && !ruleNodes.isEmpty()) {
-                        for (Node ruleNode : ruleNodes) {
-                            String regex = ruleNode.valueOf(StudioXmlConstants.DOCUMENT_ATTR_REGEX);
-                            if (path.matches(regex)) {
-                                logger.debug("Global permissions found by matching " + regex + " for " + role);
-
-                                List<Node> permissionNodes = ruleNode.selectNodes(StudioXmlConstants.DOCUMENT_ELM_ALLOWED_PERMISSIONS);
-                                for (Node permissionNode : permissionNodes) {
-                                    String permission = permissionNode.getText().toLowerCase();
+                    if (rules != null && !rules.isEmpty()) {
+                        for (PermissionRule rule : rules) {
+                            if (rule.matches(path)) {
+                                logger.debug("Global permissions found by matching " + rule.getRegex() + " for " + role);
+
+                                for (String permission : rule.getAllowedPermissions()) {
                                     logger.debug("adding global permissions " + permission + " to " + path + " for " + role);
                                     permissions.add(permission);
                                 }
@@ -276,11 +379,11 @@ public class SecurityServiceImpl implements SecurityService {
     @ValidateParams
     public Set<String> getUserRoles(@ValidateStringParam(name = "site") final String site, @ValidateStringParam(name = "user") String user) {
 
-        Set<String> groups = securityProvider.getUserGroups(user);
+        Set<String> groups = getUserGroups(user);
         if (groups != null && groups.size() > 0) {
             logger.debug("Groups for " + user + " in " + site + ": " + groups);
 
-            PermissionsConfigTO rolesConfig = loadConfiguration(site, getRoleMappingsFileName());
+            PermissionsConfigTO rolesConfig = getSiteConfiguration(site, getRoleMappingsFileName()).config;
             Set<String> userRoles = new HashSet<String>();
             if (rolesConfig != null) {
                 Map<String, List<String>> rolesMap = rolesConfig.getRoles();
@@ -333,25 +436,22 @@ public class SecurityServiceImpl implements SecurityService {
         Set<String> permissions = new HashSet<String>();
         if (roles != null && !roles.isEmpty()) {
             for (String role : roles) {
-                Map<String, Map<String, List<Node>>> permissionsMap = permissionsConfig.getPermissions();
-                Map<String, List<Node>> siteRoles = permissionsMap.get(site);
+                Map<String, Map<String, List<PermissionRule>>> rulesMap = permissionsConfig.getRules();
+                Map<String, List<PermissionRule>> siteRoles = rulesMap.get(site);
                 if (siteRoles == null || siteRoles.isEmpty()) {
-                    siteRoles = permissionsMap.get("*");
+                    siteRoles = rulesMap.get("*");
                 }
                 if (siteRoles != null && !siteRoles.isEmpty()) {
-                    List<Node> ruleNodes = siteRoles.get(role);
-                    if (ruleNodes == null || ruleNodes.isEmpty()) {
-                        ruleNodes = siteRoles.get("*");
+                    List<PermissionRule> rules = siteRoles.get(role);
+                    if (rules == null || rules.isEmpty()) {
+                        rules = siteRoles.get("*");
                     }
-                    if (ruleNodes != null && !ruleNodes.isEmpty()) {
-                        for (Node ruleNode : ruleNodes) {
-                            String regex = ruleNode.valueOf(StudioXmlConstants.DOCUMENT_ATTR_REGEX);
-                            if (path.matches(regex)) {
-                                logger.debug("Permissions found by matching " + regex + " for " + role + " in " + site);
-
-                                List<Node> permissionNodes = ruleNode.selectNodes(StudioXmlConstants.DOCUMENT_ELM_ALLOWED_PERMISSIONS);
-                                for (Node permissionNode : permissionNodes) {
-                                    String permission = permissionNode.getText().toLowerCase();
+                    if (rules != null && !rules.isEmpty()) {
+                        for (PermissionRule rule : rules) {
+                            if (rule.matches(path)) {
+                                logger.debug("Permissions found by matching " + rule.getRegex() + " for " + role + " in " + site);
+
+                                for (String permission : rule.getAllowedPermissions()) {
                                     logger.debug("adding permissions " + permission + " to " + path + " for " + role + " in " + site);
                                     permissions.add(permission);
                                 }
@@ -451,15 +551,42 @@ public class SecurityServiceImpl implements SecurityService {
 
             List<Node> roleNodes = permissionsRoot.selectNodes(StudioXmlConstants.DOCUMENT_ELM_PERMISSION_ROLE);
             Map<String, List<Node>> rules = new HashMap<String, List<Node>>();
+            Map<String, List<PermissionRule>> compiledRules = new HashMap<String, List<PermissionRule>>();
             for (Node roleNode : roleNodes) {
                 String roleName = roleNode.valueOf(StudioXmlConstants.DOCUMENT_ATTR_PERMISSIONS_NAME);
                 List<Node> ruleNodes = roleNode.selectNodes(StudioXmlConstants.DOCUMENT_ELM_PERMISSION_RULE);
                 rules.put(roleName, ruleNodes);
+                compiledRules.put(roleName, compileRules(ruleNodes));
             }
             permissionsMap.put(siteId, rules);
+            Map<String, Map<String, List<PermissionRule>>> rulesMap = new HashMap<String, Map<String, List<PermissionRule>>>();
+            rulesMap.put(siteId, compiledRules);
 
             config.setPermissions(permissionsMap);
+            config.setRules(rulesMap);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected List<PermissionRule> compileRules(List<Node> ruleNodes) {
+        List<PermissionRule> rules = new ArrayList<PermissionRule>(ruleNodes.size());
+        for (Node ruleNode : ruleNodes) {
+            String regex = ruleNode.valueOf(StudioXmlConstants.DOCUMENT_ATTR_REGEX);
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                logger.error("Invalid regex " + regex + " in permission mappings, rule is ignored", e);
+                continue;
+            }
+            Set<String> allowedPermissions = new HashSet<String>();
+            List<Node> permissionNodes = ruleNode.selectNodes(StudioXmlConstants.DOCUMENT_ELM_ALLOWED_PERMISSIONS);
+            for (Node permissionNode : permissionNodes) {
+                allowedPermissions.add(permissionNode.getText().toLowerCase());
+            }
+            rules.add(new PermissionRule(pattern, Collections.unmodifiableSet(allowedPermissions)));
         }
+        return rules;
     }
 
     @Override
@@ -533,14 +660,22 @@ public class SecurityServiceImpl implements SecurityService {
     @Override
     @ValidateParams
     public void reloadConfiguration(@ValidateStringParam(name = "site") String site) {
-        PermissionsConfigTO permissionsConfigTO = loadConfiguration(site, getPermissionsFileName());
-        PermissionsConfigTO rolesConfigTO = loadConfiguration(site, getRoleMappingsFileName());
+        String siteConfigPath = getConfigPath().replaceFirst(StudioConstants.PATTERN_SITE, site);
+        permissionsConfigs.remove(site + ":" + siteConfigPath + FILE_SEPARATOR + getPermissionsFileName());
+        permissionsConfigs.remove(site + ":" + siteConfigPath + FILE_SEPARATOR + getRoleMappingsFileName());
+        PermissionsConfigTO permissionsConfigTO = getSiteConfiguration(site, getPermissionsFileName()).config;
+        PermissionsConfigTO rolesConfigTO = getSiteConfiguration(site, getRoleMappingsFileName()).config;
     }
 
     @Override
     public void reloadGlobalConfiguration() {
-        PermissionsConfigTO permissionsConfigTO = loadGlobalPermissionsConfiguration();
-        PermissionsConfigTO rolesConfigTO = loadGlobalRolesConfiguration();
+        String globalConfigPath = StringUtils.EMPTY + ":" + getGlobalConfigPath() + FILE_SEPARATOR;
+        permissionsConfigs.remove(globalConfigPath + getGlobalPermissionsFileName());
+        permissionsConfigs.remove(globalConfigPath + getGlobalRoleMappingsFileName());
+        PermissionsConfigTO permissionsConfigTO = getGlobalConfiguration(getGlobalPermissionsFileName(),
+                this::loadGlobalPermissionsConfiguration).config;
+        PermissionsConfigTO rolesConfigTO = getGlobalConfiguration(getGlobalRoleMappingsFileName(),
+                this::loadGlobalRolesConfiguration).config;
     }
 
     @Override
@@ -587,6 +722,7 @@ public class SecurityServiceImpl implements SecurityService {
             throw new DeleteUserNotAllowedException();
         } else {
             boolean toRet = securityProvider.deleteUser(username);
+            invalidateUserGroups(username);
             if (toRet) {
                 ActivityService.ActivityType activityType = ActivityService.ActivityType.DELETED;
                 String user = getCurrentUser();
@@ -721,7 +857,9 @@ public class SecurityServiceImpl implements SecurityService {
     @Override
     @ValidateParams
     public boolean deleteGroup(@ValidateStringParam(name = "site") String site, @ValidateStringParam(name = "group") String group) throws GroupNotFoundException, SiteNotFoundException {
-        return securityProvider.deleteGroup(site, group);
+        boolean toRet = securityProvider.deleteGroup(site, group);
+        invalidateUserGroups(null);
+        return toRet;
     }
 
     @Override
@@ -729,6 +867,7 @@ public class SecurityServiceImpl implements SecurityService {
     public boolean addUserToGroup(@ValidateStringParam(name = "siteId") String siteId, @ValidateStringParam(name = "groupName") String groupName, @ValidateStringParam(name = "username") String username) throws
             UserAlreadyExistsException, UserNotFoundException, GroupNotFoundException, SiteNotFoundException {
         boolean toRet = securityProvider.addUserToGroup(siteId, groupName, username);
+        invalidateUserGroups(username);
         if (toRet) {
             ActivityService.ActivityType activityType = ActivityService.ActivityType.ADD_USER_TO_GROUP;
             String user = getCurrentUser();
@@ -744,6 +883,7 @@ public class SecurityServiceImpl implements SecurityService {
     public boolean removeUserFromGroup(@ValidateStringParam(name = "siteId") String siteId, @ValidateStringParam(name = "groupName") String groupName, @ValidateStringParam(name = "username") String username) throws
             UserNotFoundException, GroupNotFoundException, SiteNotFoundException {
         boolean toRet = securityProvider.removeUserFromGroup(siteId, groupName, username);
+        invalidateUserGroups(username);
         if (toRet) {
             ActivityService.ActivityType activityType = ActivityService.ActivityType.REMOVE_USER_FROM_GROUP;
             String user = getCurrentUser();
@@ -1039,6 +1179,14 @@ public class SecurityServiceImpl implements SecurityService {
         return studioConfiguration.getProperty(MAIL_FROM_DEFAULT);
     }
 
+    public int getPermissionsCacheMaxItems() {
+        return Integer.parseInt(studioConfiguration.getProperty(SECURITY_PERMISSIONS_CACHE_MAX_ITEMS));
+    }
+
+    public long getUserGroupsCacheTimeToLive() {
+        return Long.parseLong(studioConfiguration.getProperty(SECURITY_USER_GROUPS_CACHE_TIME_TO_LIVE));
+    }
+
     public String getSystemSite() {
         return studioConfiguration.getProperty(CONFIGURATION_GLOBAL_SYSTEM_SITE);
     }
@@ -1052,6 +1200,9 @@ public class SecurityServiceImpl implements SecurityService {
     public ContentService getContentService() { return contentService; }
     public void setContentService(ContentService contentService) { this.contentService = contentService; }
 
+    public ContentRepository getContentRepository() { return contentRepository; }
+    public void setContentRepository(ContentRepository contentRepository) { this.contentRepository = contentRepository; }
+
     public GeneralLockService getGeneralLockService() { return generalLockService; }
     public void setGeneralLockService(GeneralLockService generalLockService) { this.generalLockService = generalLockService; }
 
@@ -1072,4 +1223,33 @@ public class SecurityServiceImpl implements SecurityService {
 
     public ActivityService getActivityService() { return activityService; }
     public void setActivityService(ActivityService activityService) { this.activityService = activityService; }
+
+    protected static class PermissionsConfigSnapshot {
+
+        protected final String objectId;
+        protected final PermissionsConfigTO config;
+        protected final Map<String, Set<String>> evaluations;
+
+        protected PermissionsConfigSnapshot(String objectId, PermissionsConfigTO config, final int maxEvaluations) {
+            this.objectId = objectId;
+            this.config = config;
+            this.evaluations = new LinkedHashMap<String, Set<String>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
+                    return size() > maxEvaluations;
+                }
+            };
+        }
+    }
+
+    protected static class UserGroupsEntry {
+
+        protected final Set<String> groups;
+        protected final long expiresAt;
+
+        protected UserGroupsEntry(Set<String> groups, long expiresAt) {
+            this.groups = groups;
+            this.expiresAt = expiresAt;
+        }
+    }
 }
@@ -24,17 +24,26 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpStatus;
@@ -49,7 +58,9 @@ import org.craftercms.commons.validation.annotations.param.ValidateParams;
 import org.craftercms.commons.validation.annotations.param.ValidateSecurePathParam;
 import org.craftercms.commons.validation.annotations.param.ValidateStringParam;
 import org.craftercms.studio.api.v1.constant.DmConstants;
+import org.craftercms.studio.api.v1.constant.RepoOperation;
 import org.craftercms.studio.api.v1.constant.StudioConstants;
+import org.craftercms.studio.api.v1.dal.AuditFeed;
 import org.craftercms.studio.api.v1.dal.GitLog;
 import org.craftercms.studio.api.v1.dal.ItemMetadata;
 import org.craftercms.studio.api.v1.dal.ItemState;
@@ -72,6 +83,7 @@ import org.craftercms.studio.api.v1.exception.repository.RemoteRepositoryNotBare
 import org.craftercms.studio.api.v1.exception.repository.RemoteRepositoryNotFoundException;
 import org.craftercms.studio.api.v1.exception.security.GroupAlreadyExistsException;
 import org.craftercms.studio.api.v1.exception.security.UserNotFoundException;
+import org.craftercms.studio.api.v1.job.CronJobContext;
 import org.craftercms.studio.api.v1.log.Logger;
 import org.craftercms.studio.api.v1.log.LoggerFactory;
 import org.craftercms.studio.api.v1.repository.ContentRepository;
@@ -115,6 +127,9 @@ import org.dom4j.Element;
 import org.dom4j.Node;
 import org.dom4j.io.SAXReader;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
 import org.xml.sax.SAXException;
 
 import static org.craftercms.studio.api.v1.constant.StudioConstants.FILE_SEPARATOR;
@@ -132,6 +147,9 @@ import static org.craftercms.studio.api.v1.util.StudioConfiguration.CONFIGURATIO
 import static org.craftercms.studio.api.v1.util.StudioConfiguration.CONFIGURATION_SITE_PREVIEW_DESTROY_CONTEXT_URL;
 import static org.craftercms.studio.api.v1.util.StudioConfiguration.JOB_DEPLOY_CONTENT_TO_ENVIRONMENT_STATUS_MESSAGE_DEFAULT;
 import static org.craftercms.studio.api.v1.util.StudioConfiguration.PREVIEW_ENGINE_URL;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.REPO_SYNC_DATABASE_BATCH_SIZE;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.REPO_SYNC_DATABASE_PER_COMMIT_OPERATIONS;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.REPO_SYNC_DATABASE_WORKER_POOL_SIZE;
 
 /**
  * Note: consider renaming
@@ -164,6 +182,7 @@ public class SiteServiceImpl implements SiteService {
     protected RebuildRepositoryMetadata rebuildRepositoryMetadata;
     protected SyncDatabaseWithRepository syncDatabaseWithRepository;
     protected EventService eventService;
+    protected PlatformTransactionManager transactionManager;
 
     protected StudioConfiguration studioConfiguration;
 
@@ -1292,11 +1311,28 @@ public class SiteServiceImpl implements SiteService {
     public boolean syncDatabaseWithRepo(@ValidateStringParam(name = "site") String site,
                                         @ValidateStringParam(name = "fromCommitId") String fromCommitId) {
 		boolean toReturn = true;
-        List<RepoOperationTO> repoOperations = contentRepository.getOperations(site, fromCommitId, contentRepository
-		    .getRepoLastCommitId(site));
+        boolean perCommitOperations = isSyncDatabasePerCommitOperations();
+        List<String> unprocessedCommitIds = new ArrayList<String>();
+        List<RepoOperationTO> repoOperations;
+        String toCommitId = contentRepository.getRepoLastCommitId(site);
+        if (perCommitOperations) {
+            repoOperations = contentRepository.getOperations(site, fromCommitId, toCommitId);
+        } else {
+            repoOperations = getUnprocessedOperations(site, fromCommitId, toCommitId, unprocessedCommitIds);
+        }
         if (CollectionUtils.isEmpty(repoOperations)) {
             logger.debug("Database is up to date with repository for site: " + site);
             contentRepository.markGitLogVerifiedProcessed(site, fromCommitId);
+            if (!perCommitOperations && StringUtils.isNotEmpty(toCommitId) &&
+                    !StringUtils.equals(fromCommitId, toCommitId)) {
+                // Changes of the commits in between cancel each other out, there is nothing to sync but the commits
+                // still need to be recorded as processed so they are not diffed again
+                for (List<String> batch : ListUtils.partition(unprocessedCommitIds, getSyncDatabaseBatchSize())) {
+                    contentRepository.markGitLogsVerifiedProcessed(site, batch);
+                }
+                updateLastVerifiedGitlogCommitId(site, toCommitId);
+                updateLastCommitId(site, toCommitId);
+            }
             return toReturn;
         }
 
@@ -1307,215 +1343,86 @@ public class SiteServiceImpl implements SiteService {
 	    	logger.debug("\tOperation: " + repoOperation.getOperation().toString() + " " + repoOperation.getPath());
 	    }
 
-	    boolean diverged = false;
+	    // Operations from a single diff only start at the first commit that has not been processed
+	    boolean diverged = !perCommitOperations;
 	    GitLog current = null;
 
-	    // Process all operations and track if one or more have failed
-	    for (RepoOperationTO repoOperation: repoOperations) {
-            boolean gitLogProcessed = false;
-            logger.debug("Verifying repo opertation " + repoOperation.getOperation().toString() + " " +
-                    repoOperation.getPath());
-            logger.debug("Get Git Log from database for commit id " + repoOperation.getCommitId());
-            GitLog gitLog = contentRepository.getGitLog(site, repoOperation.getCommitId());
-            if (gitLog != null) {
-                diverged = diverged || gitLog.getProcessed() < 1;
-            } else {
-                logger.debug("Git Log does not exist in database for commit id " + repoOperation.getCommitId());
-                logger.debug("Inserting Git Log for commit id " + repoOperation.getCommitId() + " and site " + site);
-                contentRepository.insertGitLog(site, repoOperation.getCommitId(), 0);
-                logger.debug("Repository diverged from database. All repository operations onwards need to be processed");
-                diverged = true;
-                gitLogProcessed = false;
-                gitLog = contentRepository.getGitLog(site, repoOperation.getCommitId());
-            }
-
-            if (current == null) {
-                current = gitLog;
-            } else {
-	            if (!current.getCommitId().equals(gitLog.getCommitId())) {
-                    contentRepository.markGitLogVerifiedProcessed(site, current.getCommitId());
-                    current = gitLog;
+        // Process all operations in batches, every batch is written in a single transaction, and track if one or
+        // more have failed. Dependencies of the next batch are resolved by a pool of workers while a batch is written.
+        List<List<RepoOperationTO>> batches = ListUtils.partition(repoOperations, getSyncDatabaseBatchSize());
+        ExecutorService dependencyResolvers = createDependencyResolvers();
+        try {
+            List<Future<Map<String, Map<String, Set<String>>>>> nextDependencies =
+                    resolveDependencies(dependencyResolvers, site, batches.get(0));
+            for (int i = 0; i < batches.size(); i++) {
+                List<RepoOperationTO> batch = batches.get(i);
+                List<Future<Map<String, Map<String, Set<String>>>>> batchDependencies = nextDependencies;
+                if (i + 1 < batches.size()) {
+                    nextDependencies = resolveDependencies(dependencyResolvers, site, batches.get(i + 1));
                 }
-            }
-
-	        if (diverged) {
-                Map<String, String> activityInfo = new HashMap<String, String>();
-                String contentClass;
-                Map<String, Object> properties;
-                switch (repoOperation.getOperation()) {
-                    case CREATE:
-                    case COPY:
-                        ItemState state = objectStateService.getObjectState(site, repoOperation.getPath(), false);
-
-                        if (state == null) {
-                            logger.debug("Insert item state for site: " + site + " path: " + repoOperation.getPath());
-                            objectStateService.insertNewEntry(site, repoOperation.getPath());
-                        } else {
-                            logger.debug("Set item state for site: " + site + " path: " + repoOperation.getPath());
-                            objectStateService.transition(site, repoOperation.getPath(), TransitionEvent.SAVE);
-                        }
-
-                        logger.debug("Set item metadata for site: " + site + " path: " + repoOperation.getPath());
-                        if (!objectMetadataManager.metadataExist(site, repoOperation.getPath())) {
-                            objectMetadataManager.insertNewObjectMetadata(site, repoOperation.getPath());
-                        }
-                        properties = new HashMap<String, Object>();
-                        properties.put(ItemMetadata.PROP_SITE, site);
-                        properties.put(ItemMetadata.PROP_PATH, repoOperation.getPath());
-                        properties.put(ItemMetadata.PROP_MODIFIER, repoOperation.getAuthor());
-                        properties.put(ItemMetadata.PROP_MODIFIED, repoOperation.getDateTime());
-                        properties.put(ItemMetadata.PROP_COMMIT_ID, repoOperation.getCommitId());
-                        objectMetadataManager.setObjectMetadata(site, repoOperation.getMoveToPath(), properties);
-                        logger.debug("Extract dependencies for site: " + site + " path: " +
+                SyncBatch syncBatch = new SyncBatch();
+                DefaultTransactionDefinition defaultTransactionDefinition = new DefaultTransactionDefinition();
+                defaultTransactionDefinition.setName("syncDatabaseWithRepo");
+                TransactionStatus txStatus = transactionManager.getTransaction(defaultTransactionDefinition);
+                try {
+                    Map<String, GitLog> gitLogs = getGitLogs(site, batch);
+                    for (RepoOperationTO repoOperation : batch) {
+                        logger.debug("Verifying repo opertation " + repoOperation.getOperation().toString() + " " +
                                 repoOperation.getPath());
-                        toReturn = toReturn && extractDependenciesForItem(site, repoOperation.getPath());
-                        contentClass = contentService.getContentTypeClass(site, repoOperation.getPath());
-                        if (repoOperation.getPath().endsWith(DmConstants.XML_PATTERN)) {
-                            activityInfo.put(DmConstants.KEY_CONTENT_TYPE, contentClass);
+                        GitLog gitLog = gitLogs.get(repoOperation.getCommitId());
+                        if (!diverged && gitLog.getProcessed() < 1) {
+                            logger.debug("Repository diverged from database. All repository operations onwards " +
+                                    "need to be processed");
+                            diverged = true;
                         }
-                        logger.debug("Insert audit log for site: " + site + " path: " + repoOperation.getPath());
-                        activityService.postActivity(site, repoOperation.getAuthor(), repoOperation.getPath(),
-                                ActivityService.ActivityType.CREATED, ActivityService.ActivitySource.REPOSITORY,
-                                activityInfo);
-                        break;
-
-                    case UPDATE:
-                        logger.debug("Set item state for site: " + site + " path: " + repoOperation.getPath());
-                        objectStateService.getObjectState(site, repoOperation.getPath());
-                        objectStateService.transition(site, repoOperation.getPath(), TransitionEvent.SAVE);
-
-                        logger.debug("Set item metadata for site: " + site + " path: " + repoOperation.getPath());
-                        if (!objectMetadataManager.metadataExist(site, repoOperation.getPath())) {
-                            objectMetadataManager.insertNewObjectMetadata(site, repoOperation.getPath());
-                        }
-                        properties = new HashMap<String, Object>();
-                        properties.put(ItemMetadata.PROP_SITE, site);
-                        properties.put(ItemMetadata.PROP_PATH, repoOperation.getPath());
-                        properties.put(ItemMetadata.PROP_MODIFIER, repoOperation.getAuthor());
-                        properties.put(ItemMetadata.PROP_MODIFIED, repoOperation.getDateTime());
-                        properties.put(ItemMetadata.PROP_COMMIT_ID, repoOperation.getCommitId());
-                        objectMetadataManager.setObjectMetadata(site, repoOperation.getMoveToPath(), properties);
 
-                        logger.debug("Extract dependencies for site: " + site + " path: " + repoOperation.getPath());
-                        toReturn = toReturn && extractDependenciesForItem(site, repoOperation.getPath());
-                        contentClass = contentService.getContentTypeClass(site, repoOperation.getPath());
-                        if (repoOperation.getPath().endsWith(DmConstants.XML_PATTERN)) {
-                            activityInfo.put(DmConstants.KEY_CONTENT_TYPE, contentClass);
-                        }
-                        logger.debug("Insert audit log for site: " + site + " path: " + repoOperation.getPath());
-                        activityService.postActivity(site, repoOperation.getAuthor(), repoOperation.getPath(),
-                                ActivityService.ActivityType.UPDATED, ActivityService.ActivitySource.REPOSITORY,
-                                activityInfo);
-                        break;
-
-                    case DELETE:
-                        logger.debug("Delete item state for site: " + site + " path: " + repoOperation.getPath());
-                        objectStateService.deleteObjectStateForPath(site, repoOperation.getPath());
-                        logger.debug("Delete item metadata for site: " + site + " path: " + repoOperation.getPath());
-                        objectMetadataManager.deleteObjectMetadata(site, repoOperation.getPath());
-                        logger.debug("Extract dependencies for site: " + site + " path: " + repoOperation.getPath());
-                        try {
-                            dependencyService.deleteItemDependencies(site, repoOperation.getPath());
-                        } catch (ServiceException e) {
-                            logger.error("Error deleting dependencies for site " + site + " file: " +
-                                    repoOperation.getPath(), e);
-                        }
-                        contentClass = contentService.getContentTypeClass(site, repoOperation.getPath());
-                        if (repoOperation.getPath().endsWith(DmConstants.XML_PATTERN)) {
-                            activityInfo.put(DmConstants.KEY_CONTENT_TYPE, contentClass);
-                        }
-                        logger.debug("Insert audit log for site: " + site + " path: " + repoOperation.getPath());
-                        activityService.postActivity(site, repoOperation.getAuthor(), repoOperation.getPath(),
-                                ActivityService.ActivityType.DELETED, ActivityService.ActivitySource.REPOSITORY,
-                                activityInfo);
-                        break;
-
-                    case MOVE:
-                        ItemState stateRename = objectStateService.getObjectState(site, repoOperation.getPath(), false);
-                        logger.debug("Set item state for site: " + site + " path: " + repoOperation.getMoveToPath());
-                        if (stateRename == null) {
-                            objectStateService.getObjectState(site, repoOperation.getMoveToPath());
-                            objectStateService.transition(site, repoOperation.getMoveToPath(), TransitionEvent.SAVE);
+                        if (current == null) {
+                            current = gitLog;
                         } else {
-                            objectStateService.updateObjectPath(site, repoOperation.getPath(),
-                                    repoOperation.getMoveToPath());
-                            objectStateService.transition(site, repoOperation.getMoveToPath(), TransitionEvent.SAVE);
-                        }
-
-                        logger.debug("Set item metadata for site: " + site + " path: " +
-                                repoOperation.getMoveToPath());
-                        if (!objectMetadataManager.metadataExist(site, repoOperation.getPath())) {
-                            if (!objectMetadataManager.metadataExist(site, repoOperation.getMoveToPath())) {
-                                objectMetadataManager.insertNewObjectMetadata(site, repoOperation.getMoveToPath());
-                            } else {
-                                if (!objectMetadataManager.isRenamed(site, repoOperation.getMoveToPath())) {
-                                    // set renamed and old path
-                                    properties = new HashMap<String, Object>();
-                                    properties.put(ItemMetadata.PROP_SITE, site);
-                                    properties.put(ItemMetadata.PROP_PATH, repoOperation.getMoveToPath());
-                                    properties.put(ItemMetadata.PROP_RENAMED, 1);
-                                    properties.put(ItemMetadata.PROP_OLD_URL, repoOperation.getPath());
-                                    properties.put(ItemMetadata.PROP_COMMIT_ID, repoOperation.getCommitId());
-                                    properties.put(ItemMetadata.PROP_MODIFIER, repoOperation.getAuthor());
-                                    properties.put(ItemMetadata.PROP_MODIFIED, repoOperation.getDateTime());
-                                    objectMetadataManager.setObjectMetadata(site, repoOperation.getMoveToPath(),
-                                            properties);
-                                }
-                            }
-                        } else {
-                            if (!objectMetadataManager.metadataExist(site, repoOperation.getMoveToPath())) {
-                                // preform move: update path, set renamed, set old url
-                                objectMetadataManager.updateObjectPath(site, repoOperation.getPath(),
-                                        repoOperation.getMoveToPath());
-                                properties = new HashMap<String, Object>();
-                                properties.put(ItemMetadata.PROP_SITE, site);
-                                properties.put(ItemMetadata.PROP_PATH, repoOperation.getMoveToPath());
-                                properties.put(ItemMetadata.PROP_RENAMED, 1);
-                                properties.put(ItemMetadata.PROP_OLD_URL, repoOperation.getPath());
-                                properties.put(ItemMetadata.PROP_COMMIT_ID, repoOperation.getCommitId());
-                                properties.put(ItemMetadata.PROP_MODIFIER, repoOperation.getAuthor());
-                                objectMetadataManager.setObjectMetadata(site, repoOperation.getMoveToPath(), properties);
-                            } else {
-                                // if not already renamed set renamed and old url
-                                if (!objectMetadataManager.isRenamed(site, repoOperation.getMoveToPath())) {
-                                    // set renamed and old path
-                                    properties = new HashMap<String, Object>();
-                                    properties.put(ItemMetadata.PROP_SITE, site);
-                                    properties.put(ItemMetadata.PROP_PATH, repoOperation.getMoveToPath());
-                                    properties.put(ItemMetadata.PROP_RENAMED, 1);
-                                    properties.put(ItemMetadata.PROP_OLD_URL, repoOperation.getPath());
-                                    properties.put(ItemMetadata.PROP_COMMIT_ID, repoOperation.getCommitId());
-                                    properties.put(ItemMetadata.PROP_MODIFIER, repoOperation.getAuthor());
-                                    objectMetadataManager.setObjectMetadata(site, repoOperation.getMoveToPath(),
-                                            properties);
-                                }
-                                objectMetadataManager.deleteObjectMetadata(site, repoOperation.getPath());
+                            if (!current.getCommitId().equals(gitLog.getCommitId())) {
+                                contentRepository.markGitLogVerifiedProcessed(site, current.getCommitId());
+                                current = gitLog;
                             }
                         }
 
-                        logger.debug("Extract dependencies for site: " + site + " path: " + repoOperation.getPath());
-                        toReturn = toReturn && extractDependenciesForItem(site, repoOperation.getMoveToPath());
-                        contentClass = contentService.getContentTypeClass(site, repoOperation.getMoveToPath());
-                        if (repoOperation.getMoveToPath().endsWith(DmConstants.XML_PATTERN)) {
-                            activityInfo.put(DmConstants.KEY_CONTENT_TYPE, contentClass);
+                        if (diverged) {
+                            if (syncBatch.contentTypeClasses == null) {
+                                // Load which items of the batch already have state and metadata with a query each,
+                                // and the content type classes of all of them at once
+                                List<String> paths = getOperationPaths(batch);
+                                loadExistingPaths(site, paths, syncBatch.statePaths, syncBatch.metadataPaths);
+                                syncBatch.contentTypeClasses = contentService.getContentTypeClasses(site, paths);
+                            }
+                            toReturn = syncRepoOperation(site, repoOperation, syncBatch) && toReturn;
                         }
-                        logger.debug("Insert audit log for site: " + site + " path: " +
-                                repoOperation.getMoveToPath());
-                        activityService.postActivity(site, repoOperation.getAuthor(), repoOperation.getMoveToPath(),
-                                ActivityService.ActivityType.UPDATED, ActivityService.ActivitySource.REPOSITORY,
-                                activityInfo);
-                        break;
-
-                    default:
-                        logger.error("Error: Unknown repo operation for site " + site + " operation: " +
-                                repoOperation.getOperation());
-                        toReturn = false;
-                        break;
+                    }
+                    writeSavedItems(site, syncBatch);
+                    logger.debug("Insert audit log for site: " + site + " number of items: " +
+                            syncBatch.activities.size());
+                    activityService.postActivities(syncBatch.activities);
+                    toReturn = upsertDependencies(site, syncBatch.dependencyPaths, batchDependencies) && toReturn;
+                    transactionManager.commit(txStatus);
+                } catch (RuntimeException e) {
+                    if (!txStatus.isCompleted()) {
+                        transactionManager.rollback(txStatus);
+                    }
+                    throw e;
                 }
             }
-	    }
+        } finally {
+            dependencyResolvers.shutdownNow();
+        }
         if (current != null) {
             contentRepository.markGitLogVerifiedProcessed(site, current.getCommitId());
+        }
+        if (!perCommitOperations) {
+            // Every commit of the diffed range is now reflected in the database, not only the ones operations were
+            // attributed to
+            for (List<String> batch : ListUtils.partition(unprocessedCommitIds, getSyncDatabaseBatchSize())) {
+                contentRepository.markGitLogsVerifiedProcessed(site, batch);
+            }
+            updateLastVerifiedGitlogCommitId(site, toCommitId);
+        } else if (current != null) {
             updateLastVerifiedGitlogCommitId(site, current.getCommitId());
         }
 
@@ -1550,6 +1457,393 @@ public class SiteServiceImpl implements SiteService {
 	    return toReturn;
     }
 
+    /**
+     * Sync a single operation of a batch. Creates and updates are only collected here and written for the whole batch
+     * by {@link #writeSavedItems(String, SyncBatch)}, deletes and the rename bookkeeping of moves are written right
+     * away.
+     */
+    protected boolean syncRepoOperation(String site, RepoOperationTO repoOperation, SyncBatch syncBatch) {
+        boolean toReturn = true;
+        Set<String> statePaths = syncBatch.statePaths;
+        Set<String> metadataPaths = syncBatch.metadataPaths;
+        Map<String, Object> properties;
+        switch (repoOperation.getOperation()) {
+            case CREATE:
+            case COPY:
+            case UPDATE:
+                logger.debug("Save item state and metadata for site: " + site + " path: " + repoOperation.getPath());
+                syncBatch.savedPaths.add(repoOperation.getPath());
+                // Modifier, date and commit id of the last operation on the path are the ones written
+                syncBatch.modifiedPaths.put(repoOperation.getPath(), repoOperation);
+                syncBatch.dependencyPaths.add(repoOperation.getPath());
+                syncBatch.activities.add(activityService.createActivity(site, repoOperation.getAuthor(),
+                        repoOperation.getPath(), repoOperation.getOperation() == RepoOperation.UPDATE ?
+                                ActivityService.ActivityType.UPDATED : ActivityService.ActivityType.CREATED,
+                        ActivityService.ActivitySource.REPOSITORY,
+                        getActivityInfo(syncBatch, repoOperation.getPath())));
+                break;
+
+            case DELETE:
+                // Nothing collected earlier in the batch needs to be written for a deleted item
+                syncBatch.savedPaths.remove(repoOperation.getPath());
+                syncBatch.modifiedPaths.remove(repoOperation.getPath());
+                logger.debug("Delete item state for site: " + site + " path: " + repoOperation.getPath());
+                objectStateService.deleteObjectStateForPath(site, repoOperation.getPath());
+                statePaths.remove(repoOperation.getPath());
+                logger.debug("Delete item metadata for site: " + site + " path: " + repoOperation.getPath());
+                objectMetadataManager.deleteObjectMetadata(site, repoOperation.getPath());
+                metadataPaths.remove(repoOperation.getPath());
+                logger.debug("Delete dependencies for site: " + site + " path: " + repoOperation.getPath());
+                syncBatch.dependencyPaths.remove(repoOperation.getPath());
+                try {
+                    dependencyService.deleteItemDependencies(site, repoOperation.getPath());
+                } catch (ServiceException e) {
+                    logger.error("Error deleting dependencies for site " + site + " file: " +
+                            repoOperation.getPath(), e);
+                }
+                syncBatch.activities.add(activityService.createActivity(site, repoOperation.getAuthor(),
+                        repoOperation.getPath(), ActivityService.ActivityType.DELETED,
+                        ActivityService.ActivitySource.REPOSITORY,
+                        getActivityInfo(syncBatch, repoOperation.getPath())));
+                break;
+
+            case MOVE:
+                // The rename bookkeeping works on the rows of both paths as they are so far
+                if (syncBatch.isSaved(repoOperation.getPath()) || syncBatch.isSaved(repoOperation.getMoveToPath())) {
+                    writeSavedItems(site, syncBatch);
+                }
+                logger.debug("Set item state for site: " + site + " path: " + repoOperation.getMoveToPath());
+                if (statePaths.contains(repoOperation.getPath())) {
+                    objectStateService.updateObjectPath(site, repoOperation.getPath(),
+                            repoOperation.getMoveToPath());
+                    statePaths.remove(repoOperation.getPath());
+                    statePaths.add(repoOperation.getMoveToPath());
+                }
+                syncBatch.savedPaths.add(repoOperation.getMoveToPath());
+
+                logger.debug("Set item metadata for site: " + site + " path: " +
+                        repoOperation.getMoveToPath());
+                if (!metadataPaths.contains(repoOperation.getPath())) {
+                    if (!metadataPaths.contains(repoOperation.getMoveToPath())) {
+                        objectMetadataManager.insertNewObjectMetadata(site, repoOperation.getMoveToPath());
+                        metadataPaths.add(repoOperation.getMoveToPath());
+                    } else {
+                        if (!objectMetadataManager.isRenamed(site, repoOperation.getMoveToPath())) {
+                            // set renamed and old path
+                            properties = new HashMap<String, Object>();
+                            properties.put(ItemMetadata.PROP_SITE, site);
+                            properties.put(ItemMetadata.PROP_PATH, repoOperation.getMoveToPath());
+                            properties.put(ItemMetadata.PROP_RENAMED, 1);
+                            properties.put(ItemMetadata.PROP_OLD_URL, repoOperation.getPath());
+                            properties.put(ItemMetadata.PROP_COMMIT_ID, repoOperation.getCommitId());
+                            properties.put(ItemMetadata.PROP_MODIFIER, repoOperation.getAuthor());
+                            properties.put(ItemMetadata.PROP_MODIFIED, repoOperation.getDateTime());
+                            objectMetadataManager.setObjectMetadata(site, repoOperation.getMoveToPath(),
+                                    properties);
+                        }
+                    }
+                } else {
+                    if (!metadataPaths.contains(repoOperation.getMoveToPath())) {
+                        // preform move: update path, set renamed, set old url
+                        objectMetadataManager.updateObjectPath(site, repoOperation.getPath(),
+                                repoOperation.getMoveToPath());
+                        metadataPaths.remove(repoOperation.getPath());
+                        metadataPaths.add(repoOperation.getMoveToPath());
+                        properties = new HashMap<String, Object>();
+                        properties.put(ItemMetadata.PROP_SITE, site);
+                        properties.put(ItemMetadata.PROP_PATH, repoOperation.getMoveToPath());
+                        properties.put(ItemMetadata.PROP_RENAMED, 1);
+                        properties.put(ItemMetadata.PROP_OLD_URL, repoOperation.getPath());
+                        properties.put(ItemMetadata.PROP_COMMIT_ID, repoOperation.getCommitId());
+                        properties.put(ItemMetadata.PROP_MODIFIER, repoOperation.getAuthor());
+                        objectMetadataManager.setObjectMetadata(site, repoOperation.getMoveToPath(), properties);
+                    } else {
+                        // if not already renamed set renamed and old url
+                        if (!objectMetadataManager.isRenamed(site, repoOperation.getMoveToPath())) {
+                            // set renamed and old path
+                            properties = new HashMap<String, Object>();
+                            properties.put(ItemMetadata.PROP_SITE, site);
+                            properties.put(ItemMetadata.PROP_PATH, repoOperation.getMoveToPath());
+                            properties.put(ItemMetadata.PROP_RENAMED, 1);
+                            properties.put(ItemMetadata.PROP_OLD_URL, repoOperation.getPath());
+                            properties.put(ItemMetadata.PROP_COMMIT_ID, repoOperation.getCommitId());
+                            properties.put(ItemMetadata.PROP_MODIFIER, repoOperation.getAuthor());
+                            objectMetadataManager.setObjectMetadata(site, repoOperation.getMoveToPath(),
+                                    properties);
+                        }
+                        objectMetadataManager.deleteObjectMetadata(site, repoOperation.getPath());
+                        metadataPaths.remove(repoOperation.getPath());
+                    }
+                }
+
+                syncBatch.dependencyPaths.add(repoOperation.getMoveToPath());
+                syncBatch.activities.add(activityService.createActivity(site, repoOperation.getAuthor(),
+                        repoOperation.getMoveToPath(), ActivityService.ActivityType.UPDATED,
+                        ActivityService.ActivitySource.REPOSITORY,
+                        getActivityInfo(syncBatch, repoOperation.getMoveToPath())));
+                break;
+
+            default:
+                logger.error("Error: Unknown repo operation for site " + site + " operation: " +
+                        repoOperation.getOperation());
+                toReturn = false;
+                break;
+        }
+
+        return toReturn;
+    }
+
+    /**
+     * Write the state and metadata of the items created, updated or moved so far in the batch. Items without state
+     * get it inserted with a single statement, the others are saved with one update per current state. Likewise
+     * missing metadata is inserted with a single statement and the existing metadata set with another.
+     */
+    protected void writeSavedItems(String site, SyncBatch syncBatch) {
+        List<String> newPaths = new ArrayList<String>();
+        List<String> existingPaths = new ArrayList<String>();
+        for (String path : syncBatch.savedPaths) {
+            if (syncBatch.statePaths.contains(path)) {
+                existingPaths.add(path);
+            } else {
+                newPaths.add(path);
+            }
+        }
+        logger.debug("Insert item state for site: " + site + " number of items: " + newPaths.size());
+        objectStateService.insertNewEntries(site, newPaths);
+        logger.debug("Set item state for site: " + site + " number of items: " + existingPaths.size());
+        objectStateService.transitionBulk(site, existingPaths, TransitionEvent.SAVE, State.NEW_UNPUBLISHED_UNLOCKED);
+        syncBatch.statePaths.addAll(newPaths);
+        syncBatch.savedPaths.clear();
+
+        List<Map<String, Object>> newProperties = new ArrayList<Map<String, Object>>();
+        List<Map<String, Object>> existingProperties = new ArrayList<Map<String, Object>>();
+        for (RepoOperationTO repoOperation : syncBatch.modifiedPaths.values()) {
+            Map<String, Object> itemProperties = new HashMap<String, Object>();
+            itemProperties.put(ItemMetadata.PROP_PATH, repoOperation.getPath());
+            itemProperties.put(ItemMetadata.PROP_MODIFIER, repoOperation.getAuthor());
+            itemProperties.put(ItemMetadata.PROP_MODIFIED, repoOperation.getDateTime());
+            itemProperties.put(ItemMetadata.PROP_COMMIT_ID, repoOperation.getCommitId());
+            if (syncBatch.metadataPaths.contains(repoOperation.getPath())) {
+                existingProperties.add(itemProperties);
+            } else {
+                newProperties.add(itemProperties);
+            }
+        }
+        logger.debug("Insert item metadata for site: " + site + " number of items: " + newProperties.size());
+        objectMetadataManager.insertObjectMetadataBulk(site, newProperties);
+        logger.debug("Set item metadata for site: " + site + " number of items: " + existingProperties.size());
+        objectMetadataManager.updateObjectMetadataBulk(site, existingProperties);
+        syncBatch.metadataPaths.addAll(syncBatch.modifiedPaths.keySet());
+        syncBatch.modifiedPaths.clear();
+    }
+
+    protected Map<String, String> getActivityInfo(SyncBatch syncBatch, String path) {
+        Map<String, String> activityInfo = new HashMap<String, String>();
+        if (path.endsWith(DmConstants.XML_PATTERN)) {
+            activityInfo.put(DmConstants.KEY_CONTENT_TYPE, syncBatch.contentTypeClasses.get(path));
+        }
+        return activityInfo;
+    }
+
+    /**
+     * Get the operations from the first commit that has not been processed up to the given commit with a single diff.
+     * That is the same set of changes processing every commit once the repository diverged gives, with each
+     * operation attributed to the last commit that changed its path.
+     *
+     * @param site site id
+     * @param fromCommitId last commit verified in the database
+     * @param toCommitId commit to sync up to
+     * @param unprocessedCommitIds filled with the ids of all commits from the first one that has not been processed,
+     *                             to be marked as processed once the operations are synced
+     * @return list of operations, empty if all commits have been processed already
+     */
+    protected List<RepoOperationTO> getUnprocessedOperations(String site, String fromCommitId, String toCommitId,
+                                                             List<String> unprocessedCommitIds) {
+        List<String> commitIds = contentRepository.getCommitIds(site, fromCommitId, toCommitId);
+        String baseCommitId = fromCommitId;
+        String divergedCommitId = null;
+        for (List<String> batch : ListUtils.partition(commitIds, getSyncDatabaseBatchSize())) {
+            Map<String, GitLog> gitLogs = new HashMap<String, GitLog>();
+            for (GitLog gitLog : contentRepository.getGitLogs(site, batch)) {
+                gitLogs.put(gitLog.getCommitId(), gitLog);
+            }
+            for (String commitId : batch) {
+                GitLog gitLog = gitLogs.get(commitId);
+                if (divergedCommitId == null) {
+                    if (gitLog != null && gitLog.getProcessed() > 0) {
+                        baseCommitId = commitId;
+                        continue;
+                    }
+                    divergedCommitId = commitId;
+                }
+                if (gitLog == null || gitLog.getProcessed() < 1) {
+                    unprocessedCommitIds.add(commitId);
+                }
+            }
+        }
+        if (divergedCommitId == null) {
+            logger.debug("All commits up to " + toCommitId + " have been processed for site: " + site);
+            return new ArrayList<RepoOperationTO>();
+        }
+        logger.debug("Repository diverged from database at commit id " + divergedCommitId + " for site: " + site);
+        return contentRepository.getOperationsFromDelta(site, baseCommitId, toCommitId);
+    }
+
+    /**
+     * Get the git log of all commits of the operations, commits that are not in the database yet are inserted as
+     * not processed
+     */
+    protected Map<String, GitLog> getGitLogs(String site, List<RepoOperationTO> repoOperations) {
+        Set<String> commitIds = new LinkedHashSet<String>();
+        for (RepoOperationTO repoOperation : repoOperations) {
+            commitIds.add(repoOperation.getCommitId());
+        }
+        logger.debug("Get Git Log from database for " + commitIds.size() + " commit ids");
+        Map<String, GitLog> gitLogs = new HashMap<String, GitLog>();
+        for (GitLog gitLog : contentRepository.getGitLogs(site, new ArrayList<String>(commitIds))) {
+            gitLogs.put(gitLog.getCommitId(), gitLog);
+        }
+        List<String> missingCommitIds = new ArrayList<String>();
+        for (String commitId : commitIds) {
+            if (!gitLogs.containsKey(commitId)) {
+                missingCommitIds.add(commitId);
+            }
+        }
+        if (!missingCommitIds.isEmpty()) {
+            logger.debug("Inserting Git Log for " + missingCommitIds.size() + " commit ids and site " + site);
+            contentRepository.insertGitLogs(site, missingCommitIds, 0);
+            for (String commitId : missingCommitIds) {
+                GitLog gitLog = new GitLog();
+                gitLog.setSiteId(site);
+                gitLog.setCommitId(commitId);
+                gitLog.setProcessed(0);
+                gitLogs.put(commitId, gitLog);
+            }
+        }
+        return gitLogs;
+    }
+
+    protected void loadExistingPaths(String site, List<String> paths, Set<String> statePaths,
+                                     Set<String> metadataPaths) {
+        for (ItemState state : objectStateService.getObjectStatesForPaths(site, paths)) {
+            statePaths.add(state.getPath());
+        }
+        for (ItemMetadata metadata : objectMetadataManager.getPropertiesForPaths(site, paths)) {
+            metadataPaths.add(metadata.getPath());
+        }
+    }
+
+    /**
+     * Get all paths touched by the operations, including the destination of moves
+     */
+    protected List<String> getOperationPaths(List<RepoOperationTO> repoOperations) {
+        Set<String> paths = new LinkedHashSet<String>();
+        for (RepoOperationTO repoOperation : repoOperations) {
+            paths.add(repoOperation.getPath());
+            if (StringUtils.isNotEmpty(repoOperation.getMoveToPath())) {
+                paths.add(repoOperation.getMoveToPath());
+            }
+        }
+        return new ArrayList<String>(paths);
+    }
+
+    protected ExecutorService createDependencyResolvers() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(getSyncDatabaseWorkerPoolSize(), runnable -> {
+            Thread thread = new Thread(runnable, "studio-sync-database-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start resolving the dependencies of the items created, updated or moved by the operations, split among the
+     * workers. Nothing is written, the result is used once the operations are written.
+     */
+    protected List<Future<Map<String, Map<String, Set<String>>>>> resolveDependencies(
+            ExecutorService dependencyResolvers, String site, List<RepoOperationTO> repoOperations) {
+        Set<String> sources = new LinkedHashSet<String>();
+        for (RepoOperationTO repoOperation : repoOperations) {
+            switch (repoOperation.getOperation()) {
+                case CREATE:
+                case COPY:
+                case UPDATE:
+                    sources.add(repoOperation.getPath());
+                    break;
+                case MOVE:
+                    sources.add(repoOperation.getMoveToPath());
+                    break;
+                default:
+                    break;
+            }
+        }
+        List<String> paths = new ArrayList<String>();
+        for (String path : sources) {
+            if (isDependencySource(site, path)) {
+                paths.add(path);
+            }
+        }
+        List<Future<Map<String, Map<String, Set<String>>>>> futures =
+                new ArrayList<Future<Map<String, Map<String, Set<String>>>>>();
+        if (paths.isEmpty()) {
+            return futures;
+        }
+        final CronJobContext securityContext = CronJobContext.getCurrent();
+        int partitionSize = (paths.size() + getSyncDatabaseWorkerPoolSize() - 1) / getSyncDatabaseWorkerPoolSize();
+        for (List<String> partition : ListUtils.partition(paths, partitionSize)) {
+            futures.add(dependencyResolvers.submit(() -> {
+                CronJobContext.setCurrent(securityContext);
+                try {
+                    return dependencyService.resolveDependencies(site, partition);
+                } finally {
+                    CronJobContext.clear();
+                }
+            }));
+        }
+        return futures;
+    }
+
+    /**
+     * Write the dependencies of the items in the current transaction, items the workers failed to resolve are
+     * resolved again here
+     */
+    protected boolean upsertDependencies(String site, Collection<String> paths,
+                                         List<Future<Map<String, Map<String, Set<String>>>>> futures) {
+        Map<String, Map<String, Set<String>>> resolved = new HashMap<String, Map<String, Set<String>>>();
+        for (Future<Map<String, Map<String, Set<String>>>> future : futures) {
+            try {
+                resolved.putAll(future.get());
+            } catch (ExecutionException e) {
+                logger.error("Error resolving dependencies for site " + site, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Map<String, Map<String, Set<String>>> dependencies = new LinkedHashMap<String, Map<String, Set<String>>>();
+        List<String> unresolved = new ArrayList<String>();
+        for (String path : paths) {
+            if (resolved.containsKey(path)) {
+                dependencies.put(path, resolved.get(path));
+            } else if (isDependencySource(site, path)) {
+                unresolved.add(path);
+            }
+        }
+        if (!unresolved.isEmpty()) {
+            dependencies.putAll(dependencyService.resolveDependencies(site, unresolved));
+        }
+        if (!dependencies.isEmpty()) {
+            logger.debug("Upsert dependencies for site: " + site + " number of items: " + dependencies.size());
+            dependencyService.upsertResolvedDependencies(site, dependencies);
+        }
+        return dependencies.keySet().containsAll(unresolved);
+    }
+
+    protected boolean isDependencySource(String site, String path) {
+        return path.endsWith(DmConstants.XML_PATTERN) || path.endsWith(DmConstants.CSS_PATTERN) ||
+                path.endsWith(DmConstants.JS_PATTERN) ||
+                ContentUtils.matchesPatterns(path, servicesConfig.getRenderingTemplatePatterns(site));
+    }
+
     protected boolean extractDependenciesForItem(String site, String path) {
 		boolean toReturn = true;
 
@@ -1891,6 +2185,18 @@ public class SiteServiceImpl implements SiteService {
 	    this.syncDatabaseWithRepository = syncDatabaseWithRepository;
 	}
 
+    public int getSyncDatabaseBatchSize() {
+        return Integer.parseInt(studioConfiguration.getProperty(REPO_SYNC_DATABASE_BATCH_SIZE));
+    }
+
+    public int getSyncDatabaseWorkerPoolSize() {
+        return Integer.parseInt(studioConfiguration.getProperty(REPO_SYNC_DATABASE_WORKER_POOL_SIZE));
+    }
+
+    public boolean isSyncDatabasePerCommitOperations() {
+        return Boolean.parseBoolean(studioConfiguration.getProperty(REPO_SYNC_DATABASE_PER_COMMIT_OPERATIONS));
+    }
+
     public StudioConfiguration getStudioConfiguration() {
 	    return studioConfiguration;
 	}
@@ -1915,4 +2221,34 @@ public class SiteServiceImpl implements SiteService {
 	public void setPreviewDeployer(final PreviewDeployer previewDeployer) {
 		this.previewDeployer = previewDeployer;
 	}
+
+    public PlatformTransactionManager getTransactionManager() {
+        return transactionManager;
+    }
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * What is known and still to be written while a batch of repository operations is synced
+     */
+    protected static class SyncBatch {
+
+        /** Paths that have item state in the database */
+        protected final Set<String> statePaths = new HashSet<String>();
+        /** Paths that have item metadata in the database */
+        protected final Set<String> metadataPaths = new HashSet<String>();
+        /** Paths whose item state still has to be saved */
+        protected final Set<String> savedPaths = new LinkedHashSet<String>();
+        /** Last operation of the paths whose item metadata still has to be set */
+        protected final Map<String, RepoOperationTO> modifiedPaths = new LinkedHashMap<String, RepoOperationTO>();
+        /** Paths whose dependencies have to be upserted */
+        protected final Set<String> dependencyPaths = new LinkedHashSet<String>();
+        protected final List<AuditFeed> activities = new ArrayList<AuditFeed>();
+        protected Map<String, String> contentTypeClasses;
+
+        protected boolean isSaved(String path) {
+            return savedPaths.contains(path) || modifiedPaths.containsKey(path);
+        }
+    }
 }
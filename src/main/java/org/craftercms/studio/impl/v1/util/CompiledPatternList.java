@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Crafter Studio Web-content authoring solution
+ *     Copyright (C) 2007-2016 Crafter Software Corporation.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.craftercms.studio.impl.v1.util;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Unmodifiable list of regular expressions that keeps the compiled version of each one.
+ * Pattern lists loaded from configuration are kept in this form so matching does not
+ * compile the expressions again.
+ */
+public class CompiledPatternList extends AbstractList<String> implements Serializable {
+
+    private static final long serialVersionUID = 4630817826475903012L;
+
+    protected final List<String> regexes;
+    protected final List<Pattern> patterns;
+
+    public CompiledPatternList(Collection<String> regexes) {
+        List<String> regexList = new ArrayList<String>(regexes.size());
+        List<Pattern> patternList = new ArrayList<Pattern>(regexes.size());
+        for (String regex : regexes) {
+            regexList.add(regex);
+            patternList.add(Pattern.compile(regex));
+        }
+        this.regexes = Collections.unmodifiableList(regexList);
+        this.patterns = Collections.unmodifiableList(patternList);
+    }
+
+    @Override
+    public String get(int index) {
+        return regexes.get(index);
+    }
+
+    @Override
+    public int size() {
+        return regexes.size();
+    }
+
+    /**
+     * @return compiled patterns, in the same order as the regular expressions
+     */
+    public List<Pattern> getPatterns() {
+        return patterns;
+    }
+}
@@ -28,6 +28,7 @@ import org.xml.sax.SAXException;
 
 import java.io.*;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import static org.craftercms.studio.api.v1.constant.StudioConstants.FILE_SEPARATOR;
 
@@ -121,8 +122,8 @@ public class ContentUtils {
 
 	public static boolean matchesPatterns(String uri, List<String> patterns) {
 		if (patterns != null) {
-			for (String pattern : patterns) {
-				if (uri.matches(pattern)) {
+			for (Pattern pattern : getCompiledPatterns(patterns)) {
+				if (pattern.matcher(uri).matches()) {
 					return true;
 				}
 			}
@@ -130,6 +131,20 @@ public class ContentUtils {
 		return false;
 	}
 
+	/**
+	 * get the compiled version of the regular expressions. Lists loaded from configuration are
+	 * compiled once when the configuration is loaded, any other list is compiled on each call
+	 *
+	 * @param patterns regular expressions
+	 * @return compiled patterns, in the same order
+	 */
+	public static List<Pattern> getCompiledPatterns(List<String> patterns) {
+		if (patterns instanceof CompiledPatternList) {
+			return ((CompiledPatternList)patterns).getPatterns();
+		}
+		return new CompiledPatternList(patterns).getPatterns();
+	}
+
 	public static String getParentUrl(String url) {
 		int lastIndex = url.lastIndexOf(FILE_SEPARATOR);
 		return url.substring(0, lastIndex);
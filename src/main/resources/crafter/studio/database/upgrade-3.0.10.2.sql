@@ -0,0 +1,88 @@
+CREATE TABLE IF NOT EXISTS activity_feed
+(
+  `id`            BIGINT(20)   NOT NULL AUTO_INCREMENT,
+  `site`          VARCHAR(50)  NOT NULL,
+  `user_id`       VARCHAR(255) NOT NULL,
+  `content_id`    TEXT         NOT NULL,
+  `activity_type` VARCHAR(255) NOT NULL,
+  `content_type`  VARCHAR(255) NOT NULL,
+  `internal_name` VARCHAR(255) NULL,
+  `browser_uri`   TEXT         NULL,
+  `summary`       TEXT         NOT NULL,
+  `modified_date` DATETIME     NOT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE `uq_af_site_user_content` (`site`, `user_id`, `content_id`(700)),
+  INDEX `activity_feed_site_user_date_idx` (`site`, `user_id`, `modified_date`),
+  INDEX `activity_feed_site_content_idx` (`site`, `content_id`(900))
+)
+  ENGINE = InnoDB
+  DEFAULT CHARSET = utf8
+  ROW_FORMAT = DYNAMIC ;
+
+CREATE TABLE IF NOT EXISTS published_item
+(
+  `id`             BIGINT(20)   NOT NULL AUTO_INCREMENT,
+  `site`           VARCHAR(50)  NOT NULL,
+  `path`           TEXT         NOT NULL,
+  `environment`    VARCHAR(20)  NOT NULL,
+  `commit_id`      VARCHAR(50)  NOT NULL,
+  `published_date` DATETIME     NOT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE `uq_pi_site_path_environment` (`site`, `path`(900), `environment`)
+)
+  ENGINE = InnoDB
+  DEFAULT CHARSET = utf8
+  ROW_FORMAT = DYNAMIC ;
+
+INSERT IGNORE INTO activity_feed (site, user_id, content_id, activity_type, content_type, summary, modified_date)
+  SELECT site_network, post_user_id, content_id, activity_type, content_type, summary, modified_date
+  FROM audit
+  WHERE summary_format = 'json' AND activity_type IN ('CREATED', 'DELETED', 'UPDATED', 'MOVED')
+  ORDER BY modified_date DESC ;
+
+CREATE TABLE IF NOT EXISTS deployment_history
+(
+  `id`              BIGINT(20)   NOT NULL AUTO_INCREMENT,
+  `site`            VARCHAR(50)  NOT NULL,
+  `environment`     VARCHAR(20)  NOT NULL,
+  `path`            TEXT         NOT NULL,
+  `commit_id`       VARCHAR(50)  NOT NULL,
+  `username`        VARCHAR(255) NOT NULL,
+  `deployment_date` DATETIME     NOT NULL,
+  PRIMARY KEY (`id`),
+  KEY `deployment_history_site_date_idx` (`site`, `deployment_date`)
+)
+  ENGINE = InnoDB
+  DEFAULT CHARSET = utf8
+  ROW_FORMAT = DYNAMIC ;
+
+DROP TABLE IF EXISTS deployment_history ;
+
+CREATE TABLE IF NOT EXISTS deployment_history
+(
+  `id`              BIGINT(20)   NOT NULL AUTO_INCREMENT,
+  `site`            VARCHAR(50)  NOT NULL,
+  `environment`     VARCHAR(20)  NOT NULL,
+  `path`            TEXT         NOT NULL,
+  `commit_id`       VARCHAR(50)  NOT NULL,
+  `username`        VARCHAR(255) NOT NULL,
+  `deployment_date` DATETIME     NOT NULL,
+  PRIMARY KEY (`id`),
+  KEY `deployment_history_site_date_idx` (`site`, `deployment_date`),
+  UNIQUE `uq_dh_site_environment_commit_path` (`site`, `environment`, `commit_id`, `path`(900))
+)
+  ENGINE = InnoDB
+  DEFAULT CHARSET = utf8
+  ROW_FORMAT = DYNAMIC ;
+
+CREATE TABLE IF NOT EXISTS deployment_index_site
+(
+  `site`         VARCHAR(50) NOT NULL,
+  `indexed_date` DATETIME    NOT NULL,
+  PRIMARY KEY (`site`)
+)
+  ENGINE = InnoDB
+  DEFAULT CHARSET = utf8
+  ROW_FORMAT = DYNAMIC ;
+
+UPDATE _meta SET version = '3.0.10.5' ;
\ No newline at end of file
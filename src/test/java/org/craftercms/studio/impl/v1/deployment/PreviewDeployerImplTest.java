@@ -0,0 +1,172 @@
+package org.craftercms.studio.impl.v1.deployment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.craftercms.studio.api.v1.ebus.PreviewEventContext;
+import org.craftercms.studio.api.v1.service.event.EventService;
+import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.PREVIEW_DEFAULT_PREVIEW_DEPLOYER_URL;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.PREVIEW_SYNC_MAX_DELAY;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.PREVIEW_SYNC_POOL_SIZE;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.PREVIEW_SYNC_QUIET_PERIOD;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+public class PreviewDeployerImplTest {
+
+    private static final String SITE = "site1";
+    private static final long QUIET_PERIOD = 200;
+    private static final long MAX_DELAY = 800;
+
+    private HttpServer server;
+    private StudioConfiguration studioConfiguration;
+    private PreviewDeployerImpl previewDeployer;
+
+    private final List<Long> calls = new CopyOnWriteArrayList<Long>();
+    private final List<String> bodies = new CopyOnWriteArrayList<String>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile CountDownLatch entered;
+    private volatile CountDownLatch release;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        calls.clear();
+        bodies.clear();
+        inFlight.set(0);
+        maxInFlight.set(0);
+        entered = new CountDownLatch(1);
+        release = new CountDownLatch(0);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/1/target/deploy/preview/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        studioConfiguration = mock(StudioConfiguration.class);
+        when(studioConfiguration.getProperty(PREVIEW_DEFAULT_PREVIEW_DEPLOYER_URL)).thenReturn("http://localhost:" +
+                server.getAddress().getPort() + "/api/1/target/deploy/preview/{siteName}");
+        when(studioConfiguration.getProperty(PREVIEW_SYNC_QUIET_PERIOD)).thenReturn(Long.toString(QUIET_PERIOD));
+        when(studioConfiguration.getProperty(PREVIEW_SYNC_MAX_DELAY)).thenReturn(Long.toString(MAX_DELAY));
+        when(studioConfiguration.getProperty(PREVIEW_SYNC_POOL_SIZE)).thenReturn("2");
+
+        previewDeployer = new PreviewDeployerImpl();
+        previewDeployer.setStudioConfiguration(studioConfiguration);
+        previewDeployer.setEventService(mock(EventService.class));
+        previewDeployer.setBeanName("previewDeployer");
+        previewDeployer.init();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        release.countDown();
+        previewDeployer.destroy();
+        server.stop(0);
+    }
+
+    @Test
+    public void testRequestsWithinQuietPeriodAreCoalesced() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            previewDeployer.onPreviewSync(context(false));
+        }
+        assertTrue(calls.isEmpty());
+
+        awaitCalls(1);
+        Thread.sleep(QUIET_PERIOD * 3);
+        assertEquals(calls.size(), 1);
+    }
+
+    @Test
+    public void testSyncIsNotDelayedPastMaxDelay() throws Exception {
+        long start = System.currentTimeMillis();
+        // Keep requesting syncs faster than the quiet period for more than twice the max delay
+        while (System.currentTimeMillis() - start < MAX_DELAY * 2 + QUIET_PERIOD) {
+            previewDeployer.onPreviewSync(context(false));
+            Thread.sleep(QUIET_PERIOD / 4);
+        }
+
+        assertTrue(calls.size() >= 2, "Expected syncs while requests kept coming, got " + calls.size());
+        assertTrue(calls.get(0) - start < MAX_DELAY + QUIET_PERIOD,
+                "First sync sent after " + (calls.get(0) - start) + " ms");
+    }
+
+    @Test
+    public void testOnlyOneSyncInFlightPerSite() throws Exception {
+        release = new CountDownLatch(1);
+        previewDeployer.onPreviewSync(context(false));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        // Requests arriving while a sync is in flight wait for it, however long it takes
+        for (int i = 0; i < 3; i++) {
+            previewDeployer.onPreviewSync(context(false));
+        }
+        Thread.sleep(MAX_DELAY + QUIET_PERIOD);
+        assertEquals(calls.size(), 1);
+
+        release.countDown();
+        awaitCalls(2);
+        Thread.sleep(QUIET_PERIOD * 3);
+        assertEquals(calls.size(), 2);
+        assertEquals(maxInFlight.get(), 1);
+    }
+
+    @Test
+    public void testWaitTillDeploymentIsDoneSyncsRightAway() throws Exception {
+        previewDeployer.onPreviewSync(context(false));
+        previewDeployer.onPreviewSync(context(true));
+
+        // Sent before returning, and the pending sync is covered by it
+        assertEquals(calls.size(), 1);
+        assertTrue(bodies.get(0).contains("wait_till_done"));
+        Thread.sleep(QUIET_PERIOD * 3);
+        assertEquals(calls.size(), 1);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        try {
+            try (InputStream body = exchange.getRequestBody()) {
+                bodies.add(IOUtils.toString(body, "UTF-8"));
+            }
+            calls.add(System.currentTimeMillis());
+            entered.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            exchange.sendResponseHeaders(200, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private void awaitCalls(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (calls.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(calls.size() >= count, "Expected " + count + " syncs, got " + calls.size());
+    }
+
+    private PreviewEventContext context(boolean waitTillDeploymentIsDone) {
+        PreviewEventContext context = new PreviewEventContext(waitTillDeploymentIsDone);
+        context.setSite(SITE);
+        return context;
+    }
+}
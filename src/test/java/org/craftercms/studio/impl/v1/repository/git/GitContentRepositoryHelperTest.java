@@ -0,0 +1,216 @@
+package org.craftercms.studio.impl.v1.repository.git;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.craftercms.studio.api.v1.service.deployment.DeploymentException;
+import org.craftercms.studio.api.v1.service.security.SecurityProvider;
+import org.craftercms.studio.api.v1.to.DeploymentItemTO;
+import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+public class GitContentRepositoryHelperTest {
+
+    private static final String SITE = "test";
+    private static final String ENVIRONMENT = "live";
+    private static final PersonIdent AUTHOR = new PersonIdent("author", "author@example.com");
+
+    private File repoDir;
+    private Git git;
+    private Repository repo;
+    private GitContentRepositoryHelper helper;
+    private RevCommit environmentCommit;
+    private RevCommit publishedCommit;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        repoDir = Files.createTempDirectory("published").toFile();
+        git = Git.init().setDirectory(repoDir).call();
+        repo = git.getRepository();
+        helper = new GitContentRepositoryHelper(mock(StudioConfiguration.class), mock(SecurityProvider.class));
+
+        write("site/website/index.xml", "v1");
+        write("site/website/old/.keep", "");
+        write("site/website/old/page.xml", "old");
+        write("site/website/gone/.keep", "");
+        write("site/website/gone/page.xml", "gone");
+        write("static-assets/css/main.css", "css");
+        environmentCommit = commit("initial");
+        git.branchCreate().setName(ENVIRONMENT).call();
+
+        write("site/website/index.xml", "v2");
+        write("site/website/new.xml", "new");
+        write("site/website/moved/page.xml", "old");
+        git.rm().addFilepattern("site/website/old/page.xml").call();
+        git.rm().addFilepattern("site/website/gone/page.xml").call();
+        publishedCommit = commit("changes");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        git.close();
+        FileUtils.deleteQuietly(repoDir);
+    }
+
+    @Test
+    public void testCommitDeploymentItemsAppliesItemsToEnvironmentTree() throws Exception {
+        List<DeploymentItemTO> items = new ArrayList<DeploymentItemTO>();
+        items.add(item("/site/website/index.xml"));
+        items.add(item("/site/website/new.xml"));
+        DeploymentItemTO moved = item("/site/website/moved/page.xml");
+        moved.setMove(true);
+        moved.setOldPath("/site/website/old/page.xml");
+        items.add(moved);
+        DeploymentItemTO deleted = item("/site/website/gone/page.xml");
+        deleted.setDelete(true);
+        items.add(deleted);
+
+        RevCommit revCommit = helper.commitDeploymentItems(repo, SITE, ENVIRONMENT, items, AUTHOR, "publish");
+
+        assertEquals(repo.exactRef(Constants.R_HEADS + ENVIRONMENT).getObjectId(), revCommit.getId());
+        assertEquals(revCommit.getParentCount(), 1);
+        assertEquals(revCommit.getParent(0).getId(), environmentCommit.getId());
+        assertEquals(revCommit.getAuthorIdent().getName(), AUTHOR.getName());
+        assertEquals(revCommit.getFullMessage(), "publish");
+
+        assertEquals(read(revCommit, "site/website/index.xml"), "v2");
+        assertEquals(read(revCommit, "site/website/new.xml"), "new");
+        assertEquals(read(revCommit, "site/website/moved/page.xml"), "old");
+        assertEquals(read(revCommit, "static-assets/css/main.css"), "css");
+        assertNull(read(revCommit, "site/website/old/page.xml"));
+        assertNull(read(revCommit, "site/website/old/.keep"));
+        assertNull(read(revCommit, "site/website/gone/page.xml"));
+        assertNull(read(revCommit, "site/website/gone/.keep"));
+    }
+
+    @Test
+    public void testCommitDeploymentItemsKeepsEnvironmentVersionOfItemsNotDeployed() throws Exception {
+        List<DeploymentItemTO> items = new ArrayList<DeploymentItemTO>();
+        items.add(item("/site/website/new.xml"));
+
+        RevCommit revCommit = helper.commitDeploymentItems(repo, SITE, ENVIRONMENT, items, AUTHOR, "publish");
+
+        assertEquals(read(revCommit, "site/website/new.xml"), "new");
+        assertEquals(read(revCommit, "site/website/index.xml"), "v1");
+        assertEquals(read(revCommit, "site/website/old/page.xml"), "old");
+        assertEquals(read(revCommit, "site/website/gone/page.xml"), "gone");
+        assertNull(read(revCommit, "site/website/moved/page.xml"));
+    }
+
+    @Test
+    public void testCommitDeploymentItemsDoesNotTouchWorkingTree() throws Exception {
+        List<DeploymentItemTO> items = new ArrayList<DeploymentItemTO>();
+        items.add(item("/site/website/index.xml"));
+
+        helper.commitDeploymentItems(repo, SITE, ENVIRONMENT, items, AUTHOR, "publish");
+
+        assertEquals(repo.getBranch(), "master");
+        assertEquals(repo.resolve(Constants.HEAD), publishedCommit.getId());
+        assertTrue(git.status().call().isClean());
+    }
+
+    @Test
+    public void testCommitDeploymentItemsRemovesEmptyFoldersUpToFirstFolderWithContent() throws Exception {
+        write("site/components/a/.keep", "");
+        write("site/components/a/b/.keep", "");
+        write("site/components/a/b/c/.keep", "");
+        write("site/components/a/b/c/item.xml", "item");
+        write("site/components/other.xml", "other");
+        git.branchCreate().setName(ENVIRONMENT).setForce(true).setStartPoint(commit("components")).call();
+        git.rm().addFilepattern("site/components/a/b/c/item.xml").call();
+        publishedCommit = commit("delete");
+
+        List<DeploymentItemTO> items = new ArrayList<DeploymentItemTO>();
+        DeploymentItemTO deleted = item("/site/components/a/b/c/item.xml");
+        deleted.setDelete(true);
+        items.add(deleted);
+
+        RevCommit revCommit = helper.commitDeploymentItems(repo, SITE, ENVIRONMENT, items, AUTHOR, "publish");
+
+        assertNull(read(revCommit, "site/components/a"));
+        assertEquals(read(revCommit, "site/components/other.xml"), "other");
+        assertEquals(read(revCommit, "site/website/index.xml"), "v2");
+    }
+
+    @Test
+    public void testCommitDeploymentItemsReusesUntouchedTrees() throws Exception {
+        List<DeploymentItemTO> items = new ArrayList<DeploymentItemTO>();
+        items.add(item("/site/website/new.xml"));
+
+        RevCommit revCommit = helper.commitDeploymentItems(repo, SITE, ENVIRONMENT, items, AUTHOR, "publish");
+
+        assertEquals(treeId(revCommit, "static-assets"), treeId(environmentCommit, "static-assets"));
+        assertEquals(treeId(revCommit, "site/website/old"), treeId(environmentCommit, "site/website/old"));
+        assertNotEquals(treeId(revCommit, "site/website"), treeId(environmentCommit, "site/website"));
+    }
+
+    @Test(expectedExceptions = DeploymentException.class)
+    public void testCommitDeploymentItemsFailsWhenEnvironmentBranchMoved() throws Exception {
+        Ref staleRef = repo.exactRef(Constants.R_HEADS + ENVIRONMENT);
+        List<DeploymentItemTO> items = new ArrayList<DeploymentItemTO>();
+        items.add(item("/site/website/index.xml"));
+        helper.commitDeploymentItems(repo, SITE, ENVIRONMENT, items, AUTHOR, "publish");
+
+        // Another publisher moved the branch after this one read it
+        Repository staleRepo = spy(repo);
+        doReturn(staleRef).when(staleRepo).exactRef(Constants.R_HEADS + ENVIRONMENT);
+        try {
+            helper.commitDeploymentItems(staleRepo, SITE, ENVIRONMENT, items, AUTHOR, "publish");
+        } finally {
+            assertNotEquals(repo.exactRef(Constants.R_HEADS + ENVIRONMENT).getObjectId(), staleRef.getObjectId());
+        }
+    }
+
+    private DeploymentItemTO item(String path) {
+        DeploymentItemTO item = new DeploymentItemTO();
+        item.setSite(SITE);
+        item.setPath(path);
+        item.setCommitId(publishedCommit.getName());
+        return item;
+    }
+
+    private void write(String path, String content) throws Exception {
+        FileUtils.writeStringToFile(new File(repoDir, path), content, StandardCharsets.UTF_8);
+        git.add().addFilepattern(path).call();
+    }
+
+    private RevCommit commit(String message) throws Exception {
+        return git.commit().setMessage(message).setAuthor(AUTHOR).setCommitter(AUTHOR).call();
+    }
+
+    private ObjectId treeId(RevCommit commit, String path) throws Exception {
+        try (RevWalk rw = new RevWalk(repo);
+             TreeWalk tw = TreeWalk.forPath(repo, path, rw.parseCommit(commit).getTree())) {
+            return tw != null ? tw.getObjectId(0) : null;
+        }
+    }
+
+    private String read(RevCommit commit, String path) throws Exception {
+        try (RevWalk rw = new RevWalk(repo);
+             TreeWalk tw = TreeWalk.forPath(repo, path, rw.parseCommit(commit).getTree())) {
+            if (tw == null) {
+                return null;
+            }
+            ObjectId objectId = tw.getObjectId(0);
+            return new String(repo.open(objectId).getBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package org.craftercms.studio.impl.v1.service;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+import org.apache.ibatis.builder.xml.XMLConfigBuilder;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.craftercms.studio.api.v1.dal.ClusterLockMapper;
+import org.craftercms.studio.api.v1.dal.ItemStateMapper;
+import org.craftercms.studio.api.v1.exception.LockLostException;
+import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CLUSTER_LOCK_ENABLED;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CLUSTER_LOCK_LEASE_TIME;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CLUSTER_LOCK_RETRY_INTERVAL;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.*;
+
+/**
+ * Two lock service instances sharing the same lock table behave like two studio nodes. The lock table and the fenced
+ * item state statements run on an embedded MariaDB created with the studio database script, so the mapper SQL is
+ * tested as it runs in production.
+ */
+public class DbGeneralLockServiceImplTest {
+
+    private static final String ID = "site:/site/website/index.xml";
+    private static final String DRIVER = "org.mariadb.jdbc.Driver";
+
+    private DB db;
+    private PooledDataSource dataSource;
+    private ClusterLockMapper clusterLockMapper;
+    private ItemStateMapper itemStateMapper;
+
+    private DbGeneralLockServiceImpl node1;
+    private DbGeneralLockServiceImpl node2;
+    private ExecutorService executor;
+
+    @BeforeClass
+    public void startDatabase() throws Exception {
+        DBConfigurationBuilder dbConfiguration = DBConfigurationBuilder.newBuilder();
+        dbConfiguration.setPort(0);
+        db = DB.newEmbeddedDB(dbConfiguration.build());
+        db.start();
+        String url = "jdbc:mariadb://localhost:" + db.getConfiguration().getPort() + "/";
+
+        dataSource = new PooledDataSource(DRIVER, url, "root", "");
+        try (Connection connection = dataSource.getConnection();
+             Reader script = getResource("crafter/studio/database/createDDL.sql")) {
+            ScriptRunner scriptRunner = new ScriptRunner(connection);
+            scriptRunner.setDelimiter(" ;");
+            scriptRunner.setStopOnError(true);
+            scriptRunner.setLogWriter(null);
+            scriptRunner.runScript(script);
+        }
+        dataSource.forceCloseAll();
+        dataSource = new PooledDataSource(DRIVER, url + "crafter", "root", "");
+
+        Configuration configuration;
+        try (InputStream config = getClass().getClassLoader()
+                .getResourceAsStream("crafter/studio/database/mybatis-config.xml")) {
+            configuration = new XMLConfigBuilder(config).parse();
+        }
+        configuration.setEnvironment(new Environment("test", new JdbcTransactionFactory(), dataSource));
+        configuration.addMapper(ClusterLockMapper.class);
+        configuration.addMapper(ItemStateMapper.class);
+        // Every mapper call runs in its own transaction, committed right away
+        SqlSessionManager sqlSession = SqlSessionManager.newInstance(
+                new SqlSessionFactoryBuilder().build(configuration));
+        clusterLockMapper = sqlSession.getMapper(ClusterLockMapper.class);
+        itemStateMapper = sqlSession.getMapper(ItemStateMapper.class);
+    }
+
+    @AfterClass
+    public void stopDatabase() throws Exception {
+        if (dataSource != null) {
+            dataSource.forceCloseAll();
+        }
+        if (db != null) {
+            db.stop();
+        }
+    }
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        execute("DELETE FROM cluster_lock");
+        execute("DELETE FROM item_state");
+        StudioConfiguration studioConfiguration = mock(StudioConfiguration.class);
+        when(studioConfiguration.getProperty(CLUSTER_LOCK_ENABLED)).thenReturn("true");
+        when(studioConfiguration.getProperty(CLUSTER_LOCK_LEASE_TIME)).thenReturn("30");
+        when(studioConfiguration.getProperty(CLUSTER_LOCK_RETRY_INTERVAL)).thenReturn("10");
+        node1 = createNode(studioConfiguration);
+        node2 = createNode(studioConfiguration);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    private DbGeneralLockServiceImpl createNode(StudioConfiguration studioConfiguration) {
+        DbGeneralLockServiceImpl node = new DbGeneralLockServiceImpl();
+        node.setStudioConfiguration(studioConfiguration);
+        node.setClusterLockMapper(clusterLockMapper);
+        return node;
+    }
+
+    @Test
+    public void testLockIsExclusiveBetweenNodes() throws Exception {
+        node1.lock(ID);
+        long token1 = node1.getFencingToken(ID);
+
+        assertFalse(node2.tryLock(ID));
+        node1.unlock(ID);
+        assertTrue(node2.tryLock(ID));
+
+        assertTrue(node2.getFencingToken(ID) > token1);
+        node2.unlock(ID);
+        assertEquals(queryLong("SELECT COUNT(*) FROM cluster_lock"), 0);
+    }
+
+    @Test
+    public void testLockWaitsForOtherNode() throws Exception {
+        node1.lock(ID);
+        Future<?> waiter = executor.submit(() -> {
+            node2.lock(ID);
+            node2.unlock(ID);
+        });
+        try {
+            waiter.get(200, TimeUnit.MILLISECONDS);
+            fail("Second node must wait while the first one holds the lock");
+        } catch (TimeoutException e) {
+            // expected
+        }
+
+        node1.unlock(ID);
+        waiter.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testNestedLockDoesNotTakeNewLease() throws Exception {
+        node1.lock(ID);
+        long token = node1.getFencingToken(ID);
+        node1.lock(ID);
+        assertEquals(node1.getFencingToken(ID).longValue(), token);
+        assertEquals(queryLong("SELECT COUNT(*) FROM cluster_lock"), 1);
+
+        node1.unlock(ID);
+        assertEquals(queryLong("SELECT COUNT(*) FROM cluster_lock"), 1);
+        node1.unlock(ID);
+        assertEquals(queryLong("SELECT COUNT(*) FROM cluster_lock"), 0);
+    }
+
+    @Test
+    public void testInsertIgnoreKeepsCurrentLease() throws Exception {
+        Map<String, Object> first = lockParams("node1");
+        assertEquals(clusterLockMapper.insertLock(first), 1);
+        long fencingToken = ((Number) first.get("fencingToken")).longValue();
+        assertEquals(queryLong("SELECT fencing_token FROM cluster_lock WHERE owner = 'node1'"), fencingToken);
+
+        Map<String, Object> second = lockParams("node2");
+        assertEquals(clusterLockMapper.insertLock(second), 0);
+        assertEquals(queryLong("SELECT COUNT(*) FROM cluster_lock WHERE owner = 'node2'"), 0);
+
+        // A lease is only taken over once it expired
+        assertEquals(clusterLockMapper.deleteExpiredLock(second), 0);
+        expireLeases();
+        assertEquals(clusterLockMapper.deleteExpiredLock(second), 1);
+        assertEquals(clusterLockMapper.insertLock(second), 1);
+        assertTrue(((Number) second.get("fencingToken")).longValue() > fencingToken);
+    }
+
+    @Test
+    public void testRenewalKeepsLease() throws Exception {
+        node1.lock(ID);
+        expireLeases();
+        node1.renewLeases();
+
+        assertEquals(queryLong("SELECT COUNT(*) FROM cluster_lock WHERE expires_at > NOW(3)"), 1);
+        assertFalse(node2.tryLock(ID));
+        node1.checkLockHeld(ID);
+        assertTrue(node1.getFencingToken(ID) > 0);
+
+        // Leases are only renewed for their owner
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("owner", "node2");
+        params.put("leaseTime", 30);
+        params.put("fencingTokens", Collections.singletonList(node1.getFencingToken(ID)));
+        assertEquals(clusterLockMapper.renewLocks(params), 0);
+        node1.unlock(ID);
+    }
+
+    @Test
+    public void testLeaseLossIsSurfacedToHolder() throws Exception {
+        node1.lock(ID);
+        long token1 = node1.getFencingToken(ID);
+
+        // node1 stops renewing long enough for its lease to expire, and node2 takes the lock over
+        expireLeases();
+        assertTrue(executor.submit(() -> node2.tryLock(ID)).get(5, TimeUnit.SECONDS));
+        long token2 = executor.submit(() -> node2.getFencingToken(ID)).get(5, TimeUnit.SECONDS);
+        node1.renewLeases();
+
+        try {
+            node1.checkLockHeld(ID);
+            fail("Holder of a lost lease must be told it no longer holds the lock");
+        } catch (LockLostException e) {
+            assertEquals(e.getObjectId(), ID);
+        }
+        try {
+            node1.getFencingToken(ID);
+            fail("Holder of a lost lease must not get its fencing token");
+        } catch (LockLostException e) {
+            assertEquals(e.getObjectId(), ID);
+        }
+        // Fenced writes with the old token are rejected
+        assertEquals(itemStateMapper.insertEntryIfLockHeld(itemStateParams("NEW_UNPUBLISHED_UNLOCKED", token1)), 0);
+        assertEquals(itemStateMapper.insertEntryIfLockHeld(itemStateParams("NEW_UNPUBLISHED_UNLOCKED", token2)), 1);
+
+        // Releasing a lost lease leaves the new owner alone
+        node1.unlock(ID);
+        assertEquals(queryLong("SELECT COUNT(*) FROM cluster_lock"), 1);
+        executor.submit(() -> node2.unlock(ID)).get(5, TimeUnit.SECONDS);
+        assertEquals(queryLong("SELECT COUNT(*) FROM cluster_lock"), 0);
+    }
+
+    @Test
+    public void testItemStateWritesAreFencedByLease() throws Exception {
+        node1.lock(ID);
+        long fencingToken = node1.getFencingToken(ID);
+
+        Map<String, Object> params = itemStateParams("NEW_UNPUBLISHED_UNLOCKED", fencingToken);
+        assertEquals(itemStateMapper.insertEntryIfLockHeld(params), 1);
+        params.put("state", "NEW_UNPUBLISHED_LOCKED");
+        assertEquals(itemStateMapper.setObjectStateIfLockHeld(params), 1);
+        assertEquals(queryLong("SELECT COUNT(*) FROM item_state WHERE state = 'NEW_UNPUBLISHED_LOCKED'"), 1);
+
+        // An expired lease fences writes even before another node takes the lock over
+        expireLeases();
+        params.put("state", "EXISTING_EDITED_LOCKED");
+        assertEquals(itemStateMapper.setObjectStateIfLockHeld(params), 0);
+        assertEquals(queryLong("SELECT COUNT(*) FROM item_state WHERE state = 'NEW_UNPUBLISHED_LOCKED'"), 1);
+        Map<String, Object> other = itemStateParams("NEW_UNPUBLISHED_UNLOCKED", fencingToken);
+        other.put("objectId", "other");
+        other.put("path", "/site/website/other.xml");
+        assertEquals(itemStateMapper.insertEntryIfLockHeld(other), 0);
+        assertEquals(queryLong("SELECT COUNT(*) FROM item_state"), 1);
+        node1.unlock(ID);
+    }
+
+    @Test(expectedExceptions = LockLostException.class)
+    public void testFencingTokenRequiresLock() throws Exception {
+        node1.getFencingToken(ID);
+    }
+
+    private Map<String, Object> lockParams(String owner) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("lockId", "lock");
+        params.put("lockKey", ID);
+        params.put("owner", owner);
+        params.put("leaseTime", 30);
+        return params;
+    }
+
+    private Map<String, Object> itemStateParams(String state, long fencingToken) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("objectId", "index");
+        params.put("site", "site");
+        params.put("path", "/site/website/index.xml");
+        params.put("state", state);
+        params.put("systemProcessing", 0);
+        params.put("fencingToken", fencingToken);
+        return params;
+    }
+
+    private void expireLeases() throws SQLException {
+        execute("UPDATE cluster_lock SET expires_at = NOW(3) - INTERVAL 1 SECOND");
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    private Reader getResource(String path) {
+        return new InputStreamReader(getClass().getClassLoader().getResourceAsStream(path));
+    }
+}
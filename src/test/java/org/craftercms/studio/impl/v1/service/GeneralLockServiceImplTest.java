@@ -0,0 +1,105 @@
+package org.craftercms.studio.impl.v1.service;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class GeneralLockServiceImplTest {
+
+    private static final String ID = "site:/site/website/index.xml";
+
+    private GeneralLockServiceImpl lockService;
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        lockService = new GeneralLockServiceImpl();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLockIsRemovedWhenReleased() throws Exception {
+        lockService.lock(ID);
+        assertTrue(lockService.isHeldByCurrentThread(ID));
+        assertEquals(lockService.nodeLocks.get(ID).references, 1);
+
+        lockService.unlock(ID);
+        assertFalse(lockService.nodeLocks.containsKey(ID));
+    }
+
+    @Test
+    public void testReentrantLockKeepsOneReferencePerHold() throws Exception {
+        lockService.lock(ID);
+        assertTrue(lockService.tryLock(ID));
+        assertEquals(lockService.nodeLocks.get(ID).references, 2);
+
+        lockService.unlock(ID);
+        assertTrue(lockService.isHeldByCurrentThread(ID));
+        lockService.unlock(ID);
+        assertFalse(lockService.nodeLocks.containsKey(ID));
+    }
+
+    @Test
+    public void testFailedTryLockReleasesItsReference() throws Exception {
+        lockService.lock(ID);
+
+        assertFalse(executor.submit(() -> lockService.tryLock(ID)).get(5, TimeUnit.SECONDS));
+        assertEquals(lockService.nodeLocks.get(ID).references, 1);
+
+        lockService.unlock(ID);
+        assertFalse(lockService.nodeLocks.containsKey(ID));
+    }
+
+    @Test
+    public void testWaitingThreadKeepsLockRegistered() throws Exception {
+        lockService.lock(ID);
+        CountDownLatch acquired = new CountDownLatch(1);
+        Future<?> waiter = executor.submit(() -> {
+            lockService.lock(ID);
+            acquired.countDown();
+            lockService.unlock(ID);
+        });
+        // Wait until the other thread is blocked on the lock
+        long deadline = System.currentTimeMillis() + 5000;
+        while (lockService.nodeLocks.get(ID).references < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(lockService.nodeLocks.get(ID).references, 2);
+
+        lockService.unlock(ID);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        waiter.get(5, TimeUnit.SECONDS);
+        assertFalse(lockService.nodeLocks.containsKey(ID));
+    }
+
+    @Test
+    public void testUnlockByNonOwnerKeepsLock() throws Exception {
+        lockService.lock(ID);
+
+        Future<?> unlock = executor.submit(() -> lockService.unlock(ID));
+        try {
+            unlock.get(5, TimeUnit.SECONDS);
+            fail("Unlock by a thread not holding the lock must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalMonitorStateException);
+        }
+        assertTrue(lockService.isHeldByCurrentThread(ID));
+        assertEquals(lockService.nodeLocks.get(ID).references, 1);
+
+        lockService.unlock(ID);
+    }
+}
@@ -0,0 +1,96 @@
+package org.craftercms.studio.impl.v1.service.configuration;
+
+import java.util.List;
+
+import org.craftercms.studio.api.v1.repository.ContentRepository;
+import org.craftercms.studio.api.v1.service.content.ContentService;
+import org.craftercms.studio.api.v1.to.DmFolderConfigTO;
+import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.craftercms.studio.impl.v1.util.CompiledPatternList;
+import org.craftercms.studio.impl.v1.util.ContentUtils;
+import org.dom4j.DocumentHelper;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CONFIGURATION_SITE_CONFIG_BASE_PATH;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CONFIGURATION_SITE_GENERAL_CONFIG_FILE_NAME;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.*;
+
+public class ServicesConfigImplTest {
+
+    private static final String SITE = "site";
+    private static final String CONFIG_PATH = "/config/studio/site-config.xml";
+    private static final String SITE_CONFIG =
+            "<site-config><display-name>Site</display-name>" +
+            "<repository rootPrefix=\"/site\">" +
+            "<level-descriptor>crafter-level-descriptor.level.xml</level-descriptor>" +
+            "<folders><folder name=\"Pages\" path=\"/website\" read-direct-children=\"false\" attach-root-prefix=\"true\"/></folders>" +
+            "<patterns>" +
+            "<pattern-group name=\"page\"><pattern>/site/website/.*\\.xml</pattern><pattern>/site/(broken</pattern></pattern-group>" +
+            "<pattern-group name=\"component\"><pattern>/site/components/.*</pattern></pattern-group>" +
+            "</patterns>" +
+            "</repository></site-config>";
+
+    private ServicesConfigImpl servicesConfig;
+    private ContentService contentService;
+    private ContentRepository contentRepository;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        StudioConfiguration studioConfiguration = mock(StudioConfiguration.class);
+        when(studioConfiguration.getProperty(CONFIGURATION_SITE_CONFIG_BASE_PATH)).thenReturn("/config/studio");
+        when(studioConfiguration.getProperty(CONFIGURATION_SITE_GENERAL_CONFIG_FILE_NAME)).thenReturn("site-config.xml");
+        contentService = mock(ContentService.class);
+        when(contentService.getContentAsDocument(SITE, CONFIG_PATH)).thenReturn(DocumentHelper.parseText(SITE_CONFIG));
+        contentRepository = mock(ContentRepository.class);
+        when(contentRepository.getContentObjectId(SITE, CONFIG_PATH)).thenReturn("blob1");
+
+        servicesConfig = new ServicesConfigImpl();
+        servicesConfig.setStudioConfiguration(studioConfiguration);
+        servicesConfig.setContentService(contentService);
+        servicesConfig.setContentRepository(contentRepository);
+    }
+
+    @Test
+    public void testConfigurationParsedAgainOnlyWhenFileChanges() throws Exception {
+        servicesConfig.getPagePatterns(SITE);
+        servicesConfig.getComponentPatterns(SITE);
+        verify(contentService, times(1)).getContentAsDocument(SITE, CONFIG_PATH);
+
+        when(contentRepository.getContentObjectId(SITE, CONFIG_PATH)).thenReturn("blob2");
+        servicesConfig.getPagePatterns(SITE);
+        servicesConfig.getPagePatterns(SITE);
+        verify(contentService, times(2)).getContentAsDocument(SITE, CONFIG_PATH);
+    }
+
+    @Test
+    public void testPatternsAreCompiledOnceAndSkipInvalidOnes() throws Exception {
+        List<String> pagePatterns = servicesConfig.getPagePatterns(SITE);
+
+        assertTrue(pagePatterns instanceof CompiledPatternList);
+        assertEquals(pagePatterns.size(), 1);
+        assertSame(ContentUtils.getCompiledPatterns(pagePatterns), ContentUtils.getCompiledPatterns(servicesConfig.getPagePatterns(SITE)));
+        assertTrue(ContentUtils.matchesPatterns("/site/website/index.xml", pagePatterns));
+        assertFalse(ContentUtils.matchesPatterns("/site/components/header.xml", pagePatterns));
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testPatternsAreUnmodifiable() throws Exception {
+        servicesConfig.getComponentPatterns(SITE).add("/site/website/.*");
+    }
+
+    @Test
+    public void testFoldersAreCopies() throws Exception {
+        List<DmFolderConfigTO> folders = servicesConfig.getFolders(SITE);
+        folders.get(0).setPath("/changed");
+        folders.clear();
+
+        folders = servicesConfig.getFolders(SITE);
+        assertEquals(folders.size(), 1);
+        assertEquals(folders.get(0).getPath(), "/website");
+    }
+}
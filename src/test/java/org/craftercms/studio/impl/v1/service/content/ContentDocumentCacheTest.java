@@ -0,0 +1,57 @@
+package org.craftercms.studio.impl.v1.service.content;
+
+import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CONTENT_DOCUMENT_CACHE_MAX_ITEMS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.*;
+
+public class ContentDocumentCacheTest {
+
+    private ContentDocumentCache cache;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        StudioConfiguration studioConfiguration = mock(StudioConfiguration.class);
+        when(studioConfiguration.getProperty(CONTENT_DOCUMENT_CACHE_MAX_ITEMS)).thenReturn("2");
+        cache = new ContentDocumentCache();
+        cache.setStudioConfiguration(studioConfiguration);
+    }
+
+    @Test
+    public void testCachedDocumentsAreCopies() throws Exception {
+        Document document = DocumentHelper.parseText("<page><title>Home</title></page>");
+        cache.put("blob1", document);
+        document.getRootElement().element("title").setText("Changed by caller");
+
+        Document cached = cache.get("blob1");
+        assertEquals(cached.getRootElement().elementText("title"), "Home");
+        cached.getRootElement().element("title").setText("Changed again");
+
+        assertEquals(cache.get("blob1").getRootElement().elementText("title"), "Home");
+        assertNotSame(cache.get("blob1"), cache.get("blob1"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedDocumentIsEvicted() throws Exception {
+        cache.put("blob1", DocumentHelper.parseText("<page/>"));
+        cache.put("blob2", DocumentHelper.parseText("<page/>"));
+        cache.get("blob1");
+        cache.put("blob3", DocumentHelper.parseText("<page/>"));
+
+        assertNotNull(cache.get("blob1"));
+        assertNull(cache.get("blob2"));
+        assertNotNull(cache.get("blob3"));
+    }
+
+    @Test
+    public void testMissingDocument() throws Exception {
+        cache.put("blob1", null);
+        assertNull(cache.get("blob1"));
+    }
+}
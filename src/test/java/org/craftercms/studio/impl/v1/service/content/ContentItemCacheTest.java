@@ -0,0 +1,161 @@
+package org.craftercms.studio.impl.v1.service.content;
+
+import java.util.ArrayList;
+
+import org.craftercms.studio.api.v1.to.ContentItemTO;
+import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CONTENT_ITEM_CACHE_ENABLED;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CONTENT_ITEM_CACHE_MAX_ITEMS_PER_SITE;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.*;
+
+public class ContentItemCacheTest {
+
+    private static final String SITE = "site";
+    private static final String PATH = "/site/website/index.xml";
+    private static final String COMMIT_ID = "commit1";
+
+    private ContentItemCache cache;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        StudioConfiguration studioConfiguration = mock(StudioConfiguration.class);
+        when(studioConfiguration.getProperty(CONTENT_ITEM_CACHE_ENABLED)).thenReturn("true");
+        when(studioConfiguration.getProperty(CONTENT_ITEM_CACHE_MAX_ITEMS_PER_SITE)).thenReturn("10");
+        cache = new ContentItemCache();
+        cache.setStudioConfiguration(studioConfiguration);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testHitOnlyForSameCommit() throws Exception {
+        cache.put(SITE, PATH, 0, COMMIT_ID, cache.getVersion(SITE), createItem());
+
+        assertNotNull(cache.get(SITE, PATH, 0, COMMIT_ID));
+        assertNull(cache.get(SITE, PATH, 0, "commit2"));
+        assertNull(cache.get(SITE, PATH, 1, COMMIT_ID));
+    }
+
+    @Test
+    public void testItemBuiltDuringChangeIsNotCached() throws Exception {
+        long version = cache.getVersion(SITE);
+        cache.invalidate(SITE);
+        cache.put(SITE, PATH, 0, COMMIT_ID, version, createItem());
+
+        assertNull(cache.get(SITE, PATH, 0, COMMIT_ID));
+    }
+
+    @Test
+    public void testInvalidateInsideTransactionAgainAfterCompletion() throws Exception {
+        TransactionSynchronizationManager.initSynchronization();
+        cache.invalidate(SITE);
+        cache.invalidate(SITE);
+        assertEquals(TransactionSynchronizationManager.getSynchronizations().size(), 1);
+
+        // Another thread builds the item from the rows the transaction has not committed yet
+        cache.put(SITE, PATH, 0, COMMIT_ID, cache.getVersion(SITE), createItem());
+        assertNotNull(cache.get(SITE, PATH, 0, COMMIT_ID));
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+
+        assertNull(cache.get(SITE, PATH, 0, COMMIT_ID));
+        assertFalse(TransactionSynchronizationManager.hasResource(cache.getSiteItems(SITE)));
+    }
+
+    @Test
+    public void testInvalidatePathKeepsUnrelatedItems() throws Exception {
+        String page = "/site/website/about/index.xml";
+        String child = "/site/website/about/team/index.xml";
+        String sibling = "/site/website/contact/index.xml";
+        String component = "/site/components/header.xml";
+        for (String path : new String[] { PATH, page, child, sibling, component }) {
+            cache.put(SITE, path, 1, COMMIT_ID, cache.getVersion(SITE), createItem());
+        }
+
+        cache.invalidate(SITE, "/site/website/about/team");
+
+        // The item itself and every ancestor holding it as a child or depending on it for its folder state
+        assertNull(cache.get(SITE, child, 1, COMMIT_ID));
+        assertNull(cache.get(SITE, page, 1, COMMIT_ID));
+        assertNull(cache.get(SITE, PATH, 1, COMMIT_ID));
+        assertNotNull(cache.get(SITE, sibling, 1, COMMIT_ID));
+        assertNotNull(cache.get(SITE, component, 1, COMMIT_ID));
+    }
+
+    @Test
+    public void testInvalidateFolderIncludesItemsBelowIt() throws Exception {
+        String page = "/site/website/about/index.xml";
+        String child = "/site/website/about/team/index.xml";
+        String similar = "/site/website/about-us/index.xml";
+        for (String path : new String[] { page, child, similar }) {
+            cache.put(SITE, path, 0, COMMIT_ID, cache.getVersion(SITE), createItem());
+        }
+
+        cache.invalidateFolder(SITE, "/site/website/about");
+
+        assertNull(cache.get(SITE, page, 0, COMMIT_ID));
+        assertNull(cache.get(SITE, child, 0, COMMIT_ID));
+        assertNotNull(cache.get(SITE, similar, 0, COMMIT_ID));
+    }
+
+    @Test
+    public void testInvalidatePathsInsideTransactionAgainAfterCompletion() throws Exception {
+        String sibling = "/site/website/contact/index.xml";
+        TransactionSynchronizationManager.initSynchronization();
+        cache.invalidate(SITE, PATH);
+        cache.invalidate(SITE, "/site/website/about/index.xml");
+        assertEquals(TransactionSynchronizationManager.getSynchronizations().size(), 1);
+
+        cache.put(SITE, PATH, 0, COMMIT_ID, cache.getVersion(SITE), createItem());
+        cache.put(SITE, sibling, 0, COMMIT_ID, cache.getVersion(SITE), createItem());
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+
+        assertNull(cache.get(SITE, PATH, 0, COMMIT_ID));
+        assertNotNull(cache.get(SITE, sibling, 0, COMMIT_ID));
+    }
+
+    @Test
+    public void testReturnedItemsAreDeepCopies() throws Exception {
+        ContentItemTO item = createItem();
+        cache.put(SITE, PATH, 0, COMMIT_ID, cache.getVersion(SITE), item);
+        item.getComponents().clear();
+
+        ContentItemTO cached = cache.get(SITE, PATH, 0, COMMIT_ID);
+        assertEquals(cached.getComponents().size(), 1);
+        cached.getComponents().get(0).internalName = "changed";
+        cached.children.clear();
+
+        ContentItemTO again = cache.get(SITE, PATH, 0, COMMIT_ID);
+        assertEquals(again.getComponents().get(0).internalName, "component");
+        assertEquals(again.children.size(), 1);
+    }
+
+    private ContentItemTO createItem() {
+        ContentItemTO component = new ContentItemTO();
+        component.internalName = "component";
+        ContentItemTO item = new ContentItemTO();
+        item.uri = PATH;
+        item.setComponents(new ArrayList<ContentItemTO>());
+        item.getComponents().add(component);
+        item.children.add(new ContentItemTO(component));
+        return item;
+    }
+}
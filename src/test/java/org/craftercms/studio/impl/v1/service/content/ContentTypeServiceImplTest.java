@@ -0,0 +1,79 @@
+package org.craftercms.studio.impl.v1.service.content;
+
+import org.craftercms.studio.api.v1.repository.ContentRepository;
+import org.craftercms.studio.api.v1.service.configuration.ServicesConfig;
+import org.craftercms.studio.api.v1.service.content.ContentService;
+import org.craftercms.studio.api.v1.to.ContentItemTO;
+import org.craftercms.studio.api.v1.to.ContentTypeConfigTO;
+import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CONTENT_TYPE_CACHE_MAX_ITEMS_PER_SITE;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.*;
+
+public class ContentTypeServiceImplTest {
+
+    private static final String SITE = "site";
+    private static final String PATH = "/site/website/index.xml";
+    private static final String PAGE_TYPE = "/page/entry";
+    private static final String ARTICLE_TYPE = "/page/article";
+
+    private ContentTypeServiceImpl contentTypeService;
+    private ContentService contentService;
+    private ContentRepository contentRepository;
+    private ContentTypeConfigTO pageConfig;
+    private ContentTypeConfigTO articleConfig;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        StudioConfiguration studioConfiguration = mock(StudioConfiguration.class);
+        when(studioConfiguration.getProperty(CONTENT_TYPE_CACHE_MAX_ITEMS_PER_SITE)).thenReturn("10");
+        contentService = mock(ContentService.class);
+        ContentItemTO item = new ContentItemTO();
+        item.setContentType(PAGE_TYPE);
+        when(contentService.getContentItem(SITE, PATH, 0)).thenReturn(item);
+        contentRepository = mock(ContentRepository.class);
+        when(contentRepository.getContentObjectId(SITE, PATH)).thenReturn("blob1");
+        pageConfig = new ContentTypeConfigTO();
+        articleConfig = new ContentTypeConfigTO();
+        ServicesConfig servicesConfig = mock(ServicesConfig.class);
+        when(servicesConfig.getContentTypeConfig(SITE, PAGE_TYPE)).thenReturn(pageConfig);
+        when(servicesConfig.getContentTypeConfig(SITE, ARTICLE_TYPE)).thenReturn(articleConfig);
+
+        contentTypeService = new ContentTypeServiceImpl();
+        contentTypeService.setStudioConfiguration(studioConfiguration);
+        contentTypeService.setContentService(contentService);
+        contentTypeService.setContentRepository(contentRepository);
+        contentTypeService.setServicesConfig(servicesConfig);
+    }
+
+    @Test
+    public void testContentTypeReadAgainOnlyWhenContentChanges() throws Exception {
+        assertSame(contentTypeService.getContentTypeForContent(SITE, PATH), pageConfig);
+        assertSame(contentTypeService.getContentTypeForContent(SITE, PATH), pageConfig);
+        verify(contentService, times(1)).getContentItem(SITE, PATH, 0);
+
+        ContentItemTO item = new ContentItemTO();
+        item.setContentType(ARTICLE_TYPE);
+        when(contentService.getContentItem(SITE, PATH, 0)).thenReturn(item);
+        when(contentRepository.getContentObjectId(SITE, PATH)).thenReturn("blob2");
+
+        assertSame(contentTypeService.getContentTypeForContent(SITE, PATH), articleConfig);
+        assertSame(contentTypeService.getContentTypeForContent(SITE, PATH), articleConfig);
+        verify(contentService, times(2)).getContentItem(SITE, PATH, 0);
+    }
+
+    @Test
+    public void testContentTypeNotKeptForMissingContent() throws Exception {
+        when(contentRepository.getContentObjectId(SITE, PATH)).thenReturn(null);
+
+        contentTypeService.getContentTypeForContent(SITE, PATH);
+        contentTypeService.getContentTypeForContent(SITE, PATH);
+        verify(contentService, times(2)).getContentItem(SITE, PATH, 0);
+    }
+}
@@ -0,0 +1,89 @@
+package org.craftercms.studio.impl.v1.service.dependency;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.craftercms.studio.api.v1.dal.DependencyEntity;
+import org.craftercms.studio.api.v1.dal.DependencyMapper;
+import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.CLUSTER_LOCK_ENABLED;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.DEPENDENCIES_INDEX_ENABLED;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.DEPENDENCIES_INDEX_TIME_TO_LIVE;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+public class DependencyIndexTest {
+
+    private static final String SITE = "site";
+    private static final String PAGE = "/site/website/index.xml";
+    private static final String COMPONENT = "/site/components/header.xml";
+    private static final String IMAGE = "/static-assets/images/logo.png";
+
+    private DependencyIndex dependencyIndex;
+    private StudioConfiguration studioConfiguration;
+
+    @BeforeMethod
+    public void setUp() {
+        studioConfiguration = mock(StudioConfiguration.class);
+        when(studioConfiguration.getProperty(DEPENDENCIES_INDEX_ENABLED)).thenReturn("true");
+        when(studioConfiguration.getProperty(CLUSTER_LOCK_ENABLED)).thenReturn("false");
+        when(studioConfiguration.getProperty(DEPENDENCIES_INDEX_TIME_TO_LIVE)).thenReturn("0");
+        List<DependencyEntity> dependencies = new ArrayList<DependencyEntity>();
+        dependencies.add(dependency(PAGE, COMPONENT));
+        dependencies.add(dependency(COMPONENT, IMAGE));
+        DependencyMapper dependencyMapper = mock(DependencyMapper.class);
+        when(dependencyMapper.getDependenciesForSite(anyMap())).thenReturn(dependencies);
+
+        dependencyIndex = new DependencyIndex();
+        dependencyIndex.setStudioConfiguration(studioConfiguration);
+        dependencyIndex.dependencyMapper = dependencyMapper;
+    }
+
+    @Test
+    public void testIndexIsOffWhenClusterLockIsEnabled() {
+        assertTrue(dependencyIndex.isEnabled());
+
+        when(studioConfiguration.getProperty(CLUSTER_LOCK_ENABLED)).thenReturn("true");
+
+        assertFalse(dependencyIndex.isEnabled());
+    }
+
+    @Test
+    public void testPathsAreReleasedWhenNoDependencyUsesThem() {
+        assertEquals(dependencyIndex.getTargets(SITE, Collections.singletonList(PAGE)),
+                Collections.singleton(COMPONENT));
+        DependencyIndex.SiteDependencies siteDependencies = dependencyIndex.sites.get(SITE);
+        assertEquals(siteDependencies.paths.keySet(), set(PAGE, COMPONENT, IMAGE));
+
+        dependencyIndex.removePath(SITE, COMPONENT);
+
+        assertTrue(siteDependencies.paths.isEmpty());
+        assertTrue(dependencyIndex.getTargets(SITE, Collections.singletonList(PAGE)).isEmpty());
+
+        dependencyIndex.setTargets(SITE, PAGE, Collections.singletonList(IMAGE));
+        dependencyIndex.movePath(SITE, IMAGE, COMPONENT);
+
+        assertEquals(siteDependencies.paths.keySet(), set(PAGE, COMPONENT));
+        assertEquals(dependencyIndex.getSources(SITE, Collections.singletonList(COMPONENT)),
+                Collections.singleton(PAGE));
+    }
+
+    private DependencyEntity dependency(String source, String target) {
+        DependencyEntity dependency = new DependencyEntity();
+        dependency.setSite(SITE);
+        dependency.setSourcePath(source);
+        dependency.setTargetPath(target);
+        return dependency;
+    }
+
+    private static Set<String> set(String... paths) {
+        return new HashSet<String>(Arrays.asList(paths));
+    }
+}
@@ -0,0 +1,154 @@
+package org.craftercms.studio.impl.v1.service.event;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.craftercms.studio.api.v1.ebus.PreviewEventContext;
+import org.craftercms.studio.api.v1.util.StudioConfiguration;
+import org.springframework.context.ApplicationContext;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.EVENT_SERVICE_ASYNC_ENABLED;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.EVENT_SERVICE_ASYNC_POOL_SIZE;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.EVENT_SERVICE_ASYNC_QUEUE_CAPACITY;
+import static org.craftercms.studio.api.v1.util.StudioConfiguration.EVENT_SERVICE_COALESCED_EVENTS;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+public class EventServiceImplTest {
+
+    private static final String COALESCED_EVENT = "previewSync";
+    private static final String OTHER_EVENT = "other";
+    private static final String LISTENER = "listener";
+
+    private StudioConfiguration studioConfiguration;
+    private EventServiceImpl eventService;
+    private Listener listener;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        studioConfiguration = mock(StudioConfiguration.class);
+        when(studioConfiguration.getProperty(EVENT_SERVICE_COALESCED_EVENTS)).thenReturn(COALESCED_EVENT);
+        when(studioConfiguration.getProperty(EVENT_SERVICE_ASYNC_ENABLED)).thenReturn("true");
+        when(studioConfiguration.getProperty(EVENT_SERVICE_ASYNC_POOL_SIZE)).thenReturn("1");
+        when(studioConfiguration.getProperty(EVENT_SERVICE_ASYNC_QUEUE_CAPACITY)).thenReturn("10");
+
+        listener = new Listener();
+        ApplicationContext applicationContext = mock(ApplicationContext.class);
+        when(applicationContext.getBean(LISTENER)).thenReturn(listener);
+
+        eventService = new EventServiceImpl();
+        eventService.setStudioConfiguration(studioConfiguration);
+        eventService.setApplicationContext(applicationContext);
+        eventService.subscribe(COALESCED_EVENT, LISTENER, Listener.class.getMethod("onEvent", PreviewEventContext.class));
+        eventService.subscribe(OTHER_EVENT, LISTENER, Listener.class.getMethod("onEvent", PreviewEventContext.class));
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        listener.release.countDown();
+        eventService.destroy();
+    }
+
+    @Test
+    public void testPendingEventsForTheSameSiteAreCoalesced() throws Exception {
+        eventService.init();
+        eventService.publish(COALESCED_EVENT, context("site1"));
+        assertTrue(listener.started.await(5, TimeUnit.SECONDS));
+
+        // The first event is running, the next ones for the same site collapse into a single pending one
+        eventService.publish(COALESCED_EVENT, context("site1"));
+        eventService.publish(COALESCED_EVENT, context("site1"));
+        eventService.publish(COALESCED_EVENT, context("site1"));
+        eventService.publish(COALESCED_EVENT, context("site2"));
+        listener.release.countDown();
+        awaitListeners();
+
+        assertEquals(listener.sites.size(), 3);
+        assertEquals(countOf("site1"), 2);
+        assertEquals(countOf("site2"), 1);
+    }
+
+    @Test
+    public void testEventsNotConfiguredAsCoalescedAreAllDelivered() throws Exception {
+        eventService.init();
+        eventService.publish(OTHER_EVENT, context("site1"));
+        assertTrue(listener.started.await(5, TimeUnit.SECONDS));
+
+        eventService.publish(OTHER_EVENT, context("site1"));
+        eventService.publish(OTHER_EVENT, context("site1"));
+        listener.release.countDown();
+        awaitListeners();
+
+        assertEquals(countOf("site1"), 3);
+    }
+
+    @Test
+    public void testPublishDoesNotWaitForListeners() throws Exception {
+        eventService.init();
+        eventService.publish(COALESCED_EVENT, context("site1"));
+        assertTrue(listener.started.await(5, TimeUnit.SECONDS));
+
+        // Still blocked in the listener, publishing returned anyway
+        assertTrue(listener.sites.isEmpty());
+        assertNotEquals(listener.threads.get(0), Thread.currentThread().getName());
+        listener.release.countDown();
+        awaitListeners();
+
+        assertEquals(listener.sites.size(), 1);
+    }
+
+    @Test
+    public void testListenersRunOnPublisherThreadWhenAsyncIsDisabled() throws Exception {
+        when(studioConfiguration.getProperty(EVENT_SERVICE_ASYNC_ENABLED)).thenReturn("false");
+        eventService.init();
+        listener.release.countDown();
+
+        eventService.publish(COALESCED_EVENT, context("site1"));
+        eventService.publish(COALESCED_EVENT, context("site1"));
+
+        assertEquals(countOf("site1"), 2);
+        assertEquals(listener.threads.get(0), Thread.currentThread().getName());
+        assertNull(eventService.executor);
+    }
+
+    private void awaitListeners() throws InterruptedException {
+        eventService.destroy();
+        assertTrue(eventService.executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    private int countOf(String site) {
+        int count = 0;
+        for (String listenerSite : listener.sites) {
+            if (listenerSite.equals(site)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private PreviewEventContext context(String site) {
+        PreviewEventContext context = new PreviewEventContext();
+        context.setSite(site);
+        return context;
+    }
+
+    public static class Listener {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> sites = new CopyOnWriteArrayList<String>();
+        final List<String> threads = new CopyOnWriteArrayList<String>();
+
+        public void onEvent(PreviewEventContext context) throws InterruptedException {
+            threads.add(Thread.currentThread().getName());
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            sites.add(context.getSite());
+        }
+    }
+}